@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb.benchmarks
+
+import griffon.transform.JcouchdbDocument
+
+/**
+ * The properties of {@link BenchmarkDocument}, with the codec generated by {@code @JcouchdbDocument}.
+ *
+ * @author Andres Almiray
+ */
+@JcouchdbDocument
+class GeneratedBenchmarkDocument {
+    String id
+    String revision
+    String name
+    int age
+    Date created
+    Date modified
+    List<String> tags = []
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb.benchmarks;
+
+import griffon.plugins.jcouchdb.AttachmentStore;
+import griffon.plugins.jcouchdb.DatabaseCallback;
+import griffon.plugins.jcouchdb.DatabaseHandler;
+import org.jcouchdb.db.Database;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to read a large attachment as a byte array compared to streaming it with {@code AttachmentStore}. Run with
+ * {@code -prof gc} to compare the allocation rates.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AttachmentBenchmark {
+    private static final String DOC_ID = "attachment";
+    private static final String ATTACHMENT_ID = "scan.bin";
+    private static final int SIZE = 8 * 1024 * 1024;
+
+    private Database database;
+    private AttachmentStore attachmentStore;
+    private final OutputStream sink = new OutputStream() {
+        @Override
+        public void write(int b) {
+            // discarded
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            // discarded
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setup(JcouchdbApplicationState state) {
+        DatabaseHandler databaseHandler = state.getInstance(DatabaseHandler.class);
+        database = databaseHandler.withJcouchdb(new DatabaseCallback<Database>() {
+            @Override
+            public Database handle(@Nonnull String databaseName, @Nonnull Database database) {
+                return database;
+            }
+        });
+        attachmentStore = databaseHandler.getAttachmentStore();
+
+        byte[] content = new byte[SIZE];
+        new Random(42).nextBytes(content);
+        attachmentStore.upload(DOC_ID, null, ATTACHMENT_ID, "application/octet-stream", new ByteArrayInputStream(content), -1);
+    }
+
+    @Benchmark
+    public int byteArray() {
+        return database.getAttachment(DOC_ID, ATTACHMENT_ID).length;
+    }
+
+    @Benchmark
+    public long stream() {
+        return attachmentStore.download(DOC_ID, ATTACHMENT_ID, sink);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb.benchmarks;
+
+import org.jcouchdb.document.BaseDocument;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * @author Andres Almiray
+ */
+public class BenchmarkDocument extends BaseDocument {
+    public static final String ID = "benchmark";
+    public static final String JSON = "{\"_id\":\"benchmark\",\"_rev\":\"1-stub\",\"name\":\"Duke\",\"age\":22," +
+        "\"created\":\"2014/01/02 03:04:05 +0000\",\"modified\":\"2017/06/07 08:09:10 +0000\"," +
+        "\"tags\":[\"java\",\"griffon\",\"couchdb\"]}";
+
+    private String name;
+    private int age;
+    private Date created;
+    private Date modified;
+    private List<String> tags = new ArrayList<>();
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getAge() {
+        return age;
+    }
+
+    public void setAge(int age) {
+        this.age = age;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public void setCreated(Date created) {
+        this.created = created;
+    }
+
+    public Date getModified() {
+        return modified;
+    }
+
+    public void setModified(Date modified) {
+        this.modified = modified;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public void setTags(List<String> tags) {
+        this.tags = tags;
+    }
+}
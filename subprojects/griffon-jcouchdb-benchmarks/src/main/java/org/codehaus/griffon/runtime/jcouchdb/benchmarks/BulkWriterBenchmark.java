@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb.benchmarks;
+
+import griffon.plugins.jcouchdb.BulkWriter;
+import griffon.plugins.jcouchdb.DatabaseCallback;
+import griffon.plugins.jcouchdb.DatabaseHandler;
+import org.codehaus.griffon.runtime.jcouchdb.DefaultBulkWriter;
+import org.jcouchdb.db.Database;
+import org.jcouchdb.document.DocumentInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.annotation.Nonnull;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Documents saved per second with {@code BulkWriter} compared to one request per document.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkWriterBenchmark {
+    private static final int DOCUMENTS = 1000;
+
+    private Database database;
+
+    @State(Scope.Benchmark)
+    public static class Writer {
+        @Param({"50", "500"})
+        public int maxDocuments;
+
+        @Param({"1", "4"})
+        public int maxInFlight;
+
+        private BulkWriter bulkWriter;
+
+        @Setup(Level.Trial)
+        public void setup(JcouchdbApplicationState state) {
+            Map<String, Object> bulk = new LinkedHashMap<>();
+            bulk.put("max_documents", maxDocuments);
+            bulk.put("max_in_flight", maxInFlight);
+            bulk.put("flush_interval", 0);
+            Map<String, Object> config = new LinkedHashMap<>();
+            config.put("bulk", bulk);
+            bulkWriter = new DefaultBulkWriter("default", database(state), config);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            bulkWriter.close();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup(JcouchdbApplicationState state) {
+        database = database(state);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public CompletableFuture<DocumentInfo> bulkWrite(Writer writer) {
+        CompletableFuture<DocumentInfo> last = null;
+        for (int i = 0; i < DOCUMENTS; i++) {
+            last = writer.bulkWriter.write(document(i));
+        }
+        writer.bulkWriter.flush();
+        return last;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public Map<String, Object> singleWrite() {
+        Map<String, Object> document = null;
+        for (int i = 0; i < DOCUMENTS; i++) {
+            document = document(i);
+            database.createDocument(document);
+        }
+        return document;
+    }
+
+    @Nonnull
+    private static Database database(@Nonnull JcouchdbApplicationState state) {
+        return state.getInstance(DatabaseHandler.class).withJcouchdb(new DatabaseCallback<Database>() {
+            @Override
+            public Database handle(@Nonnull String databaseName, @Nonnull Database database) {
+                return database;
+            }
+        });
+    }
+
+    @Nonnull
+    private static Map<String, Object> document(int index) {
+        Map<String, Object> document = new HashMap<>();
+        document.put("name", "document-" + index);
+        document.put("index", index);
+        document.put("tags", new String[]{"bulk", "benchmark"});
+        return document;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb.benchmarks;
+
+import griffon.plugins.jcouchdb.ConnectionPoolManager;
+import org.codehaus.griffon.runtime.jcouchdb.ClusterServer;
+import org.codehaus.griffon.runtime.jcouchdb.PooledServer;
+import org.codehaus.griffon.runtime.jcouchdb.testing.StubCouchDBServer;
+import org.jcouchdb.db.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Document read latency from a cluster of three {@code StubCouchDBServer} nodes, one of which is slow, compared to
+ * reading from the slow node alone.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClusterServerBenchmark {
+    private static final long SLOW_NODE_LATENCY = 20L;
+    private static final String URI = "/" + JcouchdbApplicationState.DATASTORE + "/" + BenchmarkDocument.ID;
+
+    private final List<StubCouchDBServer> stubs = new ArrayList<>();
+    private PooledServer slowNode;
+    private ClusterServer cluster;
+
+    @Setup(Level.Trial)
+    public void setup(JcouchdbApplicationState state) throws Exception {
+        ConnectionPoolManager connectionPoolManager = state.getInstance(ConnectionPoolManager.class);
+        List<PooledServer> nodes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            StubCouchDBServer stub = new StubCouchDBServer();
+            stub.start();
+            stub.putDocument(JcouchdbApplicationState.DATASTORE, BenchmarkDocument.ID, BenchmarkDocument.JSON);
+            stub.setLatency(i == 0 ? SLOW_NODE_LATENCY : 0L);
+            stubs.add(stub);
+            nodes.add((PooledServer) connectionPoolManager.createServer(stub.getHost(), stub.getPort()));
+        }
+        slowNode = nodes.get(0);
+
+        Map<String, Object> config = new HashMap<>();
+        config.put("cluster.hedge_delay", 5L);
+        cluster = new ClusterServer("benchmarks", nodes, config);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (cluster != null) {
+            cluster.shutDown();
+        }
+        for (StubCouchDBServer stub : stubs) {
+            stub.stop();
+        }
+    }
+
+    @Benchmark
+    public int cluster() {
+        return read(cluster);
+    }
+
+    @Benchmark
+    public int slowNode() {
+        return read(slowNode);
+    }
+
+    private static int read(PooledServer server) {
+        Response response = server.get(URI);
+        try {
+            return response.getCode();
+        } finally {
+            response.destroy();
+        }
+    }
+}
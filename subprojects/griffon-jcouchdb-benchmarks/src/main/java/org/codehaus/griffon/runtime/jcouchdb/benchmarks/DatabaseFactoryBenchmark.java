@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb.benchmarks;
+
+import griffon.plugins.jcouchdb.DatabaseFactory;
+import org.jcouchdb.db.Database;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a {@code DatabaseFactory.create}/{@code destroy} cycle, including events, bootstrap hooks
+ * and design document synchronization.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatabaseFactoryBenchmark {
+    private static final String DATABASE_NAME = "default";
+
+    private DatabaseFactory databaseFactory;
+
+    @Setup(Level.Trial)
+    public void setup(JcouchdbApplicationState state) {
+        databaseFactory = state.getInstance(DatabaseFactory.class);
+    }
+
+    @Benchmark
+    public Database createAndDestroy() {
+        Database database = databaseFactory.create(DATABASE_NAME);
+        databaseFactory.destroy(DATABASE_NAME, database);
+        return database;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb.benchmarks;
+
+import griffon.plugins.jcouchdb.DatabaseCallback;
+import griffon.plugins.jcouchdb.DatabaseHandler;
+import org.jcouchdb.db.Database;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@code DatabaseHandler.withJcouchdb} once the database has been created.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatabaseHandlerBenchmark {
+    private static final DatabaseCallback<String> NAME = new DatabaseCallback<String>() {
+        @Override
+        public String handle(@Nonnull String databaseName, @Nonnull Database database) {
+            return database.getName();
+        }
+    };
+
+    private static final DatabaseCallback<BenchmarkDocument> GET_DOCUMENT = new DatabaseCallback<BenchmarkDocument>() {
+        @Override
+        public BenchmarkDocument handle(@Nonnull String databaseName, @Nonnull Database database) {
+            return database.getDocument(BenchmarkDocument.class, BenchmarkDocument.ID);
+        }
+    };
+
+    private DatabaseHandler databaseHandler;
+
+    @Setup(Level.Trial)
+    public void setup(JcouchdbApplicationState state) {
+        databaseHandler = state.getInstance(DatabaseHandler.class);
+        databaseHandler.withJcouchdb(NAME);
+    }
+
+    @Benchmark
+    public String dispatch() {
+        return databaseHandler.withJcouchdb(NAME);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String dispatchContended() {
+        return databaseHandler.withJcouchdb(NAME);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public BenchmarkDocument getDocument() {
+        return databaseHandler.withJcouchdb(GET_DOCUMENT);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb.benchmarks;
+
+import net.sf.ezmorph.MorphUtils;
+import net.sf.ezmorph.MorpherRegistry;
+import net.sf.ezmorph.object.DateMorpher;
+import org.apache.commons.lang.time.DateFormatUtils;
+import org.codehaus.griffon.runtime.jcouchdb.JsonConverterUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@code JsonConverterUtils} with the ezmorph/commons-lang based codec it replaced.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateCodecBenchmark {
+    private static final MorpherRegistry LEGACY_MORPHER = new MorpherRegistry();
+
+    static {
+        MorphUtils.registerStandardMorphers(LEGACY_MORPHER);
+        LEGACY_MORPHER.registerMorpher(new DateMorpher(new String[]{
+            JsonConverterUtils.DATE_PATTERN,
+            "yyyy/MM/dd HH:mm:ss.S Z",
+            "yyyy/MM/dd HH:mm:ssZ",
+            "yyyy/MM/dd HH:mm:ss.SZ",
+            "yyyy/MM/dd HH:mm:ss.S z",
+            "yyyy/MM/dd HH:mm:ss z",
+            "EEE, dd MMM yyyy HH:mm:ssZ",
+            "EEE, dd MMM yyyy HH:mm:ss Z",
+            "EEE, dd MMM yyyy HH:mm:ss z"
+        }, true));
+    }
+
+    private final Date date = new Date(1388631845000L);
+
+    @State(Scope.Benchmark)
+    public static class Input {
+        @Param({"2014/01/02 03:04:05 +0000", "2014/01/02 03:04:05.123 GMT", "Thu, 02 Jan 2014 03:04:05 GMT"})
+        public String text;
+    }
+
+    @Benchmark
+    public Object parse(Input input) {
+        return JsonConverterUtils.fromJSON(Date.class, input.text);
+    }
+
+    @Benchmark
+    public Object parseLegacy(Input input) {
+        return LEGACY_MORPHER.morph(Date.class, input.text);
+    }
+
+    @Benchmark
+    public Object format() {
+        return JsonConverterUtils.toJSON(date);
+    }
+
+    @Benchmark
+    public Object formatLegacy() {
+        return DateFormatUtils.formatUTC(date, JsonConverterUtils.DATE_PATTERN);
+    }
+}
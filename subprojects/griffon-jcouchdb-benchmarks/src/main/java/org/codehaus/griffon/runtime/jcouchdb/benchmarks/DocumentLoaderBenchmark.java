@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb.benchmarks;
+
+import griffon.plugins.jcouchdb.DatabaseCallback;
+import griffon.plugins.jcouchdb.DatabaseHandler;
+import griffon.plugins.jcouchdb.DocumentLoader;
+import org.jcouchdb.db.Database;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Documents read per second with {@code DocumentLoader} compared to one request per document.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentLoaderBenchmark {
+    private static final int DOCUMENTS = 50;
+
+    private Database database;
+    private DocumentLoader documentLoader;
+
+    @Setup(Level.Trial)
+    public void setup(JcouchdbApplicationState state) {
+        DatabaseHandler databaseHandler = state.getInstance(DatabaseHandler.class);
+        database = databaseHandler.withJcouchdb(new DatabaseCallback<Database>() {
+            @Override
+            public Database handle(@Nonnull String databaseName, @Nonnull Database database) {
+                return database;
+            }
+        });
+        documentLoader = databaseHandler.getDocumentLoader();
+
+        for (int i = 0; i < DOCUMENTS; i++) {
+            Map<String, Object> document = new HashMap<>();
+            document.put("_id", id(i));
+            document.put("index", i);
+            database.createOrUpdateDocument(document);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public List<Map> loader() {
+        List<CompletableFuture<Map>> futures = new ArrayList<>(DOCUMENTS);
+        for (int i = 0; i < DOCUMENTS; i++) {
+            futures.add(documentLoader.get(id(i), Map.class));
+        }
+        List<Map> documents = new ArrayList<>(DOCUMENTS);
+        for (CompletableFuture<Map> future : futures) {
+            documents.add(future.join());
+        }
+        return documents;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public List<Map> singleGet() {
+        List<Map> documents = new ArrayList<>(DOCUMENTS);
+        for (int i = 0; i < DOCUMENTS; i++) {
+            documents.add(database.getDocument(Map.class, id(i)));
+        }
+        return documents;
+    }
+
+    @Nonnull
+    private static String id(int index) {
+        return "loader-" + index;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb.benchmarks;
+
+import griffon.plugins.jcouchdb.ConnectionPoolManager;
+import org.codehaus.griffon.runtime.jcouchdb.NioHttpTransport;
+import org.codehaus.griffon.runtime.jcouchdb.PooledServer;
+import org.codehaus.griffon.runtime.jcouchdb.testing.StubCouchDBServer;
+import org.jcouchdb.db.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Documents read per second by many concurrent requests against a {@code StubCouchDBServer} answering after a small
+ * delay, sent by a pool of threads blocking on the shared connection pool compared to the non-blocking transport.
+ * Both use the same number of connections.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpTransportBenchmark {
+    private static final int REQUESTS = 200;
+    private static final int CONNECTIONS = 10;
+    private static final long LATENCY = 2L;
+    private static final String URI = "/" + JcouchdbApplicationState.DATASTORE + "/" + BenchmarkDocument.ID;
+
+    private StubCouchDBServer stub;
+    private PooledServer pooledServer;
+    private PooledServer nioServer;
+    private NioHttpTransport transport;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setup(JcouchdbApplicationState state) throws Exception {
+        stub = new StubCouchDBServer();
+        stub.start();
+        stub.putDocument(JcouchdbApplicationState.DATASTORE, BenchmarkDocument.ID, BenchmarkDocument.JSON);
+        stub.setLatency(LATENCY);
+
+        // the connection pool allows 10 connections per route by default
+        ConnectionPoolManager connectionPoolManager = state.getInstance(ConnectionPoolManager.class);
+        pooledServer = (PooledServer) connectionPoolManager.createServer(stub.getHost(), stub.getPort());
+        executor = Executors.newFixedThreadPool(CONNECTIONS);
+
+        Map<String, Object> config = new HashMap<>();
+        config.put("max_connections", CONNECTIONS);
+        transport = new NioHttpTransport(stub.getHost(), stub.getPort(), config);
+        nioServer = (PooledServer) connectionPoolManager.createServer(stub.getHost(), stub.getPort());
+        nioServer.setHttpTransport(transport);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (transport != null) {
+            transport.shutdown();
+        }
+        if (stub != null) {
+            stub.stop();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public int pooled() throws InterruptedException, ExecutionException {
+        List<Future<Integer>> futures = new ArrayList<>(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            futures.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return read(pooledServer.get(URI));
+                }
+            }));
+        }
+        int sum = 0;
+        for (Future<Integer> future : futures) {
+            sum += future.get();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public int nio() {
+        List<CompletableFuture<Response>> futures = new ArrayList<>(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            futures.add(nioServer.getAsync(URI));
+        }
+        int sum = 0;
+        for (CompletableFuture<Response> future : futures) {
+            sum += read(future.join());
+        }
+        return sum;
+    }
+
+    private static int read(Response response) {
+        try {
+            return response.getContent().length;
+        } finally {
+            response.destroy();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb.benchmarks;
+
+import griffon.core.GriffonApplication;
+import griffon.core.injection.Module;
+import griffon.core.test.TestModuleOverrides;
+import griffon.util.AbstractMapResourceBundle;
+import org.codehaus.griffon.runtime.core.DefaultGriffonApplication;
+import org.codehaus.griffon.runtime.core.TestApplicationBootstrapper;
+import org.codehaus.griffon.runtime.core.injection.AbstractModule;
+import org.codehaus.griffon.runtime.jcouchdb.testing.StubCouchDBServer;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+
+import static griffon.util.AnnotationUtils.named;
+
+/**
+ * Boots a headless Griffon application whose default database points to a {@code StubCouchDBServer}.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+public class JcouchdbApplicationState {
+    public static final String DATASTORE = "benchmarks";
+
+    private StubCouchDBServer server;
+    private GriffonApplication application;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        System.setProperty("griffon.env", "test");
+        server = new StubCouchDBServer();
+        server.start();
+        server.putDocument(DATASTORE, BenchmarkDocument.ID, BenchmarkDocument.JSON);
+
+        application = new DefaultGriffonApplication(DefaultGriffonApplication.EMPTY_ARGS);
+        TestApplicationBootstrapper bootstrapper = new TestApplicationBootstrapper(application);
+        bootstrapper.setTestCase(this);
+        bootstrapper.bootstrap();
+        application.initialize();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (application != null) {
+            application.shutdown();
+        }
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Nonnull
+    public <T> T getInstance(@Nonnull Class<T> type) {
+        return application.getInjector().getInstance(type);
+    }
+
+    @Nonnull
+    @TestModuleOverrides
+    private List<Module> moduleOverrides() {
+        final String host = server.getHost();
+        final int port = server.getPort();
+        return Collections.<Module>singletonList(new AbstractModule() {
+            @Override
+            protected void doConfigure() {
+                bind(ResourceBundle.class)
+                    .withClassifier(named("jcouchdb"))
+                    .toInstance(new AbstractMapResourceBundle() {
+                        @Override
+                        protected void initialize(@Nonnull Map<String, Object> entries) {
+                            Map<String, Object> database = new LinkedHashMap<>();
+                            database.put("host", host);
+                            database.put("port", port);
+                            database.put("datastore", DATASTORE);
+                            entries.put("database", database);
+                        }
+                    });
+            }
+        });
+    }
+}
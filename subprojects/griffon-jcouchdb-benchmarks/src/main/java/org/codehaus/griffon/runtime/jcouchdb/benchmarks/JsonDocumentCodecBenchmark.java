@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb.benchmarks;
+
+import griffon.plugins.jcouchdb.DatabaseFactory;
+import griffon.plugins.jcouchdb.JsonConfigFactory;
+import org.codehaus.griffon.runtime.jcouchdb.JsonDocumentCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.svenson.JSON;
+import org.svenson.JSONConfig;
+import org.svenson.JSONParser;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same document (de)serialized by svenson's reflective bean mapping and by the {@code JsonDocument}
+ * codec {@code @JcouchdbDocument} generates, using the {@code JSONConfig} shared by the plugin's databases.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonDocumentCodecBenchmark {
+    private JSON generator;
+    private JSONParser parser;
+    private BenchmarkDocument reflectiveDocument;
+    private GeneratedBenchmarkDocument generatedDocument;
+
+    @Setup(Level.Trial)
+    public void setup(JcouchdbApplicationState state) {
+        DatabaseFactory databaseFactory = state.getInstance(DatabaseFactory.class);
+        JSONConfig jsonConfig = state.getInstance(JsonConfigFactory.class)
+            .getJsonConfig(databaseFactory.getConfigurationFor("default"));
+        generator = jsonConfig.getJsonGenerator();
+        parser = jsonConfig.getJsonParser();
+        reflectiveDocument = parser.parse(BenchmarkDocument.class, BenchmarkDocument.JSON);
+        generatedDocument = JsonDocumentCodec.parse(parser, GeneratedBenchmarkDocument.class, BenchmarkDocument.JSON);
+    }
+
+    @Benchmark
+    public BenchmarkDocument parseReflective() {
+        return parser.parse(BenchmarkDocument.class, BenchmarkDocument.JSON);
+    }
+
+    @Benchmark
+    public GeneratedBenchmarkDocument parseGenerated() {
+        return JsonDocumentCodec.parse(parser, GeneratedBenchmarkDocument.class, BenchmarkDocument.JSON);
+    }
+
+    @Benchmark
+    public String generateReflective() {
+        return generator.forValue(reflectiveDocument);
+    }
+
+    @Benchmark
+    public String generateGenerated() {
+        return generator.forValue(generatedDocument);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb.benchmarks;
+
+import griffon.plugins.jcouchdb.DatabaseFactory;
+import griffon.plugins.jcouchdb.JsonConfigFactory;
+import griffon.plugins.jcouchdb.JsonEngine;
+import griffon.plugins.jcouchdb.JsonEngineFactory;
+import griffon.plugins.jcouchdb.JsonViewReader;
+import org.jcouchdb.document.ValueRow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows of a large view response with documents read by each {@code JsonEngine}, from memory so that only parsing
+ * is measured. Documents are bound to {@code BenchmarkDocument} or left as maps. Run with {@code -prof gc} to
+ * compare allocation rates.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonEngineBenchmark {
+    @Param({"svenson", "jackson"})
+    public String engine;
+
+    @Param({"1000", "10000"})
+    public int rows;
+
+    private JsonEngine jsonEngine;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setup(JcouchdbApplicationState state) {
+        Map<String, Object> config = new LinkedHashMap<>(state.getInstance(DatabaseFactory.class).getConfigurationFor("default"));
+        config.put("json.engine", engine);
+        jsonEngine = state.getInstance(JsonEngineFactory.class)
+            .getJsonEngine(config, state.getInstance(JsonConfigFactory.class).getJsonConfig(config));
+
+        StringBuilder json = new StringBuilder("{\"total_rows\":").append(rows).append(",\"offset\":0,\"rows\":[");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            String id = "document-" + i;
+            json.append("{\"id\":\"").append(id).append("\",\"key\":[\"Duke\",").append(i)
+                .append("],\"value\":{\"rev\":\"1-stub\"},\"doc\":")
+                .append(BenchmarkDocument.JSON.replace(BenchmarkDocument.ID, id)).append('}');
+        }
+        payload = json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void readDocuments(Blackhole blackhole) throws IOException {
+        read(BenchmarkDocument.class, blackhole);
+    }
+
+    @Benchmark
+    public void readMaps(Blackhole blackhole) throws IOException {
+        read(Map.class, blackhole);
+    }
+
+    private void read(Class<?> documentClass, Blackhole blackhole) throws IOException {
+        JsonViewReader reader = jsonEngine.readView(new ByteArrayInputStream(payload), Map.class, documentClass);
+        for (ValueRow<?> row = reader.nextRow(); row != null; row = reader.nextRow()) {
+            blackhole.consume(row);
+        }
+    }
+}
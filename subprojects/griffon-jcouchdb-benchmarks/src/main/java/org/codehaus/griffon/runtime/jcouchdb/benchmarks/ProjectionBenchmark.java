@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb.benchmarks;
+
+import griffon.plugins.jcouchdb.BulkWriter;
+import griffon.plugins.jcouchdb.DatabaseHandler;
+import griffon.plugins.jcouchdb.ProjectedDocument;
+import griffon.plugins.jcouchdb.Projection;
+import griffon.plugins.jcouchdb.ViewIterator;
+import org.jcouchdb.db.Options;
+import org.jcouchdb.document.ValueAndDocumentRow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows read per second when walking {@code _all_docs} with large documents of which only three fields are used,
+ * decoding whole documents as maps compared to reading them with a {@code Projection}. Run with {@code -prof gc}
+ * to compare allocation rates.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProjectionBenchmark {
+    private static final int DOCUMENTS = 2000;
+    private static final Projection PROJECTION = Projection.of("name", "index", "address.city");
+
+    private DatabaseHandler databaseHandler;
+
+    @Setup(Level.Trial)
+    public void setup(JcouchdbApplicationState state) {
+        databaseHandler = state.getInstance(DatabaseHandler.class);
+        try (BulkWriter writer = databaseHandler.createBulkWriter()) {
+            for (int i = 0; i < DOCUMENTS; i++) {
+                writer.write(document(i));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public void readDocuments(Blackhole blackhole) {
+        try (ViewIterator<ValueAndDocumentRow<Map, Map>> iterator = databaseHandler.iterateViewAndDocuments("_all_docs", Map.class, Map.class, new Options())) {
+            while (iterator.hasNext()) {
+                Map<?, ?> document = iterator.next().getDocument();
+                blackhole.consume(document.get("name"));
+                blackhole.consume(document.get("index"));
+                blackhole.consume(((Map<?, ?>) document.get("address")).get("city"));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public void readProjectedDocuments(Blackhole blackhole) {
+        try (ViewIterator<ValueAndDocumentRow<Map, ProjectedDocument>> iterator = databaseHandler.iterateViewAndDocuments("_all_docs", Map.class, PROJECTION, new Options())) {
+            while (iterator.hasNext()) {
+                ProjectedDocument document = iterator.next().getDocument();
+                blackhole.consume(document.get("name", String.class));
+                blackhole.consume(document.get("index", Integer.class));
+                blackhole.consume(document.get("address.city", String.class));
+            }
+        }
+    }
+
+    private static Map<String, Object> document(int index) {
+        Map<String, Object> address = new LinkedHashMap<>();
+        address.put("street", "Main Street " + index);
+        address.put("city", "Zurich");
+        address.put("zip", "8000");
+
+        List<Object> history = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("revision", i);
+            entry.put("author", "author-" + i);
+            entry.put("comment", "Lorem ipsum dolor sit amet, consectetur adipiscing elit " + i);
+            entry.put("tags", new String[]{"alpha", "beta", "gamma"});
+            history.add(entry);
+        }
+
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("name", "document-" + index);
+        document.put("index", index);
+        document.put("address", address);
+        document.put("history", history);
+        return document;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb.benchmarks;
+
+import griffon.plugins.jcouchdb.BulkWriter;
+import griffon.plugins.jcouchdb.DatabaseCallback;
+import griffon.plugins.jcouchdb.DatabaseHandler;
+import griffon.plugins.jcouchdb.ViewIterator;
+import org.codehaus.griffon.runtime.jcouchdb.DefaultViewIterator;
+import org.codehaus.griffon.runtime.jcouchdb.SvensonJsonEngine;
+import org.jcouchdb.db.Database;
+import org.jcouchdb.db.Options;
+import org.jcouchdb.document.ValueAndDocumentRow;
+import org.jcouchdb.document.ViewAndDocumentsResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.annotation.Nonnull;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rows read per second when walking {@code _all_docs} with documents, page by page through {@code ViewIterator}
+ * compared to a single fully materialized query. Run with {@code -prof gc} to compare allocation rates.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ViewIterationBenchmark {
+    private static final int DOCUMENTS = 5000;
+
+    private Database database;
+
+    @State(Scope.Benchmark)
+    public static class Iteration {
+        @Param({"100", "1000"})
+        public int pageSize;
+
+        @Param({"false", "true"})
+        public boolean prefetch;
+
+        private Map<String, Object> config;
+        private ExecutorService executor;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            Map<String, Object> views = new LinkedHashMap<>();
+            views.put("page_size", pageSize);
+            views.put("prefetch", prefetch);
+            config = new LinkedHashMap<>();
+            config.put("views", views);
+            executor = Executors.newCachedThreadPool();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            executor.shutdownNow();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup(JcouchdbApplicationState state) {
+        DatabaseHandler databaseHandler = state.getInstance(DatabaseHandler.class);
+        database = databaseHandler.withJcouchdb(new DatabaseCallback<Database>() {
+            @Override
+            public Database handle(@Nonnull String databaseName, @Nonnull Database database) {
+                return database;
+            }
+        });
+
+        try (BulkWriter writer = databaseHandler.createBulkWriter()) {
+            for (int i = 0; i < DOCUMENTS; i++) {
+                Map<String, Object> document = new HashMap<>();
+                document.put("name", "document-" + i);
+                document.put("index", i);
+                writer.write(document);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public void iterateView(Iteration iteration, Blackhole blackhole) {
+        try (ViewIterator<ValueAndDocumentRow<Map, Map>> iterator = new DefaultViewIterator<>("default", database, "_all_docs",
+            new SvensonJsonEngine(database.getJsonConfig()), Map.class, Map.class, new Options().includeDocs(true), iteration.config, iteration.executor)) {
+            while (iterator.hasNext()) {
+                blackhole.consume(iterator.next());
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCUMENTS)
+    public ViewAndDocumentsResult<Map, Map> queryView() {
+        return database.query("_all_docs", Map.class, Map.class, null, null, null);
+    }
+}
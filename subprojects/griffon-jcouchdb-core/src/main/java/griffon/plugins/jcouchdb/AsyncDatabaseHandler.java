@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs {@code DatabaseCallback}s outside of the UI thread. The number of callbacks running at the same time against
+ * a database is bounded by its {@code async.max_concurrent} setting; further callbacks wait in line.
+ *
+ * @author Andres Almiray
+ */
+public interface AsyncDatabaseHandler {
+    // tag::methods[]
+    @Nonnull
+    <R> CompletableFuture<R> withJcouchdbAsync(@Nonnull DatabaseCallback<R> callback);
+
+    @Nonnull
+    <R> CompletableFuture<R> withJcouchdbAsync(@Nonnull String databaseName, @Nonnull DatabaseCallback<R> callback);
+
+    /**
+     * Executor that runs tasks inside the UI thread, suitable for the {@code *Async} methods of {@code CompletableFuture}.
+     */
+    @Nonnull
+    Executor getUIExecutor();
+    // end::methods[]
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/**
+ * Reads and writes attachments as streams, without holding their content in memory. Instances are thread safe.
+ *
+ * @author Andres Almiray
+ */
+public interface AttachmentStore {
+    @Nonnull
+    String getDatabaseName();
+
+    /**
+     * Uploads an attachment, creating the document if it does not exist.
+     *
+     * @param docId        the id of the document
+     * @param revision     the current revision of the document, {@code null} if it does not exist yet
+     * @param attachmentId the name of the attachment
+     * @param contentType  the content type of the attachment
+     * @param content      the content of the attachment, read until its end but left open
+     * @param length       the length of the content, {@code -1} if unknown; the content is then sent in chunks
+     * @return the new revision of the document
+     */
+    @Nonnull
+    String upload(@Nonnull String docId, @Nullable String revision, @Nonnull String attachmentId, @Nonnull String contentType, @Nonnull InputStream content, long length);
+
+    /**
+     * Uploads the contents of a file as an attachment, creating the document if it does not exist.
+     *
+     * @return the new revision of the document
+     */
+    @Nonnull
+    String upload(@Nonnull String docId, @Nullable String revision, @Nonnull String attachmentId, @Nonnull String contentType, @Nonnull Path file);
+
+    /**
+     * Opens a range of an attachment. The stream must be closed, it holds a pooled connection until then.
+     *
+     * @param docId        the id of the document
+     * @param attachmentId the name of the attachment
+     * @param offset       the position of the first byte to read
+     * @param length       the number of bytes to read, {@code -1} to read until the end of the attachment
+     * @return the requested bytes; empty when {@code offset} lies at or past the end of the attachment
+     */
+    @Nonnull
+    AttachmentStream open(@Nonnull String docId, @Nonnull String attachmentId, long offset, long length);
+
+    /**
+     * Copies an attachment into a stream, which is left open.
+     *
+     * @return the number of bytes copied
+     */
+    long download(@Nonnull String docId, @Nonnull String attachmentId, @Nonnull OutputStream target);
+
+    /**
+     * Downloads an attachment into a file, replacing its content.
+     *
+     * @return the number of bytes written to the file
+     */
+    long download(@Nonnull String docId, @Nonnull String attachmentId, @Nonnull Path file);
+
+    /**
+     * Downloads the attachment of a revision of the document into a file. An existing file is taken as the beginning
+     * of that attachment and only the rest is requested, resuming an interrupted download. The file is written again
+     * from the start when the server sends the whole attachment, or when the file is longer than the attachment.
+     *
+     * @param docId        the id of the document
+     * @param revision     the revision of the document the existing file was downloaded from
+     * @param attachmentId the name of the attachment
+     * @param file         the file to write
+     * @return the number of bytes written to the file
+     * @throws org.jcouchdb.exception.NotFoundException if the revision is no longer available, e.g. after compaction
+     */
+    long download(@Nonnull String docId, @Nonnull String revision, @Nonnull String attachmentId, @Nonnull Path file);
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Content of an attachment, or of a range of it, read straight from its HTTP response.
+ *
+ * @author Andres Almiray
+ */
+public final class AttachmentStream extends FilterInputStream {
+    private final String contentType;
+    private final long offset;
+    private final long length;
+    private final long totalLength;
+    private final Closeable onClose;
+
+    public AttachmentStream(@Nonnull InputStream in, @Nullable String contentType, long offset, long length, long totalLength, @Nonnull Closeable onClose) {
+        super(requireNonNull(in, "Argument 'in' must not be null"));
+        this.contentType = contentType;
+        this.offset = offset;
+        this.length = length;
+        this.totalLength = totalLength;
+        this.onClose = requireNonNull(onClose, "Argument 'onClose' must not be null");
+    }
+
+    @Nullable
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the position of the first byte of this stream within the attachment
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the number of bytes in this stream, {@code -1} if unknown
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return the length of the whole attachment, {@code -1} if unknown
+     */
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+        onClose.close();
+    }
+}
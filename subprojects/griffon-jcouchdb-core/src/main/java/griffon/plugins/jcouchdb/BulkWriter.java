@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import org.jcouchdb.document.DocumentInfo;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Buffers documents and saves them in batches through {@code _bulk_docs}.
+ * Instances are thread safe and must be closed once no longer needed.
+ *
+ * @author Andres Almiray
+ */
+public interface BulkWriter extends Closeable {
+    @Nonnull
+    String getDatabaseName();
+
+    /**
+     * Queues a document for saving. The document's id and revision are updated once its batch has been saved.
+     *
+     * @param document the document to save
+     * @return the outcome of the save; conflicts and validation failures are reported via {@code DocumentInfo.getError()}
+     * whereas failures of the whole batch complete the future exceptionally
+     */
+    @Nonnull
+    CompletableFuture<DocumentInfo> write(@Nonnull Object document);
+
+    /**
+     * Sends all buffered documents and waits until every batch in flight has been saved.
+     */
+    void flush();
+
+    /**
+     * Flushes pending documents and releases all resources. Further writes are rejected.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the last {@code _changes} sequence delivered for each database so that following resumes where it left off.
+ *
+ * @author Andres Almiray
+ */
+public interface ChangesCheckpointStore {
+    @Nullable
+    String load(@Nonnull String databaseName);
+
+    void store(@Nonnull String databaseName, @Nonnull String sequence);
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+
+/**
+ * @author Andres Almiray
+ */
+public interface ChangesFollowerManager {
+    /**
+     * Starts following the given database. Does nothing if it is being followed already.
+     */
+    @Nonnull
+    ChangesFollower start(@Nonnull String databaseName);
+
+    void stop(@Nonnull String databaseName);
+
+    void stopAll();
+
+    @Nullable
+    ChangesFollower getFollower(@Nonnull String databaseName);
+
+    @Nonnull
+    Collection<ChangesFollower> getFollowers();
+}
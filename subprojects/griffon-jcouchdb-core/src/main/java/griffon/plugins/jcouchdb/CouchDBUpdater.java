@@ -18,6 +18,7 @@ package griffon.plugins.jcouchdb;
 import org.jcouchdb.db.Database;
 import org.jcouchdb.document.DesignDocument;
 
+import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.util.List;
 
@@ -30,4 +31,14 @@ public interface CouchDBUpdater {
     void setCreateDatabase(boolean createDatabase);
 
     List<DesignDocument> updateDesignDocuments() throws IOException;
+
+    /**
+     * Creates the database if needed and uploads the design documents found in the classpath under
+     * {@code resourcePath} that are missing or have changed on the server. Each database is synced at most once
+     * per process. Unlike {@link #updateDesignDocuments()} this method may be called concurrently.
+     *
+     * @return the design documents uploaded by this call, empty if none changed or the database was already synced
+     */
+    @Nonnull
+    List<DesignDocument> updateDesignDocuments(@Nonnull Database database, @Nonnull String resourcePath) throws IOException;
 }
@@ -15,6 +15,10 @@
  */
 package griffon.plugins.jcouchdb;
 
+import org.jcouchdb.db.Options;
+import org.jcouchdb.document.ValueAndDocumentRow;
+import org.jcouchdb.document.ValueRow;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -32,5 +36,41 @@ public interface DatabaseHandler {
     void closeJcouchdb();
 
     void closeJcouchdb(@Nonnull String databaseName);
+
+    @Nonnull
+    BulkWriter createBulkWriter();
+
+    @Nonnull
+    BulkWriter createBulkWriter(@Nonnull String databaseName);
+
+    @Nonnull
+    DocumentLoader getDocumentLoader();
+
+    @Nonnull
+    DocumentLoader getDocumentLoader(@Nonnull String databaseName);
+
+    @Nonnull
+    AttachmentStore getAttachmentStore();
+
+    @Nonnull
+    AttachmentStore getAttachmentStore(@Nonnull String databaseName);
+
+    @Nonnull
+    <V> ViewIterator<ValueRow<V>> iterateView(@Nonnull String viewName, @Nonnull Class<V> valueClass, @Nullable Options options);
+
+    @Nonnull
+    <V> ViewIterator<ValueRow<V>> iterateView(@Nonnull String databaseName, @Nonnull String viewName, @Nonnull Class<V> valueClass, @Nullable Options options);
+
+    @Nonnull
+    <V, D> ViewIterator<ValueAndDocumentRow<V, D>> iterateViewAndDocuments(@Nonnull String viewName, @Nonnull Class<V> valueClass, @Nonnull Class<D> documentClass, @Nullable Options options);
+
+    @Nonnull
+    <V, D> ViewIterator<ValueAndDocumentRow<V, D>> iterateViewAndDocuments(@Nonnull String databaseName, @Nonnull String viewName, @Nonnull Class<V> valueClass, @Nonnull Class<D> documentClass, @Nullable Options options);
+
+    @Nonnull
+    <V> ViewIterator<ValueAndDocumentRow<V, ProjectedDocument>> iterateViewAndDocuments(@Nonnull String viewName, @Nonnull Class<V> valueClass, @Nonnull Projection projection, @Nullable Options options);
+
+    @Nonnull
+    <V> ViewIterator<ValueAndDocumentRow<V, ProjectedDocument>> iterateViewAndDocuments(@Nonnull String databaseName, @Nonnull String viewName, @Nonnull Class<V> valueClass, @Nonnull Projection projection, @Nullable Options options);
     // end::methods[]
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Usage statistics of a database, collected since the application started or since the last {@link #reset()}.
+ * Times are reported in nanoseconds.
+ *
+ * @author Andres Almiray
+ */
+public interface DatabaseMetrics {
+    @Nonnull
+    String getDatabaseName();
+
+    /**
+     * Number of completed {@code withJcouchdb} calls, including failed ones.
+     */
+    long getInvocationCount();
+
+    long getErrorCount();
+
+    long getInFlightCount();
+
+    /**
+     * Returns the latency below which the given fraction ({@code 0.0} to {@code 1.0}) of {@code withJcouchdb}
+     * calls completed. Values are accurate to within 1/8th of their magnitude.
+     */
+    long getLatencyPercentile(double fraction);
+
+    long getMeanLatency();
+
+    long getMaxLatency();
+
+    long getCreateCount();
+
+    long getLastCreateTime();
+
+    long getMaxCreateTime();
+
+    long getDestroyCount();
+
+    long getLastDestroyTime();
+
+    /**
+     * Number of HTTP entity bytes sent to the server, as they went over the wire.
+     */
+    long getBytesSent();
+
+    /**
+     * Number of HTTP entity bytes received from the server, as they came over the wire.
+     */
+    long getBytesReceived();
+
+    /**
+     * Number of HTTP entity bytes sent to the server before compression. Equals {@link #getBytesSent()} unless
+     * request bodies are compressed.
+     */
+    long getUncompressedBytesSent();
+
+    /**
+     * Number of HTTP entity bytes received from the server after decompression. Equals {@link #getBytesReceived()}
+     * unless responses are compressed.
+     */
+    long getUncompressedBytesReceived();
+
+    void reset();
+}
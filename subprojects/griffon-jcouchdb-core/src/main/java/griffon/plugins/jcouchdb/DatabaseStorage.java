@@ -18,8 +18,33 @@ package griffon.plugins.jcouchdb;
 import griffon.core.storage.ObjectStorage;
 import org.jcouchdb.db.Database;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
 /**
  * @author Andres Almiray
  */
 public interface DatabaseStorage extends ObjectStorage<Database> {
+    /**
+     * Returns the database stored under {@code key} and marks it as in use until {@link #release(String, Database)}
+     * is called. Databases in use are never evicted.
+     *
+     * @return the stored database, {@code null} if there is none or it is being evicted
+     */
+    @Nullable
+    Database acquire(@Nonnull String key);
+
+    void release(@Nonnull String key, @Nonnull Database database);
+
+    int getInUseCount();
+
+    /**
+     * @return the number of databases evicted for exceeding the idle timeout
+     */
+    long getIdleEvictionCount();
+
+    /**
+     * @return the number of databases evicted to keep the storage within its capacity
+     */
+    long getCapacityEvictionCount();
 }
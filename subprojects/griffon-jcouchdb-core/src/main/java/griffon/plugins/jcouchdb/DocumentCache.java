@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Documents read by id from a database, revalidated against the server with their {@code ETag}.
+ * Every read returns a new instance, parsed from the cached JSON.
+ *
+ * @author Andres Almiray
+ */
+public interface DocumentCache {
+    @Nonnull
+    String getDatabaseName();
+
+    int getMaxDocuments();
+
+    int getSize();
+
+    /**
+     * Number of reads answered with {@code 304 Not Modified}, served from the cache.
+     */
+    long getHitCount();
+
+    /**
+     * Number of reads of documents that were not cached.
+     */
+    long getMissCount();
+
+    /**
+     * Number of conditional reads sent for cached documents, whether they were modified or not.
+     */
+    long getRevalidationCount();
+
+    long getEvictionCount();
+
+    void invalidate(@Nonnull String documentId);
+
+    void clear();
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import javax.annotation.Nonnull;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A single row of a {@code _changes} feed.
+ *
+ * @author Andres Almiray
+ */
+public final class DocumentChange {
+    private final String sequence;
+    private final String id;
+    private final List<String> revisions;
+    private final boolean deleted;
+
+    public DocumentChange(@Nonnull String sequence, @Nonnull String id, @Nonnull List<String> revisions, boolean deleted) {
+        this.sequence = requireNonNull(sequence, "Argument 'sequence' must not be null");
+        this.id = requireNonNull(id, "Argument 'id' must not be null");
+        this.revisions = Collections.unmodifiableList(requireNonNull(revisions, "Argument 'revisions' must not be null"));
+        this.deleted = deleted;
+    }
+
+    @Nonnull
+    public String getSequence() {
+        return sequence;
+    }
+
+    @Nonnull
+    public String getId() {
+        return id;
+    }
+
+    @Nonnull
+    public List<String> getRevisions() {
+        return revisions;
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentChange[sequence=" + sequence + ", id=" + id + ", revisions=" + revisions + ", deleted=" + deleted + "]";
+    }
+}
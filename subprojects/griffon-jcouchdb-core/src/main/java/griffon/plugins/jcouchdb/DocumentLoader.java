@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Loads documents by id. Requests made within a short window are coalesced into a single {@code _all_docs}
+ * request. There is one instance per database, shared by every caller; instances are thread safe.
+ *
+ * @author Andres Almiray
+ */
+public interface DocumentLoader {
+    @Nonnull
+    String getDatabaseName();
+
+    /**
+     * Queues a document for loading. Callers asking for the same id and class in the same batch share a single
+     * document instance, treat it as read-only.
+     *
+     * @param docId         the id of the document
+     * @param documentClass the class the document is parsed into
+     * @return the document, or {@code null} if it does not exist or has been deleted; failures of the whole batch
+     * complete the future exceptionally
+     */
+    @Nonnull
+    <D> CompletableFuture<D> get(@Nonnull String docId, @Nonnull Class<D> documentClass);
+}
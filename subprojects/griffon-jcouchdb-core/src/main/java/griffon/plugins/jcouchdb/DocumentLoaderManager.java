@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import org.jcouchdb.db.Database;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * @author Andres Almiray
+ */
+public interface DocumentLoaderManager {
+    /**
+     * @param config the configuration of the database
+     */
+    @Nonnull
+    DocumentLoader createDocumentLoader(@Nonnull String databaseName, @Nonnull Database database, @Nonnull Map<String, Object> config);
+
+    /**
+     * Removes the loader of the given database. Requests already queued are still sent.
+     */
+    void removeDocumentLoader(@Nonnull String databaseName);
+
+    @Nullable
+    DocumentLoader getDocumentLoader(@Nonnull String databaseName);
+
+    @Nonnull
+    Collection<DocumentLoader> getDocumentLoaders();
+}
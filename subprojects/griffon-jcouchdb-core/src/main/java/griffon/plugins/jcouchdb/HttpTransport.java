@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import org.jcouchdb.db.Response;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Carries the HTTP requests of the databases set to use it, instead of the blocking {@code ConnectionPool}.
+ * Requests are asynchronous: the calling thread is released as soon as a request has been queued, and the returned
+ * future completes on a thread owned by the transport. Instances are thread safe and shared by every database
+ * talking to the same node.
+ *
+ * @author Andres Almiray
+ */
+public interface HttpTransport {
+    /**
+     * @return the name of this transport, as set with {@code transport}
+     */
+    @Nonnull
+    String getName();
+
+    /**
+     * @return the {@code host:port} this transport talks to
+     */
+    @Nonnull
+    String getAddress();
+
+    /**
+     * Queues a request. Cancelling the returned future aborts the request.
+     *
+     * @param method  the HTTP method
+     * @param uri     the path and query of the request
+     * @param headers additional request headers; {@code Host} and {@code Content-Length} are set by the transport
+     * @param body    the request body, if any
+     * @param stream  whether the future completes as soon as the response headers have arrived, the body being read
+     *                as it is consumed; otherwise the future completes once the whole response has been received
+     * @return the response; closing its stream before the end aborts the request
+     */
+    @Nonnull
+    CompletableFuture<Response> execute(@Nonnull String method, @Nonnull String uri, @Nonnull Map<String, String> headers, @Nullable byte[] body, boolean stream);
+
+    int getOpenConnections();
+
+    /**
+     * @return the number of requests queued or in flight
+     */
+    int getPendingRequests();
+
+    /**
+     * Closes every connection. Pending requests fail.
+     */
+    void shutdown();
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * @author Andres Almiray
+ */
+public interface HttpTransportFactory {
+    /**
+     * Returns the {@code HttpTransport} selected by the {@code transport} setting of the given database
+     * configuration.
+     *
+     * @param host   the host of a node of the database
+     * @param port   the port of a node of the database
+     * @param config the configuration of a database
+     * @return a transport, shared with other databases talking to the same node; {@code null} if requests go
+     * through the {@code ConnectionPool} of the node
+     */
+    @Nullable
+    HttpTransport getHttpTransport(@Nonnull String host, int port, @Nonnull Map<String, Object> config);
+
+    @Nonnull
+    Collection<HttpTransport> getHttpTransports();
+
+    void shutdown();
+}
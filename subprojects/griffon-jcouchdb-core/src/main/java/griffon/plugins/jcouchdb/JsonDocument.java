@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A document that (de)serializes itself without reflection. Implementations are usually generated at compile time
+ * by the {@code @JcouchdbDocument} AST transformation; the shared {@code JSON} generator writes them through
+ * {@link #writeJson(JsonDocumentWriter)} and the plugin decodes them through {@link #readJson(JsonDocumentReader)}.
+ * Implementations must provide a public no-args constructor.
+ *
+ * @author Andres Almiray
+ */
+public interface JsonDocument {
+    /**
+     * Writes every property of this document, in order.
+     *
+     * @param writer the writer of the current JSON object
+     */
+    void writeJson(@Nonnull JsonDocumentWriter writer);
+
+    /**
+     * Reads the properties present in the decoded JSON object. Properties missing from it keep their current value.
+     *
+     * @param reader the reader of the decoded JSON object
+     */
+    void readJson(@Nonnull JsonDocumentReader reader);
+}
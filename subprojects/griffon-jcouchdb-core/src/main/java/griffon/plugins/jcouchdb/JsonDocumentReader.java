@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+
+/**
+ * Reads the properties of a decoded JSON object into a {@link JsonDocument}.
+ *
+ * @author Andres Almiray
+ */
+public interface JsonDocumentReader {
+    /**
+     * @param name the JSON name of the property
+     * @return whether the decoded object contains the property, even if its value is {@code null}
+     */
+    boolean has(@Nonnull String name);
+
+    /**
+     * Reads a property converting it to the given type. Numbers are narrowed or widened as needed, dates are
+     * decoded with the plugin's date format, nested objects are decoded into {@code JsonDocument}s or beans.
+     *
+     * @param name the JSON name of the property
+     * @param type the type of the value, wrapper types must be used for primitives
+     * @return the converted value; {@code null} if the property is missing or null
+     */
+    @Nullable
+    <T> T read(@Nonnull String name, @Nonnull Class<T> type);
+
+    /**
+     * Reads an array property converting each of its elements to the given type.
+     *
+     * @param name           the JSON name of the property
+     * @param collectionType the type of the collection, {@code List}, {@code Set}, {@code SortedSet} or a concrete
+     *                       collection class with a no-args constructor
+     * @param elementType    the type of the elements
+     * @return the converted collection; {@code null} if the property is missing or null
+     */
+    @Nullable
+    <C extends Collection<?>> C readCollection(@Nonnull String name, @Nonnull Class<C> collectionType, @Nonnull Class<?> elementType);
+}
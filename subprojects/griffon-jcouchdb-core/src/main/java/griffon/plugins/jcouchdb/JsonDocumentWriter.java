@@ -0,0 +1,36 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Writes the properties of a {@link JsonDocument} into the JSON object being generated.
+ *
+ * @author Andres Almiray
+ */
+public interface JsonDocumentWriter {
+    /**
+     * Writes a single property. Values are generated by the shared {@code JSON} generator, registered type
+     * conversions (such as dates) apply.
+     *
+     * @param name         the JSON name of the property
+     * @param value        the value of the property
+     * @param ignoreIfNull whether {@code null} values are left out
+     */
+    void write(@Nonnull String name, @Nullable Object value, boolean ignoreIfNull);
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads and writes the JSON exchanged with a database by the plugin: documents read by id, view results, view
+ * iteration, bulk writes and the local replica. Requests jcouchdb issues on its own, such as single document writes
+ * and queries by keys, always use the database's {@code JSONConfig}. Instances are thread safe.
+ *
+ * @author Andres Almiray
+ */
+public interface JsonEngine {
+    /**
+     * @return the name of this engine, as set with {@code json.engine}
+     */
+    @Nonnull
+    String getName();
+
+    @Nonnull
+    String write(@Nullable Object value);
+
+    @Nullable
+    <T> T read(@Nonnull String json, @Nonnull Class<T> type);
+
+    /**
+     * Reads a single value from a stream. The stream is owned by the caller.
+     */
+    @Nullable
+    <T> T read(@Nonnull InputStream inputStream, @Nonnull Class<T> type) throws IOException;
+
+    /**
+     * Reads the response of a view one row at a time. The stream is owned by the caller.
+     *
+     * @param valueClass    the type of the value of each row
+     * @param documentClass the type of the document of each row; {@code null} if documents are not included
+     * @return a reader of {@code ValueRow}s, or of {@code ValueAndDocumentRow}s if {@code documentClass} is set
+     */
+    @Nonnull
+    JsonViewReader readView(@Nonnull InputStream inputStream, @Nonnull Class<?> valueClass, @Nullable Class<?> documentClass) throws IOException;
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import org.svenson.JSONConfig;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+
+/**
+ * @author Andres Almiray
+ */
+public interface JsonEngineFactory {
+    /**
+     * Returns the {@code JsonEngine} selected by the {@code json.engine} setting of the given database
+     * configuration.
+     *
+     * @param config     the configuration of a database
+     * @param jsonConfig the {@code JSONConfig} of the database, used by the {@code svenson} engine
+     * @return a {@code JsonEngine}, possibly shared with other databases
+     */
+    @Nonnull
+    JsonEngine getJsonEngine(@Nonnull Map<String, Object> config, @Nonnull JSONConfig jsonConfig);
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import org.jcouchdb.document.ValueRow;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Rows of a view response, read as they are requested.
+ *
+ * @author Andres Almiray
+ */
+public interface JsonViewReader {
+    /**
+     * @return the next row; {@code null} once all rows have been read
+     */
+    @Nullable
+    ValueRow<?> nextRow() throws IOException;
+
+    /**
+     * @return the {@code total_rows} of the response; {@code -1} if it has not been read yet
+     */
+    int getTotalRows();
+
+    /**
+     * @return the {@code offset} of the response; {@code -1} if it has not been read yet
+     */
+    int getOffset();
+}
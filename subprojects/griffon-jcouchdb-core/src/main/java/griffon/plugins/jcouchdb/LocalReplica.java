@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.file.Path;
+
+/**
+ * Local copy of a database kept in a memory-mapped file. Changes are pulled from the server in the background and
+ * documents read by id are served from the copy; writes are queued in the file and pushed to the server once it can
+ * be reached. {@code JcouchdbReplicaOnline} and {@code JcouchdbReplicaOffline} events are published whenever the
+ * server becomes reachable or unreachable.
+ *
+ * @author Andres Almiray
+ */
+public interface LocalReplica {
+    @Nonnull
+    String getDatabaseName();
+
+    @Nonnull
+    Path getFile();
+
+    /**
+     * @return whether the last exchange with the server succeeded
+     */
+    boolean isOnline();
+
+    /**
+     * @return whether every document of the database has been pulled at least once. Until then documents missing
+     * from the replica are read from the server.
+     */
+    boolean isComplete();
+
+    /**
+     * @return the sequence of the last change pulled from the server
+     */
+    @Nullable
+    String getLastSequence();
+
+    int getDocumentCount();
+
+    /**
+     * @return the number of local writes not yet pushed to the server
+     */
+    int getPendingWriteCount();
+
+    /**
+     * @return the number of bytes used in the replica file, including superseded records
+     */
+    long getSize();
+}
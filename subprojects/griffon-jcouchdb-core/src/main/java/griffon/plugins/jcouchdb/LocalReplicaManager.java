@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import org.jcouchdb.db.Database;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * @author Andres Almiray
+ */
+public interface LocalReplicaManager {
+    /**
+     * Opens the replica of the given database and starts synchronizing it. A replica still open for a previous
+     * instance of the database is closed first.
+     *
+     * @param config the configuration of the database
+     */
+    @Nonnull
+    LocalReplica createLocalReplica(@Nonnull String databaseName, @Nonnull Database database, @Nonnull Map<String, Object> config);
+
+    void removeLocalReplica(@Nonnull String databaseName);
+
+    @Nullable
+    LocalReplica getLocalReplica(@Nonnull String databaseName);
+
+    @Nonnull
+    Collection<LocalReplica> getLocalReplicas();
+}
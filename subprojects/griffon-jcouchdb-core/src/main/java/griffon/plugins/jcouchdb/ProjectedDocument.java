@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Map;
+
+/**
+ * A document read with a {@code Projection}. Only the selected fields are kept, as JSON text; each field is decoded
+ * the first time it is accessed. Paths follow the syntax of {@code Projection}; a path going through an array
+ * yields a list with one entry per element.
+ *
+ * @author Andres Almiray
+ */
+public interface ProjectedDocument {
+    /**
+     * @return the value of {@code _id}, which is always read
+     */
+    @Nullable
+    String getId();
+
+    /**
+     * @return the value of {@code _rev}, which is always read
+     */
+    @Nullable
+    String getRevision();
+
+    @Nonnull
+    Projection getProjection();
+
+    /**
+     * @param path a path selected by the projection
+     * @return whether the document has a field at {@code path}
+     * @throws IllegalArgumentException if {@code path} is not part of the projection
+     */
+    boolean has(@Nonnull String path);
+
+    /**
+     * Decodes the field at {@code path} as plain JSON types: maps, lists, strings, numbers and booleans.
+     *
+     * @param path a path selected by the projection
+     * @return the value of the field, {@code null} if the document has no such field
+     * @throws IllegalArgumentException if {@code path} is not part of the projection
+     */
+    @Nullable
+    Object get(@Nonnull String path);
+
+    /**
+     * Decodes the field at {@code path} as an instance of {@code type}. The value decoded last is kept.
+     *
+     * @param path a path selected by the projection
+     * @param type the type of the value
+     * @return the value of the field, {@code null} if the document has no such field
+     * @throws IllegalArgumentException if {@code path} is not part of the projection
+     */
+    @Nullable
+    <T> T get(@Nonnull String path, @Nonnull Class<T> type);
+
+    /**
+     * @return all fields read, decoded as plain JSON types
+     */
+    @Nonnull
+    Map<String, Object> toMap();
+}
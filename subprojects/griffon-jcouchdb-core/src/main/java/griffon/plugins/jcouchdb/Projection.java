@@ -0,0 +1,217 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The fields of a document a caller is interested in, named by paths such as {@code name} or {@code address.city}.
+ * A path naming an object or an array selects all of its content; a path going through an array applies to every
+ * element of the array. Fields outside of a projection are skipped while the document is parsed.
+ *
+ * @author Andres Almiray
+ */
+public final class Projection {
+    private static final Object COMPLETE = new Object();
+    private static final Projection[] NONE = new Projection[0];
+
+    private final String name;
+    private final Projection[] children;
+    private final boolean complete;
+    private final Set<String> paths;
+
+    private Projection(@Nullable String name, @Nonnull Projection[] children, boolean complete) {
+        this.name = name;
+        this.children = children;
+        this.complete = complete;
+
+        Set<String> collected = new LinkedHashSet<>();
+        for (Projection child : children) {
+            if (child.complete) {
+                collected.add(child.name);
+            } else {
+                for (String path : child.paths) {
+                    collected.add(child.name + "." + path);
+                }
+            }
+        }
+        this.paths = Collections.unmodifiableSet(collected);
+    }
+
+    @Nonnull
+    public static Projection of(@Nonnull String... paths) {
+        requireNonNull(paths, "Argument 'paths' must not be null");
+        return of(Arrays.asList(paths));
+    }
+
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public static Projection of(@Nonnull Collection<String> paths) {
+        requireNonNull(paths, "Argument 'paths' must not be null");
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("A projection requires at least one path");
+        }
+
+        Map<String, Object> tree = new LinkedHashMap<>();
+        for (String path : paths) {
+            requireNonBlank(path, "Projection paths must not be blank");
+            Map<String, Object> node = tree;
+            String[] segments = path.split("\\.", -1);
+            for (int i = 0; i < segments.length; i++) {
+                String segment = segments[i];
+                if (segment.isEmpty()) {
+                    throw new IllegalArgumentException("Invalid projection path '" + path + "'");
+                }
+                Object child = node.get(segment);
+                if (child == COMPLETE) {
+                    // a parent path already selects this one
+                    break;
+                } else if (i == segments.length - 1) {
+                    node.put(segment, COMPLETE);
+                } else {
+                    if (child == null) {
+                        child = new LinkedHashMap<String, Object>();
+                        node.put(segment, child);
+                    }
+                    node = (Map<String, Object>) child;
+                }
+            }
+        }
+        return build(null, tree);
+    }
+
+    /**
+     * @return the name of the member selected by this projection, {@code null} for the projection of a document
+     */
+    @Nullable
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the selected paths, relative to this projection; empty if it selects all of its member
+     */
+    @Nonnull
+    public Set<String> getPaths() {
+        return paths;
+    }
+
+    /**
+     * @return whether this projection selects all of its member
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Looks up the projection of a member without allocating, so that unselected members can be skipped cheaply.
+     *
+     * @param member the name of a member of the object this projection applies to
+     * @return the projection of {@code member}, {@code null} if it is not selected
+     */
+    @Nullable
+    public Projection select(@Nonnull CharSequence member) {
+        requireNonNull(member, "Argument 'member' must not be null");
+        if (complete) {
+            return new Projection(member.toString(), NONE, true);
+        }
+        for (Projection child : children) {
+            if (contentEquals(child.name, member)) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param path a path relative to this projection
+     * @return whether the field at {@code path} is part of this projection
+     */
+    public boolean includes(@Nonnull String path) {
+        requireNonBlank(path, "Argument 'path' must not be blank");
+        Projection projection = this;
+        for (String segment : path.split("\\.", -1)) {
+            if (projection.complete) {
+                return true;
+            }
+            projection = projection.select(segment);
+            if (projection == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Projection that = (Projection) o;
+        return complete == that.complete && (name != null ? name.equals(that.name) : that.name == null) && paths.equals(that.paths);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = name != null ? name.hashCode() : 0;
+        result = 31 * result + paths.hashCode();
+        return 31 * result + (complete ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "Projection" + (name != null ? "[" + name + "]" : "") + (complete ? "[*]" : paths);
+    }
+
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    private static Projection build(@Nullable String name, @Nonnull Map<String, Object> tree) {
+        Projection[] children = new Projection[tree.size()];
+        int i = 0;
+        for (Map.Entry<String, Object> entry : tree.entrySet()) {
+            children[i++] = entry.getValue() == COMPLETE ?
+                new Projection(entry.getKey(), NONE, true) :
+                build(entry.getKey(), (Map<String, Object>) entry.getValue());
+        }
+        return new Projection(name, children, false);
+    }
+
+    private static boolean contentEquals(@Nonnull String name, @Nonnull CharSequence member) {
+        if (name.length() != member.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != member.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import org.jcouchdb.db.Database;
+import org.jcouchdb.document.DesignDocument;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+
+/**
+ * Builds the view indexes of design documents in the background, publishing {@code JcouchdbViewIndexStart},
+ * {@code JcouchdbViewIndexProgress} and {@code JcouchdbViewIndexEnd} events.
+ *
+ * @author Andres Almiray
+ */
+public interface ViewIndexWarmer {
+    /**
+     * Starts building the view indexes of the given design documents. Returns immediately.
+     */
+    void warm(@Nonnull String databaseName, @Nonnull Database database, @Nonnull Collection<DesignDocument> designDocuments);
+
+    boolean isWarming(@Nonnull String databaseName);
+
+    boolean isWarming(@Nonnull String databaseName, @Nonnull String designDocumentId);
+
+    /**
+     * @return the ids of the design documents of the database whose indexes are being built
+     */
+    @Nonnull
+    Collection<String> getWarmingDesignDocuments(@Nonnull String databaseName);
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Walks the rows of a view one page at a time. Only the current page (and the prefetched one, if enabled) is kept
+ * in memory. Instances are not thread safe and should be closed if not fully consumed.
+ *
+ * @author Andres Almiray
+ */
+public interface ViewIterator<R> extends Iterator<R>, Closeable {
+    /**
+     * @return the {@code total_rows} reported by the view, or {@code -1} if no page has been read yet or the view did not report it
+     */
+    int getTotalRows();
+
+    /**
+     * @return a sequential stream over the remaining rows; closing the stream closes this iterator
+     */
+    @Nonnull
+    Stream<R> stream();
+
+    /**
+     * Stops iterating and discards any prefetched page.
+     */
+    @Override
+    void close();
+}
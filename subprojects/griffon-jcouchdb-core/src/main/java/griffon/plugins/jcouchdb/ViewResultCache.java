@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.jcouchdb;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Results of view queries on a database, keyed by view and query parameters and revalidated against the server with
+ * the {@code ETag} of the view. Every query returns a new result, parsed from the cached JSON.
+ *
+ * @author Andres Almiray
+ */
+public interface ViewResultCache {
+    @Nonnull
+    String getDatabaseName();
+
+    /**
+     * Upper bound of {@link #getWeight()}.
+     */
+    long getMaxBytes();
+
+    int getSize();
+
+    /**
+     * Combined length of the JSON responses of all cached results.
+     */
+    long getWeight();
+
+    /**
+     * Number of queries answered with {@code 304 Not Modified}, served from the cache.
+     */
+    long getHitCount();
+
+    /**
+     * Number of queries whose result was not cached.
+     */
+    long getMissCount();
+
+    /**
+     * Number of conditional queries sent for cached results, whether they were modified or not.
+     */
+    long getRevalidationCount();
+
+    long getEvictionCount();
+
+    void clear();
+}
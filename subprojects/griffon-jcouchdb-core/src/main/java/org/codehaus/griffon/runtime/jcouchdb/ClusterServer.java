@@ -0,0 +1,459 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.exceptions.GriffonException;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.jcouchdb.db.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@code PooledServer} that spreads the requests of a database over the nodes of a CouchDB cluster, configured by the
+ * {@code cluster} block of the database. Every node keeps a moving average of its response times. Reads go to the
+ * node with the lowest average, weighted by the requests it has in flight; when no response arrived after
+ * {@code hedge_delay} milliseconds the read is sent to the next best node as well and the first response wins. A read
+ * that fails is sent to the next node in line. Writes stick to a single node, and reads made within
+ * {@code read_your_writes} milliseconds of a write go to that node too, so that callers always see their own writes.
+ * A node that fails to answer is left out for {@code retry_delay} milliseconds, doubling on every consecutive failure
+ * up to {@code max_retry_delay}.
+ *
+ * @author Andres Almiray
+ */
+public class ClusterServer extends PooledServer {
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterServer.class);
+    private static final double LATENCY_WEIGHT = 0.2d;
+    private static final String CHANGES_PATH = "/_changes";
+    private static final int SC_SERVER_ERROR = 500;
+
+    private final String databaseName;
+    private final List<Node> nodes;
+    private final long hedgeDelay;
+    private final long readYourWrites;
+    private final long retryDelay;
+    private final long maxRetryDelay;
+    private final ExecutorService executor;
+    private volatile Node writeNode;
+    private volatile long lastWrite;
+
+    public ClusterServer(@Nonnull String databaseName, @Nonnull List<PooledServer> servers, @Nonnull Map<String, Object> config) {
+        super(first(servers).getConnectionPool(), first(servers).getHost(), first(servers).getPort());
+        this.databaseName = requireNonBlank(databaseName, "Argument 'databaseName' must not be blank");
+        requireNonNull(config, "Argument 'config' must not be null");
+
+        List<Node> list = new ArrayList<>(servers.size());
+        for (PooledServer server : servers) {
+            list.add(new Node(requireNonNull(server, "Argument 'servers' must not contain null elements")));
+        }
+        nodes = Collections.unmodifiableList(list);
+
+        hedgeDelay = getConfigValueAsLong(config, "cluster.hedge_delay", 100L);
+        readYourWrites = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, getConfigValueAsLong(config, "cluster.read_your_writes", 1000L)));
+        retryDelay = Math.max(1L, getConfigValueAsLong(config, "cluster.retry_delay", 1000L));
+        maxRetryDelay = Math.max(retryDelay, getConfigValueAsLong(config, "cluster.max_retry_delay", 30000L));
+        executor = Executors.newCachedThreadPool(new DaemonThreadFactory("jcouchdb-cluster-" + databaseName));
+    }
+
+    @Nonnull
+    private static PooledServer first(@Nonnull List<PooledServer> servers) {
+        requireNonNull(servers, "Argument 'servers' must not be null");
+        if (servers.isEmpty()) {
+            throw new IllegalArgumentException("Argument 'servers' must not be empty");
+        }
+        return servers.get(0);
+    }
+
+    /**
+     * @return the URI of every node, in the order the nodes were configured
+     */
+    @Nonnull
+    public List<String> getNodeURIs() {
+        List<String> uris = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            uris.add(node.server.getServerURI());
+        }
+        return Collections.unmodifiableList(uris);
+    }
+
+    /**
+     * @return the URI of every node mapped to its average response time in milliseconds
+     */
+    @Nonnull
+    public Map<String, Double> getNodeLatencies() {
+        Map<String, Double> latencies = new LinkedHashMap<>();
+        for (Node node : nodes) {
+            latencies.put(node.server.getServerURI(), node.getLatency() / 1000000d);
+        }
+        return latencies;
+    }
+
+    /**
+     * @return the URI of every node mapped to whether it is currently taking requests
+     */
+    @Nonnull
+    public Map<String, Boolean> getNodeAvailability() {
+        long now = System.nanoTime();
+        Map<String, Boolean> availability = new LinkedHashMap<>();
+        for (Node node : nodes) {
+            availability.put(node.server.getServerURI(), node.isAvailable(now));
+        }
+        return availability;
+    }
+
+    @Nullable
+    public String getWriteNode() {
+        Node node = writeNode;
+        return node != null ? node.server.getServerURI() : null;
+    }
+
+    @Override
+    public void setDatabaseMetrics(@Nullable DefaultDatabaseMetrics databaseMetrics) {
+        super.setDatabaseMetrics(databaseMetrics);
+        for (Node node : nodes) {
+            node.server.setDatabaseMetrics(databaseMetrics);
+        }
+    }
+
+    @Override
+    public void setCompression(boolean enabled, long minCompressedRequestSize) {
+        super.setCompression(enabled, minCompressedRequestSize);
+        for (Node node : nodes) {
+            node.server.setCompression(enabled, minCompressedRequestSize);
+        }
+    }
+
+    @Override
+    public void setCredentials(AuthScope authScope, Credentials credentials) {
+        super.setCredentials(authScope, credentials);
+        // the scope names a single host, every node gets its own
+        for (Node node : nodes) {
+            PooledServer server = node.server;
+            server.setCredentials(new AuthScope(server.getHost(), server.getPort(), authScope.getRealm(), authScope.getScheme()), credentials);
+        }
+    }
+
+    @Override
+    public void shutDown() {
+        super.shutDown();
+        for (Node node : nodes) {
+            node.server.shutDown();
+        }
+        executor.shutdownNow();
+    }
+
+    @Nonnull
+    @Override
+    protected Response execute(@Nonnull HttpRequestBase request) {
+        String path = path(request);
+        if (!isRead(request)) {
+            return executeWrite(request, path);
+        }
+
+        long now = System.nanoTime();
+        Node pinned = writeNode;
+        if (pinned != null && now - lastWrite < readYourWrites && pinned.isAvailable(now)) {
+            return executeOn(pinned, request, path);
+        }
+
+        List<Node> ranked = rank(now);
+        // feeds are long lived and reconnect on their own
+        if (ranked.size() == 1 || path.contains(CHANGES_PATH)) {
+            return executeOn(ranked.get(0), request, path);
+        }
+        return executeHedged(request, path, ranked);
+    }
+
+    @Nonnull
+    private Response executeWrite(@Nonnull HttpRequestBase request, @Nonnull String path) {
+        Node node = writeNode;
+        if (node == null || !node.isAvailable(System.nanoTime())) {
+            node = rank(System.nanoTime()).get(0);
+            writeNode = node;
+            LOG.debug("Pinning writes of database '{}' to {}", databaseName, node.server.getServerURI());
+        }
+
+        // a failed write may or may not have been applied, it is never sent to another node
+        try {
+            Response response = executeOn(node, request, path);
+            lastWrite = System.nanoTime();
+            return response;
+        } catch (RuntimeException e) {
+            if (writeNode == node) {
+                writeNode = null;
+            }
+            throw e;
+        }
+    }
+
+    @Nonnull
+    private Response executeHedged(@Nonnull HttpRequestBase request, @Nonnull String path, @Nonnull List<Node> ranked) {
+        BlockingQueue<Attempt> completed = new LinkedBlockingQueue<>();
+        List<Attempt> attempts = new ArrayList<>(ranked.size());
+        attempts.add(start(ranked.get(0), request, path, completed));
+        try {
+            Attempt done = hedgeDelay >= 0 ? completed.poll(hedgeDelay, TimeUnit.MILLISECONDS) : completed.take();
+            if (done == null) {
+                LOG.trace("Hedging read of {} from database '{}' to {}", path, databaseName, ranked.get(1).server.getServerURI());
+                attempts.add(start(ranked.get(1), copy(request), path, completed));
+                done = completed.take();
+            }
+
+            for (int pending = attempts.size() - 1; ; pending--) {
+                boolean failed = done.failure != null || done.response.getCode() >= SC_SERVER_ERROR;
+                // reads are idempotent, a failed one is sent to the next node
+                if (failed && attempts.size() < ranked.size()) {
+                    attempts.add(start(ranked.get(attempts.size()), copy(request), path, completed));
+                    pending++;
+                }
+                if (!failed || pending == 0) {
+                    for (Attempt attempt : attempts) {
+                        if (attempt != done) {
+                            attempt.abandon();
+                        }
+                    }
+                    if (done.failure != null) {
+                        throw done.failure;
+                    }
+                    return done.response;
+                }
+                done.abandon();
+                done = completed.take();
+            }
+        } catch (InterruptedException e) {
+            for (Attempt attempt : attempts) {
+                attempt.abandon();
+            }
+            Thread.currentThread().interrupt();
+            throw new GriffonException("Interrupted while reading " + path + " from database '" + databaseName + "'", e);
+        }
+    }
+
+    @Nonnull
+    private Attempt start(@Nonnull Node node, @Nonnull HttpRequestBase request, @Nonnull String path, @Nonnull BlockingQueue<Attempt> completed) {
+        Attempt attempt = new Attempt(node, request, path, completed);
+        executor.execute(attempt);
+        return attempt;
+    }
+
+    @Nonnull
+    private Response executeOn(@Nonnull Node node, @Nonnull HttpRequestBase request, @Nonnull String path) {
+        request.setURI(URI.create(node.server.getServerURI() + path));
+        node.inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            Response response = node.server.execute(request);
+            if (response.getCode() >= SC_SERVER_ERROR) {
+                recordFailure(node);
+            } else {
+                node.recordSuccess(System.nanoTime() - start);
+            }
+            return response;
+        } catch (RuntimeException e) {
+            // abandoned hedges are aborted on purpose; they still tell how slow the node was
+            if (request.isAborted()) {
+                node.recordLatency(System.nanoTime() - start);
+            } else {
+                recordFailure(node);
+            }
+            throw e;
+        } finally {
+            node.inFlight.decrementAndGet();
+        }
+    }
+
+    private void recordFailure(@Nonnull Node node) {
+        long delay = node.recordFailure(retryDelay, maxRetryDelay);
+        LOG.warn("Node {} of database '{}' failed; leaving it out for {}ms", node.server.getServerURI(), databaseName, delay);
+    }
+
+    /**
+     * @return available nodes by increasing score, followed by the unavailable ones by how soon they come back
+     */
+    @Nonnull
+    private List<Node> rank(final long now) {
+        List<Node> available = new ArrayList<>(nodes.size());
+        List<Node> unavailable = new ArrayList<>(0);
+        for (Node node : nodes) {
+            if (node.isAvailable(now)) {
+                available.add(node);
+            } else {
+                unavailable.add(node);
+            }
+        }
+
+        Collections.sort(available, new Comparator<Node>() {
+            @Override
+            public int compare(Node a, Node b) {
+                return Double.compare(a.getScore(), b.getScore());
+            }
+        });
+        Collections.sort(unavailable, new Comparator<Node>() {
+            @Override
+            public int compare(Node a, Node b) {
+                return Long.compare(a.getDownUntil() - now, b.getDownUntil() - now);
+            }
+        });
+        available.addAll(unavailable);
+        return available;
+    }
+
+    @Nonnull
+    private String path(@Nonnull HttpRequestBase request) {
+        String uri = request.getURI().toString();
+        String serverURI = getServerURI();
+        if (uri.startsWith(serverURI)) {
+            return uri.substring(serverURI.length());
+        }
+        URI parsed = request.getURI();
+        return parsed.getRawQuery() != null ? parsed.getRawPath() + "?" + parsed.getRawQuery() : parsed.getRawPath();
+    }
+
+    private static boolean isRead(@Nonnull HttpRequestBase request) {
+        return HttpGet.METHOD_NAME.equals(request.getMethod()) || HttpHead.METHOD_NAME.equals(request.getMethod());
+    }
+
+    @Nonnull
+    private static HttpRequestBase copy(@Nonnull HttpRequestBase request) {
+        HttpRequestBase copy = HttpHead.METHOD_NAME.equals(request.getMethod()) ? new HttpHead() : new HttpGet();
+        copy.setHeaders(request.getAllHeaders());
+        return copy;
+    }
+
+    private static final class Node {
+        private final PooledServer server;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private double latency;
+        private int failures;
+        private long downUntil;
+
+        private Node(@Nonnull PooledServer server) {
+            this.server = server;
+        }
+
+        private synchronized void recordSuccess(long nanos) {
+            recordLatency(nanos);
+            failures = 0;
+        }
+
+        private synchronized void recordLatency(long nanos) {
+            latency = latency == 0d ? nanos : latency + LATENCY_WEIGHT * (nanos - latency);
+        }
+
+        /**
+         * @return the time (in milliseconds) the node is left out for
+         */
+        private synchronized long recordFailure(long retryDelay, long maxRetryDelay) {
+            long delay = Math.min(maxRetryDelay, retryDelay << Math.min(failures++, 20));
+            downUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            return delay;
+        }
+
+        private synchronized boolean isAvailable(long now) {
+            return failures == 0 || now - downUntil >= 0;
+        }
+
+        private synchronized double getLatency() {
+            return latency;
+        }
+
+        private synchronized long getDownUntil() {
+            return downUntil;
+        }
+
+        private double getScore() {
+            // nodes without samples come first so that every node gets measured
+            return getLatency() * (inFlight.get() + 1);
+        }
+    }
+
+    private final class Attempt implements Runnable {
+        private final Node node;
+        private final HttpRequestBase request;
+        private final String path;
+        private final BlockingQueue<Attempt> completed;
+        private Response response;
+        private RuntimeException failure;
+        private boolean abandoned;
+
+        private Attempt(@Nonnull Node node, @Nonnull HttpRequestBase request, @Nonnull String path, @Nonnull BlockingQueue<Attempt> completed) {
+            this.node = node;
+            this.request = request;
+            this.path = path;
+            this.completed = completed;
+        }
+
+        @Override
+        public void run() {
+            Response result = null;
+            RuntimeException error = null;
+            try {
+                result = executeOn(node, request, path);
+            } catch (RuntimeException e) {
+                error = e;
+            }
+
+            synchronized (this) {
+                if (!abandoned) {
+                    response = result;
+                    failure = error;
+                    completed.add(this);
+                    return;
+                }
+            }
+            // the other node answered first
+            if (result != null) {
+                result.destroy();
+            }
+        }
+
+        private void abandon() {
+            Response result;
+            synchronized (this) {
+                abandoned = true;
+                result = response;
+                response = null;
+            }
+            request.abort();
+            if (result != null) {
+                result.destroy();
+            }
+        }
+    }
+}
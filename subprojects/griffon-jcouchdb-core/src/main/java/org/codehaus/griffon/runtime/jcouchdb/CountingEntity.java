@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import javax.annotation.Nonnull;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records the bytes of a request body as sent bytes while they are written, so that bodies of unknown length are
+ * counted too. Bodies that were not compressed count as uncompressed bytes as well.
+ *
+ * @author Andres Almiray
+ */
+class CountingEntity extends HttpEntityWrapper {
+    private final DefaultDatabaseMetrics metrics;
+    private final boolean compressed;
+
+    CountingEntity(@Nonnull HttpEntity entity, @Nonnull DefaultDatabaseMetrics metrics, boolean compressed) {
+        super(entity);
+        this.metrics = metrics;
+        this.compressed = compressed;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        wrappedEntity.writeTo(new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                record(1);
+            }
+
+            @Override
+            public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                record(len);
+            }
+        });
+    }
+
+    private void record(long count) {
+        metrics.recordBytesSent(count);
+        if (!compressed) {
+            metrics.recordUncompressedBytesSent(count);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import javax.annotation.Nonnull;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Records the bytes read from a response body as received bytes, either as they came over the wire or once
+ * decompressed.
+ *
+ * @author Andres Almiray
+ */
+class CountingInputStream extends FilterInputStream {
+    private final DefaultDatabaseMetrics metrics;
+    private final boolean uncompressed;
+
+    CountingInputStream(@Nonnull InputStream in, @Nonnull DefaultDatabaseMetrics metrics, boolean uncompressed) {
+        super(in);
+        this.metrics = metrics;
+        this.uncompressed = uncompressed;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            record(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+        int count = super.read(b, off, len);
+        record(count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long count = super.skip(n);
+        record(count);
+        return count;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void record(long count) {
+        if (uncompressed) {
+            metrics.recordUncompressedBytesReceived(count);
+        } else {
+            metrics.recordBytesReceived(count);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.core.Configuration;
+import griffon.core.ExecutorServiceManager;
+import griffon.core.GriffonApplication;
+import griffon.plugins.jcouchdb.AsyncDatabaseHandler;
+import griffon.plugins.jcouchdb.DatabaseCallback;
+import griffon.plugins.jcouchdb.DatabaseFactory;
+import griffon.plugins.jcouchdb.DatabaseHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@code AsyncDatabaseHandler} configured by the top level {@code async} block. Callbacks run on virtual threads when
+ * the runtime supports them and {@code virtual_threads} is enabled, otherwise on a pool of {@code pool_size} daemon
+ * threads. Callbacks waiting for a database to free up do not hold a thread.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultAsyncDatabaseHandler implements AsyncDatabaseHandler {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultAsyncDatabaseHandler.class);
+    private static final String KEY_ASYNC = "async";
+    private static final String THREAD_NAME_PREFIX = "jcouchdb-async";
+    private static final String ERROR_DATABASE_NAME_BLANK = "Argument 'databaseName' must not be blank";
+    private static final String ERROR_CALLBACK_NULL = "Argument 'callback' must not be null";
+
+    private final DatabaseHandler databaseHandler;
+    private final DatabaseFactory databaseFactory;
+    private final ExecutorService executor;
+    private final Executor uiExecutor;
+    private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<>();
+
+    @Inject
+    public DefaultAsyncDatabaseHandler(@Nonnull @Named("jcouchdb") Configuration configuration,
+                                       @Nonnull final GriffonApplication application,
+                                       @Nonnull ExecutorServiceManager executorServiceManager,
+                                       @Nonnull DatabaseHandler databaseHandler,
+                                       @Nonnull DatabaseFactory databaseFactory) {
+        requireNonNull(configuration, "Argument 'configuration' must not be null");
+        requireNonNull(application, "Argument 'application' must not be null");
+        requireNonNull(executorServiceManager, "Argument 'executorServiceManager' must not be null");
+        this.databaseHandler = requireNonNull(databaseHandler, "Argument 'databaseHandler' must not be null");
+        this.databaseFactory = requireNonNull(databaseFactory, "Argument 'databaseFactory' must not be null");
+
+        Map<String, Object> config = configuration.get(KEY_ASYNC, Collections.<String, Object>emptyMap());
+        // the executor is shut down together with the application
+        executor = executorServiceManager.add(createExecutor(config));
+        uiExecutor = new Executor() {
+            @Override
+            public void execute(@Nonnull Runnable command) {
+                application.getUIThreadManager().runInsideUIAsync(command);
+            }
+        };
+    }
+
+    @Nonnull
+    @Override
+    public <R> CompletableFuture<R> withJcouchdbAsync(@Nonnull DatabaseCallback<R> callback) {
+        return withJcouchdbAsync(DefaultDatabaseFactory.KEY_DEFAULT, callback);
+    }
+
+    @Nonnull
+    @Override
+    public <R> CompletableFuture<R> withJcouchdbAsync(@Nonnull String databaseName, @Nonnull DatabaseCallback<R> callback) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        requireNonNull(callback, ERROR_CALLBACK_NULL);
+
+        Lane lane = getLane(databaseName);
+        AsyncTask<R> task = new AsyncTask<>(databaseName, callback, lane);
+        if (lane.acquire(task)) {
+            submit(task);
+        }
+        return task.future;
+    }
+
+    @Nonnull
+    @Override
+    public Executor getUIExecutor() {
+        return uiExecutor;
+    }
+
+    @Nonnull
+    private Lane getLane(@Nonnull String databaseName) {
+        Lane lane = lanes.get(databaseName);
+        if (lane == null) {
+            Map<String, Object> config = databaseFactory.getConfigurationFor(databaseName);
+            // matches the default number of connections per route of the connection pool
+            Lane newLane = new Lane(getConfigValueAsInt(config, "async.max_concurrent", 10));
+            lane = lanes.putIfAbsent(databaseName, newLane);
+            if (lane == null) {
+                lane = newLane;
+            }
+        }
+        return lane;
+    }
+
+    private void submit(@Nonnull AsyncTask<?> task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // the application is shutting down
+            task.fail(e);
+        }
+    }
+
+    @Nonnull
+    private static ExecutorService createExecutor(@Nonnull Map<String, Object> config) {
+        if (getConfigValueAsBoolean(config, "virtual_threads", true)) {
+            ExecutorService executor = createVirtualThreadExecutor();
+            if (executor != null) {
+                LOG.debug("Running asynchronous jcouchdb callbacks on virtual threads");
+                return executor;
+            }
+        }
+
+        int poolSize = Math.max(1, getConfigValueAsInt(config, "pool_size", 10));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory(THREAD_NAME_PREFIX));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Nullable
+    private static ExecutorService createVirtualThreadExecutor() {
+        // Thread.ofVirtual().name(prefix, 1).factory() and Executors.newThreadPerTaskExecutor(factory) on JDK 21+
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, THREAD_NAME_PREFIX + "-", 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) method.invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.trace("Virtual threads are not available", e);
+            return null;
+        }
+    }
+
+    /**
+     * Admits up to {@code maxConcurrent} tasks at a time, queueing the rest in arrival order.
+     */
+    private static final class Lane {
+        private final int maxConcurrent;
+        private final Queue<AsyncTask<?>> waiting = new ArrayDeque<>();
+        private int running;
+
+        private Lane(int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+        }
+
+        /**
+         * Returns {@code true} if the task may run now; otherwise it is queued until a running task completes.
+         */
+        private synchronized boolean acquire(@Nonnull AsyncTask<?> task) {
+            if (maxConcurrent <= 0 || running < maxConcurrent) {
+                running++;
+                return true;
+            }
+            waiting.add(task);
+            return false;
+        }
+
+        /**
+         * Hands the slot of a completed task to the next waiting task, if any.
+         */
+        @Nullable
+        private synchronized AsyncTask<?> release() {
+            AsyncTask<?> next = waiting.poll();
+            if (next == null) {
+                running--;
+            }
+            return next;
+        }
+    }
+
+    private final class AsyncTask<R> implements Runnable {
+        private final String databaseName;
+        private final DatabaseCallback<R> callback;
+        private final Lane lane;
+        private final CompletableFuture<R> future = new CompletableFuture<>();
+
+        private AsyncTask(@Nonnull String databaseName, @Nonnull DatabaseCallback<R> callback, @Nonnull Lane lane) {
+            this.databaseName = databaseName;
+            this.callback = callback;
+            this.lane = lane;
+        }
+
+        @Override
+        public void run() {
+            try {
+                // callbacks cancelled while waiting in line are skipped
+                if (!future.isDone()) {
+                    future.complete(databaseHandler.withJcouchdb(databaseName, callback));
+                }
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                next();
+            }
+        }
+
+        private void fail(@Nonnull Throwable failure) {
+            future.completeExceptionally(failure);
+            next();
+        }
+
+        private void next() {
+            AsyncTask<?> next = lane.release();
+            if (next != null) {
+                submit(next);
+            }
+        }
+    }
+}
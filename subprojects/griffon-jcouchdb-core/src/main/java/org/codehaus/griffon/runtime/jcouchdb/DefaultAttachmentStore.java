@@ -0,0 +1,431 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.AttachmentStore;
+import griffon.plugins.jcouchdb.AttachmentStream;
+import griffon.plugins.jcouchdb.DatabaseCallback;
+import griffon.plugins.jcouchdb.DatabaseHandler;
+import org.apache.http.Header;
+import org.jcouchdb.db.Database;
+import org.jcouchdb.db.Response;
+import org.jcouchdb.db.Server;
+import org.jcouchdb.exception.DataAccessException;
+import org.jcouchdb.exception.NotFoundException;
+import org.jcouchdb.util.ExceptionWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@code AttachmentStore} running every request inside {@code withJcouchdb}. Content travels between the caller and
+ * the pooled connection through fixed size buffers: uploads of unknown length are sent chunked, downloads into a file
+ * are transferred into its {@code FileChannel}, and ranges are requested with a {@code Range} header. Servers that
+ * ignore the header get the leading bytes skipped instead. Resumed downloads request a fixed revision of the
+ * document, so the bytes appended to a file always belong to the attachment it was started from.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultAttachmentStore implements AttachmentStore {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultAttachmentStore.class);
+    private static final int BUFFER_SIZE = 8192;
+    private static final int SC_PARTIAL_CONTENT = 206;
+    private static final int SC_NOT_FOUND = 404;
+    private static final int SC_RANGE_NOT_SATISFIABLE = 416;
+    private static final String HEADER_RANGE = "Range";
+    private static final String HEADER_CONTENT_RANGE = "Content-Range";
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ENCODING_IDENTITY = "identity";
+    private static final String ERROR_DOC_ID_BLANK = "Argument 'docId' must not be blank";
+    private static final String ERROR_ATTACHMENT_ID_BLANK = "Argument 'attachmentId' must not be blank";
+
+    private static final Closeable NOOP = new Closeable() {
+        @Override
+        public void close() {
+            // nothing to release
+        }
+    };
+
+    private final String databaseName;
+    private final DatabaseHandler databaseHandler;
+
+    public DefaultAttachmentStore(@Nonnull String databaseName, @Nonnull DatabaseHandler databaseHandler) {
+        this.databaseName = requireNonBlank(databaseName, "Argument 'databaseName' must not be blank");
+        this.databaseHandler = requireNonNull(databaseHandler, "Argument 'databaseHandler' must not be null");
+    }
+
+    @Nonnull
+    @Override
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    @Nonnull
+    @Override
+    public String upload(@Nonnull final String docId, @Nullable final String revision, @Nonnull final String attachmentId, @Nonnull final String contentType, @Nonnull final InputStream content, final long length) {
+        requireNonBlank(docId, ERROR_DOC_ID_BLANK);
+        requireNonBlank(attachmentId, ERROR_ATTACHMENT_ID_BLANK);
+        requireNonBlank(contentType, "Argument 'contentType' must not be blank");
+        requireNonNull(content, "Argument 'content' must not be null");
+
+        return databaseHandler.withJcouchdb(databaseName, new DatabaseCallback<String>() {
+            @Override
+            public String handle(@Nonnull String databaseName, @Nonnull Database database) {
+                String uri = attachmentURI(database, docId, attachmentId) + (revision != null ? "?rev=" + revision : "");
+                LOG.debug("Uploading attachment '{}' of document '{}' to database '{}', {} bytes", attachmentId, docId, databaseName, length);
+                Response response = database.getServer().put(uri, content, contentType, length);
+                try {
+                    if (!response.isOk()) {
+                        throw new DataAccessException("Error uploading attachment '" + attachmentId + "' of document '" + docId + "' to database '" + databaseName + "'", response);
+                    }
+                    return (String) response.getContentAsMap().get("rev");
+                } finally {
+                    response.destroy();
+                }
+            }
+        });
+    }
+
+    @Nonnull
+    @Override
+    public String upload(@Nonnull String docId, @Nullable String revision, @Nonnull String attachmentId, @Nonnull String contentType, @Nonnull Path file) {
+        requireNonNull(file, "Argument 'file' must not be null");
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            return upload(docId, revision, attachmentId, contentType, Channels.newInputStream(channel), channel.size());
+        } catch (IOException e) {
+            throw ExceptionWrapper.wrap(e);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public AttachmentStream open(@Nonnull String docId, @Nonnull String attachmentId, long offset, long length) {
+        return open(docId, null, attachmentId, offset, length, true);
+    }
+
+    @Override
+    public long download(@Nonnull String docId, @Nonnull String attachmentId, @Nonnull OutputStream target) {
+        requireNonNull(target, "Argument 'target' must not be null");
+        try (AttachmentStream in = open(docId, attachmentId, 0, -1)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long count = 0;
+            for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                target.write(buffer, 0, read);
+                count += read;
+            }
+            return count;
+        } catch (IOException e) {
+            throw ExceptionWrapper.wrap(e);
+        }
+    }
+
+    @Override
+    public long download(@Nonnull String docId, @Nonnull String attachmentId, @Nonnull Path file) {
+        requireNonNull(file, "Argument 'file' must not be null");
+        try (FileChannel channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            return transfer(open(docId, null, attachmentId, 0, -1, false), channel);
+        } catch (IOException e) {
+            throw ExceptionWrapper.wrap(e);
+        }
+    }
+
+    @Override
+    public long download(@Nonnull String docId, @Nonnull String revision, @Nonnull String attachmentId, @Nonnull Path file) {
+        requireNonBlank(revision, "Argument 'revision' must not be blank");
+        requireNonNull(file, "Argument 'file' must not be null");
+        try (FileChannel channel = FileChannel.open(file, CREATE, WRITE)) {
+            long start = channel.size();
+            AttachmentStream in = open(docId, revision, attachmentId, start, -1, false);
+            if (in.getTotalLength() >= 0 && start > in.getTotalLength()) {
+                // a file longer than the attachment was not downloaded from this revision, start over
+                in.close();
+                in = open(docId, revision, attachmentId, 0, -1, false);
+            }
+            return transfer(in, channel);
+        } catch (IOException e) {
+            throw ExceptionWrapper.wrap(e);
+        }
+    }
+
+    /**
+     * @param skipToOffset whether to skip to {@code offset} when the server sends the whole attachment, the stream
+     *                     starts at the beginning of the attachment otherwise
+     */
+    @Nonnull
+    private AttachmentStream open(@Nonnull final String docId, @Nullable final String revision, @Nonnull final String attachmentId, final long offset, final long length, final boolean skipToOffset) {
+        requireNonBlank(docId, ERROR_DOC_ID_BLANK);
+        requireNonBlank(attachmentId, ERROR_ATTACHMENT_ID_BLANK);
+        if (offset < 0) {
+            throw new IllegalArgumentException("Argument 'offset' must not be negative");
+        }
+        if (length == 0 || length < -1) {
+            throw new IllegalArgumentException("Argument 'length' must be positive or -1");
+        }
+
+        return databaseHandler.withJcouchdb(databaseName, new DatabaseCallback<AttachmentStream>() {
+            @Override
+            public AttachmentStream handle(@Nonnull String databaseName, @Nonnull Database database) {
+                String uri = attachmentURI(database, docId, attachmentId) + (revision != null ? "?rev=" + revision : "");
+                Server server = database.getServer();
+                Response response;
+                if ((offset > 0 || length > 0) && server instanceof PooledServer) {
+                    Map<String, String> headers = new LinkedHashMap<>();
+                    headers.put(HEADER_RANGE, "bytes=" + offset + "-" + (length > 0 ? String.valueOf(offset + length - 1) : ""));
+                    // ranges refer to the attachment as stored, not to a compressed response
+                    headers.put(HEADER_ACCEPT_ENCODING, ENCODING_IDENTITY);
+                    response = ((PooledServer) server).get(uri, headers);
+                } else {
+                    response = server.get(uri);
+                }
+                return stream(response, docId, attachmentId, offset, length, skipToOffset);
+            }
+        });
+    }
+
+    /**
+     * Writes a stream into a file at the offset of the stream, dropping whatever the file holds past that offset.
+     *
+     * @return the number of bytes written
+     */
+    private static long transfer(@Nonnull AttachmentStream in, @Nonnull FileChannel channel) throws IOException {
+        try {
+            long start = in.getOffset();
+            if (channel.size() > start) {
+                channel.truncate(start);
+            }
+            ReadableByteChannel source = Channels.newChannel(in);
+            long position = start;
+            for (long transferred = channel.transferFrom(source, position, Long.MAX_VALUE); transferred > 0; transferred = channel.transferFrom(source, position, Long.MAX_VALUE)) {
+                position += transferred;
+            }
+            return position - start;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Nonnull
+    private AttachmentStream stream(@Nonnull final Response response, @Nonnull String docId, @Nonnull String attachmentId, long offset, long length, boolean skipToOffset) {
+        int code = response.getCode();
+        if (code == SC_RANGE_NOT_SATISFIABLE) {
+            long totalLength = parseTotalLength(header(response, HEADER_CONTENT_RANGE));
+            response.destroy();
+            return new AttachmentStream(new ByteArrayInputStream(new byte[0]), null, offset, 0, totalLength, NOOP);
+        }
+        if (!response.isOk()) {
+            try {
+                String message = " attachment '" + attachmentId + "' of document '" + docId + "' in database '" + databaseName + "'";
+                if (code == SC_NOT_FOUND) {
+                    throw new NotFoundException("Missing" + message, response);
+                }
+                throw new DataAccessException("Error reading" + message, response);
+            } finally {
+                response.destroy();
+            }
+        }
+
+        Closeable release = new Closeable() {
+            @Override
+            public void close() {
+                response.destroy();
+            }
+        };
+        String contentType = header(response, HEADER_CONTENT_TYPE);
+        String contentLength = header(response, HEADER_CONTENT_LENGTH);
+        long bodyLength = contentLength != null ? Long.parseLong(contentLength.trim()) : -1L;
+        InputStream in = response.getInputStream();
+
+        if (code == SC_PARTIAL_CONTENT) {
+            String contentRange = header(response, HEADER_CONTENT_RANGE);
+            long start = parseRangeStart(contentRange, offset);
+            return new AttachmentStream(in, contentType, start, bodyLength, parseTotalLength(contentRange), release);
+        }
+
+        if (!skipToOffset) {
+            return new AttachmentStream(in, contentType, 0, bodyLength, bodyLength, release);
+        }
+
+        // the whole attachment came back, skip to the requested range
+        try {
+            long remaining = offset;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    if (in.read() == -1) {
+                        break;
+                    }
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+            if (remaining > 0) {
+                response.destroy();
+                return new AttachmentStream(new ByteArrayInputStream(new byte[0]), contentType, offset, 0, offset - remaining, NOOP);
+            }
+        } catch (IOException e) {
+            response.destroy();
+            throw ExceptionWrapper.wrap(e);
+        }
+        long available = bodyLength >= 0 ? bodyLength - offset : -1L;
+        if (length > 0) {
+            in = new BoundedInputStream(in, length);
+            available = available >= 0 ? Math.min(available, length) : length;
+        }
+        return new AttachmentStream(in, contentType, offset, available, bodyLength, release);
+    }
+
+    @Nonnull
+    private static String attachmentURI(@Nonnull Database database, @Nonnull String docId, @Nonnull String attachmentId) {
+        // attachment names may contain slashes, each segment is encoded on its own
+        StringBuilder uri = new StringBuilder("/").append(database.getName()).append('/').append(ManagedDatabase.encodeDocumentId(docId));
+        for (String segment : attachmentId.split("/", -1)) {
+            uri.append('/').append(encodeSegment(segment));
+        }
+        return uri.toString();
+    }
+
+    @Nonnull
+    private static String encodeSegment(@Nonnull String segment) {
+        try {
+            return URLEncoder.encode(segment, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw ExceptionWrapper.wrap(e);
+        }
+    }
+
+    @Nullable
+    private static String header(@Nonnull Response response, @Nonnull String name) {
+        Header[] headers = response.getResponseHeaders();
+        if (headers != null) {
+            for (Header header : headers) {
+                if (name.equalsIgnoreCase(header.getName())) {
+                    return header.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses the start of a {@code Content-Range} value such as {@code bytes 0-99/1234}.
+     */
+    private static long parseRangeStart(@Nullable String contentRange, long defaultValue) {
+        if (contentRange != null) {
+            int space = contentRange.indexOf(' ');
+            int dash = contentRange.indexOf('-', space + 1);
+            if (space > -1 && dash > space + 1) {
+                try {
+                    return Long.parseLong(contentRange.substring(space + 1, dash).trim());
+                } catch (NumberFormatException e) {
+                    LOG.debug("Invalid Content-Range '{}'", contentRange);
+                }
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Parses the total length of a {@code Content-Range} value such as {@code bytes 0-99/1234} or {@code bytes *}{@code /1234}.
+     */
+    private static long parseTotalLength(@Nullable String contentRange) {
+        if (contentRange != null) {
+            int slash = contentRange.lastIndexOf('/');
+            if (slash > -1) {
+                try {
+                    return Long.parseLong(contentRange.substring(slash + 1).trim());
+                } catch (NumberFormatException e) {
+                    LOG.debug("Unknown total length in Content-Range '{}'", contentRange);
+                }
+            }
+        }
+        return -1L;
+    }
+
+    private static final class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        private BoundedInputStream(@Nonnull InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b != -1) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.exceptions.GriffonException;
+import griffon.plugins.jcouchdb.BulkWriter;
+import griffon.plugins.jcouchdb.JsonEngine;
+import org.jcouchdb.db.Database;
+import org.jcouchdb.db.Response;
+import org.jcouchdb.document.DocumentInfo;
+import org.jcouchdb.document.DocumentPropertyHandler;
+import org.jcouchdb.exception.DataAccessException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.svenson.JSONParser;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@code BulkWriter} configured by the {@code bulk} block of a database. A batch is sent as soon as it reaches
+ * {@code max_documents} documents or {@code max_bytes} bytes, or once its oldest document has waited for
+ * {@code flush_interval} milliseconds. Up to {@code max_in_flight} batches are sent concurrently; writers block
+ * while all of them are busy.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultBulkWriter implements BulkWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultBulkWriter.class);
+
+    private final String databaseName;
+    private final Database database;
+    private final JsonEngine jsonEngine;
+    private final JSONParser parser;
+    private final DocumentPropertyHandler documentPropertyHandler;
+    private final int maxDocuments;
+    private final long maxBytes;
+    private final long flushInterval;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService scheduler;
+
+    private final Object lock = new Object();
+    private List<PendingDocument> buffer = new ArrayList<>();
+    private long bufferedBytes;
+    private long oldestWrite;
+    private boolean closed;
+    private volatile Runnable onClose;
+
+    public DefaultBulkWriter(@Nonnull String databaseName, @Nonnull Database database, @Nonnull Map<String, Object> config) {
+        this.databaseName = requireNonBlank(databaseName, "Argument 'databaseName' must not be blank");
+        this.database = requireNonNull(database, "Argument 'database' must not be null");
+        requireNonNull(config, "Argument 'config' must not be null");
+
+        maxDocuments = Math.max(1, getConfigValueAsInt(config, "bulk.max_documents", 500));
+        maxBytes = Math.max(1L, getConfigValueAsLong(config, "bulk.max_bytes", 1024L * 1024L));
+        flushInterval = getConfigValueAsLong(config, "bulk.flush_interval", 1000L);
+        maxInFlight = Math.max(1, getConfigValueAsInt(config, "bulk.max_in_flight", 4));
+
+        jsonEngine = ManagedDatabase.jsonEngineOf(database);
+        documentPropertyHandler = ManagedDatabase.documentPropertyHandlerOf(database);
+        parser = new JSONParser(database.getJsonConfig().getJsonParser());
+        parser.addTypeHint("[]", DocumentInfo.class);
+
+        inFlight = new Semaphore(maxInFlight);
+        executor = new ThreadPoolExecutor(maxInFlight, maxInFlight, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("jcouchdb-bulk-" + databaseName));
+        executor.allowCoreThreadTimeOut(true);
+
+        if (flushInterval > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("jcouchdb-bulk-" + databaseName + "-flush"));
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    flushExpired();
+                }
+            }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    @Nonnull
+    @Override
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<DocumentInfo> write(@Nonnull Object document) {
+        requireNonNull(document, "Argument 'document' must not be null");
+
+        // serialize outside the lock, the JSON is reused as is when the batch is sent
+        PendingDocument pending = new PendingDocument(document, jsonEngine.write(document));
+        List<PendingDocument> batch = null;
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("BulkWriter for database '" + databaseName + "' has been closed");
+            }
+            if (buffer.isEmpty()) {
+                oldestWrite = System.nanoTime();
+            }
+            buffer.add(pending);
+            bufferedBytes += utf8Length(pending.json) + 1;
+            if (buffer.size() >= maxDocuments || bufferedBytes >= maxBytes) {
+                batch = drainBuffer();
+            }
+        }
+
+        if (batch != null) {
+            dispatch(batch);
+        }
+        return pending.future;
+    }
+
+    @Override
+    public void flush() {
+        List<PendingDocument> batch;
+        synchronized (lock) {
+            batch = drainBuffer();
+        }
+        if (!batch.isEmpty()) {
+            dispatch(batch);
+        }
+
+        // holding every permit means no batch is in flight
+        try {
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GriffonException("Interrupted while flushing documents to database '" + databaseName + "'", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+
+        try {
+            flush();
+        } finally {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
+            executor.shutdown();
+            Runnable action = onClose;
+            if (action != null) {
+                action.run();
+            }
+        }
+    }
+
+    /**
+     * @param onClose run once the last batch has been sent on {@link #close()}
+     */
+    void setOnClose(@Nullable Runnable onClose) {
+        this.onClose = onClose;
+    }
+
+    private void flushExpired() {
+        List<PendingDocument> batch = Collections.emptyList();
+        synchronized (lock) {
+            if (!buffer.isEmpty() && System.nanoTime() - oldestWrite >= TimeUnit.MILLISECONDS.toNanos(flushInterval)) {
+                batch = drainBuffer();
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            try {
+                dispatch(batch);
+            } catch (RuntimeException e) {
+                LOG.warn("Could not flush documents to database '{}'", databaseName, e);
+            }
+        }
+    }
+
+    @Nonnull
+    private List<PendingDocument> drainBuffer() {
+        List<PendingDocument> batch = buffer;
+        buffer = new ArrayList<>();
+        bufferedBytes = 0;
+        return batch;
+    }
+
+    private void dispatch(@Nonnull final List<PendingDocument> batch) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(batch, e);
+            throw new GriffonException("Interrupted while sending documents to database '" + databaseName + "'", e);
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        send(batch);
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            fail(batch, e);
+            throw e;
+        }
+    }
+
+    private void send(@Nonnull List<PendingDocument> batch) {
+        int capacity = 16;
+        for (PendingDocument pending : batch) {
+            capacity += pending.json.length() + 1;
+        }
+        StringBuilder body = new StringBuilder(capacity).append("{\"docs\":[");
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append(batch.get(i).json);
+        }
+        body.append("]}");
+
+        Response response = null;
+        try {
+            response = database.getServer().post("/" + database.getName() + "/_bulk_docs", body.toString());
+            if (!response.isOk()) {
+                throw new DataAccessException("Error bulk writing documents to database '" + databaseName + "'", response);
+            }
+            response.setParser(parser);
+            List<DocumentInfo> infos = response.getContentAsBean(ArrayList.class);
+            if (infos == null || infos.size() != batch.size()) {
+                throw new DataAccessException("Unexpected _bulk_docs response from database '" + databaseName + "'", response);
+            }
+
+            // CouchDB reports results in request order
+            for (int i = 0; i < batch.size(); i++) {
+                PendingDocument pending = batch.get(i);
+                DocumentInfo info = infos.get(i);
+                if (info.getError() == null) {
+                    documentPropertyHandler.setId(pending.document, info.getId());
+                    documentPropertyHandler.setRevision(pending.document, info.getRevision());
+                }
+                pending.future.complete(info);
+            }
+            LOG.trace("Saved {} documents to database '{}'", batch.size(), databaseName);
+        } catch (RuntimeException e) {
+            fail(batch, e);
+        } finally {
+            if (response != null) {
+                response.destroy();
+            }
+        }
+    }
+
+    private static void fail(@Nonnull List<PendingDocument> batch, @Nonnull Throwable failure) {
+        for (PendingDocument pending : batch) {
+            pending.future.completeExceptionally(failure);
+        }
+    }
+
+    private static long utf8Length(@Nonnull String s) {
+        long length = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x800) {
+                // surrogate pairs count 2 + 2, every other char above U+07FF takes 3 bytes
+                length += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    private static final class PendingDocument {
+        private final Object document;
+        private final String json;
+        private final CompletableFuture<DocumentInfo> future = new CompletableFuture<>();
+
+        private PendingDocument(@Nonnull Object document, @Nonnull String json) {
+            this.document = document;
+            this.json = json;
+        }
+    }
+}
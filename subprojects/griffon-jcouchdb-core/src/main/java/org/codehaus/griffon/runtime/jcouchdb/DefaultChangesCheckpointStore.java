@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.core.Configuration;
+import griffon.core.env.Metadata;
+import griffon.exceptions.GriffonException;
+import griffon.plugins.jcouchdb.ChangesCheckpointStore;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static griffon.util.ConfigUtils.getConfigValueAsString;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Stores one file per database in the directory set by {@code changes.checkpoint_directory}, which defaults to
+ * {@code ~/.griffon/<application.name>/jcouchdb/changes}. Files are replaced atomically where supported.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultChangesCheckpointStore implements ChangesCheckpointStore {
+    private static final String KEY_CHANGES = "changes";
+    private static final String ERROR_DATABASE_NAME_BLANK = "Argument 'databaseName' must not be blank";
+
+    private final Path directory;
+    private final ConcurrentMap<String, String> checkpoints = new ConcurrentHashMap<>();
+
+    @Inject
+    public DefaultChangesCheckpointStore(@Nonnull @Named("jcouchdb") Configuration configuration, @Nonnull Metadata metadata) {
+        requireNonNull(configuration, "Argument 'configuration' must not be null");
+        requireNonNull(metadata, "Argument 'metadata' must not be null");
+        Map<String, Object> config = configuration.get(KEY_CHANGES, Collections.<String, Object>emptyMap());
+        String defaultDirectory = Paths.get(System.getProperty("user.home"), ".griffon", metadata.getApplicationName(), "jcouchdb", "changes").toString();
+        this.directory = Paths.get(getConfigValueAsString(config, "checkpoint_directory", defaultDirectory));
+    }
+
+    @Nullable
+    @Override
+    public String load(@Nonnull String databaseName) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        String sequence = checkpoints.get(databaseName);
+        if (sequence != null) {
+            return sequence;
+        }
+
+        Path file = checkpointFile(databaseName);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            sequence = new String(Files.readAllBytes(file), UTF_8).trim();
+        } catch (IOException e) {
+            throw new GriffonException("Could not read changes checkpoint of database '" + databaseName + "' from " + file, e);
+        }
+        if (sequence.isEmpty()) {
+            return null;
+        }
+        checkpoints.putIfAbsent(databaseName, sequence);
+        return sequence;
+    }
+
+    @Override
+    public void store(@Nonnull String databaseName, @Nonnull String sequence) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        requireNonBlank(sequence, "Argument 'sequence' must not be blank");
+        if (sequence.equals(checkpoints.put(databaseName, sequence))) {
+            return;
+        }
+
+        Path file = checkpointFile(databaseName);
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, databaseName, ".tmp");
+            Files.write(temp, sequence.getBytes(UTF_8));
+            try {
+                Files.move(temp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new GriffonException("Could not write changes checkpoint of database '" + databaseName + "' to " + file, e);
+        }
+    }
+
+    @Nonnull
+    private Path checkpointFile(@Nonnull String databaseName) {
+        return directory.resolve(databaseName + ".seq");
+    }
+}
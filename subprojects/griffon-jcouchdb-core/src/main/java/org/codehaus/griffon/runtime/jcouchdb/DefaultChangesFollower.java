@@ -0,0 +1,441 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.core.event.EventRouter;
+import griffon.exceptions.GriffonException;
+import griffon.plugins.jcouchdb.ChangesCheckpointStore;
+import griffon.plugins.jcouchdb.ChangesFollower;
+import griffon.plugins.jcouchdb.DatabaseCallback;
+import griffon.plugins.jcouchdb.DatabaseHandler;
+import griffon.plugins.jcouchdb.DatabaseStorage;
+import griffon.plugins.jcouchdb.DocumentChange;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.jcouchdb.db.Database;
+import org.jcouchdb.db.Options;
+import org.jcouchdb.db.Response;
+import org.jcouchdb.db.Server;
+import org.jcouchdb.exception.DataAccessException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.svenson.JSON;
+import org.svenson.JSONParser;
+import org.svenson.tokenize.InputStreamSource;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.ConfigUtils.getConfigValueAsString;
+import static griffon.util.GriffonNameUtils.isBlank;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@code ChangesFollower} configured by the {@code changes} block of a database. A reader thread follows a
+ * {@code continuous} or {@code longpoll} feed and queues changes; a dispatcher thread publishes them in batches of up
+ * to {@code batch_size}, waiting at most {@code batch_delay} milliseconds for a batch to fill up. Events are published
+ * synchronously, so the next batch is not sent before listeners are done with the previous one. Once
+ * {@code queue_size} changes are pending the reader stops consuming the feed until the dispatcher catches up.
+ * <p>
+ * The checkpoint is stored after each batch has been delivered. Reconnects resume from the last change read,
+ * restarts from the stored checkpoint, or from {@code since} ({@code now} by default) if there is none.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultChangesFollower implements ChangesFollower {
+    public static final String EVENT_CHANGES = "JcouchdbChanges";
+
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultChangesFollower.class);
+    private static final String FEED_CONTINUOUS = "continuous";
+    private static final String FEED_LONGPOLL = "longpoll";
+    private static final String SINCE_NOW = "now";
+    private static final String LAST_SEQ = "last_seq";
+    private static final long JOIN_TIMEOUT = 5000L;
+    private static final int MAX_ACQUIRE_ATTEMPTS = 3;
+
+    private final String databaseName;
+    private final DatabaseHandler databaseHandler;
+    private final DatabaseStorage databaseStorage;
+    private final EventRouter eventRouter;
+    private final ChangesCheckpointStore checkpointStore;
+    private final String feed;
+    private final String filter;
+    private final String since;
+    private final long heartbeat;
+    private final long timeout;
+    private final int batchSize;
+    private final long batchDelay;
+    private final long retryDelay;
+    private final long maxRetryDelay;
+    private final BlockingQueue<DocumentChange> queue;
+    private final JSON json = JSON.defaultJSON();
+
+    private final Object lock = new Object();
+    private Thread reader;
+    private Thread dispatcher;
+    private volatile boolean running;
+    private volatile String readSequence;
+    private volatile String lastSequence;
+    private volatile HttpRequestBase activeRequest;
+
+    public DefaultChangesFollower(@Nonnull String databaseName, @Nonnull Map<String, Object> config, @Nonnull DatabaseHandler databaseHandler,
+                                  @Nonnull DatabaseStorage databaseStorage, @Nonnull EventRouter eventRouter, @Nonnull ChangesCheckpointStore checkpointStore) {
+        this.databaseName = requireNonBlank(databaseName, "Argument 'databaseName' must not be blank");
+        requireNonNull(config, "Argument 'config' must not be null");
+        this.databaseHandler = requireNonNull(databaseHandler, "Argument 'databaseHandler' must not be null");
+        this.databaseStorage = requireNonNull(databaseStorage, "Argument 'databaseStorage' must not be null");
+        this.eventRouter = requireNonNull(eventRouter, "Argument 'eventRouter' must not be null");
+        this.checkpointStore = requireNonNull(checkpointStore, "Argument 'checkpointStore' must not be null");
+
+        feed = getConfigValueAsString(config, "changes.feed", FEED_CONTINUOUS);
+        if (!FEED_CONTINUOUS.equals(feed) && !FEED_LONGPOLL.equals(feed)) {
+            throw new IllegalArgumentException("Configuration value for 'changes.feed' in database." + databaseName + " must be one of [continuous, longpoll]");
+        }
+        filter = getConfigValueAsString(config, "changes.filter", null);
+        since = getConfigValueAsString(config, "changes.since", SINCE_NOW);
+        heartbeat = Math.max(1000L, getConfigValueAsLong(config, "changes.heartbeat", 10000L));
+        timeout = Math.max(1000L, getConfigValueAsLong(config, "changes.timeout", 60000L));
+        batchSize = Math.max(1, getConfigValueAsInt(config, "changes.batch_size", 100));
+        batchDelay = Math.max(0L, getConfigValueAsLong(config, "changes.batch_delay", 100L));
+        retryDelay = Math.max(1L, getConfigValueAsLong(config, "changes.retry_delay", 1000L));
+        maxRetryDelay = Math.max(retryDelay, getConfigValueAsLong(config, "changes.max_retry_delay", 30000L));
+        queue = new LinkedBlockingQueue<>(Math.max(batchSize, getConfigValueAsInt(config, "changes.queue_size", 1000)));
+    }
+
+    @Nonnull
+    @Override
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Nullable
+    @Override
+    public String getLastSequence() {
+        return lastSequence;
+    }
+
+    @Override
+    public int getPendingChanges() {
+        return queue.size();
+    }
+
+    public void start() {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+            String checkpoint = checkpointStore.load(databaseName);
+            // a blank checkpoint is no checkpoint, the feed starts at 'changes.since'
+            lastSequence = isBlank(checkpoint) ? null : checkpoint;
+            readSequence = lastSequence;
+            queue.clear();
+
+            DaemonThreadFactory threadFactory = new DaemonThreadFactory("jcouchdb-changes-" + databaseName);
+            reader = threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    follow();
+                }
+            });
+            dispatcher = threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    dispatch();
+                }
+            });
+            reader.start();
+            dispatcher.start();
+        }
+        LOG.debug("Following {} changes of database '{}' since {}", feed, databaseName, readSequence != null ? readSequence : since);
+    }
+
+    public void stop() {
+        Thread readerThread;
+        Thread dispatcherThread;
+        synchronized (lock) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            readerThread = reader;
+            dispatcherThread = dispatcher;
+            reader = null;
+            dispatcher = null;
+        }
+
+        // unblocks a reader waiting on the feed; undelivered changes are read again on the next start
+        abortActiveRequest();
+        readerThread.interrupt();
+        dispatcherThread.interrupt();
+        try {
+            readerThread.join(JOIN_TIMEOUT);
+            dispatcherThread.join(JOIN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        queue.clear();
+        LOG.debug("Stopped following changes of database '{}' at {}", databaseName, lastSequence);
+    }
+
+    private void follow() {
+        int failures = 0;
+        while (running) {
+            try {
+                Database database = acquireDatabase();
+                try {
+                    if (readSequence == null) {
+                        readSequence = SINCE_NOW.equals(since) ? currentSequence(database) : since;
+                    }
+                    if (FEED_CONTINUOUS.equals(feed)) {
+                        readContinuous(database);
+                    } else {
+                        readLongpoll(database);
+                    }
+                } finally {
+                    databaseStorage.release(databaseName, database);
+                }
+                failures = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                long delay = Math.min(maxRetryDelay, retryDelay << Math.min(failures++, 20));
+                LOG.warn("Changes feed of database '{}' failed; reconnecting in {}ms", databaseName, delay, e);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            } finally {
+                activeRequest = null;
+            }
+        }
+    }
+
+    /**
+     * Keeps the database in use while its feed is read, so that the storage does not evict it under the reader.
+     */
+    @Nonnull
+    private Database acquireDatabase() {
+        for (int attempt = 0; attempt < MAX_ACQUIRE_ATTEMPTS; attempt++) {
+            // opens the database if it is not open
+            databaseHandler.withJcouchdb(databaseName, new DatabaseCallback<Void>() {
+                @Override
+                public Void handle(@Nonnull String databaseName, @Nonnull Database database) {
+                    return null;
+                }
+            });
+            Database database = databaseStorage.acquire(databaseName);
+            if (database != null) {
+                return database;
+            }
+        }
+        throw new GriffonException("Database '" + databaseName + "' was evicted " + MAX_ACQUIRE_ATTEMPTS + " times while acquiring it");
+    }
+
+    private void readContinuous(@Nonnull Database database) throws IOException, InterruptedException {
+        Options options = changesOptions(FEED_CONTINUOUS).put("heartbeat", heartbeat);
+        Response response = open(database, options);
+        try {
+            JSONParser parser = database.getJsonConfig().getJsonParser();
+            BufferedReader lines = new BufferedReader(new InputStreamReader(response.getInputStream(), UTF_8));
+            for (String line = lines.readLine(); line != null && running; line = lines.readLine()) {
+                if (line.trim().isEmpty()) {
+                    // heartbeat
+                    continue;
+                }
+                Map<String, Object> row = parser.parse(Map.class, line);
+                if (row.containsKey(LAST_SEQ)) {
+                    // the server ended the feed, reconnect from where it stopped
+                    readSequence = sequence(row.get(LAST_SEQ));
+                    return;
+                }
+                enqueue(row);
+            }
+        } finally {
+            response.destroy();
+        }
+    }
+
+    private void readLongpoll(@Nonnull Database database) throws InterruptedException {
+        // a single poll never returns more changes than can be queued
+        Options options = changesOptions(FEED_LONGPOLL).put("timeout", timeout).put("limit", queue.remainingCapacity() + queue.size());
+        Response response = open(database, options);
+        try {
+            Map<String, Object> result = database.getJsonConfig().getJsonParser().parse(Map.class, new InputStreamSource(response.getInputStream(), false));
+            List<?> rows = (List<?>) result.get("results");
+            if (rows != null) {
+                for (Object row : rows) {
+                    enqueue((Map<String, Object>) row);
+                }
+            }
+            if (result.get(LAST_SEQ) != null) {
+                readSequence = sequence(result.get(LAST_SEQ));
+            }
+        } finally {
+            response.destroy();
+        }
+    }
+
+    private void enqueue(@Nonnull Map<String, Object> row) throws InterruptedException {
+        List<String> revisions = new ArrayList<>();
+        List<?> changes = (List<?>) row.get("changes");
+        if (changes != null) {
+            for (Object change : changes) {
+                revisions.add(String.valueOf(((Map<?, ?>) change).get("rev")));
+            }
+        }
+        String sequence = sequence(row.get("seq"));
+        // blocks while the dispatcher is behind
+        queue.put(new DocumentChange(sequence, String.valueOf(row.get("id")), revisions, Boolean.TRUE.equals(row.get("deleted"))));
+        readSequence = sequence;
+    }
+
+    private void dispatch() {
+        while (running) {
+            List<DocumentChange> batch = new ArrayList<>(batchSize);
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchDelay);
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    DocumentChange change = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (change == null) {
+                        break;
+                    }
+                    batch.add(change);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (!running) {
+                return;
+            }
+            String sequence = batch.get(batch.size() - 1).getSequence();
+            try {
+                eventRouter.publishEvent(EVENT_CHANGES, asList(databaseName, Collections.unmodifiableList(batch), sequence));
+            } catch (RuntimeException e) {
+                LOG.warn("A listener failed to handle changes of database '{}'", databaseName, e);
+            }
+
+            lastSequence = sequence;
+            try {
+                checkpointStore.store(databaseName, sequence);
+            } catch (RuntimeException e) {
+                LOG.warn("Could not store changes checkpoint of database '{}'", databaseName, e);
+            }
+        }
+    }
+
+    @Nonnull
+    private Options changesOptions(@Nonnull String feedType) {
+        Options options = new Options().put("feed", feedType).put("since", readSequence);
+        if (!isBlank(filter)) {
+            options.put("filter", filter);
+        }
+        return options;
+    }
+
+    @Nonnull
+    private Response open(@Nonnull Database database, @Nonnull Options options) {
+        String uri = "/" + database.getName() + "/_changes" + options.toQuery();
+        Server server = database.getServer();
+        Response response;
+        if (server instanceof PooledServer) {
+            // keep a handle on the request so that stop() can abort a blocked read
+            PooledServer pooledServer = (PooledServer) server;
+            HttpGet request = new HttpGet(pooledServer.getServerURI() + uri);
+            if (FEED_CONTINUOUS.equals(feed)) {
+                // a compressed feed would hold changes back until a whole block has been deflated
+                request.setHeader("Accept-Encoding", "identity");
+            }
+            activeRequest = request;
+            if (!running) {
+                request.abort();
+            }
+            response = pooledServer.execute(request);
+        } else {
+            response = server.get(uri);
+        }
+
+        if (!response.isOk()) {
+            DataAccessException e = new DataAccessException("Error reading changes of database '" + databaseName + "'", response);
+            response.destroy();
+            throw e;
+        }
+        return response;
+    }
+
+    @Nonnull
+    private String currentSequence(@Nonnull Database database) {
+        Response response = database.getServer().get("/" + database.getName() + "/");
+        try {
+            if (!response.isOk()) {
+                throw new DataAccessException("Error reading update sequence of database '" + databaseName + "'", response);
+            }
+            return sequence(response.getContentAsMap().get("update_seq"));
+        } finally {
+            response.destroy();
+        }
+    }
+
+    private void abortActiveRequest() {
+        HttpRequestBase request = activeRequest;
+        if (request != null) {
+            request.abort();
+        }
+    }
+
+    @Nonnull
+    private String sequence(@Nullable Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        } else if (value instanceof Number) {
+            return String.valueOf(value);
+        }
+        // opaque sequences are sent back as they were received
+        return json.forValue(value);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.core.GriffonApplication;
+import griffon.plugins.jcouchdb.ChangesCheckpointStore;
+import griffon.plugins.jcouchdb.ChangesFollower;
+import griffon.plugins.jcouchdb.ChangesFollowerManager;
+import griffon.plugins.jcouchdb.DatabaseFactory;
+import griffon.plugins.jcouchdb.DatabaseHandler;
+import griffon.plugins.jcouchdb.DatabaseStorage;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class DefaultChangesFollowerManager implements ChangesFollowerManager {
+    private static final String ERROR_DATABASE_NAME_BLANK = "Argument 'databaseName' must not be blank";
+
+    private final GriffonApplication application;
+    private final DatabaseFactory databaseFactory;
+    private final DatabaseHandler databaseHandler;
+    private final DatabaseStorage databaseStorage;
+    private final ChangesCheckpointStore checkpointStore;
+    private final ConcurrentMap<String, DefaultChangesFollower> followers = new ConcurrentHashMap<>();
+
+    @Inject
+    public DefaultChangesFollowerManager(@Nonnull GriffonApplication application, @Nonnull DatabaseFactory databaseFactory,
+                                         @Nonnull DatabaseHandler databaseHandler, @Nonnull DatabaseStorage databaseStorage,
+                                         @Nonnull ChangesCheckpointStore checkpointStore) {
+        this.application = requireNonNull(application, "Argument 'application' must not be null");
+        this.databaseFactory = requireNonNull(databaseFactory, "Argument 'databaseFactory' must not be null");
+        this.databaseHandler = requireNonNull(databaseHandler, "Argument 'databaseHandler' must not be null");
+        this.databaseStorage = requireNonNull(databaseStorage, "Argument 'databaseStorage' must not be null");
+        this.checkpointStore = requireNonNull(checkpointStore, "Argument 'checkpointStore' must not be null");
+    }
+
+    @Nonnull
+    @Override
+    public ChangesFollower start(@Nonnull String databaseName) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        DefaultChangesFollower follower = followers.get(databaseName);
+        if (follower == null) {
+            DefaultChangesFollower created = new DefaultChangesFollower(databaseName, databaseFactory.getConfigurationFor(databaseName),
+                databaseHandler, databaseStorage, application.getEventRouter(), checkpointStore);
+            follower = followers.putIfAbsent(databaseName, created);
+            if (follower == null) {
+                follower = created;
+            }
+        }
+        follower.start();
+        return follower;
+    }
+
+    @Override
+    public void stop(@Nonnull String databaseName) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        DefaultChangesFollower follower = followers.remove(databaseName);
+        if (follower != null) {
+            follower.stop();
+        }
+    }
+
+    @Override
+    public void stopAll() {
+        for (String databaseName : followers.keySet()) {
+            stop(databaseName);
+        }
+    }
+
+    @Nullable
+    @Override
+    public ChangesFollower getFollower(@Nonnull String databaseName) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        return followers.get(databaseName);
+    }
+
+    @Nonnull
+    @Override
+    public Collection<ChangesFollower> getFollowers() {
+        return Collections.<ChangesFollower>unmodifiableCollection(followers.values());
+    }
+}
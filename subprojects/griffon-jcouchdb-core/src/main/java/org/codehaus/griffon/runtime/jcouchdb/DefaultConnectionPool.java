@@ -0,0 +1,235 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.ConnectionPool;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HttpContext;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * HTTP connection pool shared by all {@code Database} instances pointing to the same host and port.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultConnectionPool implements ConnectionPool {
+    private final String name;
+    private final int maxTotalConnections;
+    private final int maxConnectionsPerRoute;
+    private final long idleTimeout;
+    private final InstrumentedConnManager connectionManager;
+    private final DefaultHttpClient httpClient;
+
+    public DefaultConnectionPool(@Nonnull String name, @Nonnull Map<String, Object> config) {
+        this.name = requireNonBlank(name, "Argument 'name' must not be blank");
+        requireNonNull(config, "Argument 'config' must not be null");
+
+        maxTotalConnections = getConfigValueAsInt(config, "max_total", 25);
+        maxConnectionsPerRoute = getConfigValueAsInt(config, "max_per_route", 10);
+        idleTimeout = getConfigValueAsLong(config, "idle_timeout", 60000L);
+        final long keepAlive = getConfigValueAsLong(config, "keep_alive", 30000L);
+
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setUseExpectContinue(params, false);
+        HttpClientParams.setRedirecting(params, false);
+        ConnManagerParams.setMaxTotalConnections(params, maxTotalConnections);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnectionsPerRoute));
+        ConnManagerParams.setTimeout(params, getConfigValueAsLong(config, "request_timeout", 0L));
+        HttpConnectionParams.setConnectionTimeout(params, getConfigValueAsInt(config, "connect_timeout", 0));
+        HttpConnectionParams.setSoTimeout(params, getConfigValueAsInt(config, "socket_timeout", 0));
+        HttpConnectionParams.setStaleCheckingEnabled(params, getConfigValueAsBoolean(config, "stale_checking", true));
+        HttpConnectionParams.setTcpNoDelay(params, true);
+
+        connectionManager = new InstrumentedConnManager(params, schemeRegistry);
+        httpClient = new DefaultHttpClient(connectionManager, params);
+        httpClient.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+            private final ConnectionKeepAliveStrategy delegate = new DefaultConnectionKeepAliveStrategy();
+
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                // honor the server's Keep-Alive header if present
+                long duration = delegate.getKeepAliveDuration(response, context);
+                return duration > 0 ? duration : keepAlive;
+            }
+        });
+    }
+
+    @Nonnull
+    public DefaultHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    public void evictIdleConnections() {
+        connectionManager.closeExpiredConnections();
+        if (idleTimeout > 0) {
+            connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void shutdown() {
+        connectionManager.shutdown();
+    }
+
+    @Nonnull
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getMaxTotalConnections() {
+        return maxTotalConnections;
+    }
+
+    @Override
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    @Override
+    public int getConnectionsInPool() {
+        return connectionManager.getConnectionsInPool();
+    }
+
+    @Override
+    public int getLeasedConnections() {
+        return connectionManager.leased.get();
+    }
+
+    @Override
+    public int getPendingRequests() {
+        return connectionManager.pending.get();
+    }
+
+    @Override
+    public long getLeaseCount() {
+        return connectionManager.leaseCount.get();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return connectionManager.timeoutCount.get();
+    }
+
+    @Override
+    public long getTotalWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(connectionManager.totalWaitTime.get());
+    }
+
+    @Override
+    public long getMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(connectionManager.maxWaitTime.get());
+    }
+
+    private static class InstrumentedConnManager extends ThreadSafeClientConnManager {
+        private final AtomicInteger leased = new AtomicInteger();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicLong leaseCount = new AtomicLong();
+        private final AtomicLong timeoutCount = new AtomicLong();
+        private final AtomicLong totalWaitTime = new AtomicLong();
+        private final AtomicLong maxWaitTime = new AtomicLong();
+
+        private InstrumentedConnManager(HttpParams params, SchemeRegistry schemeRegistry) {
+            super(params, schemeRegistry);
+        }
+
+        @Override
+        public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+            final ClientConnectionRequest delegate = super.requestConnection(route, state);
+            return new ClientConnectionRequest() {
+                @Override
+                public ManagedClientConnection getConnection(long timeout, TimeUnit unit) throws InterruptedException, ConnectionPoolTimeoutException {
+                    long start = System.nanoTime();
+                    pending.incrementAndGet();
+                    try {
+                        ManagedClientConnection connection = delegate.getConnection(timeout, unit);
+                        leased.incrementAndGet();
+                        leaseCount.incrementAndGet();
+                        return connection;
+                    } catch (ConnectionPoolTimeoutException e) {
+                        timeoutCount.incrementAndGet();
+                        throw e;
+                    } finally {
+                        pending.decrementAndGet();
+                        recordWaitTime(System.nanoTime() - start);
+                    }
+                }
+
+                @Override
+                public void abortRequest() {
+                    delegate.abortRequest();
+                }
+            };
+        }
+
+        @Override
+        public void releaseConnection(ManagedClientConnection connection, long validDuration, TimeUnit timeUnit) {
+            try {
+                // a request aborted from another thread may hand back a shut down connection marked as reusable
+                if (!connection.isOpen()) {
+                    connection.unmarkReusable();
+                }
+                super.releaseConnection(connection, validDuration, timeUnit);
+            } finally {
+                leased.decrementAndGet();
+            }
+        }
+
+        private void recordWaitTime(long waitTime) {
+            totalWaitTime.addAndGet(waitTime);
+            long max = maxWaitTime.get();
+            while (waitTime > max && !maxWaitTime.compareAndSet(max, waitTime)) {
+                max = maxWaitTime.get();
+            }
+        }
+    }
+}
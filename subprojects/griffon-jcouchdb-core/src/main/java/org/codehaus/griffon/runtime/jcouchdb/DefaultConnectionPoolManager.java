@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.core.Configuration;
+import griffon.plugins.jcouchdb.ConnectionPool;
+import griffon.plugins.jcouchdb.ConnectionPoolManager;
+import org.jcouchdb.db.Server;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class DefaultConnectionPoolManager implements ConnectionPoolManager {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultConnectionPoolManager.class);
+    private static final String KEY_CONNECTION_POOL = "connection_pool";
+
+    private final ConcurrentMap<String, DefaultConnectionPool> connectionPools = new ConcurrentHashMap<>();
+    private final Map<String, Object> poolConfig;
+    private final long evictionInterval;
+    private ScheduledExecutorService evictionExecutor;
+
+    @Inject
+    public DefaultConnectionPoolManager(@Nonnull @Named("jcouchdb") Configuration configuration) {
+        requireNonNull(configuration, "Argument 'configuration' must not be null");
+        Map<String, Object> config = configuration.get(KEY_CONNECTION_POOL, Collections.<String, Object>emptyMap());
+        this.poolConfig = config;
+        this.evictionInterval = getConfigValueAsLong(config, "eviction_interval", 30000L);
+    }
+
+    @Nonnull
+    @Override
+    public Server createServer(@Nonnull String host, int port) {
+        requireNonBlank(host, "Argument 'host' must not be blank");
+        return new PooledServer(getConnectionPool(host, port), host, port);
+    }
+
+    @Nonnull
+    @Override
+    public Collection<ConnectionPool> getConnectionPools() {
+        return Collections.<ConnectionPool>unmodifiableCollection(connectionPools.values());
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        if (evictionExecutor != null) {
+            evictionExecutor.shutdownNow();
+            evictionExecutor = null;
+        }
+        for (DefaultConnectionPool connectionPool : connectionPools.values()) {
+            LOG.debug("Shutting down connection pool {}", connectionPool.getName());
+            connectionPool.shutdown();
+        }
+        connectionPools.clear();
+    }
+
+    @Nonnull
+    private DefaultConnectionPool getConnectionPool(@Nonnull String host, int port) {
+        String key = host + ":" + port;
+        DefaultConnectionPool connectionPool = connectionPools.get(key);
+        if (connectionPool == null) {
+            DefaultConnectionPool candidate = new DefaultConnectionPool(key, poolConfig);
+            connectionPool = connectionPools.putIfAbsent(key, candidate);
+            if (connectionPool == null) {
+                LOG.debug("Created connection pool {}", key);
+                connectionPool = candidate;
+                scheduleEviction();
+            } else {
+                candidate.shutdown();
+            }
+        }
+        return connectionPool;
+    }
+
+    private synchronized void scheduleEviction() {
+        if (evictionExecutor != null || evictionInterval <= 0) {
+            return;
+        }
+
+        evictionExecutor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("jcouchdb-connection-eviction"));
+        evictionExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (DefaultConnectionPool connectionPool : connectionPools.values()) {
+                    connectionPool.evictIdleConnections();
+                }
+            }
+        }, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+    }
+}
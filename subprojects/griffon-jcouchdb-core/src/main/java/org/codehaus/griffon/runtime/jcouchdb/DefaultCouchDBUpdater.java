@@ -15,20 +15,390 @@
  */
 package org.codehaus.griffon.runtime.jcouchdb;
 
+import griffon.core.resources.ResourceHandler;
+import griffon.exceptions.GriffonException;
 import griffon.plugins.jcouchdb.CouchDBUpdater;
+import org.jcouchdb.db.Database;
+import org.jcouchdb.db.Response;
+import org.jcouchdb.db.Server;
 import org.jcouchdb.document.DesignDocument;
+import org.jcouchdb.document.DocumentInfo;
+import org.jcouchdb.exception.DataAccessException;
 import org.jcouchdb.util.AbstractCouchDBUpdater;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
 
 /**
+ * Reads design documents from the classpath, one directory per design document holding its views as
+ * {@code <view>.map.js} and {@code <view>.reduce.js} files. Each uploaded design document carries a hash of its
+ * files; the hashes stored on the server are fetched with a single {@code _all_docs} request and only missing or
+ * changed design documents are uploaded, in a single {@code _bulk_docs} request. Successful syncs are remembered
+ * for the lifetime of the process, per server URI, or per list of node URIs for a cluster.
+ *
  * @author Andres Almiray
  */
 public class DefaultCouchDBUpdater extends AbstractCouchDBUpdater implements CouchDBUpdater {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultCouchDBUpdater.class);
+    private static final String PROPERTY_HASH = "griffon_hash";
+    private static final String SEPARATOR = "/";
+    private static final String DEFAULT_RESOURCE_PATH = "jcouchdb/";
+    private static final String DESIGN_DOCUMENTS_QUERY = "/_all_docs?include_docs=true&startkey=%22_design%2F%22&endkey=%22_design0%22";
+
+    private final ResourceHandler resourceHandler;
+    private final ConcurrentMap<String, FutureTask<SortedMap<String, String>>> resources = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, FutureTask<List<DesignDocument>>> syncs = new ConcurrentHashMap<>();
+
+    @Inject
+    public DefaultCouchDBUpdater(@Nonnull ResourceHandler resourceHandler) {
+        this.resourceHandler = requireNonNull(resourceHandler, "Argument 'resourceHandler' must not be null");
+    }
+
+    @Override
+    public List<DesignDocument> updateDesignDocuments() throws IOException {
+        updateDesignDocuments(database, DEFAULT_RESOURCE_PATH + database.getName());
+        return readDesignDocuments();
+    }
+
     @Override
     protected List<DesignDocument> readDesignDocuments() throws IOException {
-        return Collections.emptyList();
+        return buildDesignDocuments(readResources(DEFAULT_RESOURCE_PATH + database.getName()));
+    }
+
+    @Nonnull
+    @Override
+    public List<DesignDocument> updateDesignDocuments(@Nonnull final Database database, @Nonnull String resourcePath) throws IOException {
+        requireNonNull(database, "Argument 'database' must not be null");
+        requireNonBlank(resourcePath, "Argument 'resourcePath' must not be blank");
+
+        final SortedMap<String, String> files = readResources(resourcePath);
+        String serverKey = serverKey(database);
+        if (serverKey == null) {
+            // servers without a URI cannot be told apart, their syncs are not remembered
+            return sync(database, files);
+        }
+        String key = serverKey + SEPARATOR + database.getName() + "|" + resourcePath;
+        FutureTask<List<DesignDocument>> task = new FutureTask<>(new Callable<List<DesignDocument>>() {
+            @Override
+            public List<DesignDocument> call() throws Exception {
+                return sync(database, files);
+            }
+        });
+
+        FutureTask<List<DesignDocument>> sync = syncs.putIfAbsent(key, task);
+        if (sync == null) {
+            sync = task;
+            task.run();
+        }
+
+        List<DesignDocument> uploaded;
+        try {
+            uploaded = await(sync);
+        } catch (IOException | RuntimeException e) {
+            // failed syncs are retried on the next call
+            syncs.remove(key, sync);
+            throw e;
+        }
+        // only the caller that ran the sync reports the uploads
+        return sync == task ? uploaded : Collections.<DesignDocument>emptyList();
+    }
+
+    @Nonnull
+    private List<DesignDocument> sync(@Nonnull Database database, @Nonnull SortedMap<String, String> files) {
+        if (createDatabase && database.getServer().createDatabase(database.getName())) {
+            LOG.info("Database '{}' created", database.getName());
+        }
+
+        List<DesignDocument> designDocuments = buildDesignDocuments(files);
+        if (designDocuments.isEmpty()) {
+            return designDocuments;
+        }
+
+        Map<String, RemoteDesignDocument> remote = fetchRemoteDesignDocuments(database);
+        List<DesignDocument> changed = new ArrayList<>();
+        for (DesignDocument designDocument : designDocuments) {
+            RemoteDesignDocument existing = remote.get(designDocument.getId());
+            String hash = (String) designDocument.getProperty(PROPERTY_HASH);
+            if (existing == null) {
+                changed.add(designDocument);
+            } else if (!hash.equals(existing.hash)) {
+                designDocument.setRevision(existing.revision);
+                changed.add(designDocument);
+            }
+        }
+
+        LOG.debug("{} of {} design document(s) of database '{}' need to be uploaded", changed.size(), designDocuments.size(), database.getName());
+        if (changed.isEmpty()) {
+            return changed;
+        }
+
+        for (DocumentInfo info : database.bulkCreateDocuments(changed, false)) {
+            if (info.getError() != null) {
+                throw new GriffonException("Could not upload design document '" + info.getId() + "' to database '" +
+                    database.getName() + "': " + info.getError() + " " + info.getReason());
+            }
+        }
+        return Collections.unmodifiableList(changed);
+    }
+
+    @Nonnull
+    private Map<String, RemoteDesignDocument> fetchRemoteDesignDocuments(@Nonnull Database database) {
+        Response response = null;
+        try {
+            response = database.getServer().get(SEPARATOR + database.getName() + DESIGN_DOCUMENTS_QUERY);
+            if (!response.isOk()) {
+                throw new DataAccessException("Could not list design documents of database '" + database.getName() + "'", response);
+            }
+
+            Map<String, RemoteDesignDocument> remote = new HashMap<>();
+            List<?> rows = (List<?>) response.getContentAsMap().get("rows");
+            if (rows != null) {
+                for (Object o : rows) {
+                    Map<?, ?> row = (Map<?, ?>) o;
+                    Map<?, ?> value = (Map<?, ?>) row.get("value");
+                    Map<?, ?> doc = (Map<?, ?>) row.get("doc");
+                    if (value != null && doc != null) {
+                        remote.put(String.valueOf(row.get("id")),
+                            new RemoteDesignDocument(String.valueOf(value.get("rev")), (String) doc.get(PROPERTY_HASH)));
+                    }
+                }
+            }
+            return remote;
+        } finally {
+            if (response != null) {
+                response.destroy();
+            }
+        }
+    }
+
+    @Nonnull
+    private List<DesignDocument> buildDesignDocuments(@Nonnull SortedMap<String, String> files) {
+        Map<String, DesignDocument> designDocuments = new LinkedHashMap<>();
+        Map<String, MessageDigest> digests = new LinkedHashMap<>();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            String path = file.getKey();
+            createViewFor(path, file.getValue(), designDocuments, SEPARATOR);
+
+            // files are sorted, the hash does not depend on classpath scanning order
+            String designName = path.substring(0, path.indexOf(SEPARATOR));
+            MessageDigest digest = digests.get(designName);
+            if (digest == null) {
+                digest = sha256();
+                digests.put(designName, digest);
+            }
+            digest.update(path.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(file.getValue().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+
+        List<DesignDocument> result = new ArrayList<>();
+        for (Map.Entry<String, DesignDocument> entry : designDocuments.entrySet()) {
+            DesignDocument designDocument = entry.getValue();
+            designDocument.setProperty(PROPERTY_HASH, toHex(digests.get(entry.getKey()).digest()));
+            result.add(designDocument);
+        }
+        return result;
+    }
+
+    @Nonnull
+    private SortedMap<String, String> readResources(@Nonnull final String resourcePath) throws IOException {
+        FutureTask<SortedMap<String, String>> task = new FutureTask<>(new Callable<SortedMap<String, String>>() {
+            @Override
+            public SortedMap<String, String> call() throws Exception {
+                return Collections.unmodifiableSortedMap(scanResources(resourcePath));
+            }
+        });
+
+        FutureTask<SortedMap<String, String>> pending = resources.putIfAbsent(resourcePath, task);
+        if (pending == null) {
+            pending = task;
+            task.run();
+        }
+
+        try {
+            return await(pending);
+        } catch (IOException | RuntimeException e) {
+            resources.remove(resourcePath, pending);
+            throw e;
+        }
+    }
+
+    @Nonnull
+    private SortedMap<String, String> scanResources(@Nonnull String resourcePath) throws IOException {
+        SortedMap<String, String> files = new TreeMap<>();
+        for (URL url : resourceHandler.getResources(resourcePath)) {
+            if ("file".equals(url.getProtocol())) {
+                scanDirectory(url, files);
+            } else if ("jar".equals(url.getProtocol())) {
+                scanJar(url, files);
+            } else {
+                LOG.warn("Skipping design documents at {}, only directories and jar files are supported", url);
+            }
+        }
+        LOG.debug("Found {} view file(s) under '{}'", files.size(), resourcePath);
+        return files;
+    }
+
+    private static void scanDirectory(@Nonnull URL url, @Nonnull SortedMap<String, String> files) throws IOException {
+        Path root;
+        try {
+            root = Paths.get(url.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid resource location " + url, e);
+        }
+
+        try (Stream<Path> paths = Files.walk(root, 2)) {
+            Iterator<Path> iterator = paths.iterator();
+            while (iterator.hasNext()) {
+                Path path = iterator.next();
+                String relativePath = root.relativize(path).toString().replace(path.getFileSystem().getSeparator(), SEPARATOR);
+                if (isViewFile(relativePath) && !files.containsKey(relativePath)) {
+                    files.put(relativePath, new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+
+    private static void scanJar(@Nonnull URL url, @Nonnull SortedMap<String, String> files) throws IOException {
+        URLConnection connection = url.openConnection();
+        if (!(connection instanceof JarURLConnection)) {
+            LOG.warn("Skipping design documents at {}, not a jar file", url);
+            return;
+        }
+        JarURLConnection jarConnection = (JarURLConnection) connection;
+        jarConnection.setUseCaches(false);
+        String prefix = jarConnection.getEntryName() + SEPARATOR;
+
+        try (JarFile jarFile = jarConnection.getJarFile()) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().startsWith(prefix)) {
+                    continue;
+                }
+                String relativePath = entry.getName().substring(prefix.length());
+                if (isViewFile(relativePath) && !files.containsKey(relativePath)) {
+                    try (InputStream in = jarFile.getInputStream(entry)) {
+                        files.put(relativePath, read(in));
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isViewFile(@Nonnull String relativePath) {
+        // <design>/<view>.map.js or <design>/<view>.reduce.js
+        int separator = relativePath.indexOf(SEPARATOR);
+        return separator > 0 && separator == relativePath.lastIndexOf(SEPARATOR) &&
+            (relativePath.endsWith(MAP_SUFFIX) || relativePath.endsWith(REDUCE_SUFFIX));
+    }
+
+    @Nullable
+    private static String serverKey(@Nonnull Database database) {
+        Server server = database.getServer();
+        if (server instanceof ClusterServer) {
+            // a cluster is not the same server as its first node
+            return String.join(",", ((ClusterServer) server).getNodeURIs());
+        }
+        if (server instanceof PooledServer) {
+            return ((PooledServer) server).getServerURI();
+        }
+        return null;
+    }
+
+    @Nonnull
+    private static String read(@Nonnull InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static <T> T await(@Nonnull FutureTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GriffonException("Interrupted while updating design documents", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new GriffonException("Could not update design documents", cause);
+        }
+    }
+
+    @Nonnull
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new GriffonException(e);
+        }
+    }
+
+    @Nonnull
+    private static String toHex(@Nonnull byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static final class RemoteDesignDocument {
+        private final String revision;
+        private final String hash;
+
+        private RemoteDesignDocument(@Nonnull String revision, String hash) {
+            this.revision = revision;
+            this.hash = hash;
+        }
     }
 }
@@ -19,30 +19,52 @@ import griffon.core.Configuration;
 import griffon.core.GriffonApplication;
 import griffon.core.injection.Injector;
 import griffon.exceptions.GriffonException;
+import griffon.plugins.jcouchdb.ConnectionPoolManager;
 import griffon.plugins.jcouchdb.CouchDBUpdater;
 import griffon.plugins.jcouchdb.DatabaseFactory;
+import griffon.plugins.jcouchdb.DatabaseMetricsManager;
+import griffon.plugins.jcouchdb.DocumentCache;
+import griffon.plugins.jcouchdb.DocumentCacheManager;
+import griffon.plugins.jcouchdb.DocumentLoader;
+import griffon.plugins.jcouchdb.DocumentLoaderManager;
+import griffon.plugins.jcouchdb.HttpTransport;
+import griffon.plugins.jcouchdb.HttpTransportFactory;
 import griffon.plugins.jcouchdb.JcouchdbBootstrap;
+import griffon.plugins.jcouchdb.JsonConfigFactory;
+import griffon.plugins.jcouchdb.JsonEngineFactory;
+import griffon.plugins.jcouchdb.LocalReplica;
+import griffon.plugins.jcouchdb.LocalReplicaManager;
+import griffon.plugins.jcouchdb.ViewIndexWarmer;
+import griffon.plugins.jcouchdb.ViewResultCache;
+import griffon.plugins.jcouchdb.ViewResultCacheManager;
 import griffon.util.GriffonNameUtils;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.Credentials;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.codehaus.griffon.runtime.core.storage.AbstractObjectFactory;
 import org.jcouchdb.db.Database;
-import org.svenson.JSON;
+import org.jcouchdb.db.Server;
+import org.jcouchdb.document.DesignDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.svenson.JSONConfig;
 import org.svenson.JSONParser;
-import org.svenson.converter.DefaultTypeConverterRepository;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
 import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
 import static griffon.util.ConfigUtils.getConfigValueAsString;
 import static griffon.util.GriffonNameUtils.requireNonBlank;
 import static java.util.Arrays.asList;
@@ -52,7 +74,9 @@ import static java.util.Objects.requireNonNull;
  * @author Andres Almiray
  */
 public class DefaultDatabaseFactory extends AbstractObjectFactory<Database> implements DatabaseFactory {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultDatabaseFactory.class);
     private static final String ERROR_DATASOURCE_BLANK = "Argument 'databaseName' must not be blank";
+    private static final String EVENT_CONFIGURE_JSON_PARSER = "ConfigureJcouchdbJSONParser";
 
     private final Set<String> databaseNames = new LinkedHashSet<>();
 
@@ -62,6 +86,36 @@ public class DefaultDatabaseFactory extends AbstractObjectFactory<Database> impl
     @Inject
     private CouchDBUpdater couchDBUpdater;
 
+    @Inject
+    private ConnectionPoolManager connectionPoolManager;
+
+    @Inject
+    private HttpTransportFactory httpTransportFactory;
+
+    @Inject
+    private JsonConfigFactory jsonConfigFactory;
+
+    @Inject
+    private JsonEngineFactory jsonEngineFactory;
+
+    @Inject
+    private DocumentCacheManager documentCacheManager;
+
+    @Inject
+    private ViewResultCacheManager viewResultCacheManager;
+
+    @Inject
+    private LocalReplicaManager localReplicaManager;
+
+    @Inject
+    private DocumentLoaderManager documentLoaderManager;
+
+    @Inject
+    private DatabaseMetricsManager databaseMetricsManager;
+
+    @Inject
+    private ViewIndexWarmer viewIndexWarmer;
+
     @Inject
     public DefaultDatabaseFactory(@Nonnull @Named("jcouchdb") Configuration configuration, @Nonnull GriffonApplication application) {
         super(configuration, application);
@@ -103,6 +157,7 @@ public class DefaultDatabaseFactory extends AbstractObjectFactory<Database> impl
     public Database create(@Nonnull String name) {
         requireNonBlank(name, ERROR_DATASOURCE_BLANK);
         Map<String, Object> config = narrowConfig(name);
+        long startTime = System.nanoTime();
 
         event("JcouchdbConnectStart", asList(name, config));
 
@@ -114,6 +169,7 @@ public class DefaultDatabaseFactory extends AbstractObjectFactory<Database> impl
 
         event("JcouchdbConnectEnd", asList(name, config, database));
 
+        metricsFor(name).recordCreate(System.nanoTime() - startTime);
         return database;
     }
 
@@ -122,6 +178,7 @@ public class DefaultDatabaseFactory extends AbstractObjectFactory<Database> impl
         requireNonBlank(name, ERROR_DATASOURCE_BLANK);
         requireNonNull(instance, "Argument 'instance' must not be null");
         Map<String, Object> config = narrowConfig(name);
+        long startTime = System.nanoTime();
 
         event("JcouchdbDisconnectStart", asList(name, config, instance));
 
@@ -129,7 +186,34 @@ public class DefaultDatabaseFactory extends AbstractObjectFactory<Database> impl
             ((JcouchdbBootstrap) o).destroy(name, instance);
         }
 
+        // the replica stops pushing and pulling before its connections go away
+        LocalReplica localReplica = localReplicaManager.getLocalReplica(name);
+        if (localReplica != null && (!(instance instanceof ManagedDatabase) || ((ManagedDatabase) instance).getLocalReplica() == localReplica)) {
+            localReplicaManager.removeLocalReplica(name);
+        }
+        DocumentLoader documentLoader = documentLoaderManager.getDocumentLoader(name);
+        if (documentLoader != null && (!(documentLoader instanceof DefaultDocumentLoader) || ((DefaultDocumentLoader) documentLoader).getDatabase() == instance)) {
+            documentLoaderManager.removeDocumentLoader(name);
+        }
+        instance.getServer().shutDown();
+        // an evicted database may be destroyed after it has been opened again
+        DocumentCache documentCache = documentCacheManager.getDocumentCache(name);
+        if (documentCache != null && (!(instance instanceof ManagedDatabase) || ((ManagedDatabase) instance).getDocumentCache() == documentCache)) {
+            documentCacheManager.removeDocumentCache(name);
+        }
+        ViewResultCache viewResultCache = viewResultCacheManager.getViewResultCache(name);
+        if (viewResultCache != null && (!(instance instanceof ManagedDatabase) || ((ManagedDatabase) instance).getViewResultCache() == viewResultCache)) {
+            viewResultCacheManager.removeViewResultCache(name);
+        }
+
         event("JcouchdbDisconnectEnd", asList(name, config));
+
+        metricsFor(name).recordDestroy(System.nanoTime() - startTime);
+    }
+
+    @Nonnull
+    private DefaultDatabaseMetrics metricsFor(@Nonnull String name) {
+        return (DefaultDatabaseMetrics) databaseMetricsManager.getMetrics(name);
     }
 
     @Nonnull
@@ -145,7 +229,24 @@ public class DefaultDatabaseFactory extends AbstractObjectFactory<Database> impl
         requireNonBlank(host, "Configuration value for 'host' in database." + name + " must not be blank");
         requireNonBlank(datastore, "Configuration value for 'datastore' in database." + name + " must not be blank");
 
-        Database db = new Database(host, port, datastore);
+        DefaultDocumentCache documentCache = null;
+        if (getConfigValueAsBoolean(config, "document_cache.enabled", false)) {
+            int maxDocuments = getConfigValueAsInt(config, "document_cache.max_documents", 1000);
+            documentCache = (DefaultDocumentCache) documentCacheManager.createDocumentCache(name, maxDocuments);
+        }
+        DefaultViewResultCache viewResultCache = null;
+        if (getConfigValueAsBoolean(config, "view_cache.enabled", false)) {
+            long maxBytes = getConfigValueAsLong(config, "view_cache.max_bytes", 4L * 1024L * 1024L);
+            viewResultCache = (DefaultViewResultCache) viewResultCacheManager.createViewResultCache(name, maxBytes);
+        }
+        Server server = createServer(config, name, host, port);
+        if (server instanceof PooledServer) {
+            PooledServer pooledServer = (PooledServer) server;
+            pooledServer.setDatabaseMetrics(metricsFor(name));
+            pooledServer.setCompression(getConfigValueAsBoolean(config, "compression.enabled", false),
+                getConfigValueAsLong(config, "compression.min_request_size", -1L));
+        }
+        ManagedDatabase db = new ManagedDatabase(server, datastore, documentCache, viewResultCache);
 
         // check to see if there are any user credentials and set them
         if (!GriffonNameUtils.isBlank(username)) {
@@ -160,34 +261,97 @@ public class DefaultDatabaseFactory extends AbstractObjectFactory<Database> impl
             db.getServer().setCredentials(authScope, credentials);
         }
 
-        DefaultTypeConverterRepository typeConverterRepository = new DefaultTypeConverterRepository();
-        JsonDateConverter dateConverter = new JsonDateConverter();
-        typeConverterRepository.addTypeConverter(dateConverter);
+        // the shared config is immutable; listeners customizing the parser get their own copy
+        JSONConfig jsonConfig = jsonConfigFactory.getJsonConfig(config);
+        if (!getApplication().getEventRouter().getEventListeners(EVENT_CONFIGURE_JSON_PARSER).isEmpty()) {
+            JSONParser parser = new JSONParser(jsonConfig.getJsonParser());
+            event(EVENT_CONFIGURE_JSON_PARSER, asList(name, config, parser));
+            jsonConfig = new JSONConfig(jsonConfig.getJsonGenerator(), parser);
+        }
+        db.setJsonConfig(jsonConfig);
+        db.setJsonEngine(jsonEngineFactory.getJsonEngine(config, jsonConfig));
 
-        JSON generator = new JSON();
-        generator.setIgnoredProperties(Arrays.asList("metaClass"));
-        generator.setTypeConverterRepository(typeConverterRepository);
-        generator.registerTypeConversion(java.util.Date.class, dateConverter);
-        generator.registerTypeConversion(java.sql.Date.class, dateConverter);
-        generator.registerTypeConversion(java.sql.Timestamp.class, dateConverter);
+        boolean replicated = getConfigValueAsBoolean(config, "replica.enabled", false);
+        if (replicated) {
+            db.setLocalReplica((DefaultLocalReplica) localReplicaManager.createLocalReplica(name, db, config));
+        }
+        documentLoaderManager.createDocumentLoader(name, db, config);
 
-        JSONParser parser = new JSONParser();
-        parser.setTypeConverterRepository(typeConverterRepository);
-        parser.registerTypeConversion(java.util.Date.class, dateConverter);
-        parser.registerTypeConversion(java.sql.Date.class, dateConverter);
-        parser.registerTypeConversion(java.sql.Timestamp.class, dateConverter);
-        event("ConfigureJcouchdbJSONParser", asList(name, config, parser));
+        // upload missing or changed views; the updater coalesces concurrent syncs of the same datastore
+        String designDocumentsPath = getConfigValueAsString(config, "design_documents.path", "jcouchdb/" + datastore);
+        List<DesignDocument> uploaded = Collections.emptyList();
+        try {
+            uploaded = updateDesignDocuments(db, designDocumentsPath);
+        } catch (RuntimeException e) {
+            if (!replicated) {
+                throw e;
+            }
+            // a replicated database opens offline, design documents are synced the next time it is opened
+            LOG.warn("Could not sync design documents of database '{}'", name, e);
+        }
 
-        db.setJsonConfig(new JSONConfig(generator, parser));
+        // build the indexes of changed views before the first query has to
+        if (!uploaded.isEmpty() && getConfigValueAsBoolean(config, "views.warm", true)) {
+            viewIndexWarmer.warm(name, db, uploaded);
+        }
+        if (getConfigValueAsBoolean(config, "views.stale_while_warming", false)) {
+            db.setStaleWhileWarming(name, viewIndexWarmer);
+        }
+
+        return db;
+    }
+
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    private Server createServer(@Nonnull Map<String, Object> config, @Nonnull String name, @Nonnull String host, int port) {
+        Object nodes = config.get("nodes");
+        if (!(nodes instanceof Collection) || ((Collection<?>) nodes).isEmpty()) {
+            return withTransport(connectionPoolManager.createServer(host, port), config, host, port);
+        }
 
-        // setup views
+        // each node is either 'host:port' or a map with host and port, both defaulting to the database's own
+        List<PooledServer> servers = new ArrayList<>();
+        for (Object node : (Collection<?>) nodes) {
+            String nodeHost = host;
+            int nodePort = port;
+            if (node instanceof Map) {
+                nodeHost = getConfigValueAsString((Map<String, Object>) node, "host", host);
+                nodePort = getConfigValueAsInt((Map<String, Object>) node, "port", port);
+            } else if (node != null) {
+                String spec = String.valueOf(node).trim();
+                int colon = spec.lastIndexOf(':');
+                nodeHost = colon > -1 ? spec.substring(0, colon) : spec;
+                nodePort = colon > -1 ? Integer.parseInt(spec.substring(colon + 1)) : port;
+            }
+            requireNonBlank(nodeHost, "Configuration value for 'nodes' in database." + name + " must not contain blank hosts");
+
+            Server server = withTransport(connectionPoolManager.createServer(nodeHost, nodePort), config, nodeHost, nodePort);
+            if (!(server instanceof PooledServer)) {
+                throw new GriffonException("Cannot route database." + name + " over " + server.getClass().getName() + "; clusters require pooled servers");
+            }
+            servers.add((PooledServer) server);
+        }
+        return new ClusterServer(name, servers, config);
+    }
+
+    @Nonnull
+    private Server withTransport(@Nonnull Server server, @Nonnull Map<String, Object> config, @Nonnull String host, int port) {
+        HttpTransport transport = httpTransportFactory.getHttpTransport(host, port, config);
+        if (transport != null) {
+            if (!(server instanceof PooledServer)) {
+                throw new GriffonException("Cannot send requests of " + server.getClass().getName() + " through the " + transport.getName() + " transport");
+            }
+            ((PooledServer) server).setHttpTransport(transport);
+        }
+        return server;
+    }
+
+    @Nonnull
+    private List<DesignDocument> updateDesignDocuments(@Nonnull Database database, @Nonnull String designDocumentsPath) {
         try {
-            couchDBUpdater.setDatabase(db);
-            couchDBUpdater.updateDesignDocuments();
+            return couchDBUpdater.updateDesignDocuments(database, designDocumentsPath);
         } catch (IOException e) {
             throw new GriffonException(e);
         }
-
-        return db;
     }
 }
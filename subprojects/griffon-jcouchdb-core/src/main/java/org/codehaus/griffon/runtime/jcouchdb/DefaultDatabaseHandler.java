@@ -15,22 +15,51 @@
  */
 package org.codehaus.griffon.runtime.jcouchdb;
 
+import griffon.core.ExecutorServiceManager;
+import griffon.exceptions.GriffonException;
+import griffon.plugins.jcouchdb.AttachmentStore;
+import griffon.plugins.jcouchdb.BulkWriter;
 import griffon.plugins.jcouchdb.DatabaseCallback;
 import griffon.plugins.jcouchdb.DatabaseFactory;
 import griffon.plugins.jcouchdb.DatabaseHandler;
+import griffon.plugins.jcouchdb.DatabaseMetricsManager;
 import griffon.plugins.jcouchdb.DatabaseStorage;
+import griffon.plugins.jcouchdb.DocumentLoader;
+import griffon.plugins.jcouchdb.DocumentLoaderManager;
+import griffon.plugins.jcouchdb.ProjectedDocument;
+import griffon.plugins.jcouchdb.Projection;
+import griffon.plugins.jcouchdb.ViewIterator;
 import org.jcouchdb.db.Database;
+import org.jcouchdb.db.Options;
+import org.jcouchdb.document.ValueAndDocumentRow;
+import org.jcouchdb.document.ValueRow;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 
 import static griffon.util.GriffonNameUtils.requireNonBlank;
 import static java.util.Objects.requireNonNull;
 
 /**
+ * Databases are acquired from the {@code DatabaseStorage} while callbacks run. Bulk writers and view iterators keep
+ * their database acquired until they are closed, and document loaders while a request is in flight, so the storage
+ * never evicts a database under them.
+ *
  * @author Andres Almiray
  */
 public class DefaultDatabaseHandler implements DatabaseHandler {
@@ -38,14 +67,37 @@ public class DefaultDatabaseHandler implements DatabaseHandler {
     private static final String ERROR_DATASBASE_BLANK = "Argument 'databaseName' must not be blank";
     private static final String ERROR_CONNECTION_SOURCE_NULL = "Argument 'database' must not be null";
     private static final String ERROR_CALLBACK_NULL = "Argument 'callback' must not be null";
+    private static final String ERROR_VALUE_CLASS_NULL = "Argument 'valueClass' must not be null";
+    // every prefetch holds a connection while it reads its page
+    private static final int MAX_PREFETCH_THREADS = 10;
 
     private final DatabaseFactory databaseFactory;
     private final DatabaseStorage databaseStorage;
+    private final DatabaseMetricsManager databaseMetricsManager;
+    private final DocumentLoaderManager documentLoaderManager;
+    private final ConcurrentMap<String, FutureTask<Database>> pendingDatabases = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, DocumentLoader> documentLoaders = new ConcurrentHashMap<>();
+    private final Object documentLoaderLock = new Object();
+    private final ExecutorService prefetchExecutor;
 
     @Inject
-    public DefaultDatabaseHandler(@Nonnull DatabaseFactory databaseFactory, @Nonnull DatabaseStorage databaseStorage) {
+    public DefaultDatabaseHandler(@Nonnull DatabaseFactory databaseFactory,
+                                  @Nonnull DatabaseStorage databaseStorage,
+                                  @Nonnull DatabaseMetricsManager databaseMetricsManager,
+                                  @Nonnull DocumentLoaderManager documentLoaderManager,
+                                  @Nonnull ExecutorServiceManager executorServiceManager) {
         this.databaseFactory = requireNonNull(databaseFactory, "Argument 'databaseFactory' must not be null");
         this.databaseStorage = requireNonNull(databaseStorage, "Argument 'databaseStorage' must not be null");
+        this.databaseMetricsManager = requireNonNull(databaseMetricsManager, "Argument 'databaseMetricsManager' must not be null");
+        this.documentLoaderManager = requireNonNull(documentLoaderManager, "Argument 'documentLoaderManager' must not be null");
+        requireNonNull(executorServiceManager, "Argument 'executorServiceManager' must not be null");
+
+        // pages wait in line once every thread is busy; shut down together with the application
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PREFETCH_THREADS, MAX_PREFETCH_THREADS, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("jcouchdb-view-prefetch"));
+        executor.allowCoreThreadTimeOut(true);
+        executorServiceManager.add(executor);
+        prefetchExecutor = executor;
     }
 
     @Nullable
@@ -60,8 +112,21 @@ public class DefaultDatabaseHandler implements DatabaseHandler {
         requireNonBlank(databaseName, ERROR_DATASBASE_BLANK);
         requireNonNull(callback, ERROR_CALLBACK_NULL);
 
-        Database database = getDatabase(databaseName);
-        return doWithDatabase(databaseName, database, callback);
+        DefaultDatabaseMetrics metrics = (DefaultDatabaseMetrics) databaseMetricsManager.getMetrics(databaseName);
+        long startTime = metrics.recordInvocationStart();
+        boolean failed = true;
+        try {
+            Database database = acquireDatabase(databaseName);
+            try {
+                R result = doWithDatabase(databaseName, database, callback);
+                failed = false;
+                return result;
+            } finally {
+                databaseStorage.release(databaseName, database);
+            }
+        } finally {
+            metrics.recordInvocationEnd(startTime, failed);
+        }
     }
 
     @Nullable
@@ -90,12 +155,267 @@ public class DefaultDatabaseHandler implements DatabaseHandler {
     }
 
     @Nonnull
-    private Database getDatabase(@Nonnull String databaseName) {
+    @Override
+    public BulkWriter createBulkWriter() {
+        return createBulkWriter(DefaultDatabaseFactory.KEY_DEFAULT);
+    }
+
+    @Nonnull
+    @Override
+    public BulkWriter createBulkWriter(@Nonnull String databaseName) {
+        requireNonBlank(databaseName, ERROR_DATASBASE_BLANK);
+        Database database = acquireDatabase(databaseName);
+        Runnable release = releaser(databaseName, database);
+        try {
+            DefaultBulkWriter bulkWriter = new DefaultBulkWriter(databaseName, database, databaseFactory.getConfigurationFor(databaseName));
+            bulkWriter.setOnClose(release);
+            return bulkWriter;
+        } catch (RuntimeException e) {
+            release.run();
+            throw e;
+        }
+    }
+
+    @Nonnull
+    @Override
+    public DocumentLoader getDocumentLoader() {
+        return getDocumentLoader(DefaultDatabaseFactory.KEY_DEFAULT);
+    }
+
+    @Nonnull
+    @Override
+    public DocumentLoader getDocumentLoader(@Nonnull String databaseName) {
+        requireNonBlank(databaseName, ERROR_DATASBASE_BLANK);
+        DocumentLoader documentLoader = documentLoaders.get(databaseName);
+        if (documentLoader == null) {
+            documentLoader = new AcquiringDocumentLoader(databaseName);
+            DocumentLoader previous = documentLoaders.putIfAbsent(databaseName, documentLoader);
+            if (previous != null) {
+                documentLoader = previous;
+            }
+        }
+        return documentLoader;
+    }
+
+    @Nonnull
+    @Override
+    public AttachmentStore getAttachmentStore() {
+        return getAttachmentStore(DefaultDatabaseFactory.KEY_DEFAULT);
+    }
+
+    @Nonnull
+    @Override
+    public AttachmentStore getAttachmentStore(@Nonnull String databaseName) {
+        requireNonBlank(databaseName, ERROR_DATASBASE_BLANK);
+        return new DefaultAttachmentStore(databaseName, this);
+    }
+
+    @Nonnull
+    @Override
+    public <V> ViewIterator<ValueRow<V>> iterateView(@Nonnull String viewName, @Nonnull Class<V> valueClass, @Nullable Options options) {
+        return iterateView(DefaultDatabaseFactory.KEY_DEFAULT, viewName, valueClass, options);
+    }
+
+    @Nonnull
+    @Override
+    public <V> ViewIterator<ValueRow<V>> iterateView(@Nonnull String databaseName, @Nonnull String viewName, @Nonnull Class<V> valueClass, @Nullable Options options) {
+        requireNonBlank(databaseName, ERROR_DATASBASE_BLANK);
+        requireNonNull(valueClass, ERROR_VALUE_CLASS_NULL);
+
+        Database database = acquireDatabase(databaseName);
+        Runnable release = releaser(databaseName, database);
+        try {
+            DefaultViewIterator<ValueRow<V>> iterator = new DefaultViewIterator<>(databaseName, database, viewName, ManagedDatabase.jsonEngineOf(database), valueClass,
+                (Class<?>) null, options, databaseFactory.getConfigurationFor(databaseName), prefetchExecutor);
+            iterator.setOnClose(release);
+            return iterator;
+        } catch (RuntimeException e) {
+            release.run();
+            throw e;
+        }
+    }
+
+    @Nonnull
+    @Override
+    public <V, D> ViewIterator<ValueAndDocumentRow<V, D>> iterateViewAndDocuments(@Nonnull String viewName, @Nonnull Class<V> valueClass, @Nonnull Class<D> documentClass, @Nullable Options options) {
+        return iterateViewAndDocuments(DefaultDatabaseFactory.KEY_DEFAULT, viewName, valueClass, documentClass, options);
+    }
+
+    @Nonnull
+    @Override
+    public <V, D> ViewIterator<ValueAndDocumentRow<V, D>> iterateViewAndDocuments(@Nonnull String databaseName, @Nonnull String viewName, @Nonnull Class<V> valueClass, @Nonnull Class<D> documentClass, @Nullable Options options) {
+        requireNonBlank(databaseName, ERROR_DATASBASE_BLANK);
+        requireNonNull(valueClass, ERROR_VALUE_CLASS_NULL);
+        requireNonNull(documentClass, "Argument 'documentClass' must not be null");
+
+        Database database = acquireDatabase(databaseName);
+        Runnable release = releaser(databaseName, database);
+        try {
+            DefaultViewIterator<ValueAndDocumentRow<V, D>> iterator = new DefaultViewIterator<>(databaseName, database, viewName, ManagedDatabase.jsonEngineOf(database), valueClass,
+                documentClass, new Options(options).includeDocs(true), databaseFactory.getConfigurationFor(databaseName), prefetchExecutor);
+            iterator.setOnClose(release);
+            return iterator;
+        } catch (RuntimeException e) {
+            release.run();
+            throw e;
+        }
+    }
+
+    @Nonnull
+    @Override
+    public <V> ViewIterator<ValueAndDocumentRow<V, ProjectedDocument>> iterateViewAndDocuments(@Nonnull String viewName, @Nonnull Class<V> valueClass, @Nonnull Projection projection, @Nullable Options options) {
+        return iterateViewAndDocuments(DefaultDatabaseFactory.KEY_DEFAULT, viewName, valueClass, projection, options);
+    }
+
+    @Nonnull
+    @Override
+    public <V> ViewIterator<ValueAndDocumentRow<V, ProjectedDocument>> iterateViewAndDocuments(@Nonnull String databaseName, @Nonnull String viewName, @Nonnull Class<V> valueClass, @Nonnull Projection projection, @Nullable Options options) {
+        requireNonBlank(databaseName, ERROR_DATASBASE_BLANK);
+        requireNonNull(valueClass, ERROR_VALUE_CLASS_NULL);
+        requireNonNull(projection, "Argument 'projection' must not be null");
+
+        Database database = acquireDatabase(databaseName);
+        Runnable release = releaser(databaseName, database);
+        try {
+            DefaultViewIterator<ValueAndDocumentRow<V, ProjectedDocument>> iterator = new DefaultViewIterator<>(databaseName, database, viewName, ManagedDatabase.jsonEngineOf(database), valueClass,
+                projection, new Options(options).includeDocs(true), databaseFactory.getConfigurationFor(databaseName), prefetchExecutor);
+            iterator.setOnClose(release);
+            return iterator;
+        } catch (RuntimeException e) {
+            release.run();
+            throw e;
+        }
+    }
+
+    @Nonnull
+    private Database acquireDatabase(@Nonnull String databaseName) {
+        // the storage may evict the database between its creation and this call
+        for (;;) {
+            Database database = databaseStorage.acquire(databaseName);
+            if (database != null) {
+                return database;
+            }
+            getDatabase(databaseName);
+        }
+    }
+
+    /**
+     * @return an action releasing the database at most once
+     */
+    @Nonnull
+    private Runnable releaser(@Nonnull final String databaseName, @Nonnull final Database database) {
+        final AtomicBoolean released = new AtomicBoolean();
+        return new Runnable() {
+            @Override
+            public void run() {
+                if (released.compareAndSet(false, true)) {
+                    databaseStorage.release(databaseName, database);
+                }
+            }
+        };
+    }
+
+    @Nonnull
+    private Database getDatabase(@Nonnull final String databaseName) {
         Database database = databaseStorage.get(databaseName);
-        if (database == null) {
-            database = databaseFactory.create(databaseName);
-            databaseStorage.set(databaseName, database);
+        if (database != null) {
+            return database;
+        }
+
+        // coalesce concurrent requests for the same database into a single creation
+        FutureTask<Database> task = new FutureTask<>(new Callable<Database>() {
+            @Override
+            public Database call() throws Exception {
+                // another caller may have completed creation since the first lookup
+                Database db = databaseStorage.get(databaseName);
+                if (db == null) {
+                    db = databaseFactory.create(databaseName);
+                    databaseStorage.set(databaseName, db);
+                }
+                return db;
+            }
+        });
+
+        FutureTask<Database> pending = pendingDatabases.putIfAbsent(databaseName, task);
+        if (pending == null) {
+            pending = task;
+            try {
+                task.run();
+            } finally {
+                pendingDatabases.remove(databaseName, task);
+            }
+        }
+
+        return awaitDatabase(databaseName, pending);
+    }
+
+    @Nonnull
+    private static Database awaitDatabase(@Nonnull String databaseName, @Nonnull FutureTask<Database> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GriffonException("Interrupted while waiting for database '" + databaseName + "'", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new GriffonException("Could not create database '" + databaseName + "'", cause);
+        }
+    }
+
+    /**
+     * Hands each request to the loader of the database currently open, keeping the database acquired until the
+     * request completes.
+     */
+    private final class AcquiringDocumentLoader implements DocumentLoader {
+        private final String databaseName;
+
+        private AcquiringDocumentLoader(@Nonnull String databaseName) {
+            this.databaseName = databaseName;
+        }
+
+        @Nonnull
+        @Override
+        public String getDatabaseName() {
+            return databaseName;
+        }
+
+        @Nonnull
+        @Override
+        public <D> CompletableFuture<D> get(@Nonnull String docId, @Nonnull Class<D> documentClass) {
+            Database database = acquireDatabase(databaseName);
+            final Runnable release = releaser(databaseName, database);
+            try {
+                return documentLoaderFor(database).get(docId, documentClass).whenComplete(new BiConsumer<D, Throwable>() {
+                    @Override
+                    public void accept(D document, Throwable failure) {
+                        release.run();
+                    }
+                });
+            } catch (RuntimeException e) {
+                release.run();
+                throw e;
+            }
+        }
+
+        @Nonnull
+        private DocumentLoader documentLoaderFor(@Nonnull Database database) {
+            DocumentLoader documentLoader = documentLoaderManager.getDocumentLoader(databaseName);
+            if (documentLoader != null) {
+                return documentLoader;
+            }
+            // removing the loader of an evicted database may have removed the one of the database open now
+            synchronized (documentLoaderLock) {
+                documentLoader = documentLoaderManager.getDocumentLoader(databaseName);
+                if (documentLoader == null) {
+                    documentLoader = documentLoaderManager.createDocumentLoader(databaseName, database, databaseFactory.getConfigurationFor(databaseName));
+                }
+                return documentLoader;
+            }
         }
-        return database;
     }
 }
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.DatabaseMetrics;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+
+/**
+ * {@code DatabaseMetrics} backed by striped counters. The {@code record} methods are safe to call from any thread
+ * and do not allocate.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultDatabaseMetrics implements DatabaseMetrics {
+    private final String databaseName;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder creates = new LongAdder();
+    private final AtomicLong lastCreateTime = new AtomicLong();
+    private final AtomicLong maxCreateTime = new AtomicLong();
+    private final LongAdder destroys = new LongAdder();
+    private final AtomicLong lastDestroyTime = new AtomicLong();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder uncompressedBytesSent = new LongAdder();
+    private final LongAdder uncompressedBytesReceived = new LongAdder();
+
+    public DefaultDatabaseMetrics(@Nonnull String databaseName) {
+        this.databaseName = requireNonBlank(databaseName, "Argument 'databaseName' must not be blank");
+    }
+
+    /**
+     * Marks the start of a {@code withJcouchdb} call.
+     *
+     * @return the start time, to be passed to {@link #recordInvocationEnd(long, boolean)}
+     */
+    public long recordInvocationStart() {
+        inFlight.increment();
+        return System.nanoTime();
+    }
+
+    public void recordInvocationEnd(long startTime, boolean failed) {
+        latency.record(System.nanoTime() - startTime);
+        inFlight.decrement();
+        invocations.increment();
+        if (failed) {
+            errors.increment();
+        }
+    }
+
+    public void recordCreate(long nanos) {
+        creates.increment();
+        lastCreateTime.set(nanos);
+        long current = maxCreateTime.get();
+        while (nanos > current && !maxCreateTime.compareAndSet(current, nanos)) {
+            current = maxCreateTime.get();
+        }
+    }
+
+    public void recordDestroy(long nanos) {
+        destroys.increment();
+        lastDestroyTime.set(nanos);
+    }
+
+    public void recordBytesSent(long bytes) {
+        if (bytes > 0) {
+            bytesSent.add(bytes);
+        }
+    }
+
+    public void recordBytesReceived(long bytes) {
+        if (bytes > 0) {
+            bytesReceived.add(bytes);
+        }
+    }
+
+    public void recordUncompressedBytesSent(long bytes) {
+        if (bytes > 0) {
+            uncompressedBytesSent.add(bytes);
+        }
+    }
+
+    public void recordUncompressedBytesReceived(long bytes) {
+        if (bytes > 0) {
+            uncompressedBytesReceived.add(bytes);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    @Override
+    public long getInvocationCount() {
+        return invocations.sum();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getInFlightCount() {
+        return inFlight.sum();
+    }
+
+    @Override
+    public long getLatencyPercentile(double fraction) {
+        return latency.percentile(fraction);
+    }
+
+    @Override
+    public long getMeanLatency() {
+        return latency.mean();
+    }
+
+    @Override
+    public long getMaxLatency() {
+        return latency.max();
+    }
+
+    @Override
+    public long getCreateCount() {
+        return creates.sum();
+    }
+
+    @Override
+    public long getLastCreateTime() {
+        return lastCreateTime.get();
+    }
+
+    @Override
+    public long getMaxCreateTime() {
+        return maxCreateTime.get();
+    }
+
+    @Override
+    public long getDestroyCount() {
+        return destroys.sum();
+    }
+
+    @Override
+    public long getLastDestroyTime() {
+        return lastDestroyTime.get();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getUncompressedBytesSent() {
+        return uncompressedBytesSent.sum();
+    }
+
+    @Override
+    public long getUncompressedBytesReceived() {
+        return uncompressedBytesReceived.sum();
+    }
+
+    @Override
+    public void reset() {
+        // in-flight calls are a gauge, not a statistic
+        latency.reset();
+        invocations.reset();
+        errors.reset();
+        creates.reset();
+        lastCreateTime.set(0L);
+        maxCreateTime.set(0L);
+        destroys.reset();
+        lastDestroyTime.set(0L);
+        bytesSent.reset();
+        bytesReceived.reset();
+        uncompressedBytesSent.reset();
+        uncompressedBytesReceived.reset();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.DatabaseMetrics;
+import griffon.plugins.jcouchdb.DatabaseMetricsManager;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+
+/**
+ * @author Andres Almiray
+ */
+public class DefaultDatabaseMetricsManager implements DatabaseMetricsManager {
+    private final ConcurrentMap<String, DefaultDatabaseMetrics> metrics = new ConcurrentHashMap<>();
+
+    @Nonnull
+    @Override
+    public DatabaseMetrics getMetrics(@Nonnull String databaseName) {
+        requireNonBlank(databaseName, "Argument 'databaseName' must not be blank");
+        // plain lookup first, this is called on every database access
+        DefaultDatabaseMetrics databaseMetrics = metrics.get(databaseName);
+        if (databaseMetrics == null) {
+            DefaultDatabaseMetrics newMetrics = new DefaultDatabaseMetrics(databaseName);
+            databaseMetrics = metrics.putIfAbsent(databaseName, newMetrics);
+            if (databaseMetrics == null) {
+                databaseMetrics = newMetrics;
+            }
+        }
+        return databaseMetrics;
+    }
+
+    @Nonnull
+    @Override
+    public Collection<DatabaseMetrics> getAllMetrics() {
+        return Collections.<DatabaseMetrics>unmodifiableCollection(metrics.values());
+    }
+}
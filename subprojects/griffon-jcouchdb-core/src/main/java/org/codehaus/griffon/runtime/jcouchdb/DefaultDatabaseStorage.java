@@ -15,12 +15,270 @@
  */
 package org.codehaus.griffon.runtime.jcouchdb;
 
+import griffon.core.Configuration;
+import griffon.core.ExecutorServiceManager;
+import griffon.plugins.jcouchdb.DatabaseFactory;
 import griffon.plugins.jcouchdb.DatabaseStorage;
-import org.codehaus.griffon.runtime.core.storage.DefaultObjectStorage;
+import griffon.util.GriffonNameUtils;
 import org.jcouchdb.db.Database;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static java.util.Objects.requireNonNull;
 
 /**
+ * {@code DatabaseStorage} configured by the top level {@code storage} block. Holds at most {@code max_databases}
+ * databases and evicts those idle for longer than {@code idle_timeout} milliseconds; both policies are disabled by
+ * default. Evicted databases are closed with {@link DatabaseFactory#destroy(String, Object)}, databases acquired by a
+ * callback or a handle are never evicted.
+ *
  * @author Andres Almiray
  */
-public class DefaultDatabaseStorage extends DefaultObjectStorage<Database> implements DatabaseStorage {
+public class DefaultDatabaseStorage implements DatabaseStorage {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultDatabaseStorage.class);
+    private static final String KEY_STORAGE = "storage";
+    private static final String DEFAULT_KEY = "default";
+
+    private final DatabaseFactory databaseFactory;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Object evictionLock = new Object();
+    private final LongAdder idleEvictionCount = new LongAdder();
+    private final LongAdder capacityEvictionCount = new LongAdder();
+    private final int maxDatabases;
+    private final long idleTimeout;
+
+    @Inject
+    public DefaultDatabaseStorage(@Nonnull @Named("jcouchdb") Configuration configuration,
+                                  @Nonnull DatabaseFactory databaseFactory,
+                                  @Nonnull ExecutorServiceManager executorServiceManager) {
+        requireNonNull(configuration, "Argument 'configuration' must not be null");
+        this.databaseFactory = requireNonNull(databaseFactory, "Argument 'databaseFactory' must not be null");
+        requireNonNull(executorServiceManager, "Argument 'executorServiceManager' must not be null");
+
+        Map<String, Object> config = configuration.get(KEY_STORAGE, Collections.<String, Object>emptyMap());
+        maxDatabases = getConfigValueAsInt(config, "max_databases", 0);
+        idleTimeout = getConfigValueAsLong(config, "idle_timeout", 0L);
+        long evictionInterval = getConfigValueAsLong(config, "eviction_interval", 30000L);
+
+        if (idleTimeout > 0 && evictionInterval > 0) {
+            // shut down together with the application
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("jcouchdb-storage-eviction"));
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    evictIdle();
+                }
+            }, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+            executorServiceManager.add(scheduler);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public String[] getKeys() {
+        Set<String> keys = entries.keySet();
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    @Nonnull
+    @Override
+    public Collection<Database> getValues() {
+        Set<Database> values = new LinkedHashSet<>();
+        for (Entry entry : entries.values()) {
+            values.add(entry.database);
+        }
+        return Collections.unmodifiableSet(values);
+    }
+
+    @Nullable
+    @Override
+    public Database get(@Nonnull String key) {
+        Entry entry = entries.get(resolveKey(key));
+        if (entry == null || entry.isEvicted()) {
+            return null;
+        }
+        entry.touch();
+        return entry.database;
+    }
+
+    @Nullable
+    @Override
+    public Database remove(@Nonnull String key) {
+        Entry entry = entries.remove(resolveKey(key));
+        return entry != null ? entry.database : null;
+    }
+
+    @Override
+    public void set(@Nonnull String key, @Nonnull Database instance) {
+        Entry entry = new Entry(requireNonNull(instance, "Argument 'instance' must not be null"));
+        entries.put(resolveKey(key), entry);
+        if (maxDatabases > 0 && entries.size() > maxDatabases) {
+            evict(collectOverCapacity(entry), capacityEvictionCount);
+        }
+    }
+
+    @Override
+    public boolean contains(@Nonnull String key) {
+        return entries.containsKey(resolveKey(key));
+    }
+
+    @Nullable
+    @Override
+    public Database acquire(@Nonnull String key) {
+        Entry entry = entries.get(resolveKey(key));
+        if (entry == null || !entry.acquire()) {
+            return null;
+        }
+        return entry.database;
+    }
+
+    @Override
+    public void release(@Nonnull String key, @Nonnull Database database) {
+        requireNonNull(database, "Argument 'database' must not be null");
+        Entry entry = entries.get(resolveKey(key));
+        // the database may have been closed and reopened while in use
+        if (entry != null && entry.database == database) {
+            entry.release();
+        }
+    }
+
+    @Override
+    public int getInUseCount() {
+        int count = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.users.get() > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long getIdleEvictionCount() {
+        return idleEvictionCount.sum();
+    }
+
+    @Override
+    public long getCapacityEvictionCount() {
+        return capacityEvictionCount.sum();
+    }
+
+    void evictIdle() {
+        long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        Map<String, Entry> victims = new LinkedHashMap<>();
+        synchronized (evictionLock) {
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                if (entry.lastAccess - deadline < 0 && entry.markEvicted()) {
+                    entries.remove(e.getKey(), entry);
+                    victims.put(e.getKey(), entry);
+                }
+            }
+        }
+        evict(victims, idleEvictionCount);
+    }
+
+    @Nonnull
+    private Map<String, Entry> collectOverCapacity(@Nonnull Entry added) {
+        Map<String, Entry> victims = new LinkedHashMap<>();
+        synchronized (evictionLock) {
+            while (entries.size() > maxDatabases) {
+                // least recently used among the idle databases; the one just added is kept even if all others are busy
+                Map.Entry<String, Entry> eldest = null;
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    Entry entry = e.getValue();
+                    if (entry != added && entry.users.get() == 0 && (eldest == null || entry.lastAccess - eldest.getValue().lastAccess < 0)) {
+                        eldest = e;
+                    }
+                }
+                if (eldest == null) {
+                    LOG.debug("Storage holds {} databases over its capacity of {}; all of them are in use", entries.size(), maxDatabases);
+                    break;
+                }
+                if (eldest.getValue().markEvicted()) {
+                    entries.remove(eldest.getKey(), eldest.getValue());
+                    victims.put(eldest.getKey(), eldest.getValue());
+                }
+            }
+        }
+        return victims;
+    }
+
+    private void evict(@Nonnull Map<String, Entry> victims, @Nonnull LongAdder counter) {
+        // destroying may take a while, never do it while holding the lock
+        for (Map.Entry<String, Entry> victim : victims.entrySet()) {
+            LOG.debug("Evicting database '{}'", victim.getKey());
+            counter.increment();
+            try {
+                databaseFactory.destroy(victim.getKey(), victim.getValue().database);
+            } catch (RuntimeException e) {
+                LOG.warn("Could not close evicted database '{}'", victim.getKey(), e);
+            }
+        }
+    }
+
+    @Nonnull
+    private static String resolveKey(@Nonnull String key) {
+        return GriffonNameUtils.isBlank(key) ? DEFAULT_KEY : key.trim();
+    }
+
+    private static final class Entry {
+        private final Database database;
+        // number of callbacks using the database, -1 once evicted
+        private final AtomicInteger users = new AtomicInteger();
+        private volatile long lastAccess = System.nanoTime();
+
+        private Entry(@Nonnull Database database) {
+            this.database = database;
+        }
+
+        private boolean acquire() {
+            for (;;) {
+                int current = users.get();
+                if (current < 0) {
+                    return false;
+                }
+                if (users.compareAndSet(current, current + 1)) {
+                    lastAccess = System.nanoTime();
+                    return true;
+                }
+            }
+        }
+
+        private void release() {
+            lastAccess = System.nanoTime();
+            users.decrementAndGet();
+        }
+
+        private void touch() {
+            lastAccess = System.nanoTime();
+        }
+
+        private boolean markEvicted() {
+            return users.compareAndSet(0, -1);
+        }
+
+        private boolean isEvicted() {
+            return users.get() < 0;
+        }
+    }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.DocumentCache;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@code DocumentCache} that keeps the JSON of up to {@code maxDocuments} documents, evicting the least recently used
+ * first.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultDocumentCache implements DocumentCache {
+    private final String databaseName;
+    private final int maxDocuments;
+    private final Map<String, CachedDocument> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public DefaultDocumentCache(@Nonnull String databaseName, int maxDocuments) {
+        this.databaseName = requireNonBlank(databaseName, "Argument 'databaseName' must not be blank");
+        this.maxDocuments = Math.max(1, maxDocuments);
+        this.entries = new LinkedHashMap<String, CachedDocument>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedDocument> eldest) {
+                if (size() > DefaultDocumentCache.this.maxDocuments) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Nonnull
+    @Override
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    @Override
+    public int getMaxDocuments() {
+        return maxDocuments;
+    }
+
+    @Override
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getRevalidationCount() {
+        return revalidations.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public void invalidate(@Nonnull String documentId) {
+        requireNonNull(documentId, "Argument 'documentId' must not be null");
+        synchronized (entries) {
+            entries.remove(documentId);
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns the cached entry for the given document. Counts a miss if there is none.
+     */
+    @Nullable
+    CachedDocument get(@Nonnull String documentId) {
+        CachedDocument entry;
+        synchronized (entries) {
+            entry = entries.get(documentId);
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        revalidations.increment();
+        return entry;
+    }
+
+    void put(@Nonnull String documentId, @Nonnull CachedDocument entry) {
+        synchronized (entries) {
+            entries.put(documentId, entry);
+        }
+    }
+
+    void recordHit() {
+        hits.increment();
+    }
+
+    static final class CachedDocument {
+        private final String etag;
+        private final byte[] content;
+
+        CachedDocument(@Nonnull String etag, @Nonnull byte[] content) {
+            this.etag = etag;
+            this.content = content;
+        }
+
+        @Nonnull
+        String getEtag() {
+            return etag;
+        }
+
+        /**
+         * @return the JSON of the document, never modified
+         */
+        @Nonnull
+        byte[] getContent() {
+            return content;
+        }
+    }
+}
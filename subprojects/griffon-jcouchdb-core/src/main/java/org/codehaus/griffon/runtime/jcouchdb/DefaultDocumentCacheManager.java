@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.DocumentCache;
+import griffon.plugins.jcouchdb.DocumentCacheManager;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+
+/**
+ * @author Andres Almiray
+ */
+public class DefaultDocumentCacheManager implements DocumentCacheManager {
+    private static final String ERROR_DATABASE_NAME_BLANK = "Argument 'databaseName' must not be blank";
+
+    private final ConcurrentMap<String, DefaultDocumentCache> documentCaches = new ConcurrentHashMap<>();
+
+    @Nonnull
+    @Override
+    public DocumentCache createDocumentCache(@Nonnull String databaseName, int maxDocuments) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        // a database that is opened again starts with an empty cache
+        DefaultDocumentCache documentCache = new DefaultDocumentCache(databaseName, maxDocuments);
+        documentCaches.put(databaseName, documentCache);
+        return documentCache;
+    }
+
+    @Override
+    public void removeDocumentCache(@Nonnull String databaseName) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        DefaultDocumentCache documentCache = documentCaches.remove(databaseName);
+        if (documentCache != null) {
+            documentCache.clear();
+        }
+    }
+
+    @Nullable
+    @Override
+    public DocumentCache getDocumentCache(@Nonnull String databaseName) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        return documentCaches.get(databaseName);
+    }
+
+    @Nonnull
+    @Override
+    public Collection<DocumentCache> getDocumentCaches() {
+        return Collections.<DocumentCache>unmodifiableCollection(documentCaches.values());
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.DocumentLoader;
+import org.jcouchdb.db.Database;
+import org.jcouchdb.document.ValueAndDocumentRow;
+import org.jcouchdb.document.ViewAndDocumentsResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@code DocumentLoader} configured by the {@code loader} block of a database. Ids requested for the same document
+ * class are collected for {@code batch_delay} milliseconds after the first one, or until {@code max_documents}
+ * distinct ids have been requested, and then fetched with a single {@code _all_docs} request. Up to
+ * {@code max_in_flight} requests are sent concurrently; callers never block.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultDocumentLoader implements DocumentLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultDocumentLoader.class);
+
+    private final String databaseName;
+    private final Database database;
+    private final long batchDelay;
+    private final int maxDocuments;
+    private final ScheduledThreadPoolExecutor executor;
+
+    private final Object lock = new Object();
+    private final Map<Class<?>, Batch<?>> batches = new HashMap<>();
+    private boolean closed;
+
+    public DefaultDocumentLoader(@Nonnull String databaseName, @Nonnull Database database, @Nonnull Map<String, Object> config) {
+        this.databaseName = requireNonBlank(databaseName, "Argument 'databaseName' must not be blank");
+        this.database = requireNonNull(database, "Argument 'database' must not be null");
+        requireNonNull(config, "Argument 'config' must not be null");
+
+        batchDelay = Math.max(0L, getConfigValueAsLong(config, "loader.batch_delay", 2L));
+        maxDocuments = Math.max(1, getConfigValueAsInt(config, "loader.max_documents", 100));
+        int maxInFlight = Math.max(1, getConfigValueAsInt(config, "loader.max_in_flight", 4));
+
+        // threads are only started once documents are requested, and stop when idle
+        executor = new ScheduledThreadPoolExecutor(maxInFlight, new DaemonThreadFactory("jcouchdb-loader-" + databaseName));
+        executor.setKeepAliveTime(60L, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    @Nonnull
+    @Override
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    @Nonnull
+    public Database getDatabase() {
+        return database;
+    }
+
+    @Nonnull
+    @Override
+    public <D> CompletableFuture<D> get(@Nonnull String docId, @Nonnull Class<D> documentClass) {
+        requireNonBlank(docId, "Argument 'docId' must not be blank");
+        requireNonNull(documentClass, "Argument 'documentClass' must not be null");
+
+        CompletableFuture<D> future = new CompletableFuture<>();
+        Batch<D> full = null;
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("DocumentLoader for database '" + databaseName + "' has been closed");
+            }
+            Batch<D> batch = batchFor(documentClass);
+            batch.add(docId, future);
+            if (batch.size() >= maxDocuments || batchDelay == 0) {
+                batches.remove(documentClass);
+                full = batch;
+            } else if (batch.timer == null) {
+                batch.timer = schedule(batch);
+            }
+        }
+
+        if (full != null) {
+            dispatch(full);
+        }
+        return future;
+    }
+
+    /**
+     * Sends the requests still queued and stops accepting new ones.
+     */
+    public void close() {
+        List<Batch<?>> pending;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending = new ArrayList<>(batches.values());
+            batches.clear();
+        }
+
+        for (Batch<?> batch : pending) {
+            dispatch(batch);
+        }
+        executor.shutdown();
+    }
+
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    private <D> Batch<D> batchFor(@Nonnull Class<D> documentClass) {
+        Batch<D> batch = (Batch<D>) batches.get(documentClass);
+        if (batch == null) {
+            batch = new Batch<>(documentClass);
+            batches.put(documentClass, batch);
+        }
+        return batch;
+    }
+
+    @Nonnull
+    private ScheduledFuture<?> schedule(@Nonnull final Batch<?> batch) {
+        return executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    // the batch may have been sent already because it filled up
+                    if (batches.get(batch.documentClass) != batch) {
+                        return;
+                    }
+                    batches.remove(batch.documentClass);
+                }
+                send(batch);
+            }
+        }, batchDelay, TimeUnit.MILLISECONDS);
+    }
+
+    private void dispatch(@Nonnull final Batch<?> batch) {
+        if (batch.timer != null) {
+            batch.timer.cancel(false);
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    send(batch);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            batch.fail(e);
+            throw e;
+        }
+    }
+
+    private <D> void send(@Nonnull Batch<D> batch) {
+        List<String> ids = new ArrayList<>(batch.requests.keySet());
+        try {
+            // generated documents are parsed as maps and decoded by their codec
+            boolean decode = JsonDocumentCodec.supports(batch.documentClass);
+            Class<?> parsedClass = decode ? Map.class : batch.documentClass;
+            ViewAndDocumentsResult<Map, ?> result = database.queryDocumentsByKeys(Map.class, parsedClass, ids, null, null);
+            // missing documents come back as rows with an error, deleted ones without a document
+            Map<String, D> documents = new HashMap<>(ids.size());
+            for (ValueAndDocumentRow<Map, ?> row : result.getRows()) {
+                Object document = row.getDocument();
+                if (document != null) {
+                    documents.put(String.valueOf(row.getKey()), decode ?
+                        JsonDocumentCodec.decode(database.getJsonConfig().getJsonParser(), batch.documentClass, (Map<?, ?>) document) :
+                        batch.documentClass.cast(document));
+                }
+            }
+            for (Map.Entry<String, List<CompletableFuture<D>>> entry : batch.requests.entrySet()) {
+                D document = documents.get(entry.getKey());
+                for (CompletableFuture<D> future : entry.getValue()) {
+                    future.complete(document);
+                }
+            }
+            LOG.trace("Loaded {} of {} documents from database '{}'", documents.size(), ids.size(), databaseName);
+        } catch (RuntimeException e) {
+            batch.fail(e);
+        }
+    }
+
+    private static final class Batch<D> {
+        private final Class<D> documentClass;
+        private final Map<String, List<CompletableFuture<D>>> requests = new LinkedHashMap<>();
+        private ScheduledFuture<?> timer;
+
+        private Batch(@Nonnull Class<D> documentClass) {
+            this.documentClass = documentClass;
+        }
+
+        private void add(@Nonnull String docId, @Nonnull CompletableFuture<D> future) {
+            List<CompletableFuture<D>> futures = requests.get(docId);
+            if (futures == null) {
+                futures = new ArrayList<>(1);
+                requests.put(docId, futures);
+            }
+            futures.add(future);
+        }
+
+        private int size() {
+            return requests.size();
+        }
+
+        private void fail(@Nonnull Throwable failure) {
+            for (List<CompletableFuture<D>> futures : requests.values()) {
+                for (CompletableFuture<D> future : futures) {
+                    future.completeExceptionally(failure);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.DocumentLoader;
+import griffon.plugins.jcouchdb.DocumentLoaderManager;
+import org.jcouchdb.db.Database;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class DefaultDocumentLoaderManager implements DocumentLoaderManager {
+    private static final String ERROR_DATABASE_NAME_BLANK = "Argument 'databaseName' must not be blank";
+
+    private final ConcurrentMap<String, DefaultDocumentLoader> documentLoaders = new ConcurrentHashMap<>();
+
+    @Nonnull
+    @Override
+    public DocumentLoader createDocumentLoader(@Nonnull String databaseName, @Nonnull Database database, @Nonnull Map<String, Object> config) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        requireNonNull(database, "Argument 'database' must not be null");
+        requireNonNull(config, "Argument 'config' must not be null");
+
+        DefaultDocumentLoader documentLoader = new DefaultDocumentLoader(databaseName, database, config);
+        DefaultDocumentLoader previous = documentLoaders.put(databaseName, documentLoader);
+        if (previous != null) {
+            previous.close();
+        }
+        return documentLoader;
+    }
+
+    @Override
+    public void removeDocumentLoader(@Nonnull String databaseName) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        DefaultDocumentLoader documentLoader = documentLoaders.remove(databaseName);
+        if (documentLoader != null) {
+            documentLoader.close();
+        }
+    }
+
+    @Nullable
+    @Override
+    public DocumentLoader getDocumentLoader(@Nonnull String databaseName) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        return documentLoaders.get(databaseName);
+    }
+
+    @Nonnull
+    @Override
+    public Collection<DocumentLoader> getDocumentLoaders() {
+        return Collections.<DocumentLoader>unmodifiableCollection(documentLoaders.values());
+    }
+}
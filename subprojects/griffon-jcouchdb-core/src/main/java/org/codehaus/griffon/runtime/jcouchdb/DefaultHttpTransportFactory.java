@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.core.Configuration;
+import griffon.plugins.jcouchdb.HttpTransport;
+import griffon.plugins.jcouchdb.HttpTransportFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static griffon.util.ConfigUtils.getConfigValueAsString;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class DefaultHttpTransportFactory implements HttpTransportFactory {
+    public static final String POOLED = "pooled";
+    private static final String KEY_TRANSPORT = "transport";
+    private static final String KEY_NIO_TRANSPORT = "nio_transport";
+
+    private final ConcurrentMap<String, HttpTransport> transports = new ConcurrentHashMap<>();
+    private final Map<String, Object> transportConfig;
+
+    @Inject
+    public DefaultHttpTransportFactory(@Nonnull @Named("jcouchdb") Configuration configuration) {
+        requireNonNull(configuration, "Argument 'configuration' must not be null");
+        this.transportConfig = configuration.get(KEY_NIO_TRANSPORT, Collections.<String, Object>emptyMap());
+    }
+
+    @Nullable
+    @Override
+    public HttpTransport getHttpTransport(@Nonnull String host, int port, @Nonnull Map<String, Object> config) {
+        requireNonBlank(host, "Argument 'host' must not be blank");
+        requireNonNull(config, "Argument 'config' must not be null");
+
+        String name = getConfigValueAsString(config, KEY_TRANSPORT, POOLED).trim();
+        if (POOLED.equalsIgnoreCase(name)) {
+            return null;
+        } else if (NioHttpTransport.NAME.equalsIgnoreCase(name)) {
+            String key = host + ":" + port;
+            HttpTransport transport = transports.get(key);
+            if (transport == null) {
+                synchronized (transports) {
+                    transport = transports.get(key);
+                    if (transport == null) {
+                        transport = new NioHttpTransport(host, port, transportConfig);
+                        transports.put(key, transport);
+                    }
+                }
+            }
+            return transport;
+        }
+        throw new IllegalArgumentException("Unknown transport '" + name + "'. Valid values are " + POOLED + ", " + NioHttpTransport.NAME);
+    }
+
+    @Nonnull
+    @Override
+    public Collection<HttpTransport> getHttpTransports() {
+        return Collections.unmodifiableCollection(transports.values());
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (transports) {
+            for (HttpTransport transport : transports.values()) {
+                transport.shutdown();
+            }
+            transports.clear();
+        }
+    }
+}
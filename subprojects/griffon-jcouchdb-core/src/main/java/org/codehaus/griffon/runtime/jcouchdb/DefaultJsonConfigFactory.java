@@ -0,0 +1,227 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.JsonConfigFactory;
+import griffon.plugins.jcouchdb.JsonDocument;
+import org.svenson.JSON;
+import org.svenson.JSONConfig;
+import org.svenson.JSONParser;
+import org.svenson.JSONifier;
+import org.svenson.ObjectFactory;
+import org.svenson.TypeMapper;
+import org.svenson.converter.DefaultTypeConverterRepository;
+import org.svenson.converter.TypeConverter;
+import org.svenson.converter.TypeConverterRepository;
+import org.svenson.matcher.PathMatcher;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static griffon.util.ConfigUtils.getConfigValue;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Caches {@code JSONConfig} instances per converter profile. A profile is defined by the
+ * {@code json} block of a database configuration. Generators write {@code JsonDocument}s through their generated
+ * codec.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultJsonConfigFactory implements JsonConfigFactory {
+    private static final String KEY_IGNORED_PROPERTIES = "json.ignored_properties";
+    private static final List<String> DEFAULT_IGNORED_PROPERTIES = Collections.singletonList("metaClass");
+    private static final Class<?>[] DATE_TYPES = {java.util.Date.class, java.sql.Date.class, java.sql.Timestamp.class};
+
+    private final ConcurrentMap<Collection<String>, JSONConfig> jsonConfigs = new ConcurrentHashMap<>();
+
+    @Nonnull
+    @Override
+    public JSONConfig getJsonConfig(@Nonnull Map<String, Object> config) {
+        requireNonNull(config, "Argument 'config' must not be null");
+
+        Collection<String> profile = resolveIgnoredProperties(config);
+        JSONConfig jsonConfig = jsonConfigs.get(profile);
+        if (jsonConfig == null) {
+            JSONConfig candidate = createJsonConfig(profile);
+            jsonConfig = jsonConfigs.putIfAbsent(profile, candidate);
+            if (jsonConfig == null) {
+                jsonConfig = candidate;
+            }
+        }
+        return jsonConfig;
+    }
+
+    @Nonnull
+    protected JSONConfig createJsonConfig(@Nonnull Collection<String> ignoredProperties) {
+        DefaultTypeConverterRepository typeConverterRepository = new DefaultTypeConverterRepository();
+        JsonDateConverter dateConverter = new JsonDateConverter();
+        typeConverterRepository.addTypeConverter(dateConverter);
+
+        JSONParser parser = new JSONParser();
+        parser.setTypeConverterRepository(typeConverterRepository);
+        for (Class<?> type : DATE_TYPES) {
+            parser.registerTypeConversion(type, dateConverter);
+        }
+
+        return new JSONConfig(
+            new ImmutableJSON(typeConverterRepository, dateConverter, ignoredProperties),
+            new ImmutableJSONParser(parser));
+    }
+
+    @Nonnull
+    static Collection<String> resolveIgnoredProperties(@Nonnull Map<String, Object> config) {
+        Object value = getConfigValue(config, KEY_IGNORED_PROPERTIES, DEFAULT_IGNORED_PROPERTIES);
+        Collection<String> properties = new TreeSet<>();
+        if (value instanceof Collection) {
+            for (Object property : (Collection<?>) value) {
+                properties.add(String.valueOf(property));
+            }
+        } else if (value != null) {
+            for (String property : String.valueOf(value).split(",")) {
+                if (!property.trim().isEmpty()) {
+                    properties.add(property.trim());
+                }
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(properties));
+    }
+
+    private static final class ImmutableJSON extends JSON {
+        private final boolean initialized;
+
+        private ImmutableJSON(@Nonnull TypeConverterRepository typeConverterRepository, @Nonnull TypeConverter dateConverter, @Nonnull Collection<String> ignoredProperties) {
+            super.setIgnoredProperties(ignoredProperties);
+            super.setTypeConverterRepository(typeConverterRepository);
+            for (Class<?> type : DATE_TYPES) {
+                super.registerTypeConversion(type, dateConverter);
+            }
+            super.registerJSONifier(JsonDocument.class, JsonDocumentCodec.jsonifier(this, ignoredProperties));
+            initialized = true;
+        }
+
+        @Override
+        public void setEscapeUnicodeChars(boolean escapeUnicodeChars) {
+            checkMutable();
+            super.setEscapeUnicodeChars(escapeUnicodeChars);
+        }
+
+        @Override
+        public void setTypeConverterRepository(TypeConverterRepository typeConverterRepository) {
+            checkMutable();
+            super.setTypeConverterRepository(typeConverterRepository);
+        }
+
+        @Override
+        public void registerJSONifier(Class c, JSONifier jsonifier) {
+            checkMutable();
+            super.registerJSONifier(c, jsonifier);
+        }
+
+        @Override
+        public void deregisterJSONifiers() {
+            checkMutable();
+            super.deregisterJSONifiers();
+        }
+
+        @Override
+        public void registerTypeConversion(Class<?> cls, TypeConverter converter) {
+            checkMutable();
+            super.registerTypeConversion(cls, converter);
+        }
+
+        @Override
+        public void setIgnoredProperties(Collection<String> ignoredProperties) {
+            checkMutable();
+            super.setIgnoredProperties(ignoredProperties);
+        }
+
+        @Override
+        public void setQuoteChar(char c) {
+            checkMutable();
+            super.setQuoteChar(c);
+        }
+
+        private void checkMutable() {
+            // the superclass constructor sets the quote char before this instance is initialized
+            if (initialized) {
+                throw new UnsupportedOperationException("Shared JSON generators cannot be modified");
+            }
+        }
+    }
+
+    private static final class ImmutableJSONParser extends JSONParser {
+        private ImmutableJSONParser(@Nonnull JSONParser src) {
+            super(src);
+        }
+
+        @Override
+        public void setTypeMapper(TypeMapper typeMapper) {
+            throw unsupported();
+        }
+
+        @Override
+        public void registerTypeConversion(Class cls, TypeConverter converter) {
+            throw unsupported();
+        }
+
+        @Override
+        public void setTypeHints(Map<String, Class> typeHints) {
+            throw unsupported();
+        }
+
+        @Override
+        public void setInterfaceMappings(Map<Class, Class> interfaceMappings) {
+            throw unsupported();
+        }
+
+        @Override
+        public void addObjectFactory(ObjectFactory objectFactory) {
+            throw unsupported();
+        }
+
+        @Override
+        public void addTypeHint(String key, Class typeHint) {
+            throw unsupported();
+        }
+
+        @Override
+        public void addTypeHint(PathMatcher pathMatcher, Class typeHint) {
+            throw unsupported();
+        }
+
+        @Override
+        public void setTypeConverterRepository(TypeConverterRepository typeConverterRepository) {
+            throw unsupported();
+        }
+
+        @Override
+        public void setAllowSingleQuotes(boolean allowSingleQuotes) {
+            throw unsupported();
+        }
+
+        private static UnsupportedOperationException unsupported() {
+            return new UnsupportedOperationException("Shared JSON parsers cannot be modified; create a copy with new JSONParser(parser)");
+        }
+    }
+}
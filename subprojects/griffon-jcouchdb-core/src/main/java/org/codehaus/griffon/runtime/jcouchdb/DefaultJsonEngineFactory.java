@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.JsonEngine;
+import griffon.plugins.jcouchdb.JsonEngineFactory;
+import org.svenson.JSONConfig;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static griffon.util.ConfigUtils.getConfigValueAsString;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Resolves the {@code json.engine} setting of a database. The {@code svenson} engine wraps the {@code JSONConfig} of
+ * the database; {@code jackson} engines are cached per converter profile, like {@code JSONConfig}s are.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultJsonEngineFactory implements JsonEngineFactory {
+    private static final String KEY_JSON_ENGINE = "json.engine";
+
+    private final ConcurrentMap<Collection<String>, JsonEngine> jacksonEngines = new ConcurrentHashMap<>();
+
+    @Nonnull
+    @Override
+    public JsonEngine getJsonEngine(@Nonnull Map<String, Object> config, @Nonnull JSONConfig jsonConfig) {
+        requireNonNull(config, "Argument 'config' must not be null");
+        requireNonNull(jsonConfig, "Argument 'jsonConfig' must not be null");
+
+        String name = getConfigValueAsString(config, KEY_JSON_ENGINE, SvensonJsonEngine.NAME).trim();
+        if (SvensonJsonEngine.NAME.equalsIgnoreCase(name)) {
+            return new SvensonJsonEngine(jsonConfig);
+        } else if (JacksonJsonEngine.NAME.equalsIgnoreCase(name)) {
+            Collection<String> profile = DefaultJsonConfigFactory.resolveIgnoredProperties(config);
+            JsonEngine engine = jacksonEngines.get(profile);
+            if (engine == null) {
+                JsonEngine candidate = createJacksonEngine(profile);
+                engine = jacksonEngines.putIfAbsent(profile, candidate);
+                if (engine == null) {
+                    engine = candidate;
+                }
+            }
+            return engine;
+        }
+        throw new IllegalArgumentException("Unknown JSON engine '" + name + "'. Valid values are " + SvensonJsonEngine.NAME + ", " + JacksonJsonEngine.NAME);
+    }
+
+    @Nonnull
+    protected JsonEngine createJacksonEngine(@Nonnull Collection<String> ignoredProperties) {
+        try {
+            return new JacksonJsonEngine(ignoredProperties);
+        } catch (NoClassDefFoundError e) {
+            throw new IllegalStateException("The " + JacksonJsonEngine.NAME + " JSON engine requires com.fasterxml.jackson.core:jackson-databind in the classpath", e);
+        }
+    }
+}
@@ -0,0 +1,517 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.core.event.EventRouter;
+import griffon.plugins.jcouchdb.JsonEngine;
+import griffon.plugins.jcouchdb.LocalReplica;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.jcouchdb.db.Database;
+import org.jcouchdb.db.Options;
+import org.jcouchdb.db.Response;
+import org.jcouchdb.db.Server;
+import org.jcouchdb.document.DocumentInfo;
+import org.jcouchdb.document.DocumentPropertyHandler;
+import org.jcouchdb.exception.DataAccessException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.svenson.JSON;
+import org.svenson.JSONParser;
+import org.svenson.tokenize.InputStreamSource;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Arrays.asList;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@code LocalReplica} configured by the {@code replica} block of a database. A single thread pushes pending writes
+ * with {@code _bulk_docs} and then pulls up to {@code batch_size} changes, documents included, from a
+ * {@code longpoll} feed that waits at most {@code poll_timeout} milliseconds. A local write aborts the wait so that it
+ * is pushed right away. While the server cannot be reached the thread retries with an exponential backoff between
+ * {@code retry_delay} and {@code max_retry_delay} milliseconds.
+ * <p>
+ * Writes are pushed with the revision they were made against. Once the server accepts a write, the revision it
+ * produced is set on the object that was saved, if that object has not been saved again since. A document saved again
+ * with the revision, or lack of one, of a write the server already accepted is rebased onto the revision that write
+ * produced until the write comes back with the changes feed; any other conflict drops the local write and publishes a
+ * {@code JcouchdbReplicaConflict} event.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultLocalReplica implements LocalReplica {
+    public static final String EVENT_REPLICA_ONLINE = "JcouchdbReplicaOnline";
+    public static final String EVENT_REPLICA_OFFLINE = "JcouchdbReplicaOffline";
+    public static final String EVENT_REPLICA_CONFLICT = "JcouchdbReplicaConflict";
+
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultLocalReplica.class);
+    private static final String FEED_LONGPOLL = "longpoll";
+    private static final String FEED_NORMAL = "normal";
+    private static final String SINCE_START = "0";
+    private static final String KEY_REVISION = "_rev";
+    private static final long JOIN_TIMEOUT = 5000L;
+
+    private final String databaseName;
+    private final Database database;
+    private final EventRouter eventRouter;
+    private final MappedDocumentStore store;
+    private final int batchSize;
+    private final long pollTimeout;
+    private final long retryDelay;
+    private final long maxRetryDelay;
+    private final JSON generator = JSON.defaultJSON();
+    private final JSONParser parser = JSONParser.defaultJSONParser();
+    private final JSONParser bulkParser = new JSONParser();
+    // id -> revision a pushed write was made against, null for new documents, and the revision it produced
+    private final ConcurrentMap<String, String[]> rebases = new ConcurrentHashMap<>();
+    // id -> object the latest pending write was made from, guarded by itself
+    private final Map<String, Origin> origins = new HashMap<>();
+
+    private final Object lock = new Object();
+    private Thread worker;
+    private volatile boolean running;
+    private volatile boolean online;
+    // the poll in flight, detached before its connection goes back to the pool
+    private final Object requestLock = new Object();
+    private HttpRequestBase activeRequest;
+    private boolean aborted;
+
+    public DefaultLocalReplica(@Nonnull String databaseName, @Nonnull Database database, @Nonnull Path file,
+                               @Nonnull Map<String, Object> config, @Nonnull EventRouter eventRouter) {
+        this.databaseName = requireNonBlank(databaseName, "Argument 'databaseName' must not be blank");
+        this.database = requireNonNull(database, "Argument 'database' must not be null");
+        requireNonNull(file, "Argument 'file' must not be null");
+        requireNonNull(config, "Argument 'config' must not be null");
+        this.eventRouter = requireNonNull(eventRouter, "Argument 'eventRouter' must not be null");
+
+        batchSize = Math.max(1, getConfigValueAsInt(config, "replica.batch_size", 500));
+        pollTimeout = Math.max(1000L, getConfigValueAsLong(config, "replica.poll_timeout", 30000L));
+        retryDelay = Math.max(1L, getConfigValueAsLong(config, "replica.retry_delay", 1000L));
+        maxRetryDelay = Math.max(retryDelay, getConfigValueAsLong(config, "replica.max_retry_delay", 30000L));
+        bulkParser.addTypeHint("[]", DocumentInfo.class);
+        store = new MappedDocumentStore(file, getConfigValueAsLong(config, "replica.initial_size", 1024L * 1024L));
+    }
+
+    @Nonnull
+    @Override
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    @Nonnull
+    @Override
+    public Path getFile() {
+        return store.getFile();
+    }
+
+    @Override
+    public boolean isOnline() {
+        return online;
+    }
+
+    @Override
+    public boolean isComplete() {
+        return store.isComplete();
+    }
+
+    @Nullable
+    @Override
+    public String getLastSequence() {
+        return store.getCheckpoint();
+    }
+
+    @Override
+    public int getDocumentCount() {
+        return store.getDocumentCount();
+    }
+
+    @Override
+    public int getPendingWriteCount() {
+        return store.getPendingCount();
+    }
+
+    @Override
+    public long getSize() {
+        return store.getSize();
+    }
+
+    /**
+     * @return the JSON of the document, {@code null} if it is not in the replica or has been deleted locally
+     */
+    @Nullable
+    String read(@Nonnull String docId) {
+        return store.read(docId);
+    }
+
+    /**
+     * Queues a write and wakes up the replication thread to push it.
+     *
+     * @param document the document to write, serialized with {@code engine}
+     * @param handler  sets the revision the server assigns to the write on {@code document}; {@code null} for
+     *                 documents that are not handed out to the caller
+     */
+    void write(@Nonnull String docId, @Nonnull Object document, boolean delete, @Nonnull JsonEngine engine, @Nullable DocumentPropertyHandler handler) {
+        // acknowledgements are handled under the same lock, so that the document is never serialized while its
+        // revision is being set, nor an origin recorded after its write was pushed
+        synchronized (origins) {
+            long sequence = store.enqueue(docId, engine.write(document), delete);
+            if (handler != null) {
+                origins.put(docId, new Origin(sequence, document, handler));
+            } else {
+                origins.remove(docId);
+            }
+        }
+        abortActiveRequest();
+    }
+
+    public void start() {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+            worker = new DaemonThreadFactory("jcouchdb-replica-" + databaseName).newThread(new Runnable() {
+                @Override
+                public void run() {
+                    replicate();
+                }
+            });
+            worker.start();
+        }
+        LOG.debug("Replicating database '{}' to {} since {}", databaseName, store.getFile(), store.getCheckpoint());
+    }
+
+    /**
+     * Stops replicating and closes the replica file. Pending writes are kept and pushed once the replica is opened again.
+     */
+    public void close() {
+        Thread workerThread;
+        synchronized (lock) {
+            workerThread = worker;
+            worker = null;
+            running = false;
+        }
+
+        if (workerThread != null) {
+            abortActiveRequest();
+            workerThread.interrupt();
+            try {
+                workerThread.join(JOIN_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        store.close();
+        LOG.debug("Closed replica of database '{}' with {} pending writes", databaseName, store.getPendingCount());
+    }
+
+    private void replicate() {
+        int failures = 0;
+        while (running) {
+            try {
+                push();
+                pull();
+                failures = 0;
+                setOnline(true);
+            } catch (RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                long delay = Math.min(maxRetryDelay, retryDelay << Math.min(failures++, 20));
+                if (online) {
+                    LOG.warn("Replication of database '{}' failed; retrying in {}ms", databaseName, delay, e);
+                } else {
+                    LOG.debug("Replication of database '{}' failed; retrying in {}ms", databaseName, delay, e);
+                }
+                setOnline(false);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void push() {
+        for (List<MappedDocumentStore.PendingWrite> writes = store.getPendingWrites(batchSize); !writes.isEmpty() && running; writes = store.getPendingWrites(batchSize)) {
+            List<Map<String, Object>> documents = new ArrayList<>(writes.size());
+            List<String> bases = new ArrayList<>(writes.size());
+            for (MappedDocumentStore.PendingWrite write : writes) {
+                Map<String, Object> document = parser.parse(Map.class, write.getJson());
+                Object revision = document.get(KEY_REVISION);
+                String base = revision != null ? String.valueOf(revision) : null;
+                String[] rebase = rebases.get(write.getId());
+                if (rebase != null && Objects.equals(rebase[0], base)) {
+                    document.put(KEY_REVISION, rebase[1]);
+                }
+                documents.add(document);
+                bases.add(base);
+            }
+
+            List<DocumentInfo> infos = bulkDocs(documents);
+            for (int i = 0; i < writes.size(); i++) {
+                MappedDocumentStore.PendingWrite write = writes.get(i);
+                Map<String, Object> document = documents.get(i);
+                DocumentInfo info = infos.get(i);
+                if (info.getError() == null) {
+                    // keyed on the revision the caller saved with, which later saves of the same object still carry
+                    rebases.put(write.getId(), new String[]{bases.get(i), info.getRevision()});
+                    document.put(KEY_REVISION, info.getRevision());
+                    acknowledge(write, true, generator.forValue(document), info.getRevision());
+                } else {
+                    LOG.warn("Server rejected local write of document '{}' to database '{}': {} {}", write.getId(), databaseName, info.getError(), info.getReason());
+                    acknowledge(write, false, null, null);
+                    eventRouter.publishEvent(EVENT_REPLICA_CONFLICT, asList(databaseName, write.getId(), info.getError()));
+                }
+            }
+            LOG.trace("Pushed {} writes to database '{}'", writes.size(), databaseName);
+        }
+    }
+
+    private void acknowledge(@Nonnull MappedDocumentStore.PendingWrite write, boolean applied, @Nullable String documentJson, @Nullable String revision) {
+        synchronized (origins) {
+            if (!store.acknowledge(write, applied, documentJson)) {
+                // replaced by a later write, whose object is still waiting for its revision
+                return;
+            }
+            Origin origin = origins.get(write.getId());
+            if (origin == null || origin.sequence != write.getSequence()) {
+                return;
+            }
+            origins.remove(write.getId());
+
+            Object document = origin.document.get();
+            if (applied && revision != null && !write.isDelete() && document != null) {
+                origin.handler.setRevision(document, revision);
+            }
+        }
+    }
+
+    @Nonnull
+    private List<DocumentInfo> bulkDocs(@Nonnull List<Map<String, Object>> documents) {
+        StringBuilder body = new StringBuilder("{\"docs\":[");
+        for (int i = 0; i < documents.size(); i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append(generator.forValue(documents.get(i)));
+        }
+        body.append("]}");
+
+        Response response = database.getServer().post("/" + database.getName() + "/_bulk_docs", body.toString());
+        try {
+            if (!response.isOk()) {
+                throw new DataAccessException("Error pushing local writes to database '" + databaseName + "'", response);
+            }
+            response.setParser(bulkParser);
+            List<DocumentInfo> infos = response.getContentAsBean(ArrayList.class);
+            // CouchDB reports results in request order
+            if (infos == null || infos.size() != documents.size()) {
+                throw new DataAccessException("Unexpected _bulk_docs response from database '" + databaseName + "'", response);
+            }
+            return infos;
+        } finally {
+            response.destroy();
+        }
+    }
+
+    private void pull() {
+        String since = store.getCheckpoint();
+        // writes queued while pushing are pushed before waiting for changes
+        boolean poll = store.getPendingCount() == 0;
+        Options options = new Options()
+            .put("feed", poll ? FEED_LONGPOLL : FEED_NORMAL)
+            .put("since", since != null ? since : SINCE_START)
+            .put("include_docs", true)
+            .put("limit", batchSize);
+        if (poll) {
+            options.put("timeout", pollTimeout);
+        }
+
+        Response response;
+        try {
+            response = open("/" + database.getName() + "/_changes" + options.toQuery(), poll);
+        } catch (RuntimeException e) {
+            rethrowUnlessAborted(e);
+            return;
+        }
+
+        Map<String, Object> result;
+        try {
+            result = parser.parse(Map.class, new InputStreamSource(response.getInputStream(), false));
+        } catch (RuntimeException e) {
+            rethrowUnlessAborted(e);
+            return;
+        } finally {
+            detachActiveRequest();
+            response.destroy();
+        }
+        apply(result);
+    }
+
+    private void apply(@Nonnull Map<String, Object> result) {
+        List<?> rows = (List<?>) result.get("results");
+        List<MappedDocumentStore.Change> changes = new ArrayList<>();
+        if (rows != null) {
+            for (Object o : rows) {
+                Map<?, ?> row = (Map<?, ?>) o;
+                Object document = row.get("doc");
+                boolean deleted = Boolean.TRUE.equals(row.get("deleted")) || document == null;
+                String id = String.valueOf(row.get("id"));
+                changes.add(new MappedDocumentStore.Change(id, deleted ? null : generator.forValue(document)));
+                forgetRebase(id, deleted ? null : ((Map<?, ?>) document).get(KEY_REVISION));
+            }
+        }
+        Object lastSequence = result.get("last_seq");
+        if (lastSequence != null) {
+            // a batch that is not full means the replica caught up
+            store.apply(changes, sequence(lastSequence), changes.size() < batchSize);
+            LOG.trace("Pulled {} changes of database '{}'", changes.size(), databaseName);
+        }
+    }
+
+    /**
+     * Drops the rebase of a document once the write that produced it, a later one or its deletion comes back from the
+     * server. Writes still waiting to be pushed may need it.
+     *
+     * @param revision the revision that came back, {@code null} for deletions
+     */
+    private void forgetRebase(@Nonnull String id, @Nullable Object revision) {
+        String[] rebase = rebases.get(id);
+        if (rebase == null || store.isPending(id)) {
+            return;
+        }
+        if (revision == null || generation(String.valueOf(revision)) >= generation(rebase[1])) {
+            rebases.remove(id, rebase);
+        }
+    }
+
+    private static long generation(@Nonnull String revision) {
+        int dash = revision.indexOf('-');
+        try {
+            return Long.parseLong(dash > 0 ? revision.substring(0, dash) : revision);
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    @Nonnull
+    private Response open(@Nonnull String uri, boolean poll) {
+        Server server = database.getServer();
+        Response response;
+        if (server instanceof PooledServer) {
+            // keep a handle on the request so that a local write or close() can abort the poll
+            PooledServer pooledServer = (PooledServer) server;
+            HttpGet request = new HttpGet(pooledServer.getServerURI() + uri);
+            synchronized (requestLock) {
+                activeRequest = request;
+                aborted = false;
+                if (!running || poll && store.getPendingCount() > 0) {
+                    request.abort();
+                    aborted = true;
+                }
+            }
+            response = pooledServer.execute(request);
+        } else {
+            response = server.get(uri);
+        }
+
+        if (!response.isOk()) {
+            DataAccessException e = new DataAccessException("Error reading changes of database '" + databaseName + "'", response);
+            detachActiveRequest();
+            response.destroy();
+            throw e;
+        }
+        return response;
+    }
+
+    private void abortActiveRequest() {
+        synchronized (requestLock) {
+            if (activeRequest != null) {
+                activeRequest.abort();
+                aborted = true;
+            }
+        }
+    }
+
+    private void rethrowUnlessAborted(@Nonnull RuntimeException e) {
+        // a poll aborted to push a local write is not a failure
+        if (!detachActiveRequest() || !running) {
+            throw e;
+        }
+    }
+
+    /**
+     * @return whether the detached request had been aborted
+     */
+    private boolean detachActiveRequest() {
+        synchronized (requestLock) {
+            boolean wasAborted = aborted;
+            activeRequest = null;
+            aborted = false;
+            return wasAborted;
+        }
+    }
+
+    private void setOnline(boolean online) {
+        if (this.online == online) {
+            return;
+        }
+        this.online = online;
+        LOG.info("Server of database '{}' is {}", databaseName, online ? "reachable" : "unreachable");
+        eventRouter.publishEvent(online ? EVENT_REPLICA_ONLINE : EVENT_REPLICA_OFFLINE, asList(databaseName));
+    }
+
+    @Nonnull
+    private String sequence(@Nonnull Object value) {
+        if (value instanceof String) {
+            return (String) value;
+        } else if (value instanceof Number) {
+            return String.valueOf(value);
+        }
+        // opaque sequences are sent back as they were received
+        return generator.forValue(value);
+    }
+
+    private static final class Origin {
+        private final long sequence;
+        private final Reference<Object> document;
+        private final DocumentPropertyHandler handler;
+
+        private Origin(long sequence, @Nonnull Object document, @Nonnull DocumentPropertyHandler handler) {
+            this.sequence = sequence;
+            this.document = new WeakReference<>(document);
+            this.handler = handler;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.core.Configuration;
+import griffon.core.GriffonApplication;
+import griffon.core.env.Metadata;
+import griffon.plugins.jcouchdb.LocalReplica;
+import griffon.plugins.jcouchdb.LocalReplicaManager;
+import org.jcouchdb.db.Database;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static griffon.util.ConfigUtils.getConfigValueAsString;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps replica files in the directory set by {@code replica.directory}, which defaults to
+ * {@code ~/.griffon/<application.name>/jcouchdb/replicas}, unless a database sets its own {@code replica.file}.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultLocalReplicaManager implements LocalReplicaManager {
+    private static final String KEY_REPLICA = "replica";
+    private static final String ERROR_DATABASE_NAME_BLANK = "Argument 'databaseName' must not be blank";
+
+    private final GriffonApplication application;
+    private final Path directory;
+    private final ConcurrentMap<String, DefaultLocalReplica> localReplicas = new ConcurrentHashMap<>();
+
+    @Inject
+    public DefaultLocalReplicaManager(@Nonnull @Named("jcouchdb") Configuration configuration, @Nonnull Metadata metadata, @Nonnull GriffonApplication application) {
+        requireNonNull(configuration, "Argument 'configuration' must not be null");
+        requireNonNull(metadata, "Argument 'metadata' must not be null");
+        this.application = requireNonNull(application, "Argument 'application' must not be null");
+        Map<String, Object> config = configuration.get(KEY_REPLICA, Collections.<String, Object>emptyMap());
+        String defaultDirectory = Paths.get(System.getProperty("user.home"), ".griffon", metadata.getApplicationName(), "jcouchdb", "replicas").toString();
+        this.directory = Paths.get(getConfigValueAsString(config, "directory", defaultDirectory));
+    }
+
+    @Nonnull
+    @Override
+    public synchronized LocalReplica createLocalReplica(@Nonnull String databaseName, @Nonnull Database database, @Nonnull Map<String, Object> config) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        requireNonNull(database, "Argument 'database' must not be null");
+        requireNonNull(config, "Argument 'config' must not be null");
+
+        // a database that is opened again before the previous instance was destroyed takes over the file
+        DefaultLocalReplica previous = localReplicas.remove(databaseName);
+        if (previous != null) {
+            previous.close();
+        }
+
+        String file = getConfigValueAsString(config, "replica.file", directory.resolve(databaseName + ".replica").toString());
+        DefaultLocalReplica localReplica = new DefaultLocalReplica(databaseName, database, Paths.get(file), config, application.getEventRouter());
+        localReplicas.put(databaseName, localReplica);
+        localReplica.start();
+        return localReplica;
+    }
+
+    @Override
+    public synchronized void removeLocalReplica(@Nonnull String databaseName) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        DefaultLocalReplica localReplica = localReplicas.remove(databaseName);
+        if (localReplica != null) {
+            localReplica.close();
+        }
+    }
+
+    @Nullable
+    @Override
+    public LocalReplica getLocalReplica(@Nonnull String databaseName) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        return localReplicas.get(databaseName);
+    }
+
+    @Nonnull
+    @Override
+    public Collection<LocalReplica> getLocalReplicas() {
+        return Collections.<LocalReplica>unmodifiableCollection(localReplicas.values());
+    }
+}
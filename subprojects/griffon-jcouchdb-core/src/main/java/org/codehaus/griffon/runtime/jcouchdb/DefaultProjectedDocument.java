@@ -0,0 +1,274 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.JsonEngine;
+import griffon.plugins.jcouchdb.ProjectedDocument;
+import griffon.plugins.jcouchdb.Projection;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Fields are kept as read by {@code ProjectionReader}: the JSON text of a selected value, the projected fields of an
+ * object whose members are selected in turn, or a list of those for arrays. Values are decoded on first access with
+ * the {@code JsonEngine} of the database.
+ *
+ * @author Andres Almiray
+ */
+final class DefaultProjectedDocument implements ProjectedDocument {
+    static final String ID = "_id";
+    static final String REVISION = "_rev";
+
+    private final Projection projection;
+    private final Map<String, Object> fields;
+
+    DefaultProjectedDocument(@Nonnull Projection projection, @Nonnull Map<String, Object> fields) {
+        this.projection = projection;
+        this.fields = fields;
+    }
+
+    @Nullable
+    @Override
+    public String getId() {
+        return (String) resolve(fields.get(ID), String.class);
+    }
+
+    @Nullable
+    @Override
+    public String getRevision() {
+        return (String) resolve(fields.get(REVISION), String.class);
+    }
+
+    @Nonnull
+    @Override
+    public Projection getProjection() {
+        return projection;
+    }
+
+    @Override
+    public boolean has(@Nonnull String path) {
+        return lookup(path) != null;
+    }
+
+    @Nullable
+    @Override
+    public Object get(@Nonnull String path) {
+        return resolve(lookup(path), Object.class);
+    }
+
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(@Nonnull String path, @Nonnull Class<T> type) {
+        requireNonNull(type, "Argument 'type' must not be null");
+        return (T) resolve(lookup(path), type);
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            map.put(field.getKey(), resolve(field.getValue(), Object.class));
+        }
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return "ProjectedDocument[id=" + getId() + ", projection=" + projection.getPaths() + "]";
+    }
+
+    @Nullable
+    private Object lookup(@Nonnull String path) {
+        requireNonBlank(path, "Argument 'path' must not be blank");
+        if (!projection.includes(path) && !ID.equals(path) && !REVISION.equals(path)) {
+            throw new IllegalArgumentException("Path '" + path + "' is not part of " + projection);
+        }
+
+        Object node = this;
+        for (String segment : path.split("\\.")) {
+            node = member(node, segment);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    @Nullable
+    private static Object member(@Nonnull Object node, @Nonnull String name) {
+        if (node instanceof DefaultProjectedDocument) {
+            return ((DefaultProjectedDocument) node).fields.get(name);
+        } else if (node instanceof Field) {
+            // a path below a field selected as a whole
+            return member(((Field) node).get(Object.class), name);
+        } else if (node instanceof Map) {
+            return ((Map<?, ?>) node).get(name);
+        } else if (node instanceof List) {
+            List<Object> values = new ArrayList<>();
+            for (Object element : (List<?>) node) {
+                values.add(element != null ? member(element, name) : null);
+            }
+            return values;
+        }
+        return null;
+    }
+
+    @Nullable
+    private static Object resolve(@Nullable Object node, @Nonnull Class<?> type) {
+        if (node == null) {
+            return null;
+        } else if (node instanceof Field) {
+            return ((Field) node).get(type);
+        } else if (node instanceof DefaultProjectedDocument) {
+            DefaultProjectedDocument document = (DefaultProjectedDocument) node;
+            return type != Object.class && type.isInstance(document) ? document : convert(document.toMap(), type);
+        } else if (node instanceof List) {
+            List<Object> values = new ArrayList<>();
+            for (Object element : (List<?>) node) {
+                values.add(resolve(element, Object.class));
+            }
+            return convert(values, type);
+        }
+        return convert(node, type);
+    }
+
+    @Nullable
+    private static Object convert(@Nullable Object value, @Nonnull Class<?> type) {
+        Class<?> target = boxed(type);
+        if (value == null || target.isInstance(value)) {
+            return value;
+        } else if (value instanceof Map || value instanceof Collection) {
+            throw new IllegalArgumentException(value.getClass().getName() + " can not be converted to " + type.getName() + ", select the whole field instead");
+        }
+        return JsonDocumentCodec.convertScalar(value, target);
+    }
+
+    @Nonnull
+    private static Class<?> boxed(@Nonnull Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        } else if (type == int.class) {
+            return Integer.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == double.class) {
+            return Double.class;
+        } else if (type == boolean.class) {
+            return Boolean.class;
+        } else if (type == float.class) {
+            return Float.class;
+        } else if (type == short.class) {
+            return Short.class;
+        } else if (type == byte.class) {
+            return Byte.class;
+        }
+        return Character.class;
+    }
+
+    /**
+     * The JSON text of a selected value. The value decoded last is kept.
+     */
+    static final class Field {
+        private final String json;
+        private final JsonEngine jsonEngine;
+        private Class<?> decodedType;
+        private Object decoded;
+
+        Field(@Nonnull String json, @Nonnull JsonEngine jsonEngine) {
+            this.json = json;
+            this.jsonEngine = jsonEngine;
+        }
+
+        @Nullable
+        Object get(@Nonnull Class<?> type) {
+            if (decodedType != type) {
+                decoded = decode(type);
+                decodedType = type;
+            }
+            return decoded;
+        }
+
+        @Nullable
+        private Object decode(@Nonnull Class<?> type) {
+            char first = json.charAt(0);
+            if (first == '{' || first == '[') {
+                Class<?> target = type != Object.class ? type : first == '{' ? Map.class : List.class;
+                return jsonEngine.read(json, target);
+            }
+            return convert(scalar(), type);
+        }
+
+        @Nullable
+        private Object scalar() {
+            char first = json.charAt(0);
+            if (first == '"') {
+                return unquote(json);
+            } else if (first == 'n') {
+                return null;
+            } else if (first == 't' || first == 'f') {
+                return first == 't';
+            } else if (json.indexOf('.') > -1 || json.indexOf('e') > -1 || json.indexOf('E') > -1) {
+                return Double.valueOf(json);
+            }
+            long number;
+            try {
+                number = Long.parseLong(json);
+            } catch (NumberFormatException e) {
+                return new BigInteger(json);
+            }
+            // a conditional expression would promote the Integer to a Long
+            if (number == (int) number) {
+                return (int) number;
+            }
+            return number;
+        }
+
+        @Nonnull
+        private static String unquote(@Nonnull String json) {
+            int end = json.length() - 1;
+            if (json.indexOf('\\') < 0) {
+                return json.substring(1, end);
+            }
+            StringBuilder text = new StringBuilder(end);
+            for (int i = 1; i < end; i++) {
+                char c = json.charAt(i);
+                if (c == '\\') {
+                    c = json.charAt(++i);
+                    if (c == 'u') {
+                        c = (char) Integer.parseInt(json.substring(i + 1, i + 5), 16);
+                        i += 4;
+                    } else {
+                        c = JsonScanner.unescape(c);
+                    }
+                }
+                text.append(c);
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.core.Configuration;
+import griffon.core.ExecutorServiceManager;
+import griffon.core.GriffonApplication;
+import griffon.core.event.EventRouter;
+import griffon.plugins.jcouchdb.ViewIndexWarmer;
+import org.jcouchdb.db.Database;
+import org.jcouchdb.db.Response;
+import org.jcouchdb.db.Server;
+import org.jcouchdb.document.DesignDocument;
+import org.jcouchdb.document.View;
+import org.jcouchdb.exception.DataAccessException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Arrays.asList;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@code ViewIndexWarmer} configured by the top level {@code view_warming} block. CouchDB keeps a single index per
+ * design document, so one {@code limit=0} query per design document builds all of its views; up to
+ * {@code pool_size} of those queries run at the same time. While they run, {@code _active_tasks} is polled every
+ * {@code poll_interval} milliseconds to report progress.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultViewIndexWarmer implements ViewIndexWarmer {
+    public static final String EVENT_VIEW_INDEX_START = "JcouchdbViewIndexStart";
+    public static final String EVENT_VIEW_INDEX_PROGRESS = "JcouchdbViewIndexProgress";
+    public static final String EVENT_VIEW_INDEX_END = "JcouchdbViewIndexEnd";
+
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultViewIndexWarmer.class);
+    private static final String KEY_VIEW_WARMING = "view_warming";
+    private static final String ACTIVE_TASKS = "/_active_tasks";
+    private static final String DESIGN_DOCUMENT_PREFIX = "_design/";
+    private static final String SHARDS_PREFIX = "shards/";
+    private static final String ERROR_DATABASE_NAME_BLANK = "Argument 'databaseName' must not be blank";
+
+    private final EventRouter eventRouter;
+    private final ExecutorService executor;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final long pollInterval;
+    private final ConcurrentMap<String, ConcurrentMap<String, Warming>> warmings = new ConcurrentHashMap<>();
+    private final AtomicBoolean polling = new AtomicBoolean();
+
+    @Inject
+    public DefaultViewIndexWarmer(@Nonnull @Named("jcouchdb") Configuration configuration,
+                                  @Nonnull GriffonApplication application,
+                                  @Nonnull ExecutorServiceManager executorServiceManager) {
+        requireNonNull(configuration, "Argument 'configuration' must not be null");
+        requireNonNull(application, "Argument 'application' must not be null");
+        requireNonNull(executorServiceManager, "Argument 'executorServiceManager' must not be null");
+        this.eventRouter = application.getEventRouter();
+
+        Map<String, Object> config = configuration.get(KEY_VIEW_WARMING, Collections.<String, Object>emptyMap());
+        int poolSize = Math.max(1, getConfigValueAsInt(config, "pool_size", 2));
+        pollInterval = getConfigValueAsLong(config, "poll_interval", 1000L);
+
+        // both executors are shut down together with the application
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("jcouchdb-views"));
+        pool.allowCoreThreadTimeOut(true);
+        executor = executorServiceManager.add(pool);
+
+        scheduler = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("jcouchdb-views-progress"));
+        scheduler.setKeepAliveTime(60L, TimeUnit.SECONDS);
+        scheduler.allowCoreThreadTimeOut(true);
+        executorServiceManager.add(scheduler);
+    }
+
+    @Override
+    public void warm(@Nonnull String databaseName, @Nonnull Database database, @Nonnull Collection<DesignDocument> designDocuments) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        requireNonNull(database, "Argument 'database' must not be null");
+        requireNonNull(designDocuments, "Argument 'designDocuments' must not be null");
+
+        ConcurrentMap<String, Warming> databaseWarmings = getWarmings(databaseName);
+        for (DesignDocument designDocument : designDocuments) {
+            Map<String, View> views = designDocument.getViews();
+            if (views == null || views.isEmpty()) {
+                continue;
+            }
+
+            Map.Entry<String, View> view = views.entrySet().iterator().next();
+            Warming warming = new Warming(databaseName, database, designDocument.getId(), view.getKey(), view.getValue().getReduce() != null);
+            if (databaseWarmings.putIfAbsent(warming.designDocumentId, warming) != null) {
+                LOG.debug("Index of {} in database '{}' is already being built", warming.designDocumentId, databaseName);
+                continue;
+            }
+
+            eventRouter.publishEvent(EVENT_VIEW_INDEX_START, asList(databaseName, warming.designDocumentId));
+            try {
+                executor.execute(warming);
+            } catch (RejectedExecutionException e) {
+                warming.finish(e);
+            }
+        }
+        schedulePoll();
+    }
+
+    @Override
+    public boolean isWarming(@Nonnull String databaseName) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        Map<String, Warming> databaseWarmings = warmings.get(databaseName);
+        return databaseWarmings != null && !databaseWarmings.isEmpty();
+    }
+
+    @Override
+    public boolean isWarming(@Nonnull String databaseName, @Nonnull String designDocumentId) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        requireNonBlank(designDocumentId, "Argument 'designDocumentId' must not be blank");
+        Map<String, Warming> databaseWarmings = warmings.get(databaseName);
+        return databaseWarmings != null && databaseWarmings.containsKey(designDocumentId);
+    }
+
+    @Nonnull
+    @Override
+    public Collection<String> getWarmingDesignDocuments(@Nonnull String databaseName) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        Map<String, Warming> databaseWarmings = warmings.get(databaseName);
+        if (databaseWarmings == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableCollection(new ArrayList<>(databaseWarmings.keySet()));
+    }
+
+    @Nonnull
+    private ConcurrentMap<String, Warming> getWarmings(@Nonnull String databaseName) {
+        ConcurrentMap<String, Warming> databaseWarmings = warmings.get(databaseName);
+        if (databaseWarmings == null) {
+            ConcurrentMap<String, Warming> created = new ConcurrentHashMap<>();
+            databaseWarmings = warmings.putIfAbsent(databaseName, created);
+            if (databaseWarmings == null) {
+                databaseWarmings = created;
+            }
+        }
+        return databaseWarmings;
+    }
+
+    private void schedulePoll() {
+        if (pollInterval > 0 && polling.compareAndSet(false, true)) {
+            try {
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        poll();
+                    }
+                }, pollInterval, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                polling.set(false);
+            }
+        }
+    }
+
+    private void poll() {
+        Map<Server, List<Warming>> byServer = new IdentityHashMap<>();
+        for (Map<String, Warming> databaseWarmings : warmings.values()) {
+            for (Warming warming : databaseWarmings.values()) {
+                List<Warming> list = byServer.get(warming.database.getServer());
+                if (list == null) {
+                    list = new ArrayList<>();
+                    byServer.put(warming.database.getServer(), list);
+                }
+                list.add(warming);
+            }
+        }
+
+        for (Map.Entry<Server, List<Warming>> entry : byServer.entrySet()) {
+            List<?> tasks = fetchActiveTasks(entry.getKey());
+            if (tasks != null) {
+                for (Warming warming : entry.getValue()) {
+                    warming.updateProgress(tasks);
+                }
+            }
+        }
+
+        polling.set(false);
+        // a warming started after the snapshot above may have skipped scheduling while this poll was running
+        if (!byServer.isEmpty() || hasWarmings()) {
+            schedulePoll();
+        }
+    }
+
+    private boolean hasWarmings() {
+        for (Map<String, Warming> databaseWarmings : warmings.values()) {
+            if (!databaseWarmings.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Nullable
+    private static List<?> fetchActiveTasks(@Nonnull Server server) {
+        Response response = null;
+        try {
+            response = server.get(ACTIVE_TASKS);
+            if (!response.isOk()) {
+                // listing active tasks requires admin rights
+                LOG.debug("Could not read active tasks, status code {}", response.getCode());
+                return null;
+            }
+            return response.getContentAsList();
+        } catch (RuntimeException e) {
+            LOG.debug("Could not read active tasks", e);
+            return null;
+        } finally {
+            if (response != null) {
+                response.destroy();
+            }
+        }
+    }
+
+    private static boolean isSameDatabase(@Nullable Object taskDatabase, @Nonnull String name) {
+        String database = String.valueOf(taskDatabase);
+        if (database.equals(name)) {
+            return true;
+        }
+        // clustered databases report shards/<range>/<name>.<suffix>
+        if (database.startsWith(SHARDS_PREFIX)) {
+            int separator = database.indexOf('/', SHARDS_PREFIX.length());
+            return separator > 0 && database.startsWith(name + ".", separator + 1);
+        }
+        return false;
+    }
+
+    @Nonnull
+    private static String encode(@Nonnull String s) {
+        try {
+            return URLEncoder.encode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final class Warming implements Runnable {
+        private final String databaseName;
+        private final Database database;
+        private final String designDocumentId;
+        private final String viewName;
+        private final boolean reduce;
+        private final long start = System.nanoTime();
+        private volatile int progress = -1;
+
+        private Warming(@Nonnull String databaseName, @Nonnull Database database, @Nonnull String designDocumentId, @Nonnull String viewName, boolean reduce) {
+            this.databaseName = databaseName;
+            this.database = database;
+            this.designDocumentId = designDocumentId;
+            this.viewName = viewName;
+            this.reduce = reduce;
+        }
+
+        @Override
+        public void run() {
+            String uri = "/" + database.getName() + "/" + DESIGN_DOCUMENT_PREFIX +
+                encode(designDocumentId.substring(DESIGN_DOCUMENT_PREFIX.length())) + "/_view/" + encode(viewName) +
+                (reduce ? "?limit=0&reduce=false" : "?limit=0");
+
+            Throwable failure = null;
+            Response response = null;
+            try {
+                // returns once the index is up to date
+                response = database.getServer().get(uri);
+                if (!response.isOk()) {
+                    throw new DataAccessException("Could not build index of " + designDocumentId + " in database '" + databaseName + "'", response);
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Could not build index of {} in database '{}'", designDocumentId, databaseName, e);
+                failure = e;
+            } finally {
+                if (response != null) {
+                    response.destroy();
+                }
+            }
+            finish(failure);
+        }
+
+        private void finish(@Nullable Throwable failure) {
+            getWarmings(databaseName).remove(designDocumentId, this);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            LOG.debug("Building index of {} in database '{}' took {}ms", designDocumentId, databaseName, elapsed);
+            eventRouter.publishEvent(EVENT_VIEW_INDEX_END, asList(databaseName, designDocumentId, elapsed, failure));
+        }
+
+        private void updateProgress(@Nonnull List<?> tasks) {
+            long done = 0;
+            long total = 0;
+            for (Object o : tasks) {
+                if (!(o instanceof Map)) {
+                    continue;
+                }
+                Map<?, ?> task = (Map<?, ?>) o;
+                if ("indexer".equals(task.get("type")) && designDocumentId.equals(task.get("design_document")) &&
+                    isSameDatabase(task.get("database"), database.getName())) {
+                    done += toLong(task.get("changes_done"));
+                    total += toLong(task.get("total_changes"));
+                }
+            }
+
+            if (total > 0) {
+                int current = (int) Math.min(100L, done * 100L / total);
+                if (current != progress) {
+                    progress = current;
+                    eventRouter.publishEvent(EVENT_VIEW_INDEX_PROGRESS, asList(databaseName, designDocumentId, current));
+                }
+            }
+        }
+
+        private long toLong(@Nullable Object value) {
+            return value instanceof Number ? ((Number) value).longValue() : 0L;
+        }
+    }
+}
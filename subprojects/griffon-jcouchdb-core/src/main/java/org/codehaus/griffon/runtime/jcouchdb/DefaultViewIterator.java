@@ -0,0 +1,340 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.exceptions.GriffonException;
+import griffon.plugins.jcouchdb.JsonEngine;
+import griffon.plugins.jcouchdb.JsonViewReader;
+import griffon.plugins.jcouchdb.Projection;
+import griffon.plugins.jcouchdb.ViewIterator;
+import org.jcouchdb.db.Database;
+import org.jcouchdb.db.Options;
+import org.jcouchdb.db.Response;
+import org.jcouchdb.document.ValueRow;
+import org.jcouchdb.exception.DataAccessException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@code ViewIterator} configured by the {@code views} block of a database. Pages are requested by key
+ * ({@code startkey}/{@code startkey_docid}) rather than by offset, fetching one extra row per page to learn where
+ * the next page starts. A {@code limit} given in the query options caps the total number of rows; {@code skip}
+ * applies to the first page only. Rows are parsed one at a time straight from the response stream by the
+ * {@code JsonEngine} of the database, or by a {@code ProjectionReader} when iterating with a {@code Projection}.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultViewIterator<R extends ValueRow<?>> implements ViewIterator<R> {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultViewIterator.class);
+    private static final String DESIGN_DOCUMENT_PREFIX = "_design/";
+    private static final String LIMIT = "limit";
+    private static final String SKIP = "skip";
+    private static final String START_KEY = "startkey";
+    private static final String START_KEY_DOC_ID = "startkey_docid";
+
+    private final String databaseName;
+    private final Database database;
+    private final String viewUri;
+    private final JsonEngine jsonEngine;
+    private final Class<?> valueClass;
+    private final Class<?> documentClass;
+    private final Projection projection;
+    private final int pageSize;
+    private final Executor prefetchExecutor;
+
+    private Iterator<R> rows = Collections.<R>emptyIterator();
+    private PageOptions nextPage;
+    private CompletableFuture<Page<R>> prefetchedPage;
+    private int remaining;
+    private int totalRows = -1;
+    private boolean closed;
+    private Runnable onClose;
+
+    /**
+     * @param jsonEngine       engine parsing the rows
+     * @param valueClass       the type of the value of each row
+     * @param documentClass    the type of the document of each row, {@code null} for rows without documents
+     * @param prefetchExecutor executor used to fetch the next page in the background, ignored if {@code views.prefetch} is disabled
+     */
+    public DefaultViewIterator(@Nonnull String databaseName, @Nonnull Database database, @Nonnull String viewName, @Nonnull JsonEngine jsonEngine,
+                               @Nonnull Class<?> valueClass, @Nullable Class<?> documentClass, @Nullable Options options, @Nonnull Map<String, Object> config, @Nonnull Executor prefetchExecutor) {
+        this(databaseName, database, viewName, jsonEngine, valueClass, documentClass, null, options, config, prefetchExecutor);
+    }
+
+    /**
+     * Iterates rows whose documents are read as {@code ProjectedDocument}s; {@code options} should include documents.
+     *
+     * @param projection the fields of each document to read
+     */
+    public DefaultViewIterator(@Nonnull String databaseName, @Nonnull Database database, @Nonnull String viewName, @Nonnull JsonEngine jsonEngine,
+                               @Nonnull Class<?> valueClass, @Nonnull Projection projection, @Nullable Options options, @Nonnull Map<String, Object> config, @Nonnull Executor prefetchExecutor) {
+        this(databaseName, database, viewName, jsonEngine, valueClass, null, requireNonNull(projection, "Argument 'projection' must not be null"), options, config, prefetchExecutor);
+    }
+
+    private DefaultViewIterator(@Nonnull String databaseName, @Nonnull Database database, @Nonnull String viewName, @Nonnull JsonEngine jsonEngine,
+                                @Nonnull Class<?> valueClass, @Nullable Class<?> documentClass, @Nullable Projection projection, @Nullable Options options,
+                                @Nonnull Map<String, Object> config, @Nonnull Executor prefetchExecutor) {
+        this.databaseName = requireNonBlank(databaseName, "Argument 'databaseName' must not be blank");
+        this.database = requireNonNull(database, "Argument 'database' must not be null");
+        requireNonBlank(viewName, "Argument 'viewName' must not be blank");
+        this.jsonEngine = requireNonNull(jsonEngine, "Argument 'jsonEngine' must not be null");
+        this.valueClass = requireNonNull(valueClass, "Argument 'valueClass' must not be null");
+        this.documentClass = documentClass;
+        this.projection = projection;
+        requireNonNull(config, "Argument 'config' must not be null");
+        requireNonNull(prefetchExecutor, "Argument 'prefetchExecutor' must not be null");
+
+        this.viewUri = "/" + database.getName() + "/" + viewPath(viewName);
+        this.pageSize = Math.max(1, getConfigValueAsInt(config, "views.page_size", 500));
+        this.prefetchExecutor = getConfigValueAsBoolean(config, "views.prefetch", true) ? prefetchExecutor : null;
+
+        // every page of an iteration started while the index is being built reads stale rows
+        Options effectiveOptions = database instanceof ManagedDatabase ? ((ManagedDatabase) database).staleIfWarming(viewName, options) : options;
+        Object limit = effectiveOptions != null ? effectiveOptions.get(LIMIT) : null;
+        this.remaining = limit != null ? Integer.parseInt(String.valueOf(limit)) : Integer.MAX_VALUE;
+        this.nextPage = remaining > 0 ? new PageOptions(effectiveOptions, LIMIT) : null;
+    }
+
+    @Override
+    public int getTotalRows() {
+        return totalRows;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!rows.hasNext()) {
+            if (closed) {
+                return false;
+            }
+            if (!advance()) {
+                // nothing is left to fetch
+                close();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public R next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return rows.next();
+    }
+
+    @Nonnull
+    @Override
+    public Stream<R> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(new Runnable() {
+                @Override
+                public void run() {
+                    close();
+                }
+            });
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        rows = Collections.emptyIterator();
+        nextPage = null;
+        if (prefetchedPage != null) {
+            prefetchedPage.cancel(false);
+            prefetchedPage = null;
+        }
+        Runnable action = onClose;
+        onClose = null;
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    /**
+     * @param onClose run once, when the iterator is closed or runs out of rows
+     */
+    void setOnClose(@Nullable Runnable onClose) {
+        this.onClose = onClose;
+    }
+
+    private boolean advance() {
+        Page<R> page;
+        if (prefetchedPage != null) {
+            page = awaitPage(prefetchedPage);
+            prefetchedPage = null;
+        } else if (nextPage != null) {
+            page = fetchPage(nextPage);
+        } else {
+            return false;
+        }
+
+        rows = page.rows.iterator();
+        totalRows = page.totalRows;
+        remaining -= page.rows.size();
+        nextPage = page.continuation != null && remaining > 0 ? page.options.continueFrom(page.continuation) : null;
+
+        if (nextPage != null && prefetchExecutor != null) {
+            final PageOptions options = nextPage;
+            prefetchedPage = CompletableFuture.supplyAsync(new Supplier<Page<R>>() {
+                @Override
+                public Page<R> get() {
+                    return fetchPage(options);
+                }
+            }, prefetchExecutor);
+            nextPage = null;
+        }
+        return true;
+    }
+
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    private Page<R> fetchPage(@Nonnull PageOptions options) {
+        int size = Math.min(pageSize, remaining);
+        String uri = viewUri + options.withLimit(size + 1).toQuery();
+        LOG.trace("Fetching page of view {} in database '{}'", uri, databaseName);
+
+        Response response = null;
+        try {
+            response = database.getServer().get(uri);
+            if (!response.isOk()) {
+                throw new DataAccessException("Error querying view " + uri + " in database '" + databaseName + "'", response);
+            }
+
+            List<R> page = new ArrayList<>(Math.min(size, 1024));
+            ValueRow<?> continuation = null;
+            JsonViewReader reader = projection != null
+                ? new ProjectionReader(new InputStreamReader(response.getInputStream(), UTF_8), jsonEngine).readView(valueClass, projection)
+                : jsonEngine.readView(response.getInputStream(), valueClass, documentClass);
+            for (ValueRow<?> next = reader.nextRow(); next != null; next = reader.nextRow()) {
+                R row = (R) next;
+                if (page.size() < size) {
+                    page.add(row);
+                } else {
+                    // the extra row marks the start of the next page
+                    continuation = row;
+                    break;
+                }
+            }
+            return new Page<>(options, page, continuation, reader.getTotalRows());
+        } catch (IOException e) {
+            throw new GriffonException("Could not read view " + uri + " in database '" + databaseName + "'", e);
+        } finally {
+            if (response != null) {
+                response.destroy();
+            }
+        }
+    }
+
+    @Nonnull
+    private Page<R> awaitPage(@Nonnull CompletableFuture<Page<R>> page) {
+        try {
+            return page.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new GriffonException("Could not read view " + viewUri + " in database '" + databaseName + "'", cause);
+        }
+    }
+
+    @Nonnull
+    private static String viewPath(@Nonnull String viewName) {
+        // special views such as _all_docs are addressed directly
+        if (viewName.startsWith("_")) {
+            return viewName;
+        }
+        int slash = viewName.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("View name '" + viewName + "' must contain a slash separating the design document name from the view name");
+        }
+        return DESIGN_DOCUMENT_PREFIX + viewName.substring(0, slash) + "/_view/" + viewName.substring(slash + 1);
+    }
+
+    private static final class Page<R> {
+        private final PageOptions options;
+        private final List<R> rows;
+        private final ValueRow<?> continuation;
+        private final int totalRows;
+
+        private Page(@Nonnull PageOptions options, @Nonnull List<R> rows, @Nullable ValueRow<?> continuation, int totalRows) {
+            this.options = options;
+            this.rows = rows;
+            this.continuation = continuation;
+            this.totalRows = totalRows;
+        }
+    }
+
+    /**
+     * Query options of a single page; values copied from the caller's options are already encoded.
+     */
+    private static final class PageOptions extends Options {
+        private PageOptions(@Nullable Options options, @Nonnull String... excludedKeys) {
+            if (options != null) {
+                for (String key : options.keys()) {
+                    if (!Arrays.asList(excludedKeys).contains(key)) {
+                        putUnencoded(key, options.get(key));
+                    }
+                }
+            }
+        }
+
+        @Nonnull
+        private PageOptions withLimit(int limit) {
+            putUnencoded(LIMIT, limit);
+            return this;
+        }
+
+        @Nonnull
+        private PageOptions continueFrom(@Nonnull ValueRow<?> row) {
+            PageOptions options = new PageOptions(this, LIMIT, SKIP, START_KEY, START_KEY_DOC_ID);
+            options.startKey(row.getKey());
+            if (row.getId() != null) {
+                options.startKeyDocId(row.getId());
+            }
+            return options;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.ViewResultCache;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+
+/**
+ * {@code ViewResultCache} holding the JSON of results up to a combined length of {@code maxBytes}, evicting the least
+ * recently used first. Results larger than the whole cache are not kept.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultViewResultCache implements ViewResultCache {
+    private final String databaseName;
+    private final long maxBytes;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long weight;
+
+    public DefaultViewResultCache(@Nonnull String databaseName, long maxBytes) {
+        this.databaseName = requireNonBlank(databaseName, "Argument 'databaseName' must not be blank");
+        this.maxBytes = Math.max(1L, maxBytes);
+    }
+
+    @Nonnull
+    @Override
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public long getWeight() {
+        synchronized (entries) {
+            return weight;
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getRevalidationCount() {
+        return revalidations.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            weight = 0;
+        }
+    }
+
+    /**
+     * Returns the cached result of the given query. Counts a miss if there is none.
+     */
+    @Nullable
+    Entry get(@Nonnull String query) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(query);
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        revalidations.increment();
+        return entry;
+    }
+
+    void put(@Nonnull String query, @Nonnull Entry entry) {
+        synchronized (entries) {
+            Entry previous = entries.remove(query);
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+            if (entry.weight > maxBytes) {
+                return;
+            }
+
+            entries.put(query, entry);
+            weight += entry.weight;
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (weight > maxBytes && iterator.hasNext()) {
+                Entry eldest = iterator.next();
+                iterator.remove();
+                weight -= eldest.weight;
+                evictions.increment();
+            }
+        }
+    }
+
+    void invalidate(@Nonnull String query) {
+        synchronized (entries) {
+            Entry previous = entries.remove(query);
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+        }
+    }
+
+    void recordHit() {
+        hits.increment();
+    }
+
+    static final class Entry {
+        private final String etag;
+        private final byte[] content;
+        private final long weight;
+
+        Entry(@Nonnull String etag, @Nonnull byte[] content) {
+            this.etag = etag;
+            this.content = content;
+            this.weight = content.length;
+        }
+
+        @Nonnull
+        String getEtag() {
+            return etag;
+        }
+
+        /**
+         * @return the JSON of the result, never modified
+         */
+        @Nonnull
+        byte[] getContent() {
+            return content;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.ViewResultCache;
+import griffon.plugins.jcouchdb.ViewResultCacheManager;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+
+/**
+ * @author Andres Almiray
+ */
+public class DefaultViewResultCacheManager implements ViewResultCacheManager {
+    private static final String ERROR_DATABASE_NAME_BLANK = "Argument 'databaseName' must not be blank";
+
+    private final ConcurrentMap<String, DefaultViewResultCache> viewResultCaches = new ConcurrentHashMap<>();
+
+    @Nonnull
+    @Override
+    public ViewResultCache createViewResultCache(@Nonnull String databaseName, long maxBytes) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        // a database that is opened again starts with an empty cache
+        DefaultViewResultCache viewResultCache = new DefaultViewResultCache(databaseName, maxBytes);
+        viewResultCaches.put(databaseName, viewResultCache);
+        return viewResultCache;
+    }
+
+    @Override
+    public void removeViewResultCache(@Nonnull String databaseName) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        DefaultViewResultCache viewResultCache = viewResultCaches.remove(databaseName);
+        if (viewResultCache != null) {
+            viewResultCache.clear();
+        }
+    }
+
+    @Nullable
+    @Override
+    public ViewResultCache getViewResultCache(@Nonnull String databaseName) {
+        requireNonBlank(databaseName, ERROR_DATABASE_NAME_BLANK);
+        return viewResultCaches.get(databaseName);
+    }
+
+    @Nonnull
+    @Override
+    public Collection<ViewResultCache> getViewResultCaches() {
+        return Collections.<ViewResultCache>unmodifiableCollection(viewResultCaches.values());
+    }
+}
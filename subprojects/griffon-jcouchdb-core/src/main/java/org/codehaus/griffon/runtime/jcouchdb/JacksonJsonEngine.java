@@ -0,0 +1,527 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.CharacterEscapes;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationConfig;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.PropertyName;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.cfg.MapperConfig;
+import com.fasterxml.jackson.databind.deser.DeserializationProblemHandler;
+import com.fasterxml.jackson.databind.deser.Deserializers;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
+import com.fasterxml.jackson.databind.introspect.JacksonAnnotationIntrospector;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import griffon.plugins.jcouchdb.JsonDocument;
+import griffon.plugins.jcouchdb.JsonDocumentWriter;
+import griffon.plugins.jcouchdb.JsonEngine;
+import griffon.plugins.jcouchdb.JsonViewReader;
+import org.jcouchdb.document.ValueAndDocumentRow;
+import org.jcouchdb.document.ValueRow;
+import org.svenson.DynamicProperties;
+import org.svenson.JSONParseException;
+import org.svenson.JSONParser;
+import org.svenson.JSONProperty;
+import org.svenson.JSONTypeHint;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.beans.Introspector;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@code JsonEngine} backed by Jackson databind. Rows of a view are bound straight from the token stream of the
+ * response, without cutting them out as text first.
+ * <p>
+ * Beans are mapped the way svenson maps them: through their getters and setters, honoring {@code @JSONProperty}
+ * and {@code @JSONTypeHint}. Unknown properties are kept by {@code DynamicProperties}, such as {@code BaseDocument},
+ * and skipped by other beans. Dates are written with {@link JsonConverterUtils#DATE_PATTERN}, {@code JsonDocument}s
+ * with their generated codec. Properties are written in the order and with the escapes svenson uses, so both engines
+ * produce the same text. Requires {@code com.fasterxml.jackson.core:jackson-databind} at runtime.
+ *
+ * @author Andres Almiray
+ */
+public class JacksonJsonEngine implements JsonEngine {
+    public static final String NAME = "jackson";
+
+    private final ObjectMapper objectMapper;
+
+    public JacksonJsonEngine(@Nonnull Collection<String> ignoredProperties) {
+        requireNonNull(ignoredProperties, "Argument 'ignoredProperties' must not be null");
+        this.objectMapper = createObjectMapper(ignoredProperties);
+    }
+
+    @Nonnull
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Nonnull
+    @Override
+    public String write(@Nullable Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Cannot write " + (value != null ? value.getClass().getName() : null) + " as JSON", e);
+        }
+    }
+
+    @Nullable
+    @Override
+    public <T> T read(@Nonnull String json, @Nonnull Class<T> type) {
+        requireNonNull(json, "Argument 'json' must not be null");
+        requireNonNull(type, "Argument 'type' must not be null");
+        try {
+            return objectMapper.readValue(json, type);
+        } catch (IOException e) {
+            throw new JSONParseException("Cannot read " + type.getName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Nullable
+    @Override
+    public <T> T read(@Nonnull InputStream inputStream, @Nonnull Class<T> type) throws IOException {
+        requireNonNull(inputStream, "Argument 'inputStream' must not be null");
+        requireNonNull(type, "Argument 'type' must not be null");
+        return objectMapper.readValue(inputStream, type);
+    }
+
+    @Nonnull
+    @Override
+    public JsonViewReader readView(@Nonnull InputStream inputStream, @Nonnull Class<?> valueClass, @Nullable Class<?> documentClass) throws IOException {
+        requireNonNull(inputStream, "Argument 'inputStream' must not be null");
+        requireNonNull(valueClass, "Argument 'valueClass' must not be null");
+        TypeFactory typeFactory = objectMapper.getTypeFactory();
+        JavaType rowType = documentClass != null ?
+            typeFactory.constructParametricType(ValueAndDocumentRow.class, valueClass, documentClass) :
+            typeFactory.constructParametricType(ValueRow.class, valueClass);
+        return new RowReader(objectMapper.getFactory().createParser(inputStream), objectMapper.readerFor(rowType));
+    }
+
+    @Nonnull
+    private static ObjectMapper createObjectMapper(@Nonnull final Collection<String> ignoredProperties) {
+        // streams belong to the caller
+        JsonFactory jsonFactory = new JsonFactory();
+        jsonFactory.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        jsonFactory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        jsonFactory.setCharacterEscapes(new SvensonCharacterEscapes());
+
+        ObjectMapper objectMapper = new ObjectMapper(jsonFactory);
+        objectMapper.setAnnotationIntrospector(new SvensonAnnotationIntrospector(ignoredProperties));
+        objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.NONE);
+        objectMapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        objectMapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+        objectMapper.addHandler(new DynamicPropertiesHandler());
+
+        SimpleModule module = new SimpleModule("jcouchdb") {
+            @Override
+            public void setupModule(SetupContext context) {
+                super.setupModule(context);
+                context.addDeserializers(new JsonDocumentDeserializers());
+                context.addBeanSerializerModifier(new SvensonSerializerModifier());
+            }
+        };
+        module.addSerializer(Date.class, new DateSerializer());
+        module.addDeserializer(Date.class, new DateDeserializer<>(Date.class));
+        module.addDeserializer(java.sql.Date.class, new DateDeserializer<>(java.sql.Date.class));
+        module.addDeserializer(Timestamp.class, new DateDeserializer<>(Timestamp.class));
+        module.addSerializer(JsonDocument.class, new JsonDocumentSerializer(ignoredProperties));
+        objectMapper.registerModule(module);
+        return objectMapper;
+    }
+
+    private static final class RowReader implements JsonViewReader {
+        private final JsonParser parser;
+        private final ObjectReader rowReader;
+        private int totalRows = -1;
+        private int offset = -1;
+        private boolean started;
+        private boolean inRows;
+        private boolean finished;
+
+        private RowReader(@Nonnull JsonParser parser, @Nonnull ObjectReader rowReader) {
+            this.parser = parser;
+            this.rowReader = rowReader;
+        }
+
+        @Nullable
+        @Override
+        public ValueRow<?> nextRow() throws IOException {
+            if (finished) {
+                return null;
+            }
+            if (!inRows && !seekRows()) {
+                finished = true;
+                return null;
+            }
+
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.END_ARRAY) {
+                // members following the rows are of no interest
+                finished = true;
+                return null;
+            } else if (token != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Malformed view response, expected a row but found " + token);
+            }
+            return rowReader.readValue(parser);
+        }
+
+        @Override
+        public int getTotalRows() {
+            return totalRows;
+        }
+
+        @Override
+        public int getOffset() {
+            return offset;
+        }
+
+        private boolean seekRows() throws IOException {
+            if (!started) {
+                started = true;
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    throw new JsonParseException(parser, "Malformed view response, expected an object");
+                }
+            }
+
+            for (JsonToken token = parser.nextToken(); token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("rows".equals(name)) {
+                    if (value != JsonToken.START_ARRAY) {
+                        throw new JsonParseException(parser, "Malformed view response, expected an array of rows");
+                    }
+                    inRows = true;
+                    return true;
+                } else if ("total_rows".equals(name) && value == JsonToken.VALUE_NUMBER_INT) {
+                    totalRows = parser.getIntValue();
+                } else if ("offset".equals(name) && value == JsonToken.VALUE_NUMBER_INT) {
+                    offset = parser.getIntValue();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Reads svenson's annotations. Ignored properties are matched by the name of the accessor.
+     */
+    private static final class SvensonAnnotationIntrospector extends JacksonAnnotationIntrospector {
+        private static final long serialVersionUID = 1L;
+
+        private final Collection<String> ignoredProperties;
+
+        private SvensonAnnotationIntrospector(@Nonnull Collection<String> ignoredProperties) {
+            this.ignoredProperties = ignoredProperties;
+        }
+
+        @Override
+        public PropertyName findNameForSerialization(Annotated a) {
+            PropertyName name = findJsonPropertyName(a);
+            return name != null ? name : super.findNameForSerialization(a);
+        }
+
+        @Override
+        public PropertyName findNameForDeserialization(Annotated a) {
+            PropertyName name = findJsonPropertyName(a);
+            return name != null ? name : super.findNameForDeserialization(a);
+        }
+
+        @Override
+        public boolean hasIgnoreMarker(AnnotatedMember m) {
+            JSONProperty jsonProperty = m.getAnnotation(JSONProperty.class);
+            if ((jsonProperty != null && jsonProperty.ignore()) || ignoredProperties.contains(propertyNameOf(m.getName()))) {
+                return true;
+            }
+            return super.hasIgnoreMarker(m);
+        }
+
+        @Override
+        public JsonInclude.Value findPropertyInclusion(Annotated a) {
+            JsonInclude.Value inclusion = super.findPropertyInclusion(a);
+            JSONProperty jsonProperty = a.getAnnotation(JSONProperty.class);
+            if (jsonProperty != null && jsonProperty.ignoreIfNull()) {
+                return inclusion.withValueInclusion(JsonInclude.Include.NON_NULL);
+            }
+            return inclusion;
+        }
+
+        @Override
+        public JavaType refineDeserializationType(MapperConfig<?> config, Annotated a, JavaType baseType) throws JsonMappingException {
+            JavaType type = super.refineDeserializationType(config, a, baseType);
+            JSONTypeHint typeHint = a.getAnnotation(JSONTypeHint.class);
+            if (typeHint != null && type.isContainerType() && type.getContentType().getRawClass() == Object.class) {
+                return type.withContentType(config.getTypeFactory().constructType(typeHint.value()));
+            }
+            return type;
+        }
+
+        @Nullable
+        private static PropertyName findJsonPropertyName(@Nonnull Annotated a) {
+            JSONProperty jsonProperty = a.getAnnotation(JSONProperty.class);
+            return jsonProperty != null && !jsonProperty.value().isEmpty() ? PropertyName.construct(jsonProperty.value()) : null;
+        }
+
+        @Nonnull
+        private static String propertyNameOf(@Nonnull String accessorName) {
+            int prefix = accessorName.startsWith("is") ? 2 : accessorName.startsWith("get") || accessorName.startsWith("set") ? 3 : 0;
+            if (prefix == 0 || accessorName.length() == prefix) {
+                return accessorName;
+            }
+            return Character.toLowerCase(accessorName.charAt(prefix)) + accessorName.substring(prefix + 1);
+        }
+    }
+
+    private static final class DynamicPropertiesHandler extends DeserializationProblemHandler {
+        @Override
+        public boolean handleUnknownProperty(DeserializationContext ctxt, JsonParser p, JsonDeserializer<?> deserializer, Object beanOrClass, String propertyName) throws IOException {
+            if (beanOrClass instanceof DynamicProperties) {
+                ((DynamicProperties) beanOrClass).setProperty(propertyName, ctxt.readValue(p, Object.class));
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Appends the dynamic properties of a bean after its declared ones.
+     */
+    /**
+     * Escapes what svenson escapes: {@code /}, control characters and anything outside of printable ASCII, with
+     * lower case hex digits.
+     */
+    private static final class SvensonCharacterEscapes extends CharacterEscapes {
+        private static final long serialVersionUID = 1L;
+        private static final SerializableString ESCAPED_SLASH = new SerializedString("\\/");
+        private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+        private final int[] asciiEscapes;
+
+        private SvensonCharacterEscapes() {
+            asciiEscapes = standardAsciiEscapesForJSON();
+            for (int c = 0; c < asciiEscapes.length; c++) {
+                if (asciiEscapes[c] == ESCAPE_STANDARD) {
+                    asciiEscapes[c] = ESCAPE_CUSTOM;
+                }
+            }
+            asciiEscapes['/'] = ESCAPE_CUSTOM;
+            asciiEscapes[0x7F] = ESCAPE_CUSTOM;
+        }
+
+        @Override
+        public int[] getEscapeCodesForAscii() {
+            return asciiEscapes;
+        }
+
+        @Override
+        public SerializableString getEscapeSequence(int ch) {
+            if (ch == '/') {
+                return ESCAPED_SLASH;
+            }
+            return new SerializedString(new String(new char[]{'\\', 'u',
+                HEX_DIGITS[(ch >> 12) & 0xF], HEX_DIGITS[(ch >> 8) & 0xF], HEX_DIGITS[(ch >> 4) & 0xF], HEX_DIGITS[ch & 0xF]}));
+        }
+    }
+
+    private static final class SvensonSerializerModifier extends BeanSerializerModifier {
+        private static final Comparator<BeanPropertyWriter> BEAN_PROPERTY_ORDER = new Comparator<BeanPropertyWriter>() {
+            @Override
+            public int compare(BeanPropertyWriter a, BeanPropertyWriter b) {
+                return beanPropertyName(a).compareTo(beanPropertyName(b));
+            }
+
+            @Nonnull
+            private String beanPropertyName(@Nonnull BeanPropertyWriter writer) {
+                String accessorName = writer.getMember().getName();
+                int prefix = accessorName.startsWith("is") ? 2 : accessorName.startsWith("get") ? 3 : 0;
+                return prefix > 0 && accessorName.length() > prefix ? Introspector.decapitalize(accessorName.substring(prefix)) : accessorName;
+            }
+        };
+
+        @Override
+        public List<BeanPropertyWriter> changeProperties(SerializationConfig config, BeanDescription beanDesc, List<BeanPropertyWriter> beanProperties) {
+            // svenson writes properties in the order of their bean property names, dynamic properties last
+            List<BeanPropertyWriter> properties = new ArrayList<>(beanProperties);
+            Collections.sort(properties, BEAN_PROPERTY_ORDER);
+            if (DynamicProperties.class.isAssignableFrom(beanDesc.getBeanClass()) && !beanProperties.isEmpty()) {
+                properties.add(new DynamicPropertiesWriter(beanProperties.get(beanProperties.size() - 1)));
+            }
+            return properties;
+        }
+    }
+
+    private static final class DynamicPropertiesWriter extends BeanPropertyWriter {
+        private static final long serialVersionUID = 1L;
+
+        private DynamicPropertiesWriter(@Nonnull BeanPropertyWriter base) {
+            super(base);
+        }
+
+        @Override
+        public void serializeAsField(Object bean, JsonGenerator gen, SerializerProvider prov) throws IOException {
+            DynamicProperties properties = (DynamicProperties) bean;
+            for (String name : properties.propertyNames()) {
+                prov.defaultSerializeField(name, properties.getProperty(name), gen);
+            }
+        }
+    }
+
+    private static final class DateSerializer extends StdSerializer<Date> {
+        private static final long serialVersionUID = 1L;
+
+        private DateSerializer() {
+            super(Date.class);
+        }
+
+        @Override
+        public void serialize(Date value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeString(JsonConverterUtils.formatDate(value.getTime()));
+        }
+    }
+
+    private static final class DateDeserializer<T extends Date> extends StdScalarDeserializer<T> {
+        private static final long serialVersionUID = 1L;
+
+        private DateDeserializer(@Nonnull Class<T> type) {
+            super(type);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            long millis;
+            JsonToken token = p.getCurrentToken();
+            if (token == JsonToken.VALUE_NUMBER_INT) {
+                millis = p.getLongValue();
+            } else if (token == JsonToken.VALUE_STRING) {
+                try {
+                    millis = JsonConverterUtils.parseDate(p.getText()).getTime();
+                } catch (IllegalArgumentException e) {
+                    throw new JsonParseException(p, e.getMessage(), e);
+                }
+            } else {
+                return (T) ctxt.handleUnexpectedToken(handledType(), p);
+            }
+
+            if (handledType() == Timestamp.class) {
+                return (T) new Timestamp(millis);
+            } else if (handledType() == java.sql.Date.class) {
+                return (T) new java.sql.Date(millis);
+            }
+            return (T) new Date(millis);
+        }
+    }
+
+    private static final class JsonDocumentSerializer extends StdSerializer<JsonDocument> {
+        private static final long serialVersionUID = 1L;
+
+        private final Collection<String> ignoredProperties;
+
+        private JsonDocumentSerializer(@Nonnull Collection<String> ignoredProperties) {
+            super(JsonDocument.class);
+            this.ignoredProperties = ignoredProperties;
+        }
+
+        @Override
+        public void serialize(JsonDocument value, final JsonGenerator gen, final SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            try {
+                value.writeJson(new JsonDocumentWriter() {
+                    @Override
+                    public void write(@Nonnull String name, @Nullable Object value, boolean ignoreIfNull) {
+                        if ((value == null && ignoreIfNull) || ignoredProperties.contains(name)) {
+                            return;
+                        }
+                        try {
+                            provider.defaultSerializeField(name, value, gen);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            gen.writeEndObject();
+        }
+    }
+
+    private static final class JsonDocumentDeserializers extends Deserializers.Base {
+        @Override
+        public JsonDeserializer<?> findBeanDeserializer(JavaType type, DeserializationConfig config, BeanDescription beanDesc) {
+            return JsonDocumentCodec.supports(type.getRawClass()) ? new JsonDocumentDeserializer(type.getRawClass()) : null;
+        }
+    }
+
+    /**
+     * Decodes the properties read as a map with the generated codec, as {@code JsonDocumentCodec} does for svenson.
+     */
+    private static final class JsonDocumentDeserializer extends JsonDeserializer<Object> {
+        private final Class<?> type;
+
+        private JsonDocumentDeserializer(@Nonnull Class<?> type) {
+            this.type = type;
+        }
+
+        @Override
+        public Object deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            Map<?, ?> properties = ctxt.readValue(p, Map.class);
+            return JsonDocumentCodec.decode(JSONParser.defaultJSONParser(), type, properties);
+        }
+    }
+}
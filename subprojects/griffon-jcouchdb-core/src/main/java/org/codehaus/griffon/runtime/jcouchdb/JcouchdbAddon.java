@@ -15,29 +15,69 @@
  */
 package org.codehaus.griffon.runtime.jcouchdb;
 
+import griffon.core.Configuration;
+import griffon.core.ExecutorServiceManager;
 import griffon.core.GriffonApplication;
 import griffon.core.env.Metadata;
+import griffon.plugins.jcouchdb.ChangesFollowerManager;
+import griffon.plugins.jcouchdb.ConnectionPoolManager;
 import griffon.plugins.jcouchdb.DatabaseCallback;
 import griffon.plugins.jcouchdb.DatabaseFactory;
 import griffon.plugins.jcouchdb.DatabaseHandler;
+import griffon.plugins.jcouchdb.DatabaseMetricsManager;
 import griffon.plugins.jcouchdb.DatabaseStorage;
+import griffon.plugins.jcouchdb.DocumentCacheManager;
+import griffon.plugins.jcouchdb.HttpTransportFactory;
+import griffon.plugins.jcouchdb.LocalReplicaManager;
+import griffon.plugins.jcouchdb.ViewResultCacheManager;
 import griffon.plugins.monitor.MBeanManager;
 import org.codehaus.griffon.runtime.core.addon.AbstractGriffonAddon;
+import org.codehaus.griffon.runtime.jmx.ConnectionPoolMonitor;
+import org.codehaus.griffon.runtime.jmx.DatabaseMetricsMonitor;
 import org.codehaus.griffon.runtime.jmx.DatabaseStorageMonitor;
+import org.codehaus.griffon.runtime.jmx.DocumentCacheMonitor;
+import org.codehaus.griffon.runtime.jmx.LocalReplicaMonitor;
+import org.codehaus.griffon.runtime.jmx.ViewResultCacheMonitor;
 import org.jcouchdb.db.Database;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 
 import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 /**
  * @author Andres Almiray
  */
 @Named("jcouchdb")
 public class JcouchdbAddon extends AbstractGriffonAddon {
+    private static final String KEY_WARMUP = "warmup";
+    private static final DatabaseCallback<Object> NOOP_CALLBACK = new DatabaseCallback<Object>() {
+        @Override
+        public Object handle(@Nonnull String databaseName, @Nonnull Database database) {
+            return null;
+        }
+    };
+
+    @Inject
+    @Named("jcouchdb")
+    private Configuration configuration;
+
     @Inject
     private DatabaseHandler databaseHandler;
 
@@ -47,34 +87,154 @@ public class JcouchdbAddon extends AbstractGriffonAddon {
     @Inject
     private DatabaseStorage databaseStorage;
 
+    @Inject
+    private ConnectionPoolManager connectionPoolManager;
+
+    @Inject
+    private HttpTransportFactory httpTransportFactory;
+
+    @Inject
+    private ChangesFollowerManager changesFollowerManager;
+
+    @Inject
+    private DocumentCacheManager documentCacheManager;
+
+    @Inject
+    private ViewResultCacheManager viewResultCacheManager;
+
+    @Inject
+    private LocalReplicaManager localReplicaManager;
+
+    @Inject
+    private DatabaseMetricsManager databaseMetricsManager;
+
     @Inject
     private MBeanManager mbeanManager;
 
     @Inject
     private Metadata metadata;
 
+    @Inject
+    private ExecutorServiceManager executorServiceManager;
+
+    private volatile ExecutorService warmupExecutor;
+
     @Override
     public void init(@Nonnull GriffonApplication application) {
         mbeanManager.registerMBean(new DatabaseStorageMonitor(metadata, databaseStorage));
+        mbeanManager.registerMBean(new ConnectionPoolMonitor(metadata, connectionPoolManager));
+        mbeanManager.registerMBean(new DocumentCacheMonitor(metadata, documentCacheManager));
+        mbeanManager.registerMBean(new ViewResultCacheMonitor(metadata, viewResultCacheManager));
+        mbeanManager.registerMBean(new LocalReplicaMonitor(metadata, localReplicaManager));
+        for (String databaseName : databaseFactory.getDatabaseNames()) {
+            mbeanManager.registerMBean(new DatabaseMetricsMonitor(metadata, databaseMetricsManager.getMetrics(databaseName)));
+        }
     }
 
     public void onStartupStart(@Nonnull GriffonApplication application) {
+        List<String> databaseNames = new ArrayList<>();
+        List<String> followedDatabaseNames = new ArrayList<>();
         for (String databaseName : databaseFactory.getDatabaseNames()) {
             Map<String, Object> config = databaseFactory.getConfigurationFor(databaseName);
             if (getConfigValueAsBoolean(config, "connect_on_startup", false)) {
-                databaseHandler.withJcouchdb(new DatabaseCallback<Object>() {
-                    @Override
-                    public Object handle(@Nonnull String databaseName, @Nonnull Database database) {
-                        return null;
-                    }
-                });
+                databaseNames.add(databaseName);
+            }
+            if (getConfigValueAsBoolean(config, "changes.enabled", false)) {
+                followedDatabaseNames.add(databaseName);
             }
         }
+
+        if (!databaseNames.isEmpty()) {
+            warmup(application, databaseNames);
+        }
+        for (String databaseName : followedDatabaseNames) {
+            changesFollowerManager.start(databaseName);
+        }
     }
 
     public void onShutdownStart(@Nonnull GriffonApplication application) {
+        changesFollowerManager.stopAll();
+        if (warmupExecutor != null) {
+            warmupExecutor.shutdownNow();
+            warmupExecutor = null;
+        }
         for (String databaseName : databaseFactory.getDatabaseNames()) {
             databaseHandler.closeJcouchdb(databaseName);
         }
+        connectionPoolManager.shutdown();
+        httpTransportFactory.shutdown();
+    }
+
+    private void warmup(@Nonnull final GriffonApplication application, @Nonnull List<String> databaseNames) {
+        Map<String, Object> config = configuration.get(KEY_WARMUP, Collections.<String, Object>emptyMap());
+        int poolSize = Math.max(1, Math.min(getConfigValueAsInt(config, "pool_size", 4), databaseNames.size()));
+        final long timeout = getConfigValueAsLong(config, "timeout", 30000L);
+        boolean await = getConfigValueAsBoolean(config, "wait", false);
+
+        final long start = System.nanoTime();
+        final int total = databaseNames.size();
+        final Set<String> pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        pending.addAll(databaseNames);
+        final CountDownLatch done = new CountDownLatch(total);
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(poolSize, new DaemonThreadFactory("jcouchdb-warmup"));
+        executor.setRemoveOnCancelPolicy(true);
+        // shut down together with the application
+        executorServiceManager.add(executor);
+        warmupExecutor = executor;
+
+        // databases still warming up when the deadline expires keep going in the background
+        final ScheduledFuture<?> deadline = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                List<String> warming = new ArrayList<>(pending);
+                if (!warming.isEmpty()) {
+                    getLog().warn("Warmup of jcouchdb database(s) {} did not finish within {}ms; continuing in background", warming, timeout);
+                    application.getEventRouter().publishEvent("JcouchdbWarmupTimeout", asList(warming, timeout));
+                }
+            }
+        }, timeout, MILLISECONDS);
+
+        for (final String databaseName : databaseNames) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        warmup(application, databaseName);
+                    } finally {
+                        pending.remove(databaseName);
+                        done.countDown();
+                        if (done.getCount() == 0) {
+                            deadline.cancel(false);
+                            getLog().info("Warmup of {} jcouchdb database(s) took {}ms", total, NANOSECONDS.toMillis(System.nanoTime() - start));
+                        }
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+
+        if (await) {
+            try {
+                done.await(timeout, MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void warmup(@Nonnull GriffonApplication application, @Nonnull String databaseName) {
+        long start = System.nanoTime();
+        Throwable failure = null;
+        try {
+            databaseHandler.withJcouchdb(databaseName, NOOP_CALLBACK);
+        } catch (RuntimeException e) {
+            getLog().warn("Warmup of jcouchdb database '{}' failed", databaseName, e);
+            failure = e;
+        }
+
+        long elapsed = NANOSECONDS.toMillis(System.nanoTime() - start);
+        getLog().debug("Warmup of jcouchdb database '{}' took {}ms", databaseName, elapsed);
+        application.getEventRouter().publishEvent("JcouchdbWarmupEnd", asList(databaseName, elapsed, failure));
     }
 }
@@ -18,10 +18,23 @@ package org.codehaus.griffon.runtime.jcouchdb;
 import griffon.core.Configuration;
 import griffon.core.addon.GriffonAddon;
 import griffon.core.injection.Module;
+import griffon.plugins.jcouchdb.AsyncDatabaseHandler;
+import griffon.plugins.jcouchdb.ChangesCheckpointStore;
+import griffon.plugins.jcouchdb.ChangesFollowerManager;
+import griffon.plugins.jcouchdb.ConnectionPoolManager;
 import griffon.plugins.jcouchdb.CouchDBUpdater;
 import griffon.plugins.jcouchdb.DatabaseFactory;
 import griffon.plugins.jcouchdb.DatabaseHandler;
+import griffon.plugins.jcouchdb.DatabaseMetricsManager;
 import griffon.plugins.jcouchdb.DatabaseStorage;
+import griffon.plugins.jcouchdb.DocumentCacheManager;
+import griffon.plugins.jcouchdb.DocumentLoaderManager;
+import griffon.plugins.jcouchdb.HttpTransportFactory;
+import griffon.plugins.jcouchdb.JsonConfigFactory;
+import griffon.plugins.jcouchdb.JsonEngineFactory;
+import griffon.plugins.jcouchdb.LocalReplicaManager;
+import griffon.plugins.jcouchdb.ViewIndexWarmer;
+import griffon.plugins.jcouchdb.ViewResultCacheManager;
 import org.codehaus.griffon.runtime.core.injection.AbstractModule;
 import org.codehaus.griffon.runtime.util.ResourceBundleProvider;
 import org.kordamp.jipsy.ServiceProviderFor;
@@ -62,10 +75,62 @@ public class JcouchdbModule extends AbstractModule {
             .to(DefaultDatabaseHandler.class)
             .asSingleton();
 
+        bind(DatabaseMetricsManager.class)
+            .to(DefaultDatabaseMetricsManager.class)
+            .asSingleton();
+
+        bind(AsyncDatabaseHandler.class)
+            .to(DefaultAsyncDatabaseHandler.class)
+            .asSingleton();
+
+        bind(ConnectionPoolManager.class)
+            .to(DefaultConnectionPoolManager.class)
+            .asSingleton();
+
+        bind(HttpTransportFactory.class)
+            .to(DefaultHttpTransportFactory.class)
+            .asSingleton();
+
+        bind(DocumentCacheManager.class)
+            .to(DefaultDocumentCacheManager.class)
+            .asSingleton();
+
+        bind(ViewResultCacheManager.class)
+            .to(DefaultViewResultCacheManager.class)
+            .asSingleton();
+
+        bind(LocalReplicaManager.class)
+            .to(DefaultLocalReplicaManager.class)
+            .asSingleton();
+
+        bind(DocumentLoaderManager.class)
+            .to(DefaultDocumentLoaderManager.class)
+            .asSingleton();
+
+        bind(JsonConfigFactory.class)
+            .to(DefaultJsonConfigFactory.class)
+            .asSingleton();
+
+        bind(JsonEngineFactory.class)
+            .to(DefaultJsonEngineFactory.class)
+            .asSingleton();
+
         bind(CouchDBUpdater.class)
             .to(DefaultCouchDBUpdater.class)
             .asSingleton();
 
+        bind(ViewIndexWarmer.class)
+            .to(DefaultViewIndexWarmer.class)
+            .asSingleton();
+
+        bind(ChangesCheckpointStore.class)
+            .to(DefaultChangesCheckpointStore.class)
+            .asSingleton();
+
+        bind(ChangesFollowerManager.class)
+            .to(DefaultChangesFollowerManager.class)
+            .asSingleton();
+
         bind(GriffonAddon.class)
             .to(JcouchdbAddon.class)
             .asSingleton();
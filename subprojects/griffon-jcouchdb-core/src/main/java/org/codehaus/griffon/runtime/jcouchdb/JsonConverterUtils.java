@@ -15,55 +15,263 @@
  */
 package org.codehaus.griffon.runtime.jcouchdb;
 
-import net.sf.ezmorph.MorphUtils;
-import net.sf.ezmorph.MorpherRegistry;
-import net.sf.ezmorph.object.DateMorpher;
-import org.apache.commons.lang.time.DateFormatUtils;
-
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.ResolverStyle;
+import java.time.format.SignStyle;
+import java.time.format.TextStyle;
+import java.time.temporal.ChronoField;
 import java.util.Date;
+import java.util.Locale;
 
 /**
+ * Converts dates from and to their JSON representation. Dates are written using {@link #DATE_PATTERN} in UTC.
+ * When reading, the shape of the input selects the matching pattern in a single pass; the following patterns
+ * are supported (names are matched case insensitively)
+ * <ul>
+ * <li>{@code yyyy/MM/dd HH:mm:ss[.S][ ]Z}</li>
+ * <li>{@code yyyy/MM/dd HH:mm:ss[.S][ ]z}</li>
+ * <li>{@code EEE, dd MMM yyyy HH:mm:ss[ ]Z}</li>
+ * <li>{@code EEE, dd MMM yyyy HH:mm:ss[ ]z}</li>
+ * </ul>
+ * Values written by this class are decoded without allocating intermediate objects. All dates use the
+ * proleptic ISO calendar.
+ *
  * @author Cory Hacking
  */
 public class JsonConverterUtils {
     public static final String DATE_PATTERN = "yyyy/MM/dd HH:mm:ss Z";
 
-    private static final MorpherRegistry morpher = new MorpherRegistry();
-    private static final DateMorpher dm = new DateMorpher(new String[]{
-        DATE_PATTERN,
-        "yyyy/MM/dd HH:mm:ss.S Z",
-        "yyyy/MM/dd HH:mm:ssZ",
-        "yyyy/MM/dd HH:mm:ss.SZ",
-        "yyyy/MM/dd HH:mm:ss.S z",
-        "yyyy/MM/dd HH:mm:ss z",
-        "EEE, dd MMM yyyy HH:mm:ssZ",
-        "EEE, dd MMM yyyy HH:mm:ss Z",
-        "EEE, dd MMM yyyy HH:mm:ss z"
-    }, true);
-
-    static {
-        MorphUtils.registerStandardMorphers(morpher);
-        morpher.registerMorpher(dm);
-    }
+    // yyyy/MM/dd HH:mm:ss +hhmm
+    private static final int FORMATTED_LENGTH = 25;
+    private static final long SECONDS_PER_DAY = 86400L;
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final int MIN_FAST_YEAR = 0;
+    private static final int MAX_FAST_YEAR = 9999;
+
+    private static final DateTimeFormatter NUMERIC_FORMATTER = zoned(new DateTimeFormatterBuilder()
+        .parseCaseInsensitive()
+        .appendValue(ChronoField.YEAR, 1, 10, SignStyle.NORMAL)
+        .appendLiteral('/')
+        .appendValue(ChronoField.MONTH_OF_YEAR, 1, 2, SignStyle.NORMAL)
+        .appendLiteral('/')
+        .appendValue(ChronoField.DAY_OF_MONTH, 1, 2, SignStyle.NORMAL)
+        .appendLiteral(' '));
+
+    private static final DateTimeFormatter TEXTUAL_FORMATTER = zoned(new DateTimeFormatterBuilder()
+        .parseCaseInsensitive()
+        .appendText(ChronoField.DAY_OF_WEEK, TextStyle.SHORT)
+        .appendLiteral(", ")
+        .appendValue(ChronoField.DAY_OF_MONTH, 1, 2, SignStyle.NORMAL)
+        .appendLiteral(' ')
+        .appendText(ChronoField.MONTH_OF_YEAR, TextStyle.SHORT)
+        .appendLiteral(' ')
+        .appendValue(ChronoField.YEAR, 1, 10, SignStyle.NORMAL)
+        .appendLiteral(' '));
+
+    private static final DateTimeFormatter OUTPUT_FORMATTER = new DateTimeFormatterBuilder()
+        .appendValue(ChronoField.YEAR_OF_ERA, 4, 19, SignStyle.NORMAL)
+        .appendPattern("/MM/dd HH:mm:ss Z")
+        .toFormatter(Locale.ENGLISH)
+        .withZone(ZoneOffset.UTC);
 
     public static Object fromJSON(Class target, Object value) {
-        return morpher.morph(target, value);
+        if (value == null || target.isInstance(value)) {
+            return value;
+        }
+        if (!(value instanceof String) || !Date.class.isAssignableFrom(target)) {
+            throw new IllegalArgumentException(value.getClass() + " can not be converted to " + target.getName());
+        }
+        return parseDate((String) value);
     }
 
     public static Object toJSON(Object in) {
-        Object value = in;
+        if (in instanceof Date) {
+            return formatDate(((Date) in).getTime());
+        }
+        return in;
+    }
+
+    /**
+     * Parses a date in any of the supported patterns.
+     *
+     * @param text the text to be parsed
+     * @return the parsed date
+     * @throws IllegalArgumentException if the text does not match any of the supported patterns
+     */
+    public static Date parseDate(String text) {
+        long millis = parseCanonical(text);
+        if (millis != Long.MIN_VALUE) {
+            return new Date(millis);
+        }
+
+        DateTimeFormatter formatter = text.length() > 0 && Character.isLetter(text.charAt(0)) ? TEXTUAL_FORMATTER : NUMERIC_FORMATTER;
+        try {
+            return Date.from(formatter.parse(text, ZonedDateTime::from).toInstant());
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("Unable to parse the date " + text, e);
+        }
+    }
+
+    /**
+     * Formats the given time using {@link #DATE_PATTERN} in UTC.
+     *
+     * @param millis milliseconds since the epoch
+     * @return the formatted date
+     */
+    public static String formatDate(long millis) {
+        long seconds = Math.floorDiv(millis, MILLIS_PER_SECOND);
+        long epochDay = Math.floorDiv(seconds, SECONDS_PER_DAY);
+        int secondOfDay = (int) Math.floorMod(seconds, SECONDS_PER_DAY);
+
+        // civil from days, see http://howardhinnant.github.io/date_algorithms.html
+        long z = epochDay + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year < MIN_FAST_YEAR || year > MAX_FAST_YEAR) {
+            return OUTPUT_FORMATTER.format(Instant.ofEpochMilli(millis));
+        }
+
+        char[] buffer = new char[FORMATTED_LENGTH];
+        write4(buffer, 0, (int) year);
+        buffer[4] = '/';
+        write2(buffer, 5, month);
+        buffer[7] = '/';
+        write2(buffer, 8, day);
+        buffer[10] = ' ';
+        write2(buffer, 11, secondOfDay / 3600);
+        buffer[13] = ':';
+        write2(buffer, 14, (secondOfDay / 60) % 60);
+        buffer[16] = ':';
+        write2(buffer, 17, secondOfDay % 60);
+        buffer[19] = ' ';
+        buffer[20] = '+';
+        buffer[21] = '0';
+        buffer[22] = '0';
+        buffer[23] = '0';
+        buffer[24] = '0';
+        return new String(buffer);
+    }
+
+    /**
+     * Parses {@code yyyy/MM/dd HH:mm:ss[.S] +hhmm}, the shape written by {@link #formatDate(long)}.
+     *
+     * @return milliseconds since the epoch, or {@code Long.MIN_VALUE} if the text has a different shape
+     */
+    private static long parseCanonical(String text) {
+        int length = text.length();
+        if (length < FORMATTED_LENGTH - 1 || text.charAt(4) != '/' || text.charAt(7) != '/' || text.charAt(10) != ' ' ||
+            text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return Long.MIN_VALUE;
+        }
+
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        int second = digits(text, 17, 2);
+        if ((year | month | day | hour | minute | second) < 0) {
+            return Long.MIN_VALUE;
+        }
 
-        if (value instanceof java.sql.Date || value instanceof java.sql.Timestamp) {
-            value = new Date(((Date) value).getTime());
+        int index = 19;
+        int millis = 0;
+        if (text.charAt(index) == '.') {
+            int start = ++index;
+            while (index < length && index - start < 9 && isDigit(text.charAt(index))) {
+                millis = millis * 10 + (text.charAt(index++) - '0');
+            }
+            if (index == start) {
+                return Long.MIN_VALUE;
+            }
         }
 
-        if (value instanceof Date) {
-            value = DateFormatUtils.formatUTC((Date) value, DATE_PATTERN);
+        if (index < length && text.charAt(index) == ' ') {
+            index++;
         }
+        if (index + 5 != length) {
+            return Long.MIN_VALUE;
+        }
+        char sign = text.charAt(index);
+        int offsetHours = digits(text, index + 1, 2);
+        int offsetMinutes = digits(text, index + 3, 2);
+        if ((sign != '+' && sign != '-') || (offsetHours | offsetMinutes) < 0) {
+            return Long.MIN_VALUE;
+        }
+        int offsetSeconds = (offsetHours * 3600 + offsetMinutes * 60) * (sign == '-' ? -1 : 1);
+
+        // fields out of range roll over into the next larger field, just like a lenient SimpleDateFormat
+        year += Math.floorDiv(month - 1, 12);
+        month = Math.floorMod(month - 1, 12) + 1;
+        long epochDay = daysFromCivil(year, month) + day - 1;
+        long seconds = epochDay * SECONDS_PER_DAY + hour * 3600L + minute * 60L + second - offsetSeconds;
+        return seconds * MILLIS_PER_SECOND + millis;
+    }
+
+    private static long daysFromCivil(long year, int month) {
+        // days from civil for the first day of the month, see http://howardhinnant.github.io/date_algorithms.html
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
 
+    private static int digits(String text, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
         return value;
     }
 
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static void write2(char[] buffer, int offset, int value) {
+        buffer[offset] = (char) ('0' + value / 10);
+        buffer[offset + 1] = (char) ('0' + value % 10);
+    }
+
+    private static void write4(char[] buffer, int offset, int value) {
+        write2(buffer, offset, value / 100);
+        write2(buffer, offset + 2, value % 100);
+    }
+
+    private static DateTimeFormatter zoned(DateTimeFormatterBuilder builder) {
+        return builder
+            .appendValue(ChronoField.HOUR_OF_DAY, 1, 2, SignStyle.NORMAL)
+            .appendLiteral(':')
+            .appendValue(ChronoField.MINUTE_OF_HOUR, 1, 2, SignStyle.NORMAL)
+            .appendLiteral(':')
+            .appendValue(ChronoField.SECOND_OF_MINUTE, 1, 2, SignStyle.NORMAL)
+            // 'S' used to be parsed as a number of milliseconds, not as a fraction of a second
+            .optionalStart().appendLiteral('.').appendValue(ChronoField.MILLI_OF_SECOND, 1, 9, SignStyle.NORMAL).optionalEnd()
+            .optionalStart().appendLiteral(' ').optionalEnd()
+            .optionalStart().appendOffset("+HHMM", "+0000").optionalEnd()
+            .optionalStart().appendZoneText(TextStyle.SHORT).optionalEnd()
+            .toFormatter(Locale.ENGLISH)
+            .withResolverStyle(ResolverStyle.LENIENT);
+    }
+
     private JsonConverterUtils() {
 
     }
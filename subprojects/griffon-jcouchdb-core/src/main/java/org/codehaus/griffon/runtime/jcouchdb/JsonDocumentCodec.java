@@ -0,0 +1,293 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.JsonDocument;
+import griffon.plugins.jcouchdb.JsonDocumentReader;
+import griffon.plugins.jcouchdb.JsonDocumentWriter;
+import org.svenson.JSON;
+import org.svenson.JSONCharacterSink;
+import org.svenson.JSONParser;
+import org.svenson.SinkAwareJSONifier;
+import org.svenson.StringBuilderSink;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Encodes and decodes {@link JsonDocument}s. Documents are written straight into the sink of the {@code JSON}
+ * generator, without introspecting their class. They are read by parsing the JSON into a map, which svenson does
+ * without introspection either, and handing it to {@link JsonDocument#readJson(JsonDocumentReader)}.
+ *
+ * @author Andres Almiray
+ */
+public final class JsonDocumentCodec {
+    private static final ClassValue<Constructor<?>> CONSTRUCTORS = new ClassValue<Constructor<?>>() {
+        @Override
+        protected Constructor<?> computeValue(Class<?> type) {
+            try {
+                Constructor<?> constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+                return constructor;
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(type.getName() + " does not have a no-args constructor", e);
+            }
+        }
+    };
+
+    private JsonDocumentCodec() {
+        // prevent instantiation
+    }
+
+    public static boolean supports(@Nullable Class<?> type) {
+        return type != null && JsonDocument.class.isAssignableFrom(type);
+    }
+
+    /**
+     * @return a JSONifier writing {@code JsonDocument}s with the given generator; properties named in
+     * {@code ignoredProperties} are left out
+     */
+    @Nonnull
+    public static SinkAwareJSONifier jsonifier(@Nonnull JSON json, @Nonnull Collection<String> ignoredProperties) {
+        return new Jsonifier(requireNonNull(json, "Argument 'json' must not be null"),
+            requireNonNull(ignoredProperties, "Argument 'ignoredProperties' must not be null"));
+    }
+
+    @Nonnull
+    public static <T> T parse(@Nonnull JSONParser parser, @Nonnull Class<T> type, @Nonnull String json) {
+        requireNonNull(parser, "Argument 'parser' must not be null");
+        requireNonNull(json, "Argument 'json' must not be null");
+        return decode(parser, type, parser.parse(Map.class, json));
+    }
+
+    /**
+     * @param properties a JSON object decoded as a map
+     * @return a new document read from {@code properties}; {@code null} if {@code properties} is {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public static <T> T decode(@Nonnull JSONParser parser, @Nonnull Class<T> type, @Nullable Map<?, ?> properties) {
+        requireNonNull(parser, "Argument 'parser' must not be null");
+        requireNonNull(type, "Argument 'type' must not be null");
+        if (properties == null) {
+            return null;
+        }
+        if (!supports(type)) {
+            throw new IllegalArgumentException(type.getName() + " is not a " + JsonDocument.class.getName());
+        }
+        T document = newInstance(type);
+        ((JsonDocument) document).readJson(new MapReader(parser, (Map<String, Object>) properties));
+        return document;
+    }
+
+    /**
+     * Converts a string, number or boolean to {@code type} the way generated codecs do.
+     */
+    @Nullable
+    static Object convertScalar(@Nullable Object value, @Nonnull Class<?> type) {
+        return convert(JSONParser.defaultJSONParser(), value, type);
+    }
+
+    @Nonnull
+    private static <T> T newInstance(@Nonnull Class<T> type) {
+        try {
+            return type.cast(CONSTRUCTORS.get(type).newInstance());
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot instantiate " + type.getName(), e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalArgumentException("Cannot instantiate " + type.getName(), e.getTargetException());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    private static Object convert(@Nonnull JSONParser parser, @Nullable Object value, @Nonnull Class<?> type) {
+        if (value == null || type.isInstance(value)) {
+            return value;
+        }
+        if (value instanceof Number) {
+            Number number = (Number) value;
+            if (type == Integer.class) {
+                return number.intValue();
+            } else if (type == Long.class) {
+                return number.longValue();
+            } else if (type == Double.class) {
+                return number.doubleValue();
+            } else if (type == Float.class) {
+                return number.floatValue();
+            } else if (type == Short.class) {
+                return number.shortValue();
+            } else if (type == Byte.class) {
+                return number.byteValue();
+            } else if (type == BigDecimal.class) {
+                return new BigDecimal(number.toString());
+            } else if (type == BigInteger.class) {
+                return new BigDecimal(number.toString()).toBigInteger();
+            } else if (Date.class.isAssignableFrom(type)) {
+                return toDate(number.longValue(), type);
+            }
+        }
+        if (type == String.class && (value instanceof Number || value instanceof Boolean)) {
+            return String.valueOf(value);
+        }
+        if (value instanceof String) {
+            String text = (String) value;
+            if (Date.class.isAssignableFrom(type)) {
+                return toDate(JsonConverterUtils.parseDate(text).getTime(), type);
+            } else if (type.isEnum()) {
+                return Enum.valueOf(type.asSubclass(Enum.class), text);
+            } else if (type == Character.class && text.length() == 1) {
+                return text.charAt(0);
+            }
+        }
+        if (value instanceof Map || value instanceof List) {
+            if (value instanceof Map && supports(type)) {
+                return decode(parser, type, (Map<?, ?>) value);
+            }
+            // not a generated document, let the parser populate the bean from its JSON form
+            return parser.parse(type, JSON.defaultJSON().forValue(value));
+        }
+        throw new IllegalArgumentException(value.getClass() + " can not be converted to " + type.getName());
+    }
+
+    @Nonnull
+    private static Date toDate(long millis, @Nonnull Class<?> type) {
+        if (type == java.sql.Timestamp.class) {
+            return new java.sql.Timestamp(millis);
+        } else if (type == java.sql.Date.class) {
+            return new java.sql.Date(millis);
+        }
+        return new Date(millis);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    @Nonnull
+    private static Collection<Object> newCollection(@Nonnull Class<?> type, int size) {
+        if (!type.isInterface()) {
+            return (Collection<Object>) newInstance(type);
+        } else if (SortedSet.class.isAssignableFrom(type)) {
+            return new TreeSet<>();
+        } else if (Set.class.isAssignableFrom(type)) {
+            return new LinkedHashSet<>(size * 4 / 3 + 1);
+        }
+        return new ArrayList<>(size);
+    }
+
+    private static final class MapReader implements JsonDocumentReader {
+        private final JSONParser parser;
+        private final Map<String, Object> properties;
+
+        private MapReader(@Nonnull JSONParser parser, @Nonnull Map<String, Object> properties) {
+            this.parser = parser;
+            this.properties = properties;
+        }
+
+        @Override
+        public boolean has(@Nonnull String name) {
+            return properties.containsKey(name);
+        }
+
+        @Nullable
+        @Override
+        public <T> T read(@Nonnull String name, @Nonnull Class<T> type) {
+            return type.cast(convert(parser, properties.get(name), type));
+        }
+
+        @Nullable
+        @Override
+        public <C extends Collection<?>> C readCollection(@Nonnull String name, @Nonnull Class<C> collectionType, @Nonnull Class<?> elementType) {
+            Object value = properties.get(name);
+            if (value == null) {
+                return null;
+            }
+            if (!(value instanceof Collection)) {
+                throw new IllegalArgumentException("Property '" + name + "' is not an array: " + value.getClass().getName());
+            }
+            Collection<?> elements = (Collection<?>) value;
+            Collection<Object> collection = newCollection(collectionType, elements.size());
+            for (Object element : elements) {
+                collection.add(convert(parser, element, elementType));
+            }
+            return collectionType.cast(collection);
+        }
+    }
+
+    private static final class SinkWriter implements JsonDocumentWriter {
+        private final JSON json;
+        private final JSONCharacterSink sink;
+        private final Collection<String> ignoredProperties;
+        private boolean first = true;
+
+        private SinkWriter(@Nonnull JSON json, @Nonnull JSONCharacterSink sink, @Nonnull Collection<String> ignoredProperties) {
+            this.json = json;
+            this.sink = sink;
+            this.ignoredProperties = ignoredProperties;
+        }
+
+        @Override
+        public void write(@Nonnull String name, @Nullable Object value, boolean ignoreIfNull) {
+            if ((value == null && ignoreIfNull) || ignoredProperties.contains(name)) {
+                return;
+            }
+            if (!first) {
+                sink.append(',');
+            }
+            first = false;
+            json.quote(sink, name);
+            sink.append(':');
+            json.dumpObject(sink, value);
+        }
+    }
+
+    private static final class Jsonifier implements SinkAwareJSONifier {
+        private final JSON json;
+        private final Collection<String> ignoredProperties;
+
+        private Jsonifier(@Nonnull JSON json, @Nonnull Collection<String> ignoredProperties) {
+            this.json = json;
+            this.ignoredProperties = ignoredProperties;
+        }
+
+        @Override
+        public String toJSON(Object o) {
+            StringBuilderSink sink = new StringBuilderSink();
+            writeToSink(sink, o);
+            return sink.getContent();
+        }
+
+        @Override
+        public void writeToSink(JSONCharacterSink sink, Object o) {
+            sink.append('{');
+            ((JsonDocument) o).writeJson(new SinkWriter(json, sink, ignoredProperties));
+            sink.append('}');
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.JsonDocument;
+import griffon.plugins.jcouchdb.JsonDocumentReader;
+import griffon.plugins.jcouchdb.JsonDocumentWriter;
+import org.jcouchdb.document.DocumentPropertyHandler;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reads and writes {@code _id} and {@code _rev} of {@link JsonDocument}s through their generated codec, other
+ * documents are handled by the delegate. Documents without an {@code _id} or {@code _rev} property report
+ * {@code null} and ignore updates.
+ *
+ * @author Andres Almiray
+ */
+public class JsonDocumentPropertyHandler implements DocumentPropertyHandler {
+    private static final String ID = "_id";
+    private static final String REVISION = "_rev";
+
+    private final DocumentPropertyHandler delegate;
+
+    public JsonDocumentPropertyHandler(@Nonnull DocumentPropertyHandler delegate) {
+        this.delegate = requireNonNull(delegate, "Argument 'delegate' must not be null");
+    }
+
+    @Nonnull
+    public DocumentPropertyHandler getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public String getId(Object document) {
+        return document instanceof JsonDocument ? getProperty((JsonDocument) document, ID) : delegate.getId(document);
+    }
+
+    @Override
+    public String getRevision(Object document) {
+        return document instanceof JsonDocument ? getProperty((JsonDocument) document, REVISION) : delegate.getRevision(document);
+    }
+
+    @Override
+    public void setId(Object document, String id) {
+        if (document instanceof JsonDocument) {
+            ((JsonDocument) document).readJson(new PropertyReader(ID, id));
+        } else {
+            delegate.setId(document, id);
+        }
+    }
+
+    @Override
+    public void setRevision(Object document, String revision) {
+        if (document instanceof JsonDocument) {
+            ((JsonDocument) document).readJson(new PropertyReader(REVISION, revision));
+        } else {
+            delegate.setRevision(document, revision);
+        }
+    }
+
+    @Nullable
+    private static String getProperty(@Nonnull JsonDocument document, @Nonnull String name) {
+        PropertyWriter writer = new PropertyWriter(name);
+        document.writeJson(writer);
+        return writer.value != null ? String.valueOf(writer.value) : null;
+    }
+
+    private static final class PropertyWriter implements JsonDocumentWriter {
+        private final String name;
+        private Object value;
+
+        private PropertyWriter(@Nonnull String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void write(@Nonnull String name, @Nullable Object value, boolean ignoreIfNull) {
+            if (this.name.equals(name)) {
+                this.value = value;
+            }
+        }
+    }
+
+    private static final class PropertyReader implements JsonDocumentReader {
+        private final String name;
+        private final String value;
+
+        private PropertyReader(@Nonnull String name, @Nullable String value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public boolean has(@Nonnull String name) {
+            return this.name.equals(name);
+        }
+
+        @Nullable
+        @Override
+        public <T> T read(@Nonnull String name, @Nonnull Class<T> type) {
+            return has(name) ? type.cast(value) : null;
+        }
+
+        @Nullable
+        @Override
+        public <C extends Collection<?>> C readCollection(@Nonnull String name, @Nonnull Class<C> collectionType, @Nonnull Class<?> elementType) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.Reader;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Character level reading of a JSON text, for readers that pick members out of a response without binding all of
+ * it. Skipped values are never copied.
+ *
+ * @author Andres Almiray
+ */
+abstract class JsonScanner {
+    static final int EOF = -1;
+
+    /**
+     * Holds the text of the last string or scalar read.
+     */
+    final StringBuilder text = new StringBuilder(256);
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+
+    JsonScanner(@Nonnull Reader reader) {
+        this.reader = requireNonNull(reader, "Argument 'reader' must not be null");
+    }
+
+    /**
+     * Reads the content of a string whose opening quote has been consumed into {@code text}, unescaping it.
+     */
+    void readString() throws IOException {
+        text.setLength(0);
+        for (int c = read(); c != '"'; c = read()) {
+            if (c == EOF) {
+                throw unexpectedEnd();
+            }
+            if (c == '\\') {
+                c = read();
+                if (c == EOF) {
+                    throw unexpectedEnd();
+                }
+                c = c == 'u' ? readUnicodeEscape() : unescape((char) c);
+            }
+            text.append((char) c);
+        }
+    }
+
+    /**
+     * Reads a number, {@code true}, {@code false} or {@code null} starting with {@code c} into {@code text}.
+     */
+    void readScalar(int c) throws IOException {
+        text.setLength(0);
+        text.append((char) c);
+        for (c = peek(); !isDelimiter(c); c = peek()) {
+            text.append((char) read());
+        }
+    }
+
+    /**
+     * Appends the JSON text of the value starting with {@code c} to {@code target}.
+     */
+    void copyValue(int c, @Nonnull StringBuilder target) throws IOException {
+        target.append((char) c);
+        if (c == '"') {
+            copyString(target);
+        } else if (c == '{' || c == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                c = read();
+                if (c == EOF) {
+                    throw unexpectedEnd();
+                }
+                target.append((char) c);
+                if (c == '"') {
+                    copyString(target);
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+        } else {
+            for (c = peek(); !isDelimiter(c); c = peek()) {
+                target.append((char) read());
+            }
+        }
+    }
+
+    /**
+     * Skips the value starting with {@code c}.
+     */
+    void skipValue(int c) throws IOException {
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                c = read();
+                if (c == EOF) {
+                    throw unexpectedEnd();
+                } else if (c == '"') {
+                    skipString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+        } else {
+            while (!isDelimiter(peek())) {
+                read();
+            }
+        }
+    }
+
+    int nextToken() throws IOException {
+        int c = read();
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+            c = read();
+        }
+        return c;
+    }
+
+    int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return EOF;
+        }
+        return buffer[position];
+    }
+
+    int read() throws IOException {
+        if (position == limit && !fill()) {
+            return EOF;
+        }
+        return buffer[position++];
+    }
+
+    @Nonnull
+    IOException unexpectedEnd() {
+        return new IOException("Unexpected end of JSON text");
+    }
+
+    static void expect(int actual, char expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Malformed JSON text, expected '" + expected + "' but found " + (actual == EOF ? "end of stream" : "'" + (char) actual + "'"));
+        }
+    }
+
+    /**
+     * @return the character denoted by the escape sequence {@code \c}, other than unicode escapes
+     */
+    static char unescape(char c) {
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            default:
+                return c;
+        }
+    }
+
+    static int parseInt(@Nonnull CharSequence value) {
+        try {
+            return Integer.parseInt(value.toString().trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void copyString(@Nonnull StringBuilder target) throws IOException {
+        for (int c = read(); c != '"'; c = read()) {
+            if (c == EOF) {
+                throw unexpectedEnd();
+            }
+            target.append((char) c);
+            if (c == '\\') {
+                c = read();
+                if (c == EOF) {
+                    throw unexpectedEnd();
+                }
+                target.append((char) c);
+                if (c == 'u') {
+                    // copied text is decoded later, reject broken escapes while the input is at hand
+                    int value = readUnicodeEscape();
+                    for (int shift = 12; shift >= 0; shift -= 4) {
+                        target.append(Character.forDigit((value >> shift) & 0xF, 16));
+                    }
+                }
+            }
+        }
+        target.append('"');
+    }
+
+    private void skipString() throws IOException {
+        for (int c = read(); c != '"'; c = read()) {
+            if (c == EOF) {
+                throw unexpectedEnd();
+            } else if (c == '\\' && read() == EOF) {
+                throw unexpectedEnd();
+            }
+        }
+    }
+
+    private int readUnicodeEscape() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(read(), 16);
+            if (digit < 0) {
+                throw new IOException("Malformed JSON text, invalid unicode escape");
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private static boolean isDelimiter(int c) {
+        return c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == EOF;
+    }
+
+    private boolean fill() throws IOException {
+        int count = reader.read(buffer, 0, buffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = count;
+        return true;
+    }
+}
@@ -0,0 +1,875 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.JsonEngine;
+import griffon.plugins.jcouchdb.JsonViewReader;
+import griffon.plugins.jcouchdb.ProjectedDocument;
+import griffon.plugins.jcouchdb.Projection;
+import griffon.plugins.jcouchdb.ViewIndexWarmer;
+import org.apache.http.Header;
+import org.jcouchdb.db.Database;
+import org.jcouchdb.db.Options;
+import org.jcouchdb.db.Response;
+import org.jcouchdb.db.Server;
+import org.jcouchdb.document.DocumentHelper;
+import org.jcouchdb.document.DocumentInfo;
+import org.jcouchdb.document.AbstractViewResult;
+import org.jcouchdb.document.DocumentPropertyHandler;
+import org.jcouchdb.document.ValueRow;
+import org.jcouchdb.document.ViewAndDocumentsResult;
+import org.jcouchdb.document.ViewResult;
+import org.jcouchdb.exception.DataAccessException;
+import org.jcouchdb.exception.DocumentValidationException;
+import org.jcouchdb.exception.NotFoundException;
+import org.jcouchdb.exception.UpdateConflictException;
+import org.jcouchdb.util.ExceptionWrapper;
+import org.svenson.JSONParser;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@code Database} with the optional features configured per database by the plugin.
+ * <p>
+ * When a {@code DocumentCache} is set, the JSON of documents read by id without a revision or a custom parser is
+ * cached. Every read of a cached document is revalidated with {@code If-None-Match}; a {@code 304} returns a new
+ * instance parsed from the cached JSON without transferring the body. Writes made through this instance invalidate
+ * the affected documents.
+ * <p>
+ * When a {@code ViewResultCache} is set, view queries without keys or a custom parser are cached the same way,
+ * revalidated with the {@code ETag} of the view.
+ * <p>
+ * When a {@code ViewIndexWarmer} is set, views of design documents whose index is being built are queried with
+ * {@code stale=ok} until the index is up to date.
+ * <p>
+ * When a {@code LocalReplica} is set, documents read by id without a revision are parsed from the replica, falling
+ * back to the server only while the replica has not caught up with the database yet. Single document writes and
+ * deletes are queued in the replica and pushed in the background; ids of new documents are assigned locally and
+ * revisions are set on the saved document by the replication thread once the server accepts the write.
+ * {@code DatabaseEventHandler}s are not notified of queued writes. Views, attachments and bulk operations always go to the server.
+ * <p>
+ * Documents implementing {@code JsonDocument} are read as maps and decoded by their generated codec, whichever of
+ * the paths above they come from.
+ * <p>
+ * When a {@code JsonEngine} other than {@code svenson} is set, documents read by id and view queries without keys
+ * or a custom parser are parsed by that engine, as are documents written to the replica. Every other request is
+ * handled by jcouchdb with the {@code JSONConfig} of this instance.
+ * <p>
+ * Documents and views read with a {@code Projection} keep only the selected fields, decoding them when accessed.
+ * They are read from the replica when it holds the document and bypass the caches otherwise.
+ *
+ * @author Andres Almiray
+ */
+public class ManagedDatabase extends Database {
+    private static final String DESIGN_DOCUMENT_PREFIX = "_design/";
+    private static final String VIEW_INFIX = "/_view/";
+    private static final String VIEW_VALUE_TYPE_HINT = ".rows[].value";
+    private static final String VIEW_DOCUMENT_TYPE_HINT = ".rows[].doc";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final int SC_NOT_MODIFIED = 304;
+    private static final int SC_FORBIDDEN = 403;
+    private static final int SC_NOT_FOUND = 404;
+    private static final int SC_CONFLICT = 409;
+
+    private final DefaultDocumentCache documentCache;
+    private final DefaultViewResultCache viewResultCache;
+    private DocumentPropertyHandler documentPropertyHandler;
+    private volatile String databaseName;
+    private volatile ViewIndexWarmer viewIndexWarmer;
+    private volatile DefaultLocalReplica localReplica;
+    private volatile JsonEngine jsonEngine;
+
+    public ManagedDatabase(@Nonnull Server server, @Nonnull String name, @Nullable DefaultDocumentCache documentCache) {
+        this(server, name, documentCache, null);
+    }
+
+    public ManagedDatabase(@Nonnull Server server, @Nonnull String name, @Nullable DefaultDocumentCache documentCache, @Nullable DefaultViewResultCache viewResultCache) {
+        super(requireNonNull(server, "Argument 'server' must not be null"), name);
+        this.documentCache = documentCache;
+        this.viewResultCache = viewResultCache;
+        setDocumentPropertyHandler(new DocumentHelper());
+    }
+
+    @Nullable
+    public DefaultDocumentCache getDocumentCache() {
+        return documentCache;
+    }
+
+    @Nullable
+    public DefaultViewResultCache getViewResultCache() {
+        return viewResultCache;
+    }
+
+    @Nullable
+    public DefaultLocalReplica getLocalReplica() {
+        return localReplica;
+    }
+
+    public void setLocalReplica(@Nullable DefaultLocalReplica localReplica) {
+        this.localReplica = localReplica;
+    }
+
+    /**
+     * @return the engine set on this instance, a {@code svenson} engine over its {@code JSONConfig} otherwise
+     */
+    @Nonnull
+    public JsonEngine getJsonEngine() {
+        JsonEngine engine = jsonEngine;
+        return engine != null ? engine : new SvensonJsonEngine(getJsonConfig());
+    }
+
+    public void setJsonEngine(@Nullable JsonEngine jsonEngine) {
+        this.jsonEngine = jsonEngine;
+    }
+
+    public void setStaleWhileWarming(@Nonnull String databaseName, @Nonnull ViewIndexWarmer viewIndexWarmer) {
+        this.databaseName = requireNonNull(databaseName, "Argument 'databaseName' must not be null");
+        this.viewIndexWarmer = requireNonNull(viewIndexWarmer, "Argument 'viewIndexWarmer' must not be null");
+    }
+
+    /**
+     * @param viewName name of the view as {@code <design>/<view>}
+     * @return a copy of {@code options} with {@code stale=ok} if the index of the view is being built, {@code options} otherwise
+     */
+    @Nullable
+    public Options staleIfWarming(@Nonnull String viewName, @Nullable Options options) {
+        ViewIndexWarmer warmer = viewIndexWarmer;
+        int separator = viewName.indexOf('/');
+        if (warmer == null || separator < 1 || !warmer.isWarming(databaseName, DESIGN_DOCUMENT_PREFIX + viewName.substring(0, separator))) {
+            return options;
+        }
+        return new Options(options).stale();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V> ViewResult<V> queryView(String viewName, Class<V> cls, Options options, JSONParser parser) {
+        Options effectiveOptions = staleIfWarming(viewName, options);
+        if (parser == null && isViewCacheable()) {
+            return (ViewResult<V>) getCachedViewResult(viewName, cls, null, effectiveOptions);
+        }
+        if (parser == null && isStreamingEngine()) {
+            return (ViewResult<V>) queryViewWithEngine(viewName, cls, null, effectiveOptions);
+        }
+        return super.queryView(viewName, cls, effectiveOptions, parser);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V, D> ViewAndDocumentsResult<V, D> queryViewAndDocuments(String viewName, Class<V> valueClass, Class<D> documentClass, Options options, JSONParser parser) {
+        Options effectiveOptions = staleIfWarming(viewName, options);
+        if (parser == null && isViewCacheable()) {
+            return (ViewAndDocumentsResult<V, D>) getCachedViewResult(viewName, valueClass, documentClass, new Options(effectiveOptions).includeDocs(true));
+        }
+        if (parser == null && isStreamingEngine()) {
+            return (ViewAndDocumentsResult<V, D>) queryViewWithEngine(viewName, valueClass, documentClass, new Options(effectiveOptions).includeDocs(true));
+        }
+        return super.queryViewAndDocuments(viewName, valueClass, documentClass, effectiveOptions, parser);
+    }
+
+    @Override
+    public <V> ViewResult<V> queryViewByKeys(String viewName, Class<V> cls, List<?> keys, Options options, JSONParser parser) {
+        return super.queryViewByKeys(viewName, cls, keys, staleIfWarming(viewName, options), parser);
+    }
+
+    @Override
+    public <V, D> ViewAndDocumentsResult<V, D> queryViewAndDocumentsByKeys(String viewName, Class<V> valueClass, Class<D> documentClass, List<?> keys, Options options, JSONParser parser) {
+        return super.queryViewAndDocumentsByKeys(viewName, valueClass, documentClass, keys, staleIfWarming(viewName, options), parser);
+    }
+
+    @Override
+    public void setDocumentPropertyHandler(DocumentPropertyHandler documentPropertyHandler) {
+        // ids and revisions of generated documents are accessed through their codec
+        if (documentPropertyHandler != null && !(documentPropertyHandler instanceof JsonDocumentPropertyHandler)) {
+            documentPropertyHandler = new JsonDocumentPropertyHandler(documentPropertyHandler);
+        }
+        super.setDocumentPropertyHandler(documentPropertyHandler);
+        this.documentPropertyHandler = documentPropertyHandler;
+    }
+
+    @Nullable
+    public DocumentPropertyHandler getDocumentPropertyHandler() {
+        return documentPropertyHandler;
+    }
+
+    @Override
+    public <D> D getDocument(Class<D> cls, String docId) {
+        D document = getReplicatedDocument(cls, docId, null, true);
+        if (document != null) {
+            return document;
+        }
+        if (isCacheable()) {
+            return getCachedDocument(cls, docId, true);
+        }
+        if (isStreamingEngine()) {
+            return getDocumentWithEngine(cls, docId, null, true);
+        }
+        if (JsonDocumentCodec.supports(cls)) {
+            return JsonDocumentCodec.decode(getJsonConfig().getJsonParser(), cls, super.getDocument(Map.class, docId));
+        }
+        return super.getDocument(cls, docId);
+    }
+
+    @Override
+    public <D> D getDocument(Class<D> cls, String docId, String revision, JSONParser parser) {
+        D document = revision == null ? getReplicatedDocument(cls, docId, parser, true) : null;
+        if (document != null) {
+            return document;
+        }
+        if (revision == null && parser == null && isCacheable()) {
+            return getCachedDocument(cls, docId, true);
+        }
+        if (parser == null && isStreamingEngine()) {
+            return getDocumentWithEngine(cls, docId, revision, true);
+        }
+        if (JsonDocumentCodec.supports(cls)) {
+            JSONParser documentParser = parser != null ? parser : getJsonConfig().getJsonParser();
+            return JsonDocumentCodec.decode(documentParser, cls, super.getDocument(Map.class, docId, revision, parser));
+        }
+        return super.getDocument(cls, docId, revision, parser);
+    }
+
+    @Override
+    public <D> D findDocument(Class<D> cls, String docId, JSONParser parser) {
+        D document = getReplicatedDocument(cls, docId, parser, false);
+        if (document != null || isReplicaComplete()) {
+            return document;
+        }
+        if (parser == null && isCacheable()) {
+            return getCachedDocument(cls, docId, false);
+        }
+        if (parser == null && isStreamingEngine()) {
+            return getDocumentWithEngine(cls, docId, null, false);
+        }
+        if (JsonDocumentCodec.supports(cls)) {
+            JSONParser documentParser = parser != null ? parser : getJsonConfig().getJsonParser();
+            return JsonDocumentCodec.decode(documentParser, cls, super.findDocument(Map.class, docId, parser));
+        }
+        return super.findDocument(cls, docId, parser);
+    }
+
+    /**
+     * Reads the fields of a document selected by {@code projection}.
+     *
+     * @throws NotFoundException if the document does not exist
+     */
+    @Nonnull
+    public ProjectedDocument getDocument(@Nonnull String docId, @Nonnull Projection projection) {
+        return getProjectedDocument(docId, projection, true);
+    }
+
+    /**
+     * Reads the fields of a document selected by {@code projection}.
+     *
+     * @return the projected document, {@code null} if it does not exist
+     */
+    @Nullable
+    public ProjectedDocument findDocument(@Nonnull String docId, @Nonnull Projection projection) {
+        return getProjectedDocument(docId, projection, false);
+    }
+
+    /**
+     * Queries a view with {@code include_docs}, reading the fields of each document selected by {@code projection}.
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public <V> ViewAndDocumentsResult<V, ProjectedDocument> queryViewAndDocuments(@Nonnull String viewName, @Nonnull Class<V> valueClass, @Nonnull Projection projection, @Nullable Options options) {
+        requireNonNull(valueClass, "Argument 'valueClass' must not be null");
+        requireNonNull(projection, "Argument 'projection' must not be null");
+
+        Options effectiveOptions = new Options(staleIfWarming(viewName, options)).includeDocs(true);
+        Response response = null;
+        try {
+            response = getServer().get(viewUri(viewName, effectiveOptions));
+            if (!response.isOk()) {
+                throw new DataAccessException("error querying view", response);
+            }
+            ProjectionReader reader = new ProjectionReader(new InputStreamReader(response.getInputStream(), UTF_8), getJsonEngine());
+            return (ViewAndDocumentsResult<V, ProjectedDocument>) readViewResult(reader.readView(valueClass, projection), true);
+        } finally {
+            if (response != null) {
+                response.destroy();
+            }
+        }
+    }
+
+    @Override
+    public void createOrUpdateDocument(Object doc) {
+        DefaultLocalReplica replica = localReplica;
+        if (replica != null) {
+            requireNonNull(doc, "Argument 'doc' must not be null");
+            String docId = documentPropertyHandler.getId(doc);
+            if (docId == null) {
+                docId = UUID.randomUUID().toString().replace("-", "");
+                documentPropertyHandler.setId(doc, docId);
+            }
+            replica.write(docId, doc, false, getJsonEngine(), documentPropertyHandler);
+            invalidate(docId);
+            return;
+        }
+        try {
+            super.createOrUpdateDocument(doc);
+        } finally {
+            invalidateDocument(doc);
+        }
+    }
+
+    /**
+     * Reads a document without holding the calling thread while the request is in flight, provided the server has an
+     * {@code HttpTransport}; otherwise, or when there is a local replica, the document is read right away.
+     */
+    @Nonnull
+    public <D> CompletableFuture<D> getDocumentAsync(@Nonnull final Class<D> cls, @Nonnull final String docId) {
+        requireNonNull(cls, "Argument 'cls' must not be null");
+        requireNonNull(docId, "Argument 'docId' must not be null");
+        if (!isAsync() || localReplica != null) {
+            return completed(new Supplier<D>() {
+                @Override
+                public D get() {
+                    return getDocument(cls, docId);
+                }
+            });
+        }
+
+        return ((PooledServer) getServer()).getAsync("/" + getName() + "/" + encodeDocumentId(docId)).thenApply(new Function<Response, D>() {
+            @Override
+            public D apply(Response response) {
+                try {
+                    if (response.getCode() == SC_NOT_FOUND) {
+                        throw new NotFoundException("document not found", response);
+                    }
+                    if (!response.isOk()) {
+                        throw new DataAccessException("error getting document " + docId + ": ", response);
+                    }
+                    return readContent(response, cls);
+                } finally {
+                    response.destroy();
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates or updates a document without holding the calling thread while the request is in flight, provided the
+     * server has an {@code HttpTransport} and no {@code DatabaseEventHandler} has been registered; otherwise the
+     * document is written right away. The id and revision of the document are updated once the future completes.
+     */
+    @Nonnull
+    public CompletableFuture<Void> createOrUpdateDocumentAsync(@Nonnull final Object doc) {
+        requireNonNull(doc, "Argument 'doc' must not be null");
+        if (!isAsync() || localReplica != null || !getEventHandlers().isEmpty()) {
+            return completed(new Supplier<Void>() {
+                @Override
+                public Void get() {
+                    createOrUpdateDocument(doc);
+                    return null;
+                }
+            });
+        }
+
+        String docId = documentPropertyHandler.getId(doc);
+        final boolean create = docId == null;
+        final String json = getJsonEngine().write(doc);
+        PooledServer server = (PooledServer) getServer();
+        CompletableFuture<Response> future = create ? server.postAsync("/" + getName() + "/", json) :
+            server.putAsync("/" + getName() + "/" + encodeDocumentId(docId), json);
+        return future.thenApply(new Function<Response, Void>() {
+            @Override
+            public Void apply(Response response) {
+                try {
+                    if (response.getCode() == SC_CONFLICT) {
+                        throw new UpdateConflictException("error creating document " + json + "in database '" + getName() + "'", response);
+                    }
+                    if (response.getCode() == SC_FORBIDDEN) {
+                        throw new DocumentValidationException(response);
+                    }
+                    if (!response.isOk()) {
+                        throw new DataAccessException("error creating document " + json + "in database '" + getName() + "'", response);
+                    }
+                    Map<?, ?> info = readContent(response, Map.class);
+                    if (create) {
+                        documentPropertyHandler.setId(doc, (String) info.get("id"));
+                    }
+                    documentPropertyHandler.setRevision(doc, (String) info.get("rev"));
+                    return null;
+                } finally {
+                    response.destroy();
+                    invalidateDocument(doc);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queries a view without holding the calling thread while the request is in flight, provided the server has an
+     * {@code HttpTransport}; otherwise, or when results are cached, the view is queried right away.
+     */
+    @Nonnull
+    public <V> CompletableFuture<ViewResult<V>> queryViewAsync(@Nonnull final String viewName, @Nonnull final Class<V> cls, @Nullable final Options options) {
+        requireNonNull(cls, "Argument 'cls' must not be null");
+        if (!isAsync() || isViewCacheable()) {
+            return completed(new Supplier<ViewResult<V>>() {
+                @Override
+                public ViewResult<V> get() {
+                    return queryView(viewName, cls, options, null);
+                }
+            });
+        }
+
+        String uri = viewUri(viewName, staleIfWarming(viewName, options));
+        return ((PooledServer) getServer()).getAsync(uri).thenApply(new Function<Response, ViewResult<V>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public ViewResult<V> apply(Response response) {
+                try {
+                    if (!response.isOk()) {
+                        throw new DataAccessException("error querying view", response);
+                    }
+                    return (ViewResult<V>) readViewResult(response.getInputStream(), cls, null);
+                } finally {
+                    response.destroy();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void delete(String docId, String revision) {
+        DefaultLocalReplica replica = localReplica;
+        if (replica != null) {
+            requireNonNull(docId, "Argument 'docId' must not be null");
+            requireNonNull(revision, "Argument 'revision' must not be null");
+            Map<String, Object> tombstone = new LinkedHashMap<>();
+            tombstone.put("_id", docId);
+            tombstone.put("_rev", revision);
+            tombstone.put("_deleted", true);
+            replica.write(docId, tombstone, true, getJsonEngine(), null);
+            invalidate(docId);
+            return;
+        }
+        try {
+            super.delete(docId, revision);
+        } finally {
+            invalidate(docId);
+        }
+    }
+
+    @Override
+    public List<DocumentInfo> bulkCreateDocuments(List<?> documents, boolean allOrNothing) {
+        // bulk deletes are sent through here as well
+        try {
+            return super.bulkCreateDocuments(documents, allOrNothing);
+        } finally {
+            if (documentCache != null && documents != null) {
+                for (Object document : documents) {
+                    invalidateDocument(document);
+                }
+            }
+        }
+    }
+
+    private boolean isReplicaComplete() {
+        DefaultLocalReplica replica = localReplica;
+        return replica != null && replica.isComplete();
+    }
+
+    /**
+     * @return the document parsed from the replica; {@code null} if there is no replica, the document is not in it
+     * or it has been deleted. Throws {@code NotFoundException} for missing documents once the replica is complete.
+     */
+    @Nullable
+    private <D> D getReplicatedDocument(@Nonnull Class<D> cls, @Nonnull String docId, @Nullable JSONParser parser, boolean errorOnNotFound) {
+        DefaultLocalReplica replica = localReplica;
+        if (replica == null) {
+            return null;
+        }
+        requireNonNull(cls, "Argument 'cls' must not be null");
+        requireNonNull(docId, "Argument 'docId' must not be null");
+
+        String json = replica.read(docId);
+        if (json != null) {
+            if (parser == null) {
+                return getJsonEngine().read(json, cls);
+            }
+            return JsonDocumentCodec.supports(cls) ? JsonDocumentCodec.parse(parser, cls, json) : parser.parse(cls, json);
+        }
+        if (errorOnNotFound && replica.isComplete()) {
+            throw new NotFoundException("document not found in local replica", null);
+        }
+        return null;
+    }
+
+    @Nullable
+    private ProjectedDocument getProjectedDocument(@Nonnull String docId, @Nonnull Projection projection, boolean errorOnNotFound) {
+        requireNonNull(docId, "Argument 'docId' must not be null");
+        requireNonNull(projection, "Argument 'projection' must not be null");
+
+        DefaultLocalReplica replica = localReplica;
+        if (replica != null) {
+            String json = replica.read(docId);
+            if (json != null) {
+                return readProjectedDocument(new StringReader(json), projection);
+            }
+            if (replica.isComplete()) {
+                if (errorOnNotFound) {
+                    throw new NotFoundException("document not found in local replica", null);
+                }
+                return null;
+            }
+        }
+
+        Response response = null;
+        try {
+            response = getServer().get("/" + getName() + "/" + encodeDocumentId(docId));
+            if (response.getCode() == SC_NOT_FOUND) {
+                if (errorOnNotFound) {
+                    throw new NotFoundException("document not found", response);
+                }
+                return null;
+            }
+            if (!response.isOk()) {
+                throw new DataAccessException("error getting document " + docId + ": ", response);
+            }
+            return readProjectedDocument(new InputStreamReader(response.getInputStream(), UTF_8), projection);
+        } finally {
+            if (response != null) {
+                response.destroy();
+            }
+        }
+    }
+
+    @Nullable
+    private ProjectedDocument readProjectedDocument(@Nonnull Reader reader, @Nonnull Projection projection) {
+        try {
+            return new ProjectionReader(reader, getJsonEngine()).readDocument(projection);
+        } catch (IOException e) {
+            throw ExceptionWrapper.wrap(e);
+        }
+    }
+
+    private boolean isAsync() {
+        Server server = getServer();
+        return server instanceof PooledServer && ((PooledServer) server).getHttpTransport() != null;
+    }
+
+    @Nonnull
+    private static <T> CompletableFuture<T> completed(@Nonnull Supplier<T> supplier) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            future.complete(supplier.get());
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private boolean isCacheable() {
+        return documentCache != null && getServer() instanceof PooledServer;
+    }
+
+    private boolean isViewCacheable() {
+        return viewResultCache != null && getServer() instanceof PooledServer;
+    }
+
+    private boolean isStreamingEngine() {
+        JsonEngine engine = jsonEngine;
+        return engine != null && !(engine instanceof SvensonJsonEngine);
+    }
+
+    private void invalidate(@Nullable String docId) {
+        if (documentCache != null && docId != null) {
+            documentCache.invalidate(docId);
+        }
+    }
+
+    private void invalidateDocument(@Nullable Object document) {
+        if (documentCache != null && document != null) {
+            invalidate(documentPropertyHandler.getId(document));
+        }
+    }
+
+    private <D> D getCachedDocument(@Nonnull Class<D> cls, @Nonnull String docId, boolean errorOnNotFound) {
+        requireNonNull(cls, "Argument 'cls' must not be null");
+        requireNonNull(docId, "Argument 'docId' must not be null");
+
+        DefaultDocumentCache.CachedDocument entry = documentCache.get(docId);
+        Map<String, String> headers = entry != null ?
+            Collections.singletonMap(HEADER_IF_NONE_MATCH, entry.getEtag()) :
+            Collections.<String, String>emptyMap();
+
+        Response response = null;
+        try {
+            response = ((PooledServer) getServer()).get("/" + getName() + "/" + encodeDocumentId(docId), headers);
+            if (response.getCode() == SC_NOT_MODIFIED && entry != null) {
+                documentCache.recordHit();
+                // callers may modify the document they get, each one gets its own copy
+                return readContent(new ByteArrayInputStream(entry.getContent()), cls);
+            }
+            if (response.getCode() == SC_NOT_FOUND) {
+                documentCache.invalidate(docId);
+                if (errorOnNotFound) {
+                    throw new NotFoundException("document not found", response);
+                }
+                return null;
+            }
+            if (!response.isOk()) {
+                throw new DataAccessException("error getting document " + docId + ": ", response);
+            }
+
+            byte[] content = response.getContent();
+            D document = readContent(new ByteArrayInputStream(content), cls);
+            String etag = etagOf(response, document);
+            if (document != null && etag != null) {
+                documentCache.put(docId, new DefaultDocumentCache.CachedDocument(etag, content));
+            } else {
+                documentCache.invalidate(docId);
+            }
+            return document;
+        } finally {
+            if (response != null) {
+                response.destroy();
+            }
+        }
+    }
+
+    @Nonnull
+    private AbstractViewResult<?> getCachedViewResult(@Nonnull String viewName, @Nonnull Class<?> valueClass, @Nullable Class<?> documentClass, @Nullable Options options) {
+        requireNonNull(valueClass, "Argument 'valueClass' must not be null");
+
+        // the query string is part of the key, results of different parameters are cached separately
+        String uri = viewUri(viewName, options);
+        DefaultViewResultCache.Entry entry = viewResultCache.get(uri);
+        Map<String, String> headers = entry != null ?
+            Collections.singletonMap(HEADER_IF_NONE_MATCH, entry.getEtag()) :
+            Collections.<String, String>emptyMap();
+
+        Response response = null;
+        try {
+            response = ((PooledServer) getServer()).get(uri, headers);
+            if (response.getCode() == SC_NOT_MODIFIED && entry != null) {
+                viewResultCache.recordHit();
+                // callers may modify the result they get, each one gets its own copy
+                return parseViewResult(entry.getContent(), valueClass, documentClass);
+            }
+            if (!response.isOk()) {
+                viewResultCache.invalidate(uri);
+                throw new DataAccessException("error querying view", response);
+            }
+
+            byte[] content = response.getContent();
+            AbstractViewResult<?> result = parseViewResult(content, valueClass, documentClass);
+            String etag = etagOf(response, null);
+            if (etag != null) {
+                viewResultCache.put(uri, new DefaultViewResultCache.Entry(etag, content));
+            } else {
+                viewResultCache.invalidate(uri);
+            }
+            return result;
+        } finally {
+            if (response != null) {
+                response.destroy();
+            }
+        }
+    }
+
+    @Nonnull
+    private AbstractViewResult<?> parseViewResult(@Nonnull byte[] content, @Nonnull Class<?> valueClass, @Nullable Class<?> documentClass) {
+        if (isStreamingEngine()) {
+            return readViewResult(new ByteArrayInputStream(content), valueClass, documentClass);
+        }
+
+        JSONParser parser = new JSONParser(getJsonConfig().getJsonParser());
+        parser.addTypeHint(VIEW_VALUE_TYPE_HINT, valueClass);
+        String json = new String(content, UTF_8);
+        if (documentClass != null) {
+            parser.addTypeHint(VIEW_DOCUMENT_TYPE_HINT, documentClass);
+            return parser.parse(ViewAndDocumentsResult.class, json);
+        }
+        return parser.parse(ViewResult.class, json);
+    }
+
+    @Nullable
+    private <D> D getDocumentWithEngine(@Nonnull Class<D> cls, @Nonnull String docId, @Nullable String revision, boolean errorOnNotFound) {
+        requireNonNull(cls, "Argument 'cls' must not be null");
+        requireNonNull(docId, "Argument 'docId' must not be null");
+
+        String uri = "/" + getName() + "/" + encodeDocumentId(docId) + (revision != null ? "?rev=" + revision : "");
+        Response response = null;
+        try {
+            response = getServer().get(uri);
+            if (response.getCode() == SC_NOT_FOUND) {
+                if (errorOnNotFound) {
+                    throw new NotFoundException("document not found", response);
+                }
+                return null;
+            }
+            if (!response.isOk()) {
+                throw new DataAccessException("error getting document " + docId + ": ", response);
+            }
+            return readContent(response, cls);
+        } finally {
+            if (response != null) {
+                response.destroy();
+            }
+        }
+    }
+
+    @Nonnull
+    private AbstractViewResult<?> queryViewWithEngine(@Nonnull String viewName, @Nonnull Class<?> valueClass, @Nullable Class<?> documentClass, @Nullable Options options) {
+        requireNonNull(valueClass, "Argument 'valueClass' must not be null");
+
+        Response response = null;
+        try {
+            response = getServer().get(viewUri(viewName, options));
+            if (!response.isOk()) {
+                throw new DataAccessException("error querying view", response);
+            }
+            return readViewResult(response.getInputStream(), valueClass, documentClass);
+        } finally {
+            if (response != null) {
+                response.destroy();
+            }
+        }
+    }
+
+    @Nullable
+    private <T> T readContent(@Nonnull Response response, @Nonnull Class<T> cls) {
+        return readContent(response.getInputStream(), cls);
+    }
+
+    @Nullable
+    private <T> T readContent(@Nonnull InputStream inputStream, @Nonnull Class<T> cls) {
+        try {
+            return getJsonEngine().read(inputStream, cls);
+        } catch (IOException e) {
+            throw ExceptionWrapper.wrap(e);
+        }
+    }
+
+    @Nonnull
+    private AbstractViewResult<?> readViewResult(@Nonnull InputStream inputStream, @Nonnull Class<?> valueClass, @Nullable Class<?> documentClass) {
+        try {
+            return readViewResult(getJsonEngine().readView(inputStream, valueClass, documentClass), documentClass != null);
+        } catch (IOException e) {
+            throw ExceptionWrapper.wrap(e);
+        }
+    }
+
+    @Nonnull
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private AbstractViewResult<?> readViewResult(@Nonnull JsonViewReader reader, boolean documents) {
+        try {
+            List rows = new ArrayList<>();
+            for (ValueRow<?> row = reader.nextRow(); row != null; row = reader.nextRow()) {
+                rows.add(row);
+            }
+
+            AbstractViewResult<?> result;
+            if (documents) {
+                ViewAndDocumentsResult viewResult = new ViewAndDocumentsResult();
+                viewResult.setRows(rows);
+                result = viewResult;
+            } else {
+                ViewResult viewResult = new ViewResult();
+                viewResult.setRows(rows);
+                result = viewResult;
+            }
+            result.setTotalRows(reader.getTotalRows() < 0 ? rows.size() : reader.getTotalRows());
+            result.setOffset(Math.max(reader.getOffset(), 0));
+            return result;
+        } catch (IOException e) {
+            throw ExceptionWrapper.wrap(e);
+        }
+    }
+
+    @Nonnull
+    private String viewUri(@Nonnull String viewName, @Nullable Options options) {
+        requireNonNull(viewName, "Argument 'viewName' must not be null");
+        int separator = viewName.indexOf('/');
+        if (separator < 0) {
+            throw new IllegalArgumentException("viewName must contain a slash separating the design doc name from the view name");
+        }
+        return "/" + getName() + "/" + DESIGN_DOCUMENT_PREFIX + viewName.substring(0, separator) + VIEW_INFIX +
+            viewName.substring(separator + 1) + (options != null ? options.toQuery() : "");
+    }
+
+    @Nullable
+    private String etagOf(@Nonnull Response response, @Nullable Object document) {
+        Header[] headers = response.getResponseHeaders();
+        if (headers != null) {
+            for (Header header : headers) {
+                if (HEADER_ETAG.equalsIgnoreCase(header.getName())) {
+                    return header.getValue();
+                }
+            }
+        }
+
+        // CouchDB uses the quoted revision as the ETag of a document
+        String revision = document != null ? documentPropertyHandler.getRevision(document) : null;
+        return revision != null ? "\"" + revision + "\"" : null;
+    }
+
+    /**
+     * @return the engine of a {@code ManagedDatabase}, a {@code svenson} engine over the {@code JSONConfig} of any other database
+     */
+    @Nonnull
+    static JsonEngine jsonEngineOf(@Nonnull Database database) {
+        return database instanceof ManagedDatabase ? ((ManagedDatabase) database).getJsonEngine() : new SvensonJsonEngine(database.getJsonConfig());
+    }
+
+    /**
+     * @return the handler of a {@code ManagedDatabase}, a handler aware of generated documents for any other database
+     */
+    @Nonnull
+    static DocumentPropertyHandler documentPropertyHandlerOf(@Nonnull Database database) {
+        DocumentPropertyHandler handler = database instanceof ManagedDatabase ? ((ManagedDatabase) database).getDocumentPropertyHandler() : null;
+        return handler != null ? handler : new JsonDocumentPropertyHandler(new DocumentHelper());
+    }
+
+    @Nonnull
+    static String encodeDocumentId(@Nonnull String docId) {
+        try {
+            if (docId.startsWith(DESIGN_DOCUMENT_PREFIX)) {
+                return DESIGN_DOCUMENT_PREFIX + URLEncoder.encode(docId.substring(DESIGN_DOCUMENT_PREFIX.length()), "UTF-8");
+            }
+            return URLEncoder.encode(docId, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw ExceptionWrapper.wrap(e);
+        }
+    }
+}
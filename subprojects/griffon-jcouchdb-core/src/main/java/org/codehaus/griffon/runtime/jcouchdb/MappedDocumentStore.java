@@ -0,0 +1,562 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.exceptions.GriffonException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Append-only log of documents kept in a memory-mapped file. Records are never changed in place: documents,
+ * deletions, checkpoints and pending writes are appended and an in-memory index points at the latest record of every
+ * id, rebuilt by scanning the file when it is opened. The header holds the end of the last complete record, so a
+ * record torn by a crash is ignored. Once superseded records take up more than half of the file it is rewritten with
+ * the live records only.
+ * <p>
+ * Every pending write carries a sequence number that survives compaction, so a write read for pushing is recognised
+ * when it is acknowledged even if the file has been rewritten in between.
+ * <p>
+ * A single mapping addresses at most 2GB, which bounds the size of the file.
+ *
+ * @author Andres Almiray
+ */
+final class MappedDocumentStore implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedDocumentStore.class);
+    private static final int MAGIC = 0x4A434442;
+    private static final int VERSION = 1;
+    private static final int END_POSITION = 8;
+    private static final int HEADER_SIZE = 16;
+    // record length, type, key length
+    private static final int RECORD_HEADER_SIZE = 9;
+    // sequence number leading the value of pending writes
+    private static final int SEQUENCE_SIZE = 8;
+    private static final long MIN_COMPACTION_SIZE = 1024L * 1024L;
+
+    private static final byte DOCUMENT = 1;
+    private static final byte DELETED = 2;
+    private static final byte CHECKPOINT = 3;
+    private static final byte PENDING = 4;
+    private static final byte PENDING_DELETE = 5;
+    private static final byte PUSHED = 6;
+
+    private static final String CHECKPOINT_COMPLETE = "complete";
+    private static final String CHECKPOINT_PARTIAL = "partial";
+
+    private final Path file;
+    private final long initialSize;
+    private final Map<String, Long> documents = new HashMap<>();
+    private final Map<String, Long> pending = new LinkedHashMap<>();
+    private FileChannel channel;
+    private FileLock lock;
+    private MappedByteBuffer buffer;
+    private long end;
+    private long deadBytes;
+    private long checkpoint = -1;
+    // not reset when the file is reopened, so that numbers are never reused while writes are being pushed
+    private long nextSequence;
+
+    MappedDocumentStore(@Nonnull Path file, long initialSize) {
+        this.file = requireNonNull(file, "Argument 'file' must not be null");
+        this.initialSize = Math.max(HEADER_SIZE, Math.min(initialSize, Integer.MAX_VALUE));
+        open();
+    }
+
+    @Nonnull
+    Path getFile() {
+        return file;
+    }
+
+    synchronized int getDocumentCount() {
+        return documents.size();
+    }
+
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    synchronized long getSize() {
+        return end;
+    }
+
+    /**
+     * @return the sequence of the last change applied, {@code null} if no change has been applied yet
+     */
+    @Nullable
+    synchronized String getCheckpoint() {
+        ensureOpen();
+        return checkpoint < 0 ? null : value(checkpoint);
+    }
+
+    /**
+     * @return {@code true} if the store caught up with the database at least once
+     */
+    synchronized boolean isComplete() {
+        ensureOpen();
+        return checkpoint >= 0 && CHECKPOINT_COMPLETE.equals(key(checkpoint));
+    }
+
+    /**
+     * @return the JSON of the document, with pending writes taking precedence over replicated documents
+     */
+    @Nullable
+    synchronized String read(@Nonnull String id) {
+        ensureOpen();
+        Long offset = pending.get(id);
+        if (offset == null) {
+            offset = documents.get(id);
+        }
+        if (offset == null || type(offset) == PENDING_DELETE) {
+            return null;
+        }
+        return json(offset);
+    }
+
+    /**
+     * Applies a batch of replicated changes together with the sequence they lead up to.
+     */
+    synchronized void apply(@Nonnull List<Change> changes, @Nonnull String sequence, boolean complete) {
+        ensureOpen();
+        // once caught up, the store stays complete while it follows the database
+        boolean caughtUp = complete || isComplete();
+        for (Change change : changes) {
+            if (change.json == null) {
+                remove(change.id);
+            } else {
+                put(change.id, change.json);
+            }
+        }
+        if (checkpoint >= 0) {
+            deadBytes += length(checkpoint);
+        }
+        checkpoint = append(CHECKPOINT, caughtUp ? CHECKPOINT_COMPLETE : CHECKPOINT_PARTIAL, utf8(sequence));
+        commit();
+    }
+
+    /**
+     * Queues a local write, replacing any write of the same document that has not been pushed yet.
+     *
+     * @return the sequence number of the write
+     */
+    synchronized long enqueue(@Nonnull String id, @Nonnull String json, boolean delete) {
+        ensureOpen();
+        long sequence = nextSequence++;
+        byte[] bytes = utf8(json);
+        byte[] value = ByteBuffer.allocate(SEQUENCE_SIZE + bytes.length).putLong(sequence).put(bytes).array();
+        Long previous = pending.put(id, append(delete ? PENDING_DELETE : PENDING, id, value));
+        if (previous != null) {
+            deadBytes += length(previous);
+        }
+        commit();
+        return sequence;
+    }
+
+    /**
+     * @return {@code true} if a write of the document has not been pushed yet
+     */
+    synchronized boolean isPending(@Nonnull String id) {
+        return pending.containsKey(id);
+    }
+
+    /**
+     * @return up to {@code max} pending writes, oldest first
+     */
+    @Nonnull
+    synchronized List<PendingWrite> getPendingWrites(int max) {
+        ensureOpen();
+        List<PendingWrite> writes = new ArrayList<>(Math.min(max, pending.size()));
+        for (Map.Entry<String, Long> e : pending.entrySet()) {
+            if (writes.size() == max) {
+                break;
+            }
+            long offset = e.getValue();
+            writes.add(new PendingWrite(e.getKey(), sequence(offset), json(offset), type(offset) == PENDING_DELETE));
+        }
+        return writes;
+    }
+
+    /**
+     * Removes a pushed write unless it has been replaced in the meantime.
+     *
+     * @param applied      whether the server accepted the write
+     * @param documentJson the document as stored by the server, ignored for deletions and rejected writes
+     * @return {@code false} if the write has been replaced
+     */
+    synchronized boolean acknowledge(@Nonnull PendingWrite write, boolean applied, @Nullable String documentJson) {
+        ensureOpen();
+        Long offset = pending.get(write.id);
+        if (offset == null || sequence(offset) != write.sequence) {
+            return false;
+        }
+
+        pending.remove(write.id);
+        deadBytes += length(offset);
+        deadBytes += length(append(PUSHED, write.id, ByteBuffer.allocate(SEQUENCE_SIZE).putLong(0, write.sequence).array()));
+        if (applied && write.delete) {
+            remove(write.id);
+        } else if (applied && documentJson != null) {
+            put(write.id, documentJson);
+        }
+        commit();
+        return true;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            buffer.force();
+            lock.release();
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn("Could not close local replica file {}", file, e);
+        } finally {
+            channel = null;
+            lock = null;
+            buffer = null;
+        }
+    }
+
+    private void ensureOpen() {
+        if (buffer == null) {
+            throw new IllegalStateException("Local replica file " + file + " has been closed");
+        }
+    }
+
+    private void put(@Nonnull String id, @Nonnull String json) {
+        Long previous = documents.put(id, append(DOCUMENT, id, utf8(json)));
+        if (previous != null) {
+            deadBytes += length(previous);
+        }
+    }
+
+    private void remove(@Nonnull String id) {
+        Long previous = documents.remove(id);
+        if (previous != null) {
+            deadBytes += length(previous);
+            // the tombstone is only needed until the document it hides is compacted away
+            deadBytes += length(append(DELETED, id, new byte[0]));
+        }
+    }
+
+    private void open() {
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            channel = FileChannel.open(file, CREATE, READ, WRITE);
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                channel.close();
+                channel = null;
+                throw new GriffonException("Local replica file " + file + " is in use");
+            }
+
+            boolean created = channel.size() == 0;
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), initialSize));
+            if (created) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putLong(END_POSITION, HEADER_SIZE);
+                buffer.force();
+            } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new GriffonException("File " + file + " is not a local replica");
+            }
+
+            end = buffer.getLong(END_POSITION);
+            if (end < HEADER_SIZE || end > buffer.capacity()) {
+                throw new GriffonException("Local replica file " + file + " is corrupted");
+            }
+        } catch (IOException e) {
+            throw new GriffonException("Could not open local replica file " + file, e);
+        }
+
+        documents.clear();
+        pending.clear();
+        deadBytes = 0;
+        checkpoint = -1;
+        for (long offset = HEADER_SIZE; offset < end; offset += length(offset)) {
+            replay(offset);
+        }
+        LOG.debug("Opened local replica file {} with {} documents and {} pending writes", file, documents.size(), pending.size());
+    }
+
+    private void replay(long offset) {
+        String id = key(offset);
+        Long previous;
+        switch (type(offset)) {
+            case DOCUMENT:
+                previous = documents.put(id, offset);
+                break;
+            case DELETED:
+                previous = documents.remove(id);
+                deadBytes += length(offset);
+                break;
+            case CHECKPOINT:
+                previous = checkpoint >= 0 ? checkpoint : null;
+                checkpoint = offset;
+                break;
+            case PENDING:
+            case PENDING_DELETE:
+                previous = pending.put(id, offset);
+                nextSequence = Math.max(nextSequence, sequence(offset) + 1);
+                break;
+            case PUSHED:
+                long pushed = buffer.getLong(valuePosition(offset));
+                Long write = pending.get(id);
+                previous = write != null && sequence(write) == pushed ? pending.remove(id) : null;
+                deadBytes += length(offset);
+                break;
+            default:
+                throw new GriffonException("Local replica file " + file + " is corrupted at offset " + offset);
+        }
+        if (previous != null) {
+            deadBytes += length(previous);
+        }
+    }
+
+    private long append(byte type, @Nonnull String key, @Nonnull byte[] value) {
+        byte[] keyBytes = utf8(key);
+        long length = (long) RECORD_HEADER_SIZE + keyBytes.length + value.length;
+        ensureCapacity(end + length);
+
+        long offset = end;
+        ByteBuffer record = buffer.duplicate();
+        record.position((int) offset);
+        record.putInt((int) length).put(type).putInt(keyBytes.length).put(keyBytes).put(value);
+        end += length;
+        return offset;
+    }
+
+    private void commit() {
+        // records must reach the file before the header points past them
+        buffer.force();
+        buffer.putLong(END_POSITION, end);
+        buffer.force();
+
+        if (deadBytes > MIN_COMPACTION_SIZE && deadBytes > end / 2) {
+            compact();
+        }
+    }
+
+    private void ensureCapacity(long required) {
+        if (required <= buffer.capacity()) {
+            return;
+        }
+        if (required > Integer.MAX_VALUE) {
+            throw new GriffonException("Local replica file " + file + " cannot grow beyond " + Integer.MAX_VALUE + " bytes");
+        }
+        try {
+            buffer.force();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(Integer.MAX_VALUE, Math.max(required, 2L * buffer.capacity())));
+        } catch (IOException e) {
+            throw new GriffonException("Could not grow local replica file " + file, e);
+        }
+    }
+
+    private void compact() {
+        long before = end;
+        Path temp = file.resolveSibling(file.getFileName() + ".compact");
+        try (FileChannel target = FileChannel.open(temp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).putLong(0L);
+            header.flip();
+            target.write(header);
+            long size = HEADER_SIZE;
+            if (checkpoint >= 0) {
+                size += copy(checkpoint, target);
+            }
+            for (Long offset : documents.values()) {
+                size += copy(offset, target);
+            }
+            // pending writes keep their order
+            for (Long offset : pending.values()) {
+                size += copy(offset, target);
+            }
+            ByteBuffer newEnd = ByteBuffer.allocate(8).putLong(0, size);
+            target.write(newEnd, END_POSITION);
+            target.force(true);
+        } catch (IOException e) {
+            LOG.warn("Could not compact local replica file {}", file, e);
+            deleteQuietly(temp);
+            return;
+        }
+
+        close();
+        try {
+            try {
+                Files.move(temp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // some platforms refuse to replace a file that is still mapped
+            LOG.warn("Could not replace local replica file {} with its compacted copy", file, e);
+            deleteQuietly(temp);
+        }
+        open();
+        LOG.debug("Compacted local replica file {} from {} to {} bytes", file, before, end);
+    }
+
+    private long copy(long offset, @Nonnull FileChannel target) throws IOException {
+        ByteBuffer record = buffer.duplicate();
+        record.position((int) offset);
+        record.limit((int) (offset + length(offset)));
+        long length = record.remaining();
+        while (record.hasRemaining()) {
+            target.write(record);
+        }
+        return length;
+    }
+
+    private int length(long offset) {
+        return buffer.getInt((int) offset);
+    }
+
+    private byte type(long offset) {
+        return buffer.get((int) offset + 4);
+    }
+
+    private int keyLength(long offset) {
+        return buffer.getInt((int) offset + 5);
+    }
+
+    @Nonnull
+    private String key(long offset) {
+        return string((int) offset + RECORD_HEADER_SIZE, keyLength(offset));
+    }
+
+    private int valuePosition(long offset) {
+        return (int) offset + RECORD_HEADER_SIZE + keyLength(offset);
+    }
+
+    @Nonnull
+    private String value(long offset) {
+        return string(valuePosition(offset), length(offset) - RECORD_HEADER_SIZE - keyLength(offset));
+    }
+
+    /**
+     * @return the JSON of a document or pending write record
+     */
+    @Nonnull
+    private String json(long offset) {
+        byte type = type(offset);
+        if (type != PENDING && type != PENDING_DELETE) {
+            return value(offset);
+        }
+        return string(valuePosition(offset) + SEQUENCE_SIZE, length(offset) - RECORD_HEADER_SIZE - keyLength(offset) - SEQUENCE_SIZE);
+    }
+
+    private long sequence(long offset) {
+        return buffer.getLong(valuePosition(offset));
+    }
+
+    @Nonnull
+    private String string(int position, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(position);
+        source.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void deleteQuietly(@Nonnull Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOG.trace("Could not delete {}", path, e);
+        }
+    }
+
+    @Nonnull
+    private static byte[] utf8(@Nonnull String s) {
+        return s.getBytes(UTF_8);
+    }
+
+    /**
+     * A replicated change, {@code json} is {@code null} for deletions.
+     */
+    static final class Change {
+        private final String id;
+        private final String json;
+
+        Change(@Nonnull String id, @Nullable String json) {
+            this.id = id;
+            this.json = json;
+        }
+    }
+
+    static final class PendingWrite {
+        private final String id;
+        private final long sequence;
+        private final String json;
+        private final boolean delete;
+
+        private PendingWrite(@Nonnull String id, long sequence, @Nonnull String json, boolean delete) {
+            this.id = id;
+            this.sequence = sequence;
+            this.json = json;
+            this.delete = delete;
+        }
+
+        @Nonnull
+        String getId() {
+            return id;
+        }
+
+        long getSequence() {
+            return sequence;
+        }
+
+        @Nonnull
+        String getJson() {
+            return json;
+        }
+
+        boolean isDelete() {
+            return delete;
+        }
+    }
+}
@@ -0,0 +1,857 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.HttpTransport;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.jcouchdb.db.Response;
+import org.jcouchdb.util.ExceptionWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@code HttpTransport} multiplexing requests over a bounded set of keep-alive HTTP/1.1 connections, all of them
+ * served by a single selector thread. Requests wait in a queue until a connection is free; a new one is opened while
+ * fewer than {@code max_connections} are open. Responses are parsed as they arrive and handed out on a pool of
+ * {@code callback_threads}, so that no thread is held while a request is in flight. A streamed body is buffered up to
+ * {@code max_buffered_bytes}; past that its connection stops reading until the consumer catches up.
+ * <p>
+ * A request failing on a reused connection before any byte of its response arrived is sent once more on a new
+ * connection, as the server may have closed the connection while it was idle. Requests other than {@code GET} and
+ * {@code HEAD} are only sent again if none of their bytes had been written, as the server may have applied them.
+ *
+ * @author Andres Almiray
+ */
+public class NioHttpTransport implements HttpTransport {
+    public static final String NAME = "nio";
+
+    private static final Logger LOG = LoggerFactory.getLogger(NioHttpTransport.class);
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final long SELECT_TIMEOUT = 500L;
+    private static final int SC_NO_CONTENT = 204;
+    private static final int SC_NOT_MODIFIED = 304;
+
+    private final String address;
+    private final InetSocketAddress socketAddress;
+    private final int maxConnections;
+    private final long connectTimeout;
+    private final long socketTimeout;
+    private final long keepAlive;
+    private final int maxBufferedBytes;
+    private final Selector selector;
+    private final ExecutorService callbackExecutor;
+    private final Queue<Exchange> queue = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingRequests = new AtomicInteger();
+    private volatile int openConnections;
+    private volatile boolean shutdown;
+
+    // owned by the selector thread
+    private final List<Connection> connections = new ArrayList<>();
+    private final Deque<Connection> idle = new ArrayDeque<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    public NioHttpTransport(@Nonnull String host, int port, @Nonnull Map<String, Object> config) {
+        requireNonBlank(host, "Argument 'host' must not be blank");
+        requireNonNull(config, "Argument 'config' must not be null");
+        address = host + ":" + port;
+        socketAddress = new InetSocketAddress(host, port);
+        maxConnections = Math.max(1, getConfigValueAsInt(config, "max_connections", 20));
+        connectTimeout = getConfigValueAsLong(config, "connect_timeout", 0L);
+        socketTimeout = getConfigValueAsLong(config, "socket_timeout", 0L);
+        keepAlive = getConfigValueAsLong(config, "keep_alive", 30000L);
+        maxBufferedBytes = Math.max(READ_BUFFER_SIZE, getConfigValueAsInt(config, "max_buffered_bytes", 1024 * 1024));
+        int callbackThreads = Math.max(1, getConfigValueAsInt(config, "callback_threads", Runtime.getRuntime().availableProcessors()));
+
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            throw ExceptionWrapper.wrap(e);
+        }
+        callbackExecutor = Executors.newFixedThreadPool(callbackThreads, new DaemonThreadFactory("jcouchdb-transport-" + address));
+        new DaemonThreadFactory("jcouchdb-selector-" + address).newThread(new Runnable() {
+            @Override
+            public void run() {
+                select();
+            }
+        }).start();
+    }
+
+    @Nonnull
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Nonnull
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public int getOpenConnections() {
+        return openConnections;
+    }
+
+    @Override
+    public int getPendingRequests() {
+        return pendingRequests.get();
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<Response> execute(@Nonnull String method, @Nonnull String uri, @Nonnull Map<String, String> headers, @Nullable byte[] body, boolean stream) {
+        requireNonBlank(method, "Argument 'method' must not be blank");
+        requireNonBlank(uri, "Argument 'uri' must not be blank");
+        requireNonNull(headers, "Argument 'headers' must not be null");
+
+        final Exchange exchange = new Exchange(encode(method, uri, headers, body), method, stream);
+        if (shutdown) {
+            exchange.future.completeExceptionally(new IOException("Transport to " + address + " has been shut down"));
+            return exchange.future;
+        }
+        exchange.future.whenComplete(new BiConsumer<Response, Throwable>() {
+            @Override
+            public void accept(Response response, Throwable failure) {
+                if (exchange.future.isCancelled()) {
+                    abort(exchange);
+                }
+            }
+        });
+
+        pendingRequests.incrementAndGet();
+        queue.add(exchange);
+        // the selector may have drained the queue for the last time already
+        if (shutdown && queue.remove(exchange)) {
+            pendingRequests.decrementAndGet();
+            exchange.future.completeExceptionally(new IOException("Transport to " + address + " has been shut down"));
+        }
+        selector.wakeup();
+        return exchange.future;
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        selector.wakeup();
+    }
+
+    @Nonnull
+    private ByteBuffer encode(@Nonnull String method, @Nonnull String uri, @Nonnull Map<String, String> headers, @Nullable byte[] body) {
+        StringBuilder head = new StringBuilder(256)
+            .append(method).append(' ').append(uri).append(" HTTP/1.1\r\n")
+            .append("Host: ").append(address).append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            String name = header.getKey();
+            if (!"Host".equalsIgnoreCase(name) && !"Content-Length".equalsIgnoreCase(name)) {
+                head.append(name).append(": ").append(header.getValue()).append("\r\n");
+            }
+        }
+        if (body != null || "PUT".equals(method) || "POST".equals(method)) {
+            head.append("Content-Length: ").append(body != null ? body.length : 0).append("\r\n");
+        }
+        byte[] bytes = head.append("\r\n").toString().getBytes(ISO_8859_1);
+
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + (body != null ? body.length : 0));
+        buffer.put(bytes);
+        if (body != null) {
+            buffer.put(body);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void submit(@Nonnull Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private void abort(@Nonnull final Exchange exchange) {
+        submit(new Runnable() {
+            @Override
+            public void run() {
+                if (exchange.done) {
+                    return;
+                }
+                Connection connection = exchange.connection;
+                if (connection != null && connection.exchange == exchange) {
+                    connection.exchange = null;
+                    connection.close();
+                } else {
+                    queue.remove(exchange);
+                }
+                fail(exchange, new IOException("Request aborted"));
+            }
+        });
+    }
+
+    private void select() {
+        try {
+            while (!shutdown) {
+                selector.select(SELECT_TIMEOUT);
+                for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isConnectable()) {
+                            connection.finishConnect();
+                        } else if (key.isWritable()) {
+                            connection.write();
+                        } else if (key.isReadable()) {
+                            connection.read();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        connection.fail(e, true);
+                    }
+                }
+
+                dispatch();
+                expire(System.currentTimeMillis());
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Selector of transport {} failed", address, e);
+            shutdown = true;
+        } finally {
+            IOException closed = new IOException("Transport to " + address + " has been shut down");
+            for (Connection connection : new ArrayList<>(connections)) {
+                connection.fail(closed, false);
+            }
+            for (Exchange exchange = queue.poll(); exchange != null; exchange = queue.poll()) {
+                fail(exchange, closed);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOG.trace("Could not close selector of transport {}", address, e);
+            }
+            callbackExecutor.shutdown();
+        }
+    }
+
+    private void dispatch() {
+        while (!queue.isEmpty()) {
+            Connection connection = idle.pollLast();
+            if (connection == null) {
+                if (connections.size() >= maxConnections) {
+                    return;
+                }
+                try {
+                    connection = open();
+                } catch (IOException e) {
+                    Exchange exchange = queue.poll();
+                    if (exchange != null) {
+                        fail(exchange, e);
+                    }
+                    continue;
+                }
+            }
+
+            Exchange exchange = queue.poll();
+            if (exchange == null) {
+                if (connection.connected) {
+                    connection.release();
+                } else {
+                    connection.close();
+                }
+                return;
+            }
+            connection.start(exchange);
+        }
+    }
+
+    @Nonnull
+    private Connection open() throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(channel);
+            connection.connected = channel.connect(socketAddress);
+            connection.key = channel.register(selector, connection.connected ? 0 : SelectionKey.OP_CONNECT, connection);
+            connection.deadline = deadline(connectTimeout);
+            connections.add(connection);
+            openConnections = connections.size();
+            LOG.debug("Opened connection {} of transport {}", connections.size(), address);
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void expire(long now) {
+        for (Connection connection : new ArrayList<>(connections)) {
+            if (connection.deadline > 0 && now >= connection.deadline) {
+                if (connection.exchange == null) {
+                    // idle for longer than keep_alive
+                    connection.close();
+                } else {
+                    connection.fail(new SocketTimeoutException((connection.connected ? "Read" : "Connect") + " timed out"), false);
+                }
+            }
+        }
+    }
+
+    private static long deadline(long timeout) {
+        return timeout > 0 ? System.currentTimeMillis() + timeout : 0L;
+    }
+
+    private void respond(@Nonnull final Exchange exchange, @Nonnull final Response response) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!exchange.future.complete(response)) {
+                    response.destroy();
+                }
+            }
+        });
+    }
+
+    private void fail(@Nonnull final Exchange exchange, @Nonnull final Exception failure) {
+        if (exchange.done) {
+            return;
+        }
+        exchange.done = true;
+        pendingRequests.decrementAndGet();
+
+        final IOException e = failure instanceof IOException ? (IOException) failure : new IOException(failure);
+        if (exchange.body != null) {
+            exchange.body.fail(e);
+        }
+        if (exchange.body == null || !exchange.stream) {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    exchange.future.completeExceptionally(e);
+                }
+            });
+        }
+    }
+
+    private static final class Exchange {
+        private final CompletableFuture<Response> future = new CompletableFuture<>();
+        private final ByteBuffer request;
+        private final boolean head;
+        private final boolean idempotent;
+        private final boolean stream;
+        private Connection connection;
+        private BodyStream body;
+        private Response response;
+        private boolean written;
+        private boolean retried;
+        private volatile boolean done;
+
+        private Exchange(@Nonnull ByteBuffer request, @Nonnull String method, boolean stream) {
+            this.request = request;
+            this.head = "HEAD".equals(method);
+            this.idempotent = head || "GET".equals(method);
+            this.stream = stream;
+        }
+    }
+
+    private enum State {
+        STATUS, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS
+    }
+
+    /**
+     * A connection and the parser of the response it is reading. Used by the selector thread only.
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final StringBuilder line = new StringBuilder(128);
+        private SelectionKey key;
+        private boolean connected;
+        private boolean reused;
+        private long deadline;
+        private Exchange exchange;
+        private ByteBuffer request;
+
+        private State state;
+        private int code;
+        private List<Header> headers;
+        private long contentLength;
+        private boolean chunked;
+        private boolean keepAliveResponse;
+        private long remaining;
+
+        private Connection(@Nonnull SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        private void start(@Nonnull Exchange exchange) {
+            this.exchange = exchange;
+            exchange.connection = this;
+            request = exchange.request.duplicate();
+            state = State.STATUS;
+            line.setLength(0);
+            if (connected) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                deadline = deadline(socketTimeout);
+            }
+        }
+
+        private void release() {
+            reused = true;
+            key.interestOps(SelectionKey.OP_READ);
+            deadline = deadline(keepAlive);
+            idle.addLast(this);
+        }
+
+        private void finishConnect() throws IOException {
+            channel.finishConnect();
+            connected = true;
+            key.interestOps(SelectionKey.OP_WRITE);
+            deadline = deadline(socketTimeout);
+        }
+
+        private void write() throws IOException {
+            if (channel.write(request) > 0) {
+                exchange.written = true;
+            }
+            deadline = deadline(socketTimeout);
+            if (!request.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        private void read() throws IOException {
+            readBuffer.clear();
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                endOfStream();
+                return;
+            }
+            if (exchange == null) {
+                // an idle connection has nothing to say
+                close();
+                return;
+            }
+            deadline = deadline(socketTimeout);
+            readBuffer.flip();
+            parse(readBuffer);
+        }
+
+        private void resume(@Nonnull Exchange paused) {
+            if (exchange == paused && key.isValid()) {
+                key.interestOps(SelectionKey.OP_READ);
+                deadline = deadline(socketTimeout);
+            }
+        }
+
+        private void endOfStream() throws IOException {
+            if (exchange != null && state == State.BODY && remaining == Long.MAX_VALUE) {
+                // the body was delimited by the end of the connection
+                complete();
+            }
+            if (exchange != null) {
+                throw new EOFException("Connection closed by " + address);
+            }
+            close();
+        }
+
+        private void parse(@Nonnull ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining() && exchange != null) {
+                if (state == State.BODY || state == State.CHUNK_DATA) {
+                    int length = (int) Math.min(buffer.remaining(), remaining);
+                    byte[] bytes = new byte[length];
+                    buffer.get(bytes);
+                    if (remaining != Long.MAX_VALUE) {
+                        remaining -= length;
+                    }
+                    exchange.body.offer(bytes);
+                    if (exchange.body.pauseIfFull()) {
+                        key.interestOps(0);
+                        deadline = 0L;
+                    }
+                    if (remaining == 0) {
+                        if (state == State.BODY) {
+                            complete();
+                        } else {
+                            state = State.CHUNK_END;
+                        }
+                    }
+                } else if (readLine(buffer)) {
+                    parseLine(line.toString());
+                    line.setLength(0);
+                }
+            }
+        }
+
+        private boolean readLine(@Nonnull ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                char c = (char) (buffer.get() & 0xff);
+                if (c == '\n') {
+                    int last = line.length() - 1;
+                    if (last >= 0 && line.charAt(last) == '\r') {
+                        line.setLength(last);
+                    }
+                    return true;
+                }
+                if (line.length() == MAX_LINE_LENGTH) {
+                    throw new IOException("Response line from " + address + " is too long");
+                }
+                line.append(c);
+            }
+            return false;
+        }
+
+        private void parseLine(@Nonnull String text) throws IOException {
+            switch (state) {
+                case STATUS:
+                    if (!text.isEmpty()) {
+                        parseStatus(text);
+                    }
+                    break;
+                case HEADERS:
+                    if (text.isEmpty()) {
+                        endOfHeaders();
+                    } else {
+                        parseHeader(text);
+                    }
+                    break;
+                case CHUNK_SIZE:
+                    int extension = text.indexOf(';');
+                    try {
+                        remaining = Long.parseLong((extension > -1 ? text.substring(0, extension) : text).trim(), 16);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Invalid chunk size '" + text + "' from " + address);
+                    }
+                    state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+                    break;
+                case CHUNK_END:
+                    state = State.CHUNK_SIZE;
+                    break;
+                case TRAILERS:
+                    if (text.isEmpty()) {
+                        complete();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void parseStatus(@Nonnull String text) throws IOException {
+            String[] parts = text.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                throw new IOException("Invalid status line '" + text + "' from " + address);
+            }
+            try {
+                code = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid status line '" + text + "' from " + address);
+            }
+            keepAliveResponse = !"HTTP/1.0".equals(parts[0]);
+            headers = new ArrayList<>();
+            contentLength = -1L;
+            chunked = false;
+            state = State.HEADERS;
+        }
+
+        private void parseHeader(@Nonnull String text) {
+            int colon = text.indexOf(':');
+            if (colon < 1) {
+                return;
+            }
+            String name = text.substring(0, colon).trim();
+            String value = text.substring(colon + 1).trim();
+            headers.add(new BasicHeader(name, value));
+            if ("Content-Length".equalsIgnoreCase(name)) {
+                contentLength = Long.parseLong(value);
+            } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+                chunked = value.toLowerCase().contains("chunked");
+            } else if ("Connection".equalsIgnoreCase(name)) {
+                keepAliveResponse = !"close".equalsIgnoreCase(value);
+            }
+        }
+
+        private void endOfHeaders() throws IOException {
+            if (code >= 100 && code < 200) {
+                // interim responses are followed by the actual one
+                state = State.STATUS;
+                return;
+            }
+
+            Exchange current = exchange;
+            current.body = new BodyStream(current.stream ? maxBufferedBytes : Integer.MAX_VALUE, resumeTask(current), abortTask(current));
+            current.response = new Response(code, current.body, headers.toArray(new Header[headers.size()]));
+            if (current.stream) {
+                respond(current, current.response);
+            }
+
+            if (current.head || code == SC_NO_CONTENT || code == SC_NOT_MODIFIED || (!chunked && contentLength == 0)) {
+                complete();
+            } else if (chunked) {
+                state = State.CHUNK_SIZE;
+            } else if (contentLength > 0) {
+                remaining = contentLength;
+                state = State.BODY;
+            } else {
+                keepAliveResponse = false;
+                remaining = Long.MAX_VALUE;
+                state = State.BODY;
+            }
+        }
+
+        private void complete() {
+            Exchange current = exchange;
+            exchange = null;
+            current.done = true;
+            pendingRequests.decrementAndGet();
+            current.body.finish();
+            if (!current.stream) {
+                respond(current, current.response);
+            }
+
+            if (keepAliveResponse && !shutdown) {
+                release();
+            } else {
+                close();
+            }
+        }
+
+        private void fail(@Nonnull Exception failure, boolean retry) {
+            Exchange failed = exchange;
+            exchange = null;
+            boolean stale = reused;
+            close();
+            if (failed == null) {
+                return;
+            }
+            // a request the server may have applied already is only sent again if applying it twice is harmless
+            if (retry && stale && failed.response == null && (failed.idempotent || !failed.written) && !failed.retried && !shutdown) {
+                LOG.debug("Retrying request on a new connection of transport {}", address, failure);
+                failed.retried = true;
+                failed.written = false;
+                failed.connection = null;
+                queue.add(failed);
+            } else {
+                NioHttpTransport.this.fail(failed, failure);
+            }
+        }
+
+        private void close() {
+            connections.remove(this);
+            idle.remove(this);
+            openConnections = connections.size();
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.trace("Could not close connection of transport {}", address, e);
+            }
+        }
+
+        @Nonnull
+        private Runnable resumeTask(@Nonnull final Exchange paused) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            resume(paused);
+                        }
+                    });
+                }
+            };
+        }
+
+        @Nonnull
+        private Runnable abortTask(@Nonnull final Exchange exchange) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    abort(exchange);
+                }
+            };
+        }
+    }
+
+    /**
+     * The body of a response, filled by the selector thread and read by the consumer of the response.
+     */
+    private static final class BodyStream extends InputStream {
+        private final Deque<byte[]> chunks = new ArrayDeque<>();
+        private final long limit;
+        private final Runnable resume;
+        private final Runnable abort;
+        private byte[] current;
+        private int position;
+        private long buffered;
+        private boolean paused;
+        private boolean finished;
+        private boolean closed;
+        private IOException failure;
+
+        private BodyStream(long limit, @Nonnull Runnable resume, @Nonnull Runnable abort) {
+            this.limit = limit;
+            this.resume = resume;
+            this.abort = abort;
+        }
+
+        private synchronized void offer(@Nonnull byte[] bytes) {
+            if (!closed) {
+                chunks.add(bytes);
+                buffered += bytes.length;
+                notifyAll();
+            }
+        }
+
+        private synchronized boolean pauseIfFull() {
+            paused = !closed && buffered >= limit;
+            return paused;
+        }
+
+        private synchronized void finish() {
+            finished = true;
+            notifyAll();
+        }
+
+        private synchronized void fail(@Nonnull IOException e) {
+            failure = e;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            if (!awaitData()) {
+                return -1;
+            }
+            int b = current[position++] & 0xff;
+            consumed(1);
+            return b;
+        }
+
+        @Override
+        public synchronized int read(@Nonnull byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!awaitData()) {
+                return -1;
+            }
+            int count = Math.min(length, current.length - position);
+            System.arraycopy(current, position, bytes, offset, count);
+            position += count;
+            consumed(count);
+            return count;
+        }
+
+        @Override
+        public synchronized int available() {
+            return (int) Math.min(Integer.MAX_VALUE, buffered);
+        }
+
+        @Override
+        public void close() {
+            boolean aborted;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                aborted = !finished && failure == null;
+                chunks.clear();
+                current = null;
+                buffered = 0;
+                notifyAll();
+            }
+            // the rest of the body is of no interest, neither is the connection
+            if (aborted) {
+                abort.run();
+            }
+        }
+
+        private boolean awaitData() throws IOException {
+            while (current == null || position == current.length) {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                byte[] next = chunks.poll();
+                if (next != null) {
+                    current = next;
+                    position = 0;
+                } else if (failure != null) {
+                    throw failure;
+                } else if (finished) {
+                    return false;
+                } else {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while reading a response");
+                    }
+                }
+            }
+            return true;
+        }
+
+        private void consumed(int count) {
+            buffered -= count;
+            if (paused && buffered <= limit / 2) {
+                paused = false;
+                resume.run();
+            }
+        }
+    }
+}
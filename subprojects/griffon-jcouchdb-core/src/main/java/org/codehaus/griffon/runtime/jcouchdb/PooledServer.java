@@ -0,0 +1,640 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.HttpTransport;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.jcouchdb.db.ReplicationInfo;
+import org.jcouchdb.db.Response;
+import org.jcouchdb.db.Server;
+import org.jcouchdb.exception.CouchDBException;
+import org.jcouchdb.util.ExceptionWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.svenson.JSON;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@code Server} implementation that executes requests through a shared {@code DefaultConnectionPool}.
+ * Credentials are kept per instance, which means several databases may share the same pool
+ * while authenticating with different users.
+ * <p>
+ * When compression is enabled responses are requested with {@code Accept-Encoding: gzip} and decompressed while they
+ * are read, and repeatable request bodies of at least the configured size are sent gzipped.
+ * <p>
+ * Once an {@code HttpTransport} has been set requests go through it instead of the pool, and may also be executed
+ * asynchronously with {@link #executeAsync(HttpRequestBase)}. Streamed uploads and bodies larger than 1 MB keep
+ * going through the pool, which writes them as they are read rather than holding them in memory.
+ *
+ * @author Andres Almiray
+ */
+public class PooledServer implements Server {
+    private static final Logger LOG = LoggerFactory.getLogger(PooledServer.class);
+    private static final String CHARSET = "UTF-8";
+    private static final String CONTENT_TYPE_JSON = "application/json";
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final long MAX_TRANSPORT_ENTITY_SIZE = 1024L * 1024L;
+
+    private final DefaultConnectionPool connectionPool;
+    private final String host;
+    private final int port;
+    private final String serverURI;
+    private volatile CredentialsProvider credentialsProvider;
+    private volatile Credentials credentials;
+    private volatile HttpTransport httpTransport;
+    private volatile boolean shutdown;
+    private volatile DefaultDatabaseMetrics databaseMetrics;
+    private volatile boolean compression;
+    private volatile long minCompressedRequestSize = -1L;
+
+    public PooledServer(@Nonnull DefaultConnectionPool connectionPool, @Nonnull String host, int port) {
+        this.connectionPool = requireNonNull(connectionPool, "Argument 'connectionPool' must not be null");
+        this.host = requireNonBlank(host, "Argument 'host' must not be blank");
+        this.port = port;
+        this.serverURI = "http://" + host + ":" + port;
+    }
+
+    @Nonnull
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    @Nonnull
+    public DefaultConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    @Nonnull
+    public String getServerURI() {
+        return serverURI;
+    }
+
+    /**
+     * Sets the metrics that record the number of entity bytes sent and received by this server.
+     */
+    public void setDatabaseMetrics(@Nullable DefaultDatabaseMetrics databaseMetrics) {
+        this.databaseMetrics = databaseMetrics;
+    }
+
+    /**
+     * @param enabled                  whether gzip encoded responses are accepted
+     * @param minCompressedRequestSize size (in bytes) from which request bodies are gzipped; a negative value never
+     *                                 compresses requests
+     */
+    public void setCompression(boolean enabled, long minCompressedRequestSize) {
+        this.minCompressedRequestSize = enabled ? minCompressedRequestSize : -1L;
+        this.compression = enabled;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Sets the transport requests are sent with; {@code null} sends them through the connection pool.
+     */
+    public void setHttpTransport(@Nullable HttpTransport httpTransport) {
+        this.httpTransport = httpTransport;
+    }
+
+    @Nullable
+    public HttpTransport getHttpTransport() {
+        return httpTransport;
+    }
+
+    @Override
+    public List<String> listDatabases() {
+        Response response = null;
+        try {
+            response = get("/_all_dbs");
+            if (!response.isOk()) {
+                throw new CouchDBException("Error listing databases: " + response);
+            }
+            return response.getContentAsList();
+        } finally {
+            destroy(response);
+        }
+    }
+
+    @Override
+    public boolean createDatabase(String name) {
+        Response response = null;
+        try {
+            response = put("/" + name + "/");
+            if (response.isOk()) {
+                return true;
+            } else if (response.getCode() == 412 || response.getCode() == 500) {
+                return false;
+            }
+            throw new CouchDBException("Error creating database: " + response);
+        } finally {
+            destroy(response);
+        }
+    }
+
+    @Override
+    public void deleteDatabase(String name) {
+        Response response = null;
+        try {
+            response = delete("/" + name + "/");
+            if (!response.isOk()) {
+                throw new CouchDBException("Cannot delete database " + name + ": " + response);
+            }
+        } finally {
+            destroy(response);
+        }
+    }
+
+    @Override
+    public Response get(String uri) {
+        LOG.debug("GET {}", uri);
+        return execute(new HttpGet(serverURI + uri));
+    }
+
+    /**
+     * Issues a GET request with additional request headers, such as {@code If-None-Match}.
+     */
+    @Nonnull
+    public Response get(@Nonnull String uri, @Nonnull Map<String, String> headers) {
+        requireNonNull(headers, "Argument 'headers' must not be null");
+        LOG.debug("GET {}, headers = {}", uri, headers);
+        HttpGet get = new HttpGet(serverURI + uri);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            get.setHeader(header.getKey(), header.getValue());
+        }
+        return execute(get);
+    }
+
+    @Override
+    public Response put(String uri) {
+        return put(uri, (String) null);
+    }
+
+    @Override
+    public Response put(String uri, String body) {
+        LOG.debug("PUT {}, body = {}", uri, body);
+        HttpPut put = new HttpPut(serverURI + uri);
+        if (body != null) {
+            put.setEntity(jsonEntity(body));
+        }
+        return execute(put);
+    }
+
+    @Override
+    public Response put(String uri, byte[] body, String contentType) {
+        LOG.debug("PUT {}, {} bytes", uri, body != null ? body.length : 0);
+        HttpPut put = new HttpPut(serverURI + uri);
+        if (body != null) {
+            ByteArrayEntity entity = new ByteArrayEntity(body);
+            entity.setContentType(contentType);
+            put.setEntity(entity);
+        }
+        return execute(put);
+    }
+
+    @Override
+    public Response put(String uri, InputStream inputStream, String contentType, long length) {
+        requireNonNull(inputStream, "Argument 'inputStream' must not be null");
+        LOG.debug("PUT {}, inputStream = {}", uri, inputStream);
+        HttpPut put = new HttpPut(serverURI + uri);
+        InputStreamEntity entity = new InputStreamEntity(inputStream, length);
+        entity.setContentType(contentType);
+        put.setEntity(entity);
+        return execute(put);
+    }
+
+    @Override
+    public Response post(String uri, String body) {
+        LOG.debug("POST {}, body = {}", uri, body);
+        HttpPost post = new HttpPost(serverURI + uri);
+        post.setEntity(jsonEntity(body));
+        return execute(post);
+    }
+
+    @Override
+    public Response delete(String uri) {
+        LOG.debug("DELETE {}", uri);
+        return execute(new HttpDelete(serverURI + uri));
+    }
+
+    @Override
+    public void setCredentials(AuthScope authScope, Credentials credentials) {
+        CredentialsProvider provider = new BasicCredentialsProvider();
+        provider.setCredentials(authScope, credentials);
+        this.credentialsProvider = provider;
+        this.credentials = credentials;
+    }
+
+    @Override
+    public void shutDown() {
+        // the connection pool is shared with other servers; its lifecycle belongs to the ConnectionPoolManager
+        shutdown = true;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public Map<String, Map<String, Object>> getStats(String filter) {
+        String uri = "/_stats";
+        if (filter != null) {
+            uri += filter;
+        }
+        Response response = null;
+        try {
+            response = get(uri);
+            return response.getContentAsMap();
+        } finally {
+            destroy(response);
+        }
+    }
+
+    @Override
+    public ReplicationInfo replicate(String source, String target, boolean continuous) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("source", source);
+        map.put("target", target);
+        if (continuous) {
+            map.put("continuous", true);
+        }
+
+        Response response = null;
+        try {
+            response = post("/_replicate", JSON.defaultJSON().forValue(map));
+            return response.getContentAsBean(ReplicationInfo.class);
+        } finally {
+            destroy(response);
+        }
+    }
+
+    @Override
+    public List<String> getUUIDs(int count) {
+        Response response = null;
+        try {
+            response = get("/_uuids?count=" + count);
+            return (List<String>) response.getContentAsMap().get("uuids");
+        } finally {
+            destroy(response);
+        }
+    }
+
+    @Nonnull
+    protected Response execute(@Nonnull HttpRequestBase request) {
+        DefaultDatabaseMetrics metrics = prepare(request);
+        HttpTransport transport = transportFor(request);
+        if (transport != null) {
+            return execute(transport, request, metrics);
+        }
+
+        HttpContext context = new BasicHttpContext();
+        CredentialsProvider provider = credentialsProvider;
+        if (provider != null) {
+            context.setAttribute(ClientContext.CREDS_PROVIDER, provider);
+        }
+        try {
+            HttpResponse response = connectionPool.getHttpClient().execute(request, context);
+            HttpEntity entity = response.getEntity();
+            int code = response.getStatusLine().getStatusCode();
+            if (entity == null) {
+                return new Response(code, new ByteArrayInputStream(new byte[0]), response.getAllHeaders());
+            }
+            boolean gzipped = isGzip(entity.getContentEncoding()) && entity.getContentLength() != 0;
+            if (!gzipped && metrics == null) {
+                return new Response(response);
+            }
+            return new Response(code, decode(entity.getContent(), gzipped, metrics), response.getAllHeaders());
+        } catch (IOException e) {
+            request.abort();
+            throw ExceptionWrapper.wrap(e);
+        }
+    }
+
+    /**
+     * Executes a request without holding the calling thread while it is in flight, provided an {@code HttpTransport}
+     * has been set; otherwise the request is executed right away. The response is read in full before the returned
+     * future completes.
+     */
+    @Nonnull
+    public CompletableFuture<Response> executeAsync(@Nonnull HttpRequestBase request) {
+        requireNonNull(request, "Argument 'request' must not be null");
+        HttpTransport transport = transportFor(request);
+        if (transport == null) {
+            CompletableFuture<Response> future = new CompletableFuture<>();
+            try {
+                future.complete(execute(request));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+
+        final DefaultDatabaseMetrics metrics = prepare(request);
+        return submit(transport, request, false).thenApply(new Function<Response, Response>() {
+            @Override
+            public Response apply(Response response) {
+                try {
+                    return decode(response, metrics);
+                } catch (IOException e) {
+                    throw ExceptionWrapper.wrap(e);
+                }
+            }
+        });
+    }
+
+    @Nonnull
+    public CompletableFuture<Response> getAsync(@Nonnull String uri) {
+        LOG.debug("GET {} (async)", uri);
+        return executeAsync(new HttpGet(serverURI + uri));
+    }
+
+    @Nonnull
+    public CompletableFuture<Response> putAsync(@Nonnull String uri, @Nullable String body) {
+        LOG.debug("PUT {} (async), body = {}", uri, body);
+        HttpPut put = new HttpPut(serverURI + uri);
+        if (body != null) {
+            put.setEntity(jsonEntity(body));
+        }
+        return executeAsync(put);
+    }
+
+    @Nonnull
+    public CompletableFuture<Response> postAsync(@Nonnull String uri, @Nonnull String body) {
+        LOG.debug("POST {} (async), body = {}", uri, body);
+        HttpPost post = new HttpPost(serverURI + uri);
+        post.setEntity(jsonEntity(body));
+        return executeAsync(post);
+    }
+
+    @Nonnull
+    public CompletableFuture<Response> deleteAsync(@Nonnull String uri) {
+        LOG.debug("DELETE {} (async)", uri);
+        return executeAsync(new HttpDelete(serverURI + uri));
+    }
+
+    /**
+     * Applies compression and records sent bytes.
+     *
+     * @return the metrics to record received bytes with, if any
+     */
+    @Nullable
+    private DefaultDatabaseMetrics prepare(@Nonnull HttpRequestBase request) {
+        // callers reading a response as it is produced opt out with their own Accept-Encoding
+        if (compression && !request.containsHeader(HEADER_ACCEPT_ENCODING)) {
+            request.setHeader(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+        }
+        DefaultDatabaseMetrics metrics = databaseMetrics;
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest) request;
+            HttpEntity entity = enclosingRequest.getEntity();
+            // a request executed again has been prepared already
+            if (entity != null && !(entity instanceof CountingEntity)) {
+                long rawLength = entity.getContentLength();
+                long minSize = minCompressedRequestSize;
+                boolean compressed = minSize >= 0 && rawLength >= minSize && entity.isRepeatable() && !isGzip(entity.getContentEncoding());
+                if (compressed) {
+                    entity = gzip(entity);
+                }
+                if (metrics != null) {
+                    // streamed bodies have no length upfront, they are counted as they are written
+                    if (compressed) {
+                        metrics.recordUncompressedBytesSent(rawLength);
+                    }
+                    entity = new CountingEntity(entity, metrics, compressed);
+                }
+                enclosingRequest.setEntity(entity);
+            }
+        }
+        return metrics;
+    }
+
+    @Nonnull
+    private Response execute(@Nonnull HttpTransport transport, @Nonnull HttpRequestBase request, @Nullable DefaultDatabaseMetrics metrics) {
+        final CompletableFuture<Response> future = submit(transport, request, true);
+        try {
+            // aborting the request, as hedged reads and changes followers do, aborts the exchange
+            request.setReleaseTrigger(new ConnectionReleaseTrigger() {
+                @Override
+                public void releaseConnection() {
+                    // connections go back to the transport once responses have been read
+                }
+
+                @Override
+                public void abortConnection() {
+                    if (!future.cancel(false)) {
+                        Response response = future.getNow(null);
+                        if (response != null) {
+                            response.destroy();
+                        }
+                    }
+                }
+            });
+            Response response = future.get();
+            // responses to HEAD requests come without a body to decode
+            return HttpHead.METHOD_NAME.equals(request.getMethod()) ? response : decode(response, metrics);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw ExceptionWrapper.wrap(cause instanceof IOException ? (IOException) cause : new IOException(cause));
+        } catch (CancellationException e) {
+            throw ExceptionWrapper.wrap(new IOException("Request aborted"));
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw ExceptionWrapper.wrap(new InterruptedIOException("Interrupted while waiting for " + request.getURI()));
+        } catch (IOException e) {
+            future.cancel(false);
+            throw ExceptionWrapper.wrap(e);
+        }
+    }
+
+    /**
+     * @return the transport to send the request with; {@code null} for requests carrying a body the transport would
+     * have to buffer, such as streamed or large uploads, which go through the connection pool instead
+     */
+    @Nullable
+    private HttpTransport transportFor(@Nonnull HttpRequestBase request) {
+        HttpTransport transport = httpTransport;
+        if (transport != null && request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null && (!entity.isRepeatable() || entity.getContentLength() < 0 || entity.getContentLength() > MAX_TRANSPORT_ENTITY_SIZE)) {
+                return null;
+            }
+        }
+        return transport;
+    }
+
+    @Nonnull
+    private CompletableFuture<Response> submit(@Nonnull HttpTransport transport, @Nonnull HttpRequestBase request, boolean stream) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (Header header : request.getAllHeaders()) {
+            headers.put(header.getName(), header.getValue());
+        }
+        byte[] body = null;
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null) {
+                if (entity.getContentType() != null) {
+                    headers.put(entity.getContentType().getName(), entity.getContentType().getValue());
+                }
+                if (entity.getContentEncoding() != null) {
+                    headers.put(entity.getContentEncoding().getName(), entity.getContentEncoding().getValue());
+                }
+                try {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream((int) entity.getContentLength());
+                    entity.writeTo(out);
+                    body = out.toByteArray();
+                } catch (IOException e) {
+                    throw ExceptionWrapper.wrap(e);
+                }
+            }
+        }
+        // the transport does not answer challenges, credentials are sent upfront
+        Credentials user = credentials;
+        if (user != null && user.getUserPrincipal() != null) {
+            String token = user.getUserPrincipal().getName() + ":" + (user.getPassword() != null ? user.getPassword() : "");
+            headers.put("Authorization", "Basic " + Base64.getEncoder().encodeToString(token.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        URI uri = request.getURI();
+        String target = uri.getRawPath() != null && !uri.getRawPath().isEmpty() ? uri.getRawPath() : "/";
+        if (uri.getRawQuery() != null) {
+            target += "?" + uri.getRawQuery();
+        }
+        return transport.execute(request.getMethod(), target, headers, body, stream);
+    }
+
+    @Nonnull
+    private static Response decode(@Nonnull Response response, @Nullable DefaultDatabaseMetrics metrics) throws IOException {
+        boolean gzipped = false;
+        for (Header header : response.getResponseHeaders()) {
+            if ("Content-Encoding".equalsIgnoreCase(header.getName())) {
+                gzipped = isGzip(header);
+            } else if ("Content-Length".equalsIgnoreCase(header.getName()) && "0".equals(header.getValue().trim())) {
+                return response;
+            }
+        }
+        if (!gzipped && metrics == null) {
+            return response;
+        }
+        return new Response(response.getCode(), decode(response.getInputStream(), gzipped, metrics), response.getResponseHeaders());
+    }
+
+    @Nonnull
+    private static InputStream decode(@Nonnull InputStream content, boolean gzipped, @Nullable DefaultDatabaseMetrics metrics) throws IOException {
+        // bytes are counted as they travel, then again once decompressed
+        if (metrics != null) {
+            content = new CountingInputStream(content, metrics, false);
+        }
+        if (gzipped) {
+            content = new GZIPInputStream(content);
+        }
+        if (metrics != null) {
+            content = new CountingInputStream(content, metrics, true);
+        }
+        return content;
+    }
+
+    @Nonnull
+    private static HttpEntity gzip(@Nonnull HttpEntity entity) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE, Math.max(64L, entity.getContentLength() / 4L)));
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            entity.writeTo(gzip);
+            gzip.close();
+
+            ByteArrayEntity compressed = new ByteArrayEntity(out.toByteArray());
+            compressed.setContentType(entity.getContentType());
+            compressed.setContentEncoding(ENCODING_GZIP);
+            return compressed;
+        } catch (IOException e) {
+            throw ExceptionWrapper.wrap(e);
+        }
+    }
+
+    private static boolean isGzip(@Nullable Header contentEncoding) {
+        return contentEncoding != null && ENCODING_GZIP.equalsIgnoreCase(contentEncoding.getValue().trim());
+    }
+
+    @Nonnull
+    private static StringEntity jsonEntity(@Nonnull String body) {
+        try {
+            StringEntity entity = new StringEntity(body, CHARSET);
+            entity.setContentType(CONTENT_TYPE_JSON);
+            entity.setContentEncoding(CHARSET);
+            return entity;
+        } catch (UnsupportedEncodingException e) {
+            throw ExceptionWrapper.wrap(e);
+        }
+    }
+
+    private static void destroy(Response response) {
+        if (response != null) {
+            response.destroy();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.JsonEngine;
+import griffon.plugins.jcouchdb.JsonViewReader;
+import griffon.plugins.jcouchdb.ProjectedDocument;
+import griffon.plugins.jcouchdb.Projection;
+import org.jcouchdb.document.ValueAndDocumentRow;
+import org.jcouchdb.document.ValueRow;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+import static org.codehaus.griffon.runtime.jcouchdb.DefaultProjectedDocument.ID;
+import static org.codehaus.griffon.runtime.jcouchdb.DefaultProjectedDocument.REVISION;
+
+/**
+ * Reads documents keeping only the members selected by a {@code Projection}. Unselected members are skipped
+ * character by character without being buffered; selected ones are kept as JSON text and decoded by
+ * {@code DefaultProjectedDocument} when accessed. The underlying reader is owned by the caller.
+ *
+ * @author Andres Almiray
+ */
+final class ProjectionReader extends ViewRowReader {
+    private final JsonEngine jsonEngine;
+    private final StringBuilder value = new StringBuilder(64);
+
+    ProjectionReader(@Nonnull Reader reader, @Nonnull JsonEngine jsonEngine) {
+        super(reader);
+        this.jsonEngine = requireNonNull(jsonEngine, "Argument 'jsonEngine' must not be null");
+    }
+
+    /**
+     * Reads a single document, such as the response of a document request.
+     *
+     * @return the projected document, {@code null} if the JSON text is {@code null}
+     */
+    @Nullable
+    ProjectedDocument readDocument(@Nonnull Projection projection) throws IOException {
+        requireNonNull(projection, "Argument 'projection' must not be null");
+        return readDocument(nextToken(), projection);
+    }
+
+    /**
+     * Reads the rows of a view response queried with {@code include_docs}, projecting their documents.
+     */
+    @Nonnull
+    JsonViewReader readView(@Nonnull final Class<?> valueClass, @Nonnull final Projection projection) {
+        requireNonNull(valueClass, "Argument 'valueClass' must not be null");
+        requireNonNull(projection, "Argument 'projection' must not be null");
+        return new JsonViewReader() {
+            @Nullable
+            @Override
+            public ValueRow<?> nextRow() throws IOException {
+                return nextRowStart() ? readRow(valueClass, projection) : null;
+            }
+
+            @Override
+            public int getTotalRows() {
+                return ProjectionReader.this.getTotalRows();
+            }
+
+            @Override
+            public int getOffset() {
+                return ProjectionReader.this.getOffset();
+            }
+        };
+    }
+
+    @Nonnull
+    private ValueAndDocumentRow<Object, ProjectedDocument> readRow(@Nonnull Class<?> valueClass, @Nonnull Projection projection) throws IOException {
+        ValueAndDocumentRow<Object, ProjectedDocument> row = new ValueAndDocumentRow<>();
+        for (int c = nextToken(); c != '}'; c = nextToken()) {
+            if (c == ',') {
+                c = nextToken();
+            }
+            expect(c, '"');
+            readString();
+            expect(nextToken(), ':');
+            c = nextToken();
+            if (contentEquals("id")) {
+                row.setId(readText(c));
+            } else if (contentEquals("key")) {
+                row.setKey(readField(c).get(Object.class));
+            } else if (contentEquals("value")) {
+                row.setValue(readField(c).get(valueClass));
+            } else if (contentEquals("doc")) {
+                row.setDocument(readDocument(c, projection));
+            } else {
+                skipValue(c);
+            }
+        }
+        return row;
+    }
+
+    @Nullable
+    private DefaultProjectedDocument readDocument(int c, @Nonnull Projection projection) throws IOException {
+        if (c == EOF) {
+            throw unexpectedEnd();
+        } else if (c == '{') {
+            return readObject(projection, true);
+        }
+        // a missing document reads as null
+        skipValue(c);
+        return null;
+    }
+
+    @Nonnull
+    private DefaultProjectedDocument readObject(@Nonnull Projection projection, boolean root) throws IOException {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        for (int c = nextToken(); c != '}'; c = nextToken()) {
+            if (c == ',') {
+                c = nextToken();
+            }
+            expect(c, '"');
+            readString();
+            expect(nextToken(), ':');
+            c = nextToken();
+            if (root && contentEquals(ID)) {
+                fields.put(ID, readText(c));
+                continue;
+            } else if (root && contentEquals(REVISION)) {
+                fields.put(REVISION, readText(c));
+                continue;
+            }
+
+            Projection selected = projection.select(text);
+            if (selected == null) {
+                skipValue(c);
+            } else {
+                fields.put(selected.getName(), readValue(c, selected));
+            }
+        }
+        return new DefaultProjectedDocument(projection, fields);
+    }
+
+    @Nullable
+    private Object readValue(int c, @Nonnull Projection projection) throws IOException {
+        if (!projection.isComplete()) {
+            if (c == '{') {
+                return readObject(projection, false);
+            } else if (c == '[') {
+                return readArray(projection);
+            }
+        }
+        return readField(c);
+    }
+
+    @Nonnull
+    private List<Object> readArray(@Nonnull Projection projection) throws IOException {
+        List<Object> elements = new ArrayList<>();
+        for (int c = nextToken(); c != ']'; c = nextToken()) {
+            if (c == ',') {
+                c = nextToken();
+            }
+            elements.add(readValue(c, projection));
+        }
+        return elements;
+    }
+
+    @Nonnull
+    private DefaultProjectedDocument.Field readField(int c) throws IOException {
+        if (c == EOF) {
+            throw unexpectedEnd();
+        }
+        value.setLength(0);
+        copyValue(c, value);
+        return new DefaultProjectedDocument.Field(value.toString(), jsonEngine);
+    }
+
+    @Nullable
+    private String readText(int c) throws IOException {
+        if (c == '"') {
+            readString();
+            return text.toString();
+        }
+        skipValue(c);
+        return null;
+    }
+}
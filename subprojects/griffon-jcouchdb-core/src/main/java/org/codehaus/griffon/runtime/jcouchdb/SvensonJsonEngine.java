@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import griffon.plugins.jcouchdb.JsonEngine;
+import griffon.plugins.jcouchdb.JsonViewReader;
+import org.jcouchdb.document.ValueAndDocumentRow;
+import org.jcouchdb.document.ValueRow;
+import org.svenson.JSONConfig;
+import org.svenson.JSONParser;
+import org.svenson.tokenize.InputStreamSource;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@code JsonEngine} backed by the svenson {@code JSONConfig} of a database. Rows of a view are cut from the
+ * response as text and parsed one by one with type hints for {@code value} and {@code doc}.
+ *
+ * @author Andres Almiray
+ */
+public class SvensonJsonEngine implements JsonEngine {
+    public static final String NAME = "svenson";
+
+    private static final String VALUE_TYPE_HINT = ".value";
+    private static final String DOCUMENT_TYPE_HINT = ".doc";
+
+    private final JSONConfig jsonConfig;
+
+    public SvensonJsonEngine(@Nonnull JSONConfig jsonConfig) {
+        this.jsonConfig = requireNonNull(jsonConfig, "Argument 'jsonConfig' must not be null");
+    }
+
+    @Nonnull
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Nonnull
+    public JSONConfig getJsonConfig() {
+        return jsonConfig;
+    }
+
+    @Nonnull
+    @Override
+    public String write(@Nullable Object value) {
+        return jsonConfig.getJsonGenerator().forValue(value);
+    }
+
+    @Nullable
+    @Override
+    public <T> T read(@Nonnull String json, @Nonnull Class<T> type) {
+        requireNonNull(json, "Argument 'json' must not be null");
+        requireNonNull(type, "Argument 'type' must not be null");
+        JSONParser parser = jsonConfig.getJsonParser();
+        return JsonDocumentCodec.supports(type) ? JsonDocumentCodec.parse(parser, type, json) : parser.parse(type, json);
+    }
+
+    @Nullable
+    @Override
+    public <T> T read(@Nonnull InputStream inputStream, @Nonnull Class<T> type) throws IOException {
+        requireNonNull(inputStream, "Argument 'inputStream' must not be null");
+        requireNonNull(type, "Argument 'type' must not be null");
+        JSONParser parser = jsonConfig.getJsonParser();
+        InputStreamSource source = new InputStreamSource(inputStream, false);
+        if (JsonDocumentCodec.supports(type)) {
+            return JsonDocumentCodec.decode(parser, type, parser.parse(Map.class, source));
+        }
+        return parser.parse(type, source);
+    }
+
+    @Nonnull
+    @Override
+    public JsonViewReader readView(@Nonnull InputStream inputStream, @Nonnull Class<?> valueClass, @Nullable Class<?> documentClass) {
+        requireNonNull(valueClass, "Argument 'valueClass' must not be null");
+        JSONParser parser = new JSONParser(jsonConfig.getJsonParser());
+        parser.addTypeHint(VALUE_TYPE_HINT, valueClass);
+        // generated documents are parsed as maps and decoded by their codec
+        boolean decode = JsonDocumentCodec.supports(documentClass);
+        if (documentClass != null) {
+            parser.addTypeHint(DOCUMENT_TYPE_HINT, decode ? Map.class : documentClass);
+        }
+        return new RowReader(new ViewRowReader(inputStream), parser, documentClass, decode);
+    }
+
+    private static final class RowReader implements JsonViewReader {
+        private final ViewRowReader reader;
+        private final JSONParser parser;
+        private final Class<?> documentClass;
+        private final boolean decode;
+
+        private RowReader(@Nonnull ViewRowReader reader, @Nonnull JSONParser parser, @Nullable Class<?> documentClass, boolean decode) {
+            this.reader = reader;
+            this.parser = parser;
+            this.documentClass = documentClass;
+            this.decode = decode;
+        }
+
+        @Nullable
+        @Override
+        @SuppressWarnings("unchecked")
+        public ValueRow<?> nextRow() throws IOException {
+            String json = reader.nextRow();
+            if (json == null) {
+                return null;
+            } else if (documentClass == null) {
+                return parser.parse(ValueRow.class, json);
+            }
+            ValueAndDocumentRow<Object, Object> row = parser.parse(ValueAndDocumentRow.class, json);
+            if (decode) {
+                row.setDocument(JsonDocumentCodec.decode(parser, documentClass, (Map<?, ?>) row.getDocument()));
+            }
+            return row;
+        }
+
+        @Override
+        public int getTotalRows() {
+            return reader.getTotalRows();
+        }
+
+        @Override
+        public int getOffset() {
+            return reader.getOffset();
+        }
+    }
+}
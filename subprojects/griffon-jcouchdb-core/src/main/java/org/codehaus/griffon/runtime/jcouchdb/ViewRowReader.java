@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reads a view response one row at a time, handing out the JSON text of each row without materializing the
+ * whole response. The underlying stream is owned by the caller. Members other than {@code total_rows}, {@code offset} and
+ * {@code rows} are skipped.
+ *
+ * @author Andres Almiray
+ */
+class ViewRowReader extends JsonScanner {
+    private final StringBuilder row = new StringBuilder(256);
+    private int totalRows = -1;
+    private int offset = -1;
+    private boolean started;
+    private boolean inRows;
+    private boolean finished;
+
+    ViewRowReader(@Nonnull InputStream inputStream) {
+        this(new InputStreamReader(requireNonNull(inputStream, "Argument 'inputStream' must not be null"), UTF_8));
+    }
+
+    ViewRowReader(@Nonnull Reader reader) {
+        super(requireNonNull(reader, "Argument 'reader' must not be null"));
+    }
+
+    int getTotalRows() {
+        return totalRows;
+    }
+
+    int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the next row of the response, or {@code null} once all rows have been read.
+     */
+    @Nullable
+    String nextRow() throws IOException {
+        if (!nextRowStart()) {
+            return null;
+        }
+        row.setLength(0);
+        copyValue('{', row);
+        return row.toString();
+    }
+
+    /**
+     * Moves to the next row, consuming its opening brace.
+     *
+     * @return {@code false} once all rows have been read
+     */
+    boolean nextRowStart() throws IOException {
+        if (finished) {
+            return false;
+        }
+        if (!inRows && !seekRows()) {
+            finished = true;
+            return false;
+        }
+
+        int c = nextToken();
+        if (c == ',') {
+            c = nextToken();
+        }
+        if (c == ']') {
+            // members following the rows are of no interest
+            finished = true;
+            return false;
+        }
+        expect(c, '{');
+        return true;
+    }
+
+    private boolean seekRows() throws IOException {
+        if (!started) {
+            started = true;
+            expect(nextToken(), '{');
+        }
+
+        int c = nextToken();
+        while (c != '}' && c != EOF) {
+            if (c == ',') {
+                c = nextToken();
+            }
+            expect(c, '"');
+            readString();
+            expect(nextToken(), ':');
+            if (contentEquals("rows")) {
+                expect(nextToken(), '[');
+                inRows = true;
+                return true;
+            } else if (contentEquals("total_rows")) {
+                readScalar(nextToken());
+                totalRows = parseInt(text);
+            } else if (contentEquals("offset")) {
+                readScalar(nextToken());
+                offset = parseInt(text);
+            } else {
+                skipValue(nextToken());
+            }
+            c = nextToken();
+        }
+        return false;
+    }
+
+    boolean contentEquals(@Nonnull String name) {
+        return text.length() == name.length() && text.indexOf(name) == 0;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+import griffon.core.env.Metadata;
+import griffon.plugins.jcouchdb.ConnectionPool;
+import griffon.plugins.jcouchdb.ConnectionPoolManager;
+import org.codehaus.griffon.runtime.monitor.AbstractMBeanRegistration;
+
+import javax.annotation.Nonnull;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class ConnectionPoolMonitor extends AbstractMBeanRegistration implements ConnectionPoolMonitorMXBean {
+    private final ConnectionPoolManager delegate;
+
+    public ConnectionPoolMonitor(@Nonnull Metadata metadata, @Nonnull ConnectionPoolManager delegate) {
+        super(metadata);
+        this.delegate = requireNonNull(delegate, "Argument 'delegate' must not be null");
+    }
+
+    @Override
+    public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+        return new ObjectName("griffon.core:type=ConnectionPool,application=" + metadata.getApplicationName() + ",name=jcouchdb");
+    }
+
+    @Override
+    public String[] getPoolNames() {
+        List<String> names = new ArrayList<>();
+        for (ConnectionPool connectionPool : delegate.getConnectionPools()) {
+            names.add(connectionPool.getName());
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    @Override
+    public int getConnectionsInPool() {
+        int total = 0;
+        for (ConnectionPool connectionPool : delegate.getConnectionPools()) {
+            total += connectionPool.getConnectionsInPool();
+        }
+        return total;
+    }
+
+    @Override
+    public int getLeasedConnections() {
+        int total = 0;
+        for (ConnectionPool connectionPool : delegate.getConnectionPools()) {
+            total += connectionPool.getLeasedConnections();
+        }
+        return total;
+    }
+
+    @Override
+    public int getPendingRequests() {
+        int total = 0;
+        for (ConnectionPool connectionPool : delegate.getConnectionPools()) {
+            total += connectionPool.getPendingRequests();
+        }
+        return total;
+    }
+
+    @Override
+    public long getLeaseCount() {
+        long total = 0;
+        for (ConnectionPool connectionPool : delegate.getConnectionPools()) {
+            total += connectionPool.getLeaseCount();
+        }
+        return total;
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        long total = 0;
+        for (ConnectionPool connectionPool : delegate.getConnectionPools()) {
+            total += connectionPool.getTimeoutCount();
+        }
+        return total;
+    }
+
+    @Override
+    public long getAverageWaitTime() {
+        long leases = 0;
+        long waitTime = 0;
+        for (ConnectionPool connectionPool : delegate.getConnectionPools()) {
+            leases += connectionPool.getLeaseCount() + connectionPool.getTimeoutCount();
+            waitTime += connectionPool.getTotalWaitTime();
+        }
+        return leases > 0 ? waitTime / leases : 0;
+    }
+
+    @Override
+    public long getMaxWaitTime() {
+        long max = 0;
+        for (ConnectionPool connectionPool : delegate.getConnectionPools()) {
+            max = Math.max(max, connectionPool.getMaxWaitTime());
+        }
+        return max;
+    }
+
+    @Override
+    public Map<String, Integer> getLeasedConnectionsPerPool() {
+        Map<String, Integer> map = new LinkedHashMap<>();
+        for (ConnectionPool connectionPool : delegate.getConnectionPools()) {
+            map.put(connectionPool.getName(), connectionPool.getLeasedConnections());
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Integer> getConnectionsInPoolPerPool() {
+        Map<String, Integer> map = new LinkedHashMap<>();
+        for (ConnectionPool connectionPool : delegate.getConnectionPools()) {
+            map.put(connectionPool.getName(), connectionPool.getConnectionsInPool());
+        }
+        return map;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+import java.util.Map;
+
+/**
+ * @author Andres Almiray
+ */
+public interface ConnectionPoolMonitorMXBean {
+    String[] getPoolNames();
+
+    int getConnectionsInPool();
+
+    int getLeasedConnections();
+
+    int getPendingRequests();
+
+    long getLeaseCount();
+
+    long getTimeoutCount();
+
+    long getAverageWaitTime();
+
+    long getMaxWaitTime();
+
+    Map<String, Integer> getLeasedConnectionsPerPool();
+
+    Map<String, Integer> getConnectionsInPoolPerPool();
+}
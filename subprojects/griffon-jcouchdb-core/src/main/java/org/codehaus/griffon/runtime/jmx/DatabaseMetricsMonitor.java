@@ -0,0 +1,150 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+import griffon.core.env.Metadata;
+import griffon.plugins.jcouchdb.DatabaseMetrics;
+import org.codehaus.griffon.runtime.monitor.AbstractMBeanRegistration;
+
+import javax.annotation.Nonnull;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class DatabaseMetricsMonitor extends AbstractMBeanRegistration implements DatabaseMetricsMonitorMXBean {
+    private static final double NANOS_PER_MILLI = 1000000.0d;
+
+    private final DatabaseMetrics delegate;
+
+    public DatabaseMetricsMonitor(@Nonnull Metadata metadata, @Nonnull DatabaseMetrics delegate) {
+        super(metadata);
+        this.delegate = requireNonNull(delegate, "Argument 'delegate' must not be null");
+    }
+
+    @Override
+    public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+        return new ObjectName("griffon.core:type=DatabaseMetrics,application=" + metadata.getApplicationName() +
+            ",name=jcouchdb,database=" + ObjectName.quote(delegate.getDatabaseName()));
+    }
+
+    @Override
+    public String getDatabaseName() {
+        return delegate.getDatabaseName();
+    }
+
+    @Override
+    public long getInvocationCount() {
+        return delegate.getInvocationCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return delegate.getErrorCount();
+    }
+
+    @Override
+    public long getInFlightCount() {
+        return delegate.getInFlightCount();
+    }
+
+    @Override
+    public double getMeanLatency() {
+        return millis(delegate.getMeanLatency());
+    }
+
+    @Override
+    public double getLatency50thPercentile() {
+        return millis(delegate.getLatencyPercentile(0.5d));
+    }
+
+    @Override
+    public double getLatency90thPercentile() {
+        return millis(delegate.getLatencyPercentile(0.9d));
+    }
+
+    @Override
+    public double getLatency99thPercentile() {
+        return millis(delegate.getLatencyPercentile(0.99d));
+    }
+
+    @Override
+    public double getLatency999thPercentile() {
+        return millis(delegate.getLatencyPercentile(0.999d));
+    }
+
+    @Override
+    public double getMaxLatency() {
+        return millis(delegate.getMaxLatency());
+    }
+
+    @Override
+    public long getCreateCount() {
+        return delegate.getCreateCount();
+    }
+
+    @Override
+    public double getLastCreateTime() {
+        return millis(delegate.getLastCreateTime());
+    }
+
+    @Override
+    public double getMaxCreateTime() {
+        return millis(delegate.getMaxCreateTime());
+    }
+
+    @Override
+    public long getDestroyCount() {
+        return delegate.getDestroyCount();
+    }
+
+    @Override
+    public double getLastDestroyTime() {
+        return millis(delegate.getLastDestroyTime());
+    }
+
+    @Override
+    public long getBytesSent() {
+        return delegate.getBytesSent();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return delegate.getBytesReceived();
+    }
+
+    @Override
+    public long getUncompressedBytesSent() {
+        return delegate.getUncompressedBytesSent();
+    }
+
+    @Override
+    public long getUncompressedBytesReceived() {
+        return delegate.getUncompressedBytesReceived();
+    }
+
+    @Override
+    public void reset() {
+        delegate.reset();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / NANOS_PER_MILLI;
+    }
+}
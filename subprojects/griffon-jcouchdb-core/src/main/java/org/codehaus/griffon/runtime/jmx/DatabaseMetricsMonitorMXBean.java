@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+/**
+ * Times are reported in milliseconds.
+ *
+ * @author Andres Almiray
+ */
+public interface DatabaseMetricsMonitorMXBean {
+    String getDatabaseName();
+
+    long getInvocationCount();
+
+    long getErrorCount();
+
+    long getInFlightCount();
+
+    double getMeanLatency();
+
+    double getLatency50thPercentile();
+
+    double getLatency90thPercentile();
+
+    double getLatency99thPercentile();
+
+    double getLatency999thPercentile();
+
+    double getMaxLatency();
+
+    long getCreateCount();
+
+    double getLastCreateTime();
+
+    double getMaxCreateTime();
+
+    long getDestroyCount();
+
+    double getLastDestroyTime();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    long getUncompressedBytesSent();
+
+    long getUncompressedBytesReceived();
+
+    void reset();
+}
@@ -22,12 +22,37 @@ import org.jcouchdb.db.Database;
 
 import javax.annotation.Nonnull;
 
+import static java.util.Objects.requireNonNull;
+
 /**
  * @author Andres Almiray
  */
 public class DatabaseStorageMonitor extends AbstractObjectStorageMonitor<Database> implements DatabaseStorageMonitorMXBean {
+    private final DatabaseStorage delegate;
+
     public DatabaseStorageMonitor(@Nonnull Metadata metadata, @Nonnull DatabaseStorage delegate) {
         super(metadata, delegate);
+        this.delegate = requireNonNull(delegate, "Argument 'delegate' must not be null");
+    }
+
+    @Override
+    public int getInUseCount() {
+        return delegate.getInUseCount();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return delegate.getIdleEvictionCount() + delegate.getCapacityEvictionCount();
+    }
+
+    @Override
+    public long getIdleEvictionCount() {
+        return delegate.getIdleEvictionCount();
+    }
+
+    @Override
+    public long getCapacityEvictionCount() {
+        return delegate.getCapacityEvictionCount();
     }
 
     @Override
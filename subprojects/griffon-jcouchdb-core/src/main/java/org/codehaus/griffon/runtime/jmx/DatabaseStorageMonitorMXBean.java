@@ -21,4 +21,11 @@ import org.codehaus.griffon.runtime.monitor.ObjectStorageMonitorMXBean;
  * @author Andres Almiray
  */
 public interface DatabaseStorageMonitorMXBean extends ObjectStorageMonitorMXBean {
+    int getInUseCount();
+
+    long getEvictionCount();
+
+    long getIdleEvictionCount();
+
+    long getCapacityEvictionCount();
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+import griffon.core.env.Metadata;
+import griffon.plugins.jcouchdb.DocumentCache;
+import griffon.plugins.jcouchdb.DocumentCacheManager;
+import org.codehaus.griffon.runtime.monitor.AbstractMBeanRegistration;
+
+import javax.annotation.Nonnull;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class DocumentCacheMonitor extends AbstractMBeanRegistration implements DocumentCacheMonitorMXBean {
+    private final DocumentCacheManager delegate;
+
+    public DocumentCacheMonitor(@Nonnull Metadata metadata, @Nonnull DocumentCacheManager delegate) {
+        super(metadata);
+        this.delegate = requireNonNull(delegate, "Argument 'delegate' must not be null");
+    }
+
+    @Override
+    public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+        return new ObjectName("griffon.core:type=DocumentCache,application=" + metadata.getApplicationName() + ",name=jcouchdb");
+    }
+
+    @Override
+    public String[] getDatabaseNames() {
+        List<String> names = new ArrayList<>();
+        for (DocumentCache documentCache : delegate.getDocumentCaches()) {
+            names.add(documentCache.getDatabaseName());
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    @Override
+    public int getSize() {
+        int total = 0;
+        for (DocumentCache documentCache : delegate.getDocumentCaches()) {
+            total += documentCache.getSize();
+        }
+        return total;
+    }
+
+    @Override
+    public long getHitCount() {
+        long total = 0;
+        for (DocumentCache documentCache : delegate.getDocumentCaches()) {
+            total += documentCache.getHitCount();
+        }
+        return total;
+    }
+
+    @Override
+    public long getMissCount() {
+        long total = 0;
+        for (DocumentCache documentCache : delegate.getDocumentCaches()) {
+            total += documentCache.getMissCount();
+        }
+        return total;
+    }
+
+    @Override
+    public long getRevalidationCount() {
+        long total = 0;
+        for (DocumentCache documentCache : delegate.getDocumentCaches()) {
+            total += documentCache.getRevalidationCount();
+        }
+        return total;
+    }
+
+    @Override
+    public long getEvictionCount() {
+        long total = 0;
+        for (DocumentCache documentCache : delegate.getDocumentCaches()) {
+            total += documentCache.getEvictionCount();
+        }
+        return total;
+    }
+
+    @Override
+    public Map<String, Integer> getSizePerDatabase() {
+        Map<String, Integer> map = new LinkedHashMap<>();
+        for (DocumentCache documentCache : delegate.getDocumentCaches()) {
+            map.put(documentCache.getDatabaseName(), documentCache.getSize());
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getHitCountPerDatabase() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (DocumentCache documentCache : delegate.getDocumentCaches()) {
+            map.put(documentCache.getDatabaseName(), documentCache.getHitCount());
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getMissCountPerDatabase() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (DocumentCache documentCache : delegate.getDocumentCaches()) {
+            map.put(documentCache.getDatabaseName(), documentCache.getMissCount());
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getRevalidationCountPerDatabase() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (DocumentCache documentCache : delegate.getDocumentCaches()) {
+            map.put(documentCache.getDatabaseName(), documentCache.getRevalidationCount());
+        }
+        return map;
+    }
+
+    @Override
+    public void clear() {
+        for (DocumentCache documentCache : delegate.getDocumentCaches()) {
+            documentCache.clear();
+        }
+    }
+}
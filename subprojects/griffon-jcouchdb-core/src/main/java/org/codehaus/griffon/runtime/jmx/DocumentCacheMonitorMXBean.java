@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+import java.util.Map;
+
+/**
+ * @author Andres Almiray
+ */
+public interface DocumentCacheMonitorMXBean {
+    String[] getDatabaseNames();
+
+    int getSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getRevalidationCount();
+
+    long getEvictionCount();
+
+    Map<String, Integer> getSizePerDatabase();
+
+    Map<String, Long> getHitCountPerDatabase();
+
+    Map<String, Long> getMissCountPerDatabase();
+
+    Map<String, Long> getRevalidationCountPerDatabase();
+
+    void clear();
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+import griffon.core.env.Metadata;
+import griffon.plugins.jcouchdb.LocalReplica;
+import griffon.plugins.jcouchdb.LocalReplicaManager;
+import org.codehaus.griffon.runtime.monitor.AbstractMBeanRegistration;
+
+import javax.annotation.Nonnull;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class LocalReplicaMonitor extends AbstractMBeanRegistration implements LocalReplicaMonitorMXBean {
+    private final LocalReplicaManager delegate;
+
+    public LocalReplicaMonitor(@Nonnull Metadata metadata, @Nonnull LocalReplicaManager delegate) {
+        super(metadata);
+        this.delegate = requireNonNull(delegate, "Argument 'delegate' must not be null");
+    }
+
+    @Override
+    public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+        return new ObjectName("griffon.core:type=LocalReplica,application=" + metadata.getApplicationName() + ",name=jcouchdb");
+    }
+
+    @Override
+    public String[] getDatabaseNames() {
+        List<String> names = new ArrayList<>();
+        for (LocalReplica localReplica : delegate.getLocalReplicas()) {
+            names.add(localReplica.getDatabaseName());
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    @Override
+    public int getDocumentCount() {
+        int total = 0;
+        for (LocalReplica localReplica : delegate.getLocalReplicas()) {
+            total += localReplica.getDocumentCount();
+        }
+        return total;
+    }
+
+    @Override
+    public int getPendingWriteCount() {
+        int total = 0;
+        for (LocalReplica localReplica : delegate.getLocalReplicas()) {
+            total += localReplica.getPendingWriteCount();
+        }
+        return total;
+    }
+
+    @Override
+    public Map<String, Boolean> getOnlinePerDatabase() {
+        Map<String, Boolean> map = new LinkedHashMap<>();
+        for (LocalReplica localReplica : delegate.getLocalReplicas()) {
+            map.put(localReplica.getDatabaseName(), localReplica.isOnline());
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Boolean> getCompletePerDatabase() {
+        Map<String, Boolean> map = new LinkedHashMap<>();
+        for (LocalReplica localReplica : delegate.getLocalReplicas()) {
+            map.put(localReplica.getDatabaseName(), localReplica.isComplete());
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, String> getLastSequencePerDatabase() {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (LocalReplica localReplica : delegate.getLocalReplicas()) {
+            map.put(localReplica.getDatabaseName(), localReplica.getLastSequence());
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Integer> getDocumentCountPerDatabase() {
+        Map<String, Integer> map = new LinkedHashMap<>();
+        for (LocalReplica localReplica : delegate.getLocalReplicas()) {
+            map.put(localReplica.getDatabaseName(), localReplica.getDocumentCount());
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Integer> getPendingWriteCountPerDatabase() {
+        Map<String, Integer> map = new LinkedHashMap<>();
+        for (LocalReplica localReplica : delegate.getLocalReplicas()) {
+            map.put(localReplica.getDatabaseName(), localReplica.getPendingWriteCount());
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getSizePerDatabase() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (LocalReplica localReplica : delegate.getLocalReplicas()) {
+            map.put(localReplica.getDatabaseName(), localReplica.getSize());
+        }
+        return map;
+    }
+}
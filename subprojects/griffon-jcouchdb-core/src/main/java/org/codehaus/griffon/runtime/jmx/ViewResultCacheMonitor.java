@@ -0,0 +1,154 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+import griffon.core.env.Metadata;
+import griffon.plugins.jcouchdb.ViewResultCache;
+import griffon.plugins.jcouchdb.ViewResultCacheManager;
+import org.codehaus.griffon.runtime.monitor.AbstractMBeanRegistration;
+
+import javax.annotation.Nonnull;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class ViewResultCacheMonitor extends AbstractMBeanRegistration implements ViewResultCacheMonitorMXBean {
+    private final ViewResultCacheManager delegate;
+
+    public ViewResultCacheMonitor(@Nonnull Metadata metadata, @Nonnull ViewResultCacheManager delegate) {
+        super(metadata);
+        this.delegate = requireNonNull(delegate, "Argument 'delegate' must not be null");
+    }
+
+    @Override
+    public ObjectName preRegister(MBeanServer server, ObjectName name) throws Exception {
+        return new ObjectName("griffon.core:type=ViewResultCache,application=" + metadata.getApplicationName() + ",name=jcouchdb");
+    }
+
+    @Override
+    public String[] getDatabaseNames() {
+        List<String> names = new ArrayList<>();
+        for (ViewResultCache viewResultCache : delegate.getViewResultCaches()) {
+            names.add(viewResultCache.getDatabaseName());
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    @Override
+    public int getSize() {
+        int total = 0;
+        for (ViewResultCache viewResultCache : delegate.getViewResultCaches()) {
+            total += viewResultCache.getSize();
+        }
+        return total;
+    }
+
+    @Override
+    public long getWeight() {
+        long total = 0;
+        for (ViewResultCache viewResultCache : delegate.getViewResultCaches()) {
+            total += viewResultCache.getWeight();
+        }
+        return total;
+    }
+
+    @Override
+    public long getHitCount() {
+        long total = 0;
+        for (ViewResultCache viewResultCache : delegate.getViewResultCaches()) {
+            total += viewResultCache.getHitCount();
+        }
+        return total;
+    }
+
+    @Override
+    public long getMissCount() {
+        long total = 0;
+        for (ViewResultCache viewResultCache : delegate.getViewResultCaches()) {
+            total += viewResultCache.getMissCount();
+        }
+        return total;
+    }
+
+    @Override
+    public long getRevalidationCount() {
+        long total = 0;
+        for (ViewResultCache viewResultCache : delegate.getViewResultCaches()) {
+            total += viewResultCache.getRevalidationCount();
+        }
+        return total;
+    }
+
+    @Override
+    public long getEvictionCount() {
+        long total = 0;
+        for (ViewResultCache viewResultCache : delegate.getViewResultCaches()) {
+            total += viewResultCache.getEvictionCount();
+        }
+        return total;
+    }
+
+    @Override
+    public Map<String, Integer> getSizePerDatabase() {
+        Map<String, Integer> map = new LinkedHashMap<>();
+        for (ViewResultCache viewResultCache : delegate.getViewResultCaches()) {
+            map.put(viewResultCache.getDatabaseName(), viewResultCache.getSize());
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getHitCountPerDatabase() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (ViewResultCache viewResultCache : delegate.getViewResultCaches()) {
+            map.put(viewResultCache.getDatabaseName(), viewResultCache.getHitCount());
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getMissCountPerDatabase() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (ViewResultCache viewResultCache : delegate.getViewResultCaches()) {
+            map.put(viewResultCache.getDatabaseName(), viewResultCache.getMissCount());
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getRevalidationCountPerDatabase() {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for (ViewResultCache viewResultCache : delegate.getViewResultCaches()) {
+            map.put(viewResultCache.getDatabaseName(), viewResultCache.getRevalidationCount());
+        }
+        return map;
+    }
+
+    @Override
+    public void clear() {
+        for (ViewResultCache viewResultCache : delegate.getViewResultCaches()) {
+            viewResultCache.clear();
+        }
+    }
+}
@@ -20,6 +20,10 @@ import griffon.core.GriffonApplication
 import griffon.core.test.GriffonUnitRule
 import griffon.inject.BindTo
 import org.jcouchdb.db.Database
+import org.jcouchdb.db.Options
+import org.jcouchdb.document.DesignDocument
+import org.jcouchdb.document.DocumentInfo
+import org.jcouchdb.document.ValueAndDocumentRow
 import org.jcouchdb.document.ViewResult
 import org.junit.Rule
 import spock.lang.IgnoreIf
@@ -27,6 +31,16 @@ import spock.lang.Specification
 import spock.lang.Unroll
 
 import javax.inject.Inject
+import java.util.concurrent.Callable
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.stream.Collectors
 
 @Unroll
 @IgnoreIf({ !CouchAvailability.localhostAvailable })
@@ -41,6 +55,27 @@ class JcouchdbSpec extends Specification {
     @Inject
     private DatabaseHandler databaseHandler
 
+    @Inject
+    private AsyncDatabaseHandler asyncDatabaseHandler
+
+    @Inject
+    private ChangesFollowerManager changesFollowerManager
+
+    @Inject
+    private DocumentCacheManager documentCacheManager
+
+    @Inject
+    private ViewResultCacheManager viewResultCacheManager
+
+    @Inject
+    private DatabaseMetricsManager databaseMetricsManager
+
+    @Inject
+    private CouchDBUpdater couchDBUpdater
+
+    @Inject
+    private ViewIndexWarmer viewIndexWarmer
+
     @Inject
     private GriffonApplication application
 
@@ -70,6 +105,389 @@ class JcouchdbSpec extends Specification {
         events.name == eventNames
     }
 
+    void 'Concurrent callers on #name database trigger a single connection'() {
+        given:
+        int callers = 16
+        List events = Collections.synchronizedList([])
+        application.eventRouter.addEventListener('JcouchdbConnectStart', { Object... args ->
+            events << args
+        } as RunnableWithArgs)
+        CountDownLatch start = new CountDownLatch(1)
+        ExecutorService executor = Executors.newFixedThreadPool(callers)
+
+        when:
+        List<Future<Database>> futures = (1..callers).collect {
+            executor.submit({
+                start.await()
+                databaseHandler.withJcouchdb(name) { String databaseName, Database database -> database }
+            } as Callable<Database>)
+        }
+        start.countDown()
+        List<Database> databases = futures*.get()
+        executor.shutdown()
+
+        then:
+        events.size() == 1
+        databases.every { it.is(databases[0]) }
+
+        cleanup:
+        databaseHandler.closeJcouchdb(name)
+
+        where:
+        name     | _
+        'people' | _
+    }
+
+    void 'Bulk write documents to #name database'() {
+        given:
+        String id = UUID.randomUUID().toString()
+        List<Map> documents = (1..25).collect { [name: "bulk-${it}".toString()] }
+
+        when:
+        BulkWriter writer = databaseHandler.createBulkWriter(name)
+        List<CompletableFuture<DocumentInfo>> results = documents.collect { writer.write(it) }
+        DocumentInfo first = writer.write([_id: id]).get()
+        DocumentInfo second = writer.write([_id: id]).get()
+        writer.close()
+
+        then:
+        results*.get().every { !it.error && it.revision }
+        documents.every { it._id && it._rev }
+        first.revision && !first.error
+        second.error == 'conflict'
+
+        when:
+        writer.write([name: 'closed'])
+
+        then:
+        thrown(IllegalStateException)
+
+        cleanup:
+        databaseHandler.closeJcouchdb(name)
+
+        where:
+        name     | _
+        'people' | _
+    }
+
+    void 'Iterate all documents of #name database in pages'() {
+        given:
+        BulkWriter writer = databaseHandler.createBulkWriter(name)
+        (1..25).each { writer.write([name: "page-${it}".toString()]) }
+        writer.close()
+        List<String> expected = databaseHandler.withJcouchdb(name) { String databaseName, Database database ->
+            database.listDocuments(null, null).rows*.id
+        }
+
+        when:
+        ViewIterator<ValueAndDocumentRow<Map, Map>> rows = databaseHandler.iterateViewAndDocuments(name, '_all_docs', Map, Map, null)
+        List<ValueAndDocumentRow<Map, Map>> actual = rows.collect()
+        rows.close()
+
+        then:
+        actual*.id == expected
+        actual.every { it.document._id == it.id }
+        rows.totalRows == expected.size()
+
+        when:
+        List<String> limited = databaseHandler.iterateView(name, '_all_docs', Map, new Options().limit(15).skip(3)).stream()
+            .map { it.id }.collect(Collectors.toList())
+
+        then:
+        limited == expected[3..17]
+
+        cleanup:
+        databaseHandler.closeJcouchdb(name)
+
+        where:
+        name     | _
+        'people' | _
+    }
+
+    void 'Load documents of #name database in batches'() {
+        given:
+        BulkWriter writer = databaseHandler.createBulkWriter(name)
+        List<Map> documents = (1..10).collect { [name: "load-${it}".toString()] }
+        documents.each { writer.write(it) }
+        writer.close()
+        List<String> ids = documents*._id
+
+        when:
+        DocumentLoader loader = databaseHandler.getDocumentLoader(name)
+        List<CompletableFuture<Map>> loaded = (ids + ids).collect { loader.get(it, Map) }
+        CompletableFuture<Map> missing = loader.get(UUID.randomUUID().toString(), Map)
+
+        then:
+        loaded*.get()*.name == (documents + documents)*.name
+        loaded[0].get().is(loaded[10].get())
+        missing.get() == null
+
+        cleanup:
+        databaseHandler.closeJcouchdb(name)
+
+        where:
+        name     | _
+        'people' | _
+    }
+
+    void 'Stream attachments of #name database'() {
+        given:
+        AttachmentStore store = databaseHandler.getAttachmentStore(name)
+        String docId = UUID.randomUUID().toString()
+        byte[] content = new byte[64 * 1024]
+        new Random(42).nextBytes(content)
+        File partial = File.createTempFile('attachment', '.bin')
+        partial.bytes = content[0..<1000] as byte[]
+
+        when:
+        String revision = store.upload(docId, null, 'scan.bin', 'application/octet-stream', new ByteArrayInputStream(content), -1)
+        ByteArrayOutputStream downloaded = new ByteArrayOutputStream()
+        long copied = store.download(docId, 'scan.bin', downloaded)
+        AttachmentStream range = store.open(docId, 'scan.bin', 100, 10)
+        byte[] slice = range.bytes
+        range.close()
+        long resumed = store.download(docId, revision, 'scan.bin', partial.toPath())
+
+        then:
+        revision
+        copied == content.length
+        downloaded.toByteArray() == content
+        slice == content[100..<110] as byte[]
+        resumed == content.length - 1000
+        partial.bytes == content
+
+        cleanup:
+        partial?.delete()
+        databaseHandler.closeJcouchdb(name)
+
+        where:
+        name     | _
+        'people' | _
+    }
+
+    void 'Record metrics of #name database'() {
+        given:
+        DatabaseMetrics metrics = databaseMetricsManager.getMetrics(name)
+        metrics.reset()
+
+        when:
+        5.times {
+            databaseHandler.withJcouchdb(name) { String databaseName, Database database ->
+                database.createDocument([name: 'metrics'])
+            }
+        }
+        databaseHandler.withJcouchdb(name) { String databaseName, Database database ->
+            throw new IllegalStateException('expected')
+        }
+
+        then:
+        thrown(IllegalStateException)
+        metrics.invocationCount == 6
+        metrics.errorCount == 1
+        metrics.inFlightCount == 0
+        metrics.getLatencyPercentile(0.5d) > 0
+        metrics.maxLatency >= metrics.getLatencyPercentile(0.99d)
+        metrics.bytesSent > 0
+        metrics.bytesReceived > 0
+
+        cleanup:
+        databaseHandler.closeJcouchdb(name)
+
+        where:
+        name       | _
+        'internal' | _
+    }
+
+    void 'Run callbacks asynchronously on #name database'() {
+        given:
+        AtomicInteger running = new AtomicInteger()
+        AtomicInteger maxRunning = new AtomicInteger()
+
+        when:
+        List<CompletableFuture<String>> futures = (1..30).collect { int index ->
+            asyncDatabaseHandler.withJcouchdbAsync(name) { String databaseName, Database database ->
+                int current = running.incrementAndGet()
+                maxRunning.accumulateAndGet(current, Math.&max)
+                database.status
+                Thread.sleep(20)
+                running.decrementAndGet()
+                "${databaseName}-${index}".toString()
+            }
+        }
+        List<String> results = CompletableFuture.allOf(futures as CompletableFuture[])
+            .thenApply { futures*.join() }
+            .get(30, TimeUnit.SECONDS)
+
+        then:
+        results == (1..30).collect { "${name}-${it}".toString() }
+        maxRunning.get() <= 10
+
+        cleanup:
+        databaseHandler.closeJcouchdb(name)
+
+        where:
+        name     | _
+        'people' | _
+    }
+
+    void 'Revalidate cached documents of #name database'() {
+        given:
+        Map document = [name: 'cached']
+        databaseHandler.withJcouchdb(name) { String databaseName, Database database ->
+            database.createDocument(document)
+        }
+
+        when:
+        List<Map> reads = databaseHandler.withJcouchdb(name) { String databaseName, Database database ->
+            Map first = database.getDocument(Map, document._id)
+            first.name = 'modified'
+            [first, database.getDocument(Map, document._id)]
+        }
+        DocumentCache documentCache = documentCacheManager.getDocumentCache(name)
+
+        then:
+        !reads[0].is(reads[1])
+        reads[1].name == 'cached'
+        documentCache.missCount == 1
+        documentCache.hitCount == 1
+
+        when:
+        Map updated = databaseHandler.withJcouchdb(name) { String databaseName, Database database ->
+            database.createOrUpdateDocument(document + [name: 'updated'])
+            database.getDocument(Map, document._id)
+        }
+
+        then:
+        updated.name == 'updated'
+        !updated.is(reads[0])
+
+        cleanup:
+        databaseHandler.closeJcouchdb(name)
+
+        where:
+        name     | _
+        'people' | _
+    }
+
+    void 'Revalidate cached view results of #name database'() {
+        when:
+        List<ViewResult<Map>> results = databaseHandler.withJcouchdb(name) { String databaseName, Database database ->
+            [database.queryView('people/by_name', Map, null, null), database.queryView('people/by_name', Map, null, null)]
+        }
+        ViewResultCache viewResultCache = viewResultCacheManager.getViewResultCache(name)
+
+        then:
+        !results[0].is(results[1])
+        results[0].rows*.id == results[1].rows*.id
+        viewResultCache.missCount == 1
+        viewResultCache.hitCount == 1
+
+        when:
+        ViewResult<Map> updated = databaseHandler.withJcouchdb(name) { String databaseName, Database database ->
+            database.createDocument([name: 'uncached'])
+            database.queryView('people/by_name', Map, null, null)
+        }
+
+        then:
+        !updated.is(results[0])
+
+        cleanup:
+        databaseHandler.closeJcouchdb(name)
+
+        where:
+        name     | _
+        'people' | _
+    }
+
+    void 'Sync design documents of #name database'() {
+        when:
+        DesignDocument designDocument = databaseHandler.withJcouchdb(name) { String databaseName, Database database ->
+            database.getDesignDocument('people')
+        }
+        String revision = databaseHandler.withJcouchdb(name) { String databaseName, Database database ->
+            couchDBUpdater.updateDesignDocuments(database, 'jcouchdb/people')
+            database.getDesignDocument('people').revision
+        }
+
+        then:
+        designDocument.views.keySet() == ['by_name'] as Set
+        designDocument.getProperty('griffon_hash')
+        revision == designDocument.revision
+
+        cleanup:
+        databaseHandler.closeJcouchdb(name)
+
+        where:
+        name     | _
+        'people' | _
+    }
+
+    void 'Warm view indexes of #name database'() {
+        given:
+        List events = new CopyOnWriteArrayList<>()
+        CountDownLatch latch = new CountDownLatch(1)
+        application.eventRouter.addEventListener('JcouchdbViewIndexEnd', { Object... args ->
+            events << args
+            latch.countDown()
+        } as RunnableWithArgs)
+
+        when:
+        databaseHandler.withJcouchdb(name) { String databaseName, Database database ->
+            viewIndexWarmer.warm(databaseName, database, [database.getDesignDocument('people')])
+        }
+
+        then:
+        latch.await(30, TimeUnit.SECONDS)
+        events[0][0] == name
+        events[0][1] == '_design/people'
+        events[0][3] == null
+        !viewIndexWarmer.isWarming(name)
+
+        cleanup:
+        databaseHandler.closeJcouchdb(name)
+
+        where:
+        name     | _
+        'people' | _
+    }
+
+    void 'Follow changes of #name database'() {
+        given:
+        List<DocumentChange> changes = new CopyOnWriteArrayList<>()
+        CountDownLatch latch = new CountDownLatch(5)
+        application.eventRouter.addEventListener('JcouchdbChanges', { Object... args ->
+            if (args[0] == name) {
+                changes.addAll(args[1])
+                args[1].size().times { latch.countDown() }
+            }
+        } as RunnableWithArgs)
+
+        when:
+        ChangesFollower follower = changesFollowerManager.start(name)
+        // wait for the follower to pick its starting point
+        sleep(500)
+        List<String> ids = databaseHandler.withJcouchdb(name) { String databaseName, Database database ->
+            (1..5).collect {
+                Map document = [name: "change-${it}".toString()]
+                database.createDocument(document)
+                document._id
+            }
+        }
+        latch.await(10, TimeUnit.SECONDS)
+
+        then:
+        changes*.id == ids
+        follower.lastSequence == changes[-1].sequence
+
+        cleanup:
+        changesFollowerManager.stop(name)
+        databaseHandler.closeJcouchdb(name)
+
+        where:
+        name     | _
+        'people' | _
+    }
+
     void 'Connect to default database'() {
         expect:
         databaseHandler.withJcouchdb { String databaseName, Database database ->
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb
+
+import org.codehaus.griffon.runtime.jcouchdb.testing.StubCouchDBServer
+import org.jcouchdb.db.Response
+import org.jcouchdb.exception.CouchDBException
+import spock.lang.Specification
+
+class ClusterServerSpec extends Specification {
+    private List<StubCouchDBServer> stubs = []
+    private List<DefaultConnectionPool> pools = []
+    private List<PooledServer> servers = []
+    private List<String> uris
+    private ClusterServer cluster
+    private ManagedDatabase database
+
+    void setup() {
+        3.times {
+            StubCouchDBServer stub = new StubCouchDBServer()
+            stub.start()
+            DefaultConnectionPool pool = new DefaultConnectionPool("${stub.host}:${stub.port}".toString(), [:])
+            PooledServer server = new PooledServer(pool, stub.host, stub.port)
+            server.createDatabase('people')
+            stub.putDocument('people', 'doc-1', '{"n":1}')
+            stubs << stub
+            pools << pool
+            servers << server
+        }
+        uris = servers*.serverURI
+    }
+
+    void cleanup() {
+        cluster?.shutDown()
+        pools*.shutdown()
+        stubs*.stop()
+    }
+
+    void 'Hedge a read to the next node when the first one is slow'() {
+        given:
+        connect(hedge_delay: 100)
+        // every node is unmeasured, the first one in the list is asked first
+        stubs[0].latency = 5000L
+
+        when:
+        long start = System.currentTimeMillis()
+        Map document = database.getDocument(Map, 'doc-1')
+        long elapsed = System.currentTimeMillis() - start
+
+        then:
+        document.n == 1
+        elapsed < 2500L
+        cluster.nodeLatencies[uris[1]] > 0d
+        // the abandoned read still tells how slow the node was
+        waitFor { cluster.nodeLatencies[uris[0]] > cluster.nodeLatencies[uris[1]] }
+        cluster.nodeAvailability.values().every()
+    }
+
+    void 'Leave a failing node out and retry it after the retry delay'() {
+        given:
+        connect(hedge_delay: 1000, retry_delay: 1000)
+        stubs[0].offline = true
+
+        when:
+        Map document = database.getDocument(Map, 'doc-1')
+
+        then:
+        document.n == 1
+        cluster.nodeAvailability == [(uris[0]): false, (uris[1]): true, (uris[2]): true]
+        cluster.nodeLatencies[uris[0]] == 0d
+
+        when:
+        stubs[0].offline = false
+        waitFor { cluster.nodeAvailability[uris[0]] }
+        // the node that failed has not been measured yet, it is asked first again
+        document = database.getDocument(Map, 'doc-1')
+
+        then:
+        document.n == 1
+        cluster.nodeLatencies[uris[0]] > 0d
+        cluster.nodeAvailability.values().every()
+    }
+
+    void 'Pin writes to one node and read them back from it'() {
+        given:
+        connect(read_your_writes: 10000)
+
+        when:
+        (1..5).each { database.createDocument([_id: "new-${it}".toString(), n: it]) }
+        Map document = database.getDocument(Map, 'new-5')
+        int pinned = uris.indexOf(cluster.writeNode)
+
+        then:
+        pinned >= 0
+        document.n == 5
+        // nodes do not replicate, only the pinned one holds the new documents
+        (0..2).collect { int i -> (1..5).count { status(i, "new-${it}") == 200 } } == (0..2).collect { it == pinned ? 5 : 0 }
+
+        when:
+        stubs[pinned].offline = true
+        database.createDocument([_id: 'new-6', n: 6])
+
+        then:
+        thrown(CouchDBException)
+        !cluster.nodeAvailability[uris[pinned]]
+        (0..2).every { status(it, 'new-6') == 404 || it == pinned }
+
+        when:
+        database.createDocument([_id: 'new-7', n: 7])
+
+        then:
+        cluster.writeNode != null
+        cluster.writeNode != uris[pinned]
+        status(uris.indexOf(cluster.writeNode), 'new-7') == 200
+    }
+
+    private void connect(Map<String, Object> settings) {
+        cluster = new ClusterServer('people', servers, [cluster: settings])
+        database = new ManagedDatabase(cluster, 'people', null)
+        database.jsonConfig = new DefaultJsonConfigFactory().getJsonConfig([:])
+    }
+
+    private int status(int node, String id) {
+        Response response = servers[node].get("/people/${id}".toString())
+        try {
+            return response.code
+        } finally {
+            response.destroy()
+        }
+    }
+
+    private static boolean waitFor(Closure<Boolean> condition) {
+        long deadline = System.currentTimeMillis() + 10000L
+        while (!condition()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false
+            }
+            Thread.sleep(20L)
+        }
+        true
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb
+
+import griffon.plugins.jcouchdb.DatabaseCallback
+import griffon.plugins.jcouchdb.DatabaseHandler
+import org.codehaus.griffon.runtime.jcouchdb.testing.StubCouchDBServer
+import org.jcouchdb.exception.NotFoundException
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+class DefaultAttachmentStoreSpec extends Specification {
+    private StubCouchDBServer stub
+    private DefaultConnectionPool pool
+    private DefaultAttachmentStore store
+    private byte[] content = new byte[64 * 1024]
+    private Path file
+
+    void setup() {
+        stub = new StubCouchDBServer()
+        stub.start()
+        pool = new DefaultConnectionPool("${stub.host}:${stub.port}".toString(), [:])
+        PooledServer server = new PooledServer(pool, stub.host, stub.port)
+        server.createDatabase('archive')
+        ManagedDatabase database = new ManagedDatabase(server, 'archive', null)
+        database.jsonConfig = new DefaultJsonConfigFactory().getJsonConfig([:])
+        DatabaseHandler databaseHandler = Stub(DatabaseHandler) {
+            withJcouchdb('archive', _) >> { String databaseName, DatabaseCallback callback -> callback.handle(databaseName, database) }
+        }
+        store = new DefaultAttachmentStore('archive', databaseHandler)
+        new Random(42).nextBytes(content)
+        file = Files.createTempFile('attachment', '.bin')
+    }
+
+    void cleanup() {
+        Files.deleteIfExists(file)
+        pool.shutdown()
+        stub.stop()
+    }
+
+    void 'Resume the download of a revision'() {
+        given:
+        String revision = upload(null, content)
+        file.bytes = content[0..<1000] as byte[]
+
+        when:
+        long written = store.download('scan', revision, 'scan.bin', file)
+
+        then:
+        written == content.length - 1000
+        file.bytes == content
+    }
+
+    @Unroll
+    void 'Write a file of #size bytes again when the server sends the whole attachment'() {
+        given:
+        String revision = upload(null, content)
+        file.bytes = new byte[size]
+        stub.rangesIgnored = true
+
+        when:
+        long written = store.download('scan', revision, 'scan.bin', file)
+
+        then:
+        written == content.length
+        file.bytes == content
+
+        where:
+        size << [1000, 70 * 1024]
+    }
+
+    void 'Write the file again when it is longer than the attachment'() {
+        given:
+        String revision = upload(null, content)
+        file.bytes = new byte[70 * 1024]
+
+        when:
+        long written = store.download('scan', revision, 'scan.bin', file)
+
+        then:
+        written == content.length
+        file.bytes == content
+    }
+
+    void 'Refuse to resume from a revision that is no longer available'() {
+        given:
+        String revision = upload(null, content)
+        file.bytes = content[0..<1000] as byte[]
+        byte[] updated = content.toList().reverse() as byte[]
+        upload(revision, updated)
+
+        when:
+        store.download('scan', revision, 'scan.bin', file)
+
+        then:
+        thrown(NotFoundException)
+        file.bytes == content[0..<1000] as byte[]
+    }
+
+    void 'Replace the file when downloading without a revision'() {
+        given:
+        upload(null, content)
+        file.bytes = new byte[1000]
+
+        when:
+        long written = store.download('scan', 'scan.bin', file)
+
+        then:
+        written == content.length
+        file.bytes == content
+    }
+
+    private String upload(String revision, byte[] bytes) {
+        store.upload('scan', revision, 'scan.bin', 'application/octet-stream', new ByteArrayInputStream(bytes), bytes.length)
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb
+
+import griffon.core.Configuration
+import griffon.core.ExecutorServiceManager
+import griffon.core.event.EventRouter
+import griffon.plugins.jcouchdb.BulkWriter
+import griffon.plugins.jcouchdb.ChangesCheckpointStore
+import griffon.plugins.jcouchdb.DatabaseFactory
+import griffon.plugins.jcouchdb.ViewIterator
+import org.codehaus.griffon.runtime.jcouchdb.testing.StubCouchDBServer
+import org.jcouchdb.db.Database
+import org.jcouchdb.document.BaseDocument
+import org.jcouchdb.document.ValueRow
+import spock.lang.Specification
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeUnit
+
+class DefaultDatabaseHandlerSpec extends Specification {
+    private StubCouchDBServer stub
+    private DefaultConnectionPool pool
+    private PooledServer server
+    private DefaultDocumentLoaderManager documentLoaderManager = new DefaultDocumentLoaderManager()
+    private List<String> destroyed = new CopyOnWriteArrayList<>()
+    private DefaultDatabaseStorage storage
+    private DefaultDatabaseHandler handler
+    private int opened
+
+    void setup() {
+        stub = new StubCouchDBServer()
+        stub.start()
+        pool = new DefaultConnectionPool("${stub.host}:${stub.port}".toString(), [:])
+        server = new PooledServer(pool, stub.host, stub.port)
+        ['people', 'other', 'third'].each { server.createDatabase(it) }
+        (1..3).each { stub.putDocument('people', "doc-${it}".toString(), /{"n":${it}}/) }
+
+        DatabaseFactory databaseFactory = Stub(DatabaseFactory) {
+            create(_) >> { String name ->
+                ManagedDatabase database = new ManagedDatabase(server, name, null)
+                database.jsonConfig = new DefaultJsonConfigFactory().getJsonConfig([:])
+                documentLoaderManager.createDocumentLoader(name, database, [:])
+                database
+            }
+            destroy(_, _) >> { String name, Database database ->
+                destroyed << name
+                documentLoaderManager.removeDocumentLoader(name)
+            }
+            getConfigurationFor(_) >> [:]
+        }
+        Configuration configuration = Stub(Configuration) {
+            get('storage', _) >> [max_databases: 1]
+        }
+        storage = new DefaultDatabaseStorage(configuration, databaseFactory, Stub(ExecutorServiceManager))
+        handler = new DefaultDatabaseHandler(databaseFactory, storage, new DefaultDatabaseMetricsManager(), documentLoaderManager, Stub(ExecutorServiceManager))
+    }
+
+    void cleanup() {
+        pool.shutdown()
+        stub.stop()
+    }
+
+    void 'Keep the database of an open bulk writer until it is closed'() {
+        given:
+        BulkWriter writer = handler.createBulkWriter('people')
+
+        when:
+        openOther()
+
+        then:
+        storage.inUseCount == 1
+        !destroyed.contains('people')
+        writer.write([_id: 'doc-4', n: 4]).get().id == 'doc-4'
+
+        when:
+        writer.close()
+        writer.close()
+        openOther()
+
+        then:
+        storage.inUseCount == 0
+        destroyed.contains('people')
+    }
+
+    void 'Keep the database of a view iterator until it is read to the end'() {
+        given:
+        ViewIterator<ValueRow<Map>> iterator = handler.iterateView('people', '_all_docs', Map, null)
+
+        when:
+        openOther()
+
+        then:
+        storage.inUseCount == 1
+        !destroyed.contains('people')
+
+        when:
+        List<String> ids = iterator.collect { it.id }
+
+        then:
+        ids == ['doc-1', 'doc-2', 'doc-3']
+        storage.inUseCount == 0
+
+        when:
+        openOther()
+
+        then:
+        destroyed.contains('people')
+    }
+
+    void 'Keep the database of a document request until it completes'() {
+        given:
+        stub.latency = 300L
+
+        when:
+        def future = handler.getDocumentLoader('people').get('doc-2', BaseDocument)
+        openOther()
+
+        then:
+        storage.inUseCount == 1
+        !destroyed.contains('people')
+        future.get().getProperty('n') == 2
+        waitFor { storage.inUseCount == 0 }
+    }
+
+    void 'Create the document loader of an open database whose loader was removed'() {
+        given:
+        handler.withJcouchdb('people') { String databaseName, Database database -> null }
+        // as destroying a database evicted earlier would
+        documentLoaderManager.removeDocumentLoader('people')
+
+        when:
+        def future = handler.getDocumentLoader('people').get('doc-2', BaseDocument)
+
+        then:
+        future.get(10, TimeUnit.SECONDS).getProperty('n') == 2
+        documentLoaderManager.getDocumentLoader('people') != null
+        waitFor { storage.inUseCount == 0 }
+    }
+
+    void 'Keep the database of a changes follower while it reads the feed'() {
+        given:
+        DefaultChangesFollower follower = new DefaultChangesFollower('people', [:], handler, storage, Stub(EventRouter), Stub(ChangesCheckpointStore))
+
+        when:
+        follower.start()
+
+        then:
+        waitFor { storage.inUseCount == 1 }
+
+        when:
+        openOther()
+
+        then:
+        !destroyed.contains('people')
+
+        when:
+        follower.stop()
+        openOther()
+
+        then:
+        storage.inUseCount == 0
+        destroyed.contains('people')
+    }
+
+    private void openOther() {
+        // with a capacity of one, opening another database evicts any idle one
+        handler.withJcouchdb(opened++ % 2 ? 'third' : 'other') { String databaseName, Database database -> null }
+    }
+
+    private static boolean waitFor(Closure<Boolean> condition) {
+        long deadline = System.currentTimeMillis() + 10000L
+        while (!condition()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false
+            }
+            Thread.sleep(20L)
+        }
+        true
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb
+
+import griffon.core.Configuration
+import griffon.core.ExecutorServiceManager
+import griffon.plugins.jcouchdb.DatabaseFactory
+import org.jcouchdb.db.Database
+import spock.lang.Specification
+
+class DefaultDatabaseStorageSpec extends Specification {
+    private List<String> destroyed = []
+    private DatabaseFactory databaseFactory = Stub(DatabaseFactory) {
+        destroy(_, _) >> { String name, Database database -> destroyed << name }
+    }
+
+    void 'Evict the least recently used idle database over max_databases'() {
+        given:
+        DefaultDatabaseStorage storage = storage(max_databases: 2)
+
+        when:
+        storage.set('a', database('a'))
+        storage.set('b', database('b'))
+        storage.get('a')
+        storage.set('c', database('c'))
+
+        then:
+        destroyed == ['b']
+        storage.keys as Set == ['a', 'c'] as Set
+        storage.capacityEvictionCount == 1L
+        storage.idleEvictionCount == 0L
+    }
+
+    void 'Never evict a database in use to make room for another'() {
+        given:
+        DefaultDatabaseStorage storage = storage(max_databases: 1)
+        Database a = database('a')
+        storage.set('a', a)
+
+        when:
+        Database acquired = storage.acquire('a')
+        storage.set('b', database('b'))
+
+        then:
+        acquired.is(a)
+        destroyed.empty
+        storage.inUseCount == 1
+        storage.keys as Set == ['a', 'b'] as Set
+
+        when:
+        storage.release('a', a)
+        storage.set('c', database('c'))
+
+        then:
+        destroyed as Set == ['a', 'b'] as Set
+        storage.keys as List == ['c']
+        storage.inUseCount == 0
+    }
+
+    void 'Evict databases idle for longer than idle_timeout unless they are in use'() {
+        given:
+        DefaultDatabaseStorage storage = storage(idle_timeout: 50L, eviction_interval: 0L)
+        Database a = database('a')
+        storage.set('a', a)
+        storage.set('b', database('b'))
+        storage.acquire('a')
+
+        when:
+        Thread.sleep(100L)
+        storage.evictIdle()
+
+        then:
+        destroyed == ['b']
+        storage.idleEvictionCount == 1L
+        storage.get('a').is(a)
+
+        when:
+        storage.release('a', a)
+        Thread.sleep(100L)
+        storage.evictIdle()
+
+        then:
+        destroyed == ['b', 'a']
+        storage.get('a') == null
+        storage.acquire('a') == null
+    }
+
+    void 'Ignore the release of a database that has been replaced'() {
+        given:
+        DefaultDatabaseStorage storage = storage(max_databases: 1)
+        Database old = database('a')
+        storage.set('a', old)
+        storage.acquire('a')
+
+        when:
+        storage.set('a', database('a'))
+        storage.release('a', old)
+        storage.acquire('a')
+
+        then:
+        storage.inUseCount == 1
+    }
+
+    private DefaultDatabaseStorage storage(Map config) {
+        Configuration configuration = Stub(Configuration) {
+            get('storage', _) >> config
+        }
+        new DefaultDatabaseStorage(configuration, databaseFactory, Stub(ExecutorServiceManager))
+    }
+
+    private static Database database(String name) {
+        new Database('localhost', name)
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb
+
+import griffon.core.event.EventRouter
+import org.codehaus.griffon.runtime.jcouchdb.testing.StubCouchDBServer
+import org.jcouchdb.db.Response
+import org.jcouchdb.document.BaseDocument
+import org.jcouchdb.exception.NotFoundException
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.CopyOnWriteArrayList
+
+class DefaultLocalReplicaSpec extends Specification {
+    private static final Map CONFIG = [replica: [batch_size: 2, poll_timeout: 1000, retry_delay: 50, max_retry_delay: 100, initial_size: 4096]]
+
+    private StubCouchDBServer stub
+    private DefaultConnectionPool pool
+    private PooledServer server
+    private ManagedDatabase database
+    private Path file
+    private List<String> events = new CopyOnWriteArrayList<>()
+    private EventRouter eventRouter = Stub(EventRouter) {
+        publishEvent(_, _) >> { String name, List args -> events << name }
+    }
+    private DefaultLocalReplica replica
+
+    void setup() {
+        stub = new StubCouchDBServer()
+        stub.start()
+        pool = new DefaultConnectionPool("${stub.host}:${stub.port}".toString(), [:])
+        server = new PooledServer(pool, stub.host, stub.port)
+        server.createDatabase('people')
+        (1..5).each { stub.putDocument('people', "doc-${it}".toString(), /{"n":${it}}/) }
+        database = new ManagedDatabase(server, 'people', null)
+        database.jsonConfig = new DefaultJsonConfigFactory().getJsonConfig([:])
+        file = Files.createTempDirectory('replica').resolve('people.replica')
+        replica = open()
+    }
+
+    void cleanup() {
+        replica.close()
+        pool.shutdown()
+        stub.stop()
+    }
+
+    void 'Replicate the database and read documents from the replica'() {
+        expect:
+        waitFor { replica.complete }
+        replica.online
+        replica.documentCount == 5
+        database.getDocument(BaseDocument, 'doc-2').getProperty('n') == 2
+        database.findDocument(BaseDocument, 'missing', null) == null
+
+        when:
+        database.getDocument(BaseDocument, 'missing')
+
+        then:
+        thrown(NotFoundException)
+
+        when:
+        stub.putDocument('people', 'doc-6', '{"n":6}')
+
+        then:
+        waitFor { database.findDocument(BaseDocument, 'doc-6', null)?.getProperty('n') == 6 }
+    }
+
+    void 'Keep writes made offline and push them once the server is back'() {
+        given:
+        waitFor { replica.complete }
+        BaseDocument existing = database.getDocument(BaseDocument, 'doc-1')
+        String revision = existing.revision
+        BaseDocument created = new BaseDocument()
+        created.setProperty('n', 7)
+
+        when:
+        stub.offline = true
+        waitFor { !replica.online }
+        existing.setProperty('n', 100)
+        database.createOrUpdateDocument(existing)
+        database.createOrUpdateDocument(created)
+        database.delete('doc-2', database.getDocument(BaseDocument, 'doc-2').revision)
+
+        then:
+        created.id
+        existing.revision == revision
+        replica.pendingWriteCount == 3
+        database.getDocument(BaseDocument, 'doc-1').getProperty('n') == 100
+        database.findDocument(BaseDocument, 'doc-2', null) == null
+        events.contains(DefaultLocalReplica.EVENT_REPLICA_OFFLINE)
+
+        when:
+        stub.offline = false
+
+        then:
+        waitFor { replica.pendingWriteCount == 0 && replica.online }
+        serverDocument('doc-1').n == 100
+        serverDocument(created.id).n == 7
+        serverDocument('doc-2') == null
+        existing.revision == serverDocument('doc-1')._rev
+        created.revision == serverDocument(created.id)._rev
+        events.contains(DefaultLocalReplica.EVENT_REPLICA_ONLINE)
+    }
+
+    void 'Replay pending writes when the replica is opened again'() {
+        given:
+        waitFor { replica.complete }
+        stub.offline = true
+        waitFor { !replica.online }
+        BaseDocument document = new BaseDocument()
+        document.setProperty('n', 8)
+        database.createOrUpdateDocument(document)
+
+        when:
+        replica.close()
+        replica = open(false)
+
+        then:
+        replica.pendingWriteCount == 1
+        replica.complete
+        database.getDocument(BaseDocument, document.id).getProperty('n') == 8
+
+        when:
+        replica.start()
+        stub.offline = false
+
+        then:
+        waitFor { replica.pendingWriteCount == 0 }
+        serverDocument(document.id).n == 8
+    }
+
+    @Unroll
+    void 'Save a #kind document again and again without reading it back'() {
+        given:
+        waitFor { replica.complete }
+        BaseDocument document = id ? database.getDocument(BaseDocument, id) : new BaseDocument()
+
+        when: 'saves queued before the previous one was pushed still carry its base revision'
+        stub.offline = true
+        waitFor { !replica.online }
+        document.setProperty('n', 10)
+        database.createOrUpdateDocument(document)
+        stub.offline = false
+        waitFor { replica.pendingWriteCount == 0 }
+        (11..13).each {
+            document.setProperty('n', it)
+            database.createOrUpdateDocument(document)
+        }
+
+        then:
+        waitFor { replica.pendingWriteCount == 0 && serverDocument(document.id).n == 13 }
+        !events.contains(DefaultLocalReplica.EVENT_REPLICA_CONFLICT)
+        waitFor { document.revision == serverDocument(document.id)._rev }
+
+        and: 'rebases are dropped once the writes came back with the changes feed'
+        waitFor { replica.@rebases.isEmpty() }
+
+        where:
+        kind       | id
+        'new'      | null
+        'existing' | 'doc-3'
+    }
+
+    void 'Drop a local write that conflicts with a change made on the server'() {
+        given:
+        waitFor { replica.complete }
+        BaseDocument document = database.getDocument(BaseDocument, 'doc-4')
+        String revision = document.revision
+
+        when:
+        stub.putDocument('people', 'doc-4', '{"n":444}')
+        document.setProperty('n', 4000)
+        database.createOrUpdateDocument(document)
+
+        then:
+        waitFor { events.contains(DefaultLocalReplica.EVENT_REPLICA_CONFLICT) }
+        replica.pendingWriteCount == 0
+        document.revision == revision
+        serverDocument('doc-4').n == 444
+        waitFor { database.getDocument(BaseDocument, 'doc-4').getProperty('n') == 444 }
+    }
+
+    private DefaultLocalReplica open(boolean start = true) {
+        DefaultLocalReplica opened = new DefaultLocalReplica('people', database, file, CONFIG, eventRouter)
+        database.localReplica = opened
+        if (start) {
+            opened.start()
+        }
+        opened
+    }
+
+    private Map serverDocument(String id) {
+        Response response = server.get("/people/${id}".toString())
+        try {
+            response.code == 200 ? response.contentAsMap : null
+        } finally {
+            response.destroy()
+        }
+    }
+
+    private static boolean waitFor(Closure<Boolean> condition) {
+        long deadline = System.currentTimeMillis() + 10000L
+        while (!condition()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false
+            }
+            Thread.sleep(20L)
+        }
+        true
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb
+
+import griffon.plugins.jcouchdb.ProjectedDocument
+import griffon.plugins.jcouchdb.Projection
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class DefaultProjectedDocumentSpec extends Specification {
+    private static final String PERSON = '''{
+        "_id": "duke", "_rev": "1-a",
+        "name": "Duke", "nick": null, "age": 22, "born": 802915200000, "views": 12345678901234567890, "height": 1.5,
+        "active": true,
+        "address": {"city": "Santa Clara", "zip": "95054"},
+        "phones": [{"type": "home", "number": "555-1"}, {"type": "work"}]
+    }'''
+
+    private final SvensonJsonEngine jsonEngine = new SvensonJsonEngine(new DefaultJsonConfigFactory().getJsonConfig([:]))
+
+    @Unroll
+    void 'Refuse the unselected path #path'() {
+        given:
+        ProjectedDocument document = read(Projection.of('name', 'address.zip', 'phones.number'))
+
+        when:
+        document."${method}"(path)
+
+        then:
+        IllegalArgumentException e = thrown()
+        e.message.startsWith("Path '${path}' is not part of")
+
+        where:
+        path           | method
+        'age'          | 'get'
+        'address.city' | 'get'
+        'phones.type'  | 'has'
+        'missing'      | 'has'
+    }
+
+    void 'Tell present, null and absent fields apart'() {
+        given:
+        ProjectedDocument document = read(Projection.of('name', 'nick', 'address.zip', 'address.country', 'phones.number'))
+
+        expect:
+        document.get('_id') == 'duke'
+        document.has('_rev')
+        document.has('name')
+        document.has('nick')
+        document.get('nick') == null
+        document.has('address.zip')
+        !document.has('address.country')
+        document.get('address.country') == null
+        document.get('phones.number') == ['555-1', null]
+    }
+
+    @Unroll
+    void 'Decode #path as #type.simpleName'() {
+        given:
+        ProjectedDocument document = read(Projection.of('name', 'age', 'born', 'views', 'height', 'active'))
+
+        expect:
+        document.get(path, type) == value
+        document.get(path, type).getClass() == value.getClass()
+
+        where:
+        path     | type    | value
+        'name'   | String  | 'Duke'
+        'age'    | int     | 22
+        'age'    | Long    | 22L
+        'age'    | Object  | 22
+        'born'   | Object  | 802915200000L
+        'born'   | Date    | new Date(802915200000L)
+        'views'  | Object  | new BigInteger('12345678901234567890')
+        'height' | double  | 1.5d
+        'active' | boolean | true
+    }
+
+    void 'Decode paths below a field selected as a whole'() {
+        given:
+        ProjectedDocument document = read(Projection.of('address', 'address.city', 'phones'))
+
+        expect:
+        document.projection.paths == ['address', 'phones'] as Set
+        document.get('address.city') == 'Santa Clara'
+        document.get('phones.type') == ['home', 'work']
+        document.get('address', Map).is(document.get('address', Map))
+        document.get('address', Map) == [city: 'Santa Clara', zip: '95054']
+    }
+
+    void 'Refuse to decode a partially selected object as a scalar'() {
+        given:
+        ProjectedDocument document = read(Projection.of('address.zip'))
+
+        when:
+        document.get('address', String)
+
+        then:
+        IllegalArgumentException e = thrown()
+        e.message.endsWith('select the whole field instead')
+        document.get('address') == [zip: '95054']
+    }
+
+    private ProjectedDocument read(Projection projection) {
+        new ProjectionReader(new StringReader(PERSON), jsonEngine).readDocument(projection)
+    }
+}
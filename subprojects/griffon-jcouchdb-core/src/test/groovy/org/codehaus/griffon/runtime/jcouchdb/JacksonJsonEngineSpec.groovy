@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb
+
+import griffon.plugins.jcouchdb.JsonDocument
+import griffon.plugins.jcouchdb.JsonDocumentReader
+import griffon.plugins.jcouchdb.JsonDocumentWriter
+import griffon.plugins.jcouchdb.JsonEngine
+import org.jcouchdb.document.BaseDocument
+import org.svenson.JSONProperty
+import org.svenson.JSONTypeHint
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class JacksonJsonEngineSpec extends Specification {
+    private static final Date BORN = new Date(802915200123L)
+
+    private final JsonEngine svenson = new SvensonJsonEngine(new DefaultJsonConfigFactory().getJsonConfig([:]))
+    private final JsonEngine jackson = new JacksonJsonEngine(['metaClass'])
+
+    void 'Write a document as svenson does'() {
+        given:
+        Person person = person()
+
+        when:
+        String json = jackson.write(person)
+
+        then:
+        json == svenson.write(person)
+        !json.contains('metaClass')
+        !json.contains('secret')
+        !json.contains('nick')
+        json.contains('"full_name":"Duke"')
+        json.contains('"born":"1995\\/06\\/12 00:00:00 +0000"')
+        json.contains('"color":"purple"')
+    }
+
+    @Unroll
+    void 'Read a document written by #writer with #reader'() {
+        given:
+        String json = engines[writer].write(person())
+
+        when:
+        Person person = engines[reader].read(json, Person)
+
+        then:
+        // BaseDocument overrides getProperty(String), Groovy property reads would see dynamic properties only
+        person.getId() == 'duke'
+        person.getRevision() == '1-a'
+        person.getName() == 'Duke'
+        person.getBorn() == new Date(802915200000L)
+        person.getAddresses()*.getClass() == [Address, Address]
+        person.getAddresses()*.city == ['Santa Clara', 'Redwood Shores']
+        person.getSecret() == null
+        person.getNick() == null
+        person.getProperty('color') == 'purple'
+        svenson.write(person) == jackson.write(person)
+
+        where:
+        writer    | reader
+        'svenson' | 'jackson'
+        'jackson' | 'svenson'
+        'jackson' | 'jackson'
+    }
+
+    @Unroll
+    void 'Read the date #text as svenson does'() {
+        given:
+        String json = /{"born":"${text}"}/
+
+        expect:
+        jackson.read(json, Person).getBorn() == svenson.read(json, Person).getBorn()
+
+        where:
+        text << [
+            '2014\\/01\\/02 03:04:05 +0000',
+            '2014/01/02 03:04:05 -0530',
+            '2014/01/02 03:04:05.123 +0100',
+            'Thu, 02 Jan 2014 03:04:05 GMT'
+        ]
+    }
+
+    void 'Write and read codec documents as svenson does'() {
+        given:
+        Tagged document = new Tagged(id: 'duke', name: 'Duke', age: 22, created: BORN, tags: ['java'])
+
+        when:
+        String json = jackson.write(document)
+        Tagged read = jackson.read(json, Tagged)
+
+        then:
+        json == svenson.write(document)
+        !json.contains('_rev')
+        jackson.write(read) == svenson.write(svenson.read(json, Tagged))
+        read.created == new Date(802915200000L)
+        read.tags == ['java']
+    }
+
+    @Unroll
+    void 'Escape #text as svenson does'() {
+        given:
+        Person person = new Person(name: text)
+
+        expect:
+        jackson.write(person) == svenson.write(person)
+        jackson.read(jackson.write(person), Person).getName() == text
+
+        where:
+        text << ['a/b', 'quote " and \\', 'tab\t line\n bell\u0007 del\u007f', 'caf\u00e9 \u20ac \ud83d\ude00', "it's"]
+    }
+
+    void 'Write maps and lists of documents as svenson does'() {
+        given:
+        Map value = [people: [person(), null], count: 2, ratio: 1.5, ok: true]
+
+        expect:
+        jackson.write(value) == svenson.write(value)
+    }
+
+    private Map<String, JsonEngine> getEngines() {
+        [svenson: svenson, jackson: jackson]
+    }
+
+    private static Person person() {
+        Person person = new Person(name: 'Duke', born: BORN, secret: 's3cr3t',
+            addresses: [new Address(city: 'Santa Clara'), new Address(city: 'Redwood Shores')])
+        // BaseDocument is DynamicProperties, property assignment would add dynamic properties
+        person.setId('duke')
+        person.setRevision('1-a')
+        person.setProperty('color', 'purple')
+        person
+    }
+
+    static class Person extends BaseDocument {
+        private String name
+        private Date born
+        private List<Address> addresses
+        private String secret
+        private String nick
+
+        @JSONProperty('full_name')
+        String getName() { name }
+
+        void setName(String name) { this.name = name }
+
+        Date getBorn() { born }
+
+        void setBorn(Date born) { this.born = born }
+
+        List<Address> getAddresses() { addresses }
+
+        @JSONTypeHint(Address)
+        void setAddresses(List<Address> addresses) { this.addresses = addresses }
+
+        @JSONProperty(ignore = true)
+        String getSecret() { secret }
+
+        void setSecret(String secret) { this.secret = secret }
+
+        @JSONProperty(ignoreIfNull = true)
+        String getNick() { nick }
+
+        void setNick(String nick) { this.nick = nick }
+    }
+
+    static class Address {
+        String city
+    }
+    static class Tagged implements JsonDocument {
+        String id
+        String revision
+        String name
+        int age
+        Date created
+        List<String> tags = []
+
+        @Override
+        void writeJson(JsonDocumentWriter writer) {
+            writer.write('_id', id, true)
+            writer.write('_rev', revision, true)
+            writer.write('name', name, false)
+            writer.write('age', age, false)
+            writer.write('created', created, false)
+            writer.write('tags', tags, false)
+        }
+
+        @Override
+        void readJson(JsonDocumentReader reader) {
+            if (reader.has('_id')) id = reader.read('_id', String)
+            if (reader.has('_rev')) revision = reader.read('_rev', String)
+            if (reader.has('name')) name = reader.read('name', String)
+            if (reader.has('age')) age = reader.read('age', Integer) ?: 0
+            if (reader.has('created')) created = reader.read('created', Date)
+            if (reader.has('tags')) tags = reader.readCollection('tags', List, String)
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Unroll
+class JsonConverterUtilsSpec extends Specification {
+    void "Parse '#text'"() {
+        expect:
+        JsonConverterUtils.fromJSON(Date, text).time == time
+
+        where:
+        text                              | time
+        '2014/01/02 03:04:05 +0000'       | 1388631845000L
+        '2014/01/02 03:04:05 -0530'       | 1388651645000L
+        '2014/01/02 03:04:05.123 +0100'   | 1388628245123L
+        '2014/01/02 03:04:05+0200'        | 1388624645000L
+        '2014/01/02 03:04:05.5+0200'      | 1388624645005L
+        '2014/01/02 03:04:05.5 GMT'       | 1388631845005L
+        '2014/01/02 03:04:05 utc'         | 1388631845000L
+        '2014/01/02 03:04:05 GMT+01:00'   | 1388628245000L
+        '2014/1/2 3:04:05 +0000'          | 1388631845000L
+        '2014/13/32 25:61:61 +0000'       | 1422842521000L
+        '1969/12/31 23:59:59 +0000'       | -1000L
+        'Thu, 02 Jan 2014 03:04:05 +0000' | 1388631845000L
+        'Thu, 02 Jan 2014 03:04:05+0100'  | 1388628245000L
+        'thu, 02 jan 2014 03:04:05 GMT'   | 1388631845000L
+    }
+
+    void "Format #time as '#text'"() {
+        expect:
+        JsonConverterUtils.toJSON(date) == text
+
+        where:
+        date                                  | text
+        new Date(1388631845123L)              | '2014/01/02 03:04:05 +0000'
+        new java.sql.Timestamp(1388631845000) | '2014/01/02 03:04:05 +0000'
+        new Date(-1000L)                      | '1969/12/31 23:59:59 +0000'
+        new Date(253402300799000L)            | '9999/12/31 23:59:59 +0000'
+        new Date(253402300800000L)            | '10000/01/01 00:00:00 +0000'
+
+        time = date.time
+    }
+
+    void "Round trip #time"() {
+        expect:
+        JsonConverterUtils.fromJSON(Date, JsonConverterUtils.toJSON(new Date(time))).time == time
+
+        where:
+        time << [0L, 1388631845000L, -1000L, 951782400000L, 4102444800000L]
+    }
+
+    void "Reject '#text'"() {
+        when:
+        JsonConverterUtils.fromJSON(Date, text)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        where:
+        text << ['', 'not a date', '2014/01/02', '2014/01/02 03:04:05 +00']
+    }
+
+    void "Values that are not strings are passed through"() {
+        given:
+        Date date = new Date()
+
+        expect:
+        JsonConverterUtils.fromJSON(Date, date).is(date)
+        JsonConverterUtils.fromJSON(Date, null) == null
+        JsonConverterUtils.toJSON('text') == 'text'
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class JsonScannerSpec extends Specification {
+    @Unroll
+    void 'Read the string #json'() {
+        given:
+        JsonScanner scanner = scanner(json.substring(1))
+
+        when:
+        scanner.readString()
+
+        then:
+        scanner.text.toString() == text
+        scanner.nextToken() == ','
+
+        where:
+        json                                   | text
+        '"plain",'                             | 'plain'
+        '"",'                                  | ''
+        '"q\\"b\\\\s\\/",'                     | 'q"b\\s/'
+        '"\\b\\f\\n\\r\\t",'                   | '\b\f\n\r\t'
+        '"caf\\u00e9 \\u20AC \\u20ac",'        | 'caf\u00e9 \u20ac \u20ac'
+        '"\\ud83d\\ude00",'                    | '\ud83d\ude00'
+    }
+
+    @Unroll
+    void 'Reject the string #json'() {
+        given:
+        JsonScanner scanner = scanner(json.substring(1))
+
+        when:
+        scanner.readString()
+
+        then:
+        IOException e = thrown()
+        e.message == message
+
+        where:
+        json          | message
+        '"open'       | 'Unexpected end of JSON text'
+        '"escape\\'   | 'Unexpected end of JSON text'
+        '"\\u00G9"'   | 'Malformed JSON text, invalid unicode escape'
+        '"\\u00"'     | 'Malformed JSON text, invalid unicode escape'
+    }
+
+    @Unroll
+    void 'Copy and skip the value #json'() {
+        given:
+        StringBuilder copy = new StringBuilder()
+        JsonScanner copying = scanner(json + ',next')
+        JsonScanner skipping = scanner(json + ',next')
+
+        when:
+        copying.copyValue(copying.nextToken(), copy)
+        skipping.skipValue(skipping.nextToken())
+
+        then:
+        copy.toString() == json
+        copying.nextToken() == ','
+        skipping.nextToken() == ','
+
+        where:
+        json << [
+            '"a,b"',
+            '"}\\"]"',
+            '-12.5e3',
+            'null',
+            '{"a":["}",{"b":"\\"]"}],"c":{}}',
+            '[[1,[2]],"[",{}]'
+        ]
+    }
+
+    @Unroll
+    void 'Reject the truncated value #json'() {
+        given:
+        JsonScanner scanner = scanner(json)
+
+        when:
+        scanner."${method}"(scanner.nextToken(), *args)
+
+        then:
+        IOException e = thrown()
+        e.message == 'Unexpected end of JSON text'
+
+        where:
+        json             | method      | args
+        '{"a":[1,2'      | 'copyValue' | [new StringBuilder()]
+        '{"a":"}'        | 'copyValue' | [new StringBuilder()]
+        '["\\'           | 'copyValue' | [new StringBuilder()]
+        '{"a":[1,2'      | 'skipValue' | []
+        '{"a":"}'        | 'skipValue' | []
+        '["\\'           | 'skipValue' | []
+    }
+
+    void 'Reject broken unicode escapes in copied values'() {
+        given:
+        JsonScanner scanner = scanner('["\\u00e9", "\\u00G9"]')
+
+        when:
+        scanner.copyValue(scanner.nextToken(), new StringBuilder())
+
+        then:
+        IOException e = thrown()
+        e.message == 'Malformed JSON text, invalid unicode escape'
+    }
+
+    void 'Read scalars up to the next delimiter'() {
+        given:
+        JsonScanner scanner = scanner('-12.5e3 ,true}')
+
+        when:
+        scanner.readScalar(scanner.nextToken())
+        String number = scanner.text.toString()
+        int comma = scanner.nextToken()
+        scanner.readScalar(scanner.nextToken())
+
+        then:
+        number == '-12.5e3'
+        comma == ','
+        scanner.text.toString() == 'true'
+        scanner.nextToken() == '}'
+        scanner.nextToken() == JsonScanner.EOF
+    }
+
+    void 'Read values across buffer boundaries'() {
+        given:
+        String name = 'x' * 10000 + '\\u00e9'
+        JsonScanner scanner = scanner('  \n\t"' + name + '"')
+
+        when:
+        scanner.expect(scanner.nextToken(), '"' as char)
+        scanner.readString()
+
+        then:
+        scanner.text.toString() == 'x' * 10000 + '\u00e9'
+        scanner.nextToken() == JsonScanner.EOF
+    }
+
+    @Unroll
+    void 'Report the unexpected token #actual'() {
+        when:
+        JsonScanner.expect(actual, '{' as char)
+
+        then:
+        IOException e = thrown()
+        e.message == message
+
+        where:
+        actual               | message
+        ('[' as char) as int | "Malformed JSON text, expected '{' but found '['"
+        JsonScanner.EOF      | "Malformed JSON text, expected '{' but found end of stream"
+    }
+
+    private static JsonScanner scanner(String json) {
+        new JsonScanner(new StringReader(json)) {}
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb
+
+import griffon.exceptions.GriffonException
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+
+class MappedDocumentStoreSpec extends Specification {
+    private Path file
+    private MappedDocumentStore store
+
+    void setup() {
+        file = Files.createTempDirectory('replica').resolve('people.replica')
+        store = new MappedDocumentStore(file, 4096L)
+    }
+
+    void cleanup() {
+        store.close()
+    }
+
+    void 'Pending writes take precedence over replicated documents'() {
+        when:
+        store.apply([new MappedDocumentStore.Change('a', '{"_id":"a","_rev":"1-x","n":1}')], '1', true)
+        store.enqueue('a', '{"_id":"a","_rev":"1-x","n":2}', false)
+        store.enqueue('b', '{"_id":"b","_rev":"1-y","_deleted":true}', true)
+
+        then:
+        store.read('a') == '{"_id":"a","_rev":"1-x","n":2}'
+        store.read('b') == null
+        store.pendingCount == 2
+        store.isPending('a')
+        store.getPendingWrites(10)*.id == ['a', 'b']
+        store.getPendingWrites(10)*.delete == [false, true]
+        store.checkpoint == '1'
+        store.complete
+    }
+
+    void 'Replay documents, deletions and pending writes when the file is reopened'() {
+        given:
+        store.apply([new MappedDocumentStore.Change('a', '{"_id":"a","n":1}'), new MappedDocumentStore.Change('b', '{"_id":"b","n":2}')], '2', false)
+        store.apply([new MappedDocumentStore.Change('b', null)], '3', false)
+        store.enqueue('c', '{"_id":"c"}', false)
+        store.enqueue('d', '{"_id":"d"}', false)
+        store.acknowledge(store.getPendingWrites(1)[0], true, '{"_id":"c","_rev":"1-c"}')
+        store.close()
+
+        when:
+        store = new MappedDocumentStore(file, 4096L)
+
+        then:
+        store.read('a') == '{"_id":"a","n":1}'
+        store.read('b') == null
+        store.read('c') == '{"_id":"c","_rev":"1-c"}'
+        store.read('d') == '{"_id":"d"}'
+        store.documentCount == 2
+        store.getPendingWrites(10)*.id == ['d']
+        store.checkpoint == '3'
+        !store.complete
+    }
+
+    void 'Number pending writes after the ones found when the file is reopened'() {
+        given:
+        store.enqueue('a', '{"_id":"a"}', false)
+        long sequence = store.enqueue('b', '{"_id":"b"}', false)
+        store.close()
+
+        when:
+        store = new MappedDocumentStore(file, 4096L)
+
+        then:
+        store.enqueue('c', '{"_id":"c"}', false) > sequence
+    }
+
+    void 'Ignore a write acknowledged after it has been replaced'() {
+        given:
+        store.enqueue('a', '{"_id":"a","n":1}', false)
+        MappedDocumentStore.PendingWrite write = store.getPendingWrites(1)[0]
+        store.enqueue('a', '{"_id":"a","n":2}', false)
+
+        expect:
+        !store.acknowledge(write, true, '{"_id":"a","_rev":"1-a","n":1}')
+        store.read('a') == '{"_id":"a","n":2}'
+        store.pendingCount == 1
+    }
+
+    void 'Acknowledge a write read before the file was compacted'() {
+        given: 'records ahead of the write that compaction drops'
+        store.apply([new MappedDocumentStore.Change('x', '{"_id":"x","n":1}')], '1', false)
+        store.apply([new MappedDocumentStore.Change('x', '{"_id":"x","n":2}')], '2', false)
+        store.enqueue('a', '{"_id":"a","n":1}', false)
+        MappedDocumentStore.PendingWrite write = store.getPendingWrites(1)[0]
+        String large = '{"_id":"b","data":"' + ('x' * 256 * 1024) + '"}'
+        long size = store.size
+
+        when: 'superseded records trigger a compaction'
+        while (store.size >= size) {
+            size = store.size
+            store.enqueue('b', large, false)
+        }
+
+        then:
+        store.acknowledge(write, true, '{"_id":"a","_rev":"1-a","n":1}')
+        store.read('a') == '{"_id":"a","_rev":"1-a","n":1}'
+        store.getPendingWrites(10)*.id == ['b']
+
+        when:
+        store.close()
+        store = new MappedDocumentStore(file, 4096L)
+
+        then:
+        store.read('a') == '{"_id":"a","_rev":"1-a","n":1}'
+        store.read('b') == large
+        store.read('x') == '{"_id":"x","n":2}'
+        store.getPendingWrites(10)*.id == ['b']
+    }
+
+    void 'Ignore a record torn by a crash'() {
+        given:
+        store.enqueue('a', '{"_id":"a"}', false)
+        long end = store.size
+        store.close()
+        FileChannel.open(file, StandardOpenOption.WRITE).withCloseable { FileChannel channel ->
+            // a record written past the end recorded in the header
+            channel.write(ByteBuffer.wrap([0, 0, 0, 64, 4] as byte[]), end)
+        }
+
+        when:
+        store = new MappedDocumentStore(file, 4096L)
+        store.enqueue('b', '{"_id":"b"}', false)
+        store.close()
+        store = new MappedDocumentStore(file, 4096L)
+
+        then:
+        store.getPendingWrites(10)*.id == ['a', 'b']
+    }
+
+    void 'Refuse a file that is not a local replica'() {
+        given:
+        store.close()
+        Path other = file.resolveSibling('other.replica')
+        Files.write(other, 'not a replica at all'.bytes)
+
+        when:
+        store = new MappedDocumentStore(other, 4096L)
+
+        then:
+        thrown(GriffonException)
+    }
+
+    void 'Refuse a file that is open already'() {
+        when:
+        new MappedDocumentStore(file, 4096L)
+
+        then:
+        thrown(GriffonException)
+    }
+}
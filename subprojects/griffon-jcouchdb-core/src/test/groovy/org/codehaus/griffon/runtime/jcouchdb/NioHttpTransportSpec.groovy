@@ -0,0 +1,284 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb
+
+import org.codehaus.griffon.runtime.jcouchdb.testing.StubCouchDBServer
+import org.jcouchdb.db.Response
+import org.jcouchdb.document.BaseDocument
+import org.jcouchdb.exception.CouchDBException
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class NioHttpTransportSpec extends Specification {
+    private StubCouchDBServer stub
+    private DefaultConnectionPool pool
+    private NioHttpTransport transport
+    private PooledServer server
+    private ManagedDatabase database
+
+    void setup() {
+        stub = new StubCouchDBServer()
+        stub.start()
+        pool = new DefaultConnectionPool("${stub.host}:${stub.port}".toString(), [:])
+        transport = new NioHttpTransport(stub.host, stub.port, [max_connections: 4, socket_timeout: 10000])
+        server = new PooledServer(pool, stub.host, stub.port)
+        server.httpTransport = transport
+        server.createDatabase('people')
+        database = new ManagedDatabase(server, 'people', null)
+        database.jsonConfig = new DefaultJsonConfigFactory().getJsonConfig([:])
+    }
+
+    void cleanup() {
+        transport.shutdown()
+        pool.shutdown()
+        stub.stop()
+    }
+
+    void 'Serve #count concurrent writes and five times as many reads over 4 connections'() {
+        given:
+        long leases = pool.leaseCount
+        List<BaseDocument> documents = (0..<count).collect { int i ->
+            BaseDocument document = new BaseDocument()
+            if (i % 2 == 0) {
+                document.id = "doc-${i}".toString()
+            }
+            document.setProperty('index', i)
+            document
+        }
+
+        when:
+        List<CompletableFuture<Void>> writes = documents.collect { database.createOrUpdateDocumentAsync(it) }
+        CompletableFuture.allOf(writes as CompletableFuture[]).get(60, TimeUnit.SECONDS)
+        List<CompletableFuture<BaseDocument>> reads = (1..5).collectMany { documents.collect { database.getDocumentAsync(BaseDocument, it.id) } }
+        List<BaseDocument> results = reads.collect { it.get(60, TimeUnit.SECONDS) }
+
+        then:
+        documents.every { it.id && it.revision }
+        results.size() == count * 5
+        results.withIndex().every { BaseDocument document, int i -> document.getProperty('index') == i % count }
+        transport.openConnections <= 4
+        transport.pendingRequests == 0
+        pool.leaseCount == leases
+
+        where:
+        count = 2000
+    }
+
+    void 'Cancelling a request aborts it and frees its connection'() {
+        given:
+        // a transport without idle connections, its first connection is opened for the long poll
+        NioHttpTransport longpoll = new NioHttpTransport(stub.host, stub.port, [:])
+
+        when:
+        CompletableFuture<Response> future = longpoll.execute('GET', '/people/_changes?feed=longpoll&since=now&timeout=30000', [:], null, false)
+        waitFor { longpoll.openConnections == 1 }
+        future.cancel(true)
+
+        then:
+        waitFor { longpoll.pendingRequests == 0 && longpoll.openConnections == 0 }
+        longpoll.execute('GET', '/people/missing', [:], null, false).get(10, TimeUnit.SECONDS).code == 404
+
+        cleanup:
+        longpoll.shutdown()
+    }
+
+    void 'Closing a streamed response early aborts its request'() {
+        when:
+        Response feed = server.get('/people/_changes?feed=continuous&since=0&heartbeat=50')
+        int first = feed.inputStream.read()
+        feed.destroy()
+
+        then:
+        first == (int) ('\n' as char)
+        waitFor { transport.pendingRequests == 0 && transport.openConnections == 0 }
+    }
+
+    void 'Fail requests receiving no data for longer than socket_timeout'() {
+        given:
+        NioHttpTransport impatient = new NioHttpTransport(stub.host, stub.port, [socket_timeout: 200])
+
+        when:
+        impatient.execute('GET', '/people/_changes?feed=longpoll&since=now&timeout=30000', [:], null, false).get(10, TimeUnit.SECONDS)
+
+        then:
+        ExecutionException e = thrown()
+        e.cause instanceof SocketTimeoutException
+
+        cleanup:
+        impatient.shutdown()
+    }
+
+    void 'Send streamed uploads through the connection pool'() {
+        given:
+        byte[] content = new byte[64 * 1024]
+        new Random(7).nextBytes(content)
+        long leases = pool.leaseCount
+
+        when:
+        Response response = server.put('/people/upload/data.bin', new ByteArrayInputStream(content), 'application/octet-stream', content.length)
+
+        then:
+        response.code == 201
+        pool.leaseCount == leases + 1
+
+        when:
+        response.destroy()
+        Response download = server.get('/people/upload/data.bin')
+
+        then:
+        download.content == content
+        pool.leaseCount == leases + 1
+    }
+
+    void 'Retry #method on a new connection when an idle connection was closed by the server'() {
+        given:
+        OneShotServer oneShot = new OneShotServer()
+        NioHttpTransport reusing = new NioHttpTransport('127.0.0.1', oneShot.port, [:])
+
+        when:
+        Response first = reusing.execute('GET', '/', [:], null, false).get(10, TimeUnit.SECONDS)
+        Response second = reusing.execute(method, '/', [:], body, false).get(10, TimeUnit.SECONDS)
+
+        then:
+        first.contentAsString == 'ok'
+        second.code == 200
+        oneShot.requests.get() == 3
+
+        cleanup:
+        reusing.shutdown()
+        oneShot.close()
+
+        where:
+        method | body
+        'GET'  | null
+        'HEAD' | null
+    }
+
+    void 'Never send a #method again once it has been written'() {
+        given:
+        OneShotServer oneShot = new OneShotServer()
+        NioHttpTransport reusing = new NioHttpTransport('127.0.0.1', oneShot.port, [:])
+
+        when:
+        reusing.execute('GET', '/', [:], null, false).get(10, TimeUnit.SECONDS)
+        reusing.execute(method, '/', ['Content-Type': 'application/json'], '{}'.bytes, false).get(10, TimeUnit.SECONDS)
+
+        then:
+        ExecutionException e = thrown()
+        e.cause instanceof IOException
+        oneShot.requests.get() == 2
+
+        cleanup:
+        reusing.shutdown()
+        oneShot.close()
+
+        where:
+        method << ['POST', 'PUT', 'DELETE']
+    }
+
+    void 'Fail requests once the transport has been shut down'() {
+        when:
+        transport.shutdown()
+        waitFor { transport.openConnections == 0 }
+        server.get('/people')
+
+        then:
+        thrown(CouchDBException)
+    }
+
+    private static boolean waitFor(Closure<Boolean> condition) {
+        long deadline = System.currentTimeMillis() + 10000L
+        while (!condition()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false
+            }
+            Thread.sleep(20L)
+        }
+        true
+    }
+
+    /**
+     * Answers the first request of every connection, then reads one more request and drops the connection
+     * without answering it, like a server closing an idle keep-alive connection.
+     */
+    private static class OneShotServer implements Closeable {
+        final ServerSocket socket = new ServerSocket(0, 50, InetAddress.loopbackAddress)
+        final AtomicInteger requests = new AtomicInteger()
+
+        OneShotServer() {
+            Thread.startDaemon {
+                while (!socket.closed) {
+                    Socket connection
+                    try {
+                        connection = socket.accept()
+                    } catch (IOException ignored) {
+                        return
+                    }
+                    Thread.startDaemon {
+                        connection.withCloseable {
+                            InputStream input = new BufferedInputStream(connection.inputStream)
+                            if (readRequest(input)) {
+                                connection.outputStream.write('HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok'.getBytes('ISO-8859-1'))
+                                connection.outputStream.flush()
+                                readRequest(input)
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        int getPort() {
+            socket.localPort
+        }
+
+        private boolean readRequest(InputStream input) {
+            int length = 0
+            StringBuilder line = new StringBuilder()
+            boolean started = false
+            for (int c = input.read(); c != -1; c = input.read()) {
+                if (c == 10) {
+                    String text = line.toString().trim()
+                    line = new StringBuilder()
+                    if (text.isEmpty()) {
+                        if (started) {
+                            input.skip(length)
+                            requests.incrementAndGet()
+                            return true
+                        }
+                    } else {
+                        started = true
+                        if (text.toLowerCase().startsWith('content-length:')) {
+                            length = text.substring(15).trim() as int
+                        }
+                    }
+                } else {
+                    line.append((char) c)
+                }
+            }
+            false
+        }
+
+        @Override
+        void close() {
+            socket.close()
+        }
+    }
+}
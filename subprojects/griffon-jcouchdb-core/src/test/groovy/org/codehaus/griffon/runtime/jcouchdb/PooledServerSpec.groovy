@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb
+
+import org.codehaus.griffon.runtime.jcouchdb.testing.StubCouchDBServer
+import org.jcouchdb.db.Response
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class PooledServerSpec extends Specification {
+    private StubCouchDBServer stub
+    private DefaultConnectionPool pool
+    private PooledServer server
+    private DefaultDatabaseMetrics metrics = new DefaultDatabaseMetrics('people')
+
+    void setup() {
+        stub = new StubCouchDBServer()
+        stub.start()
+        pool = new DefaultConnectionPool("${stub.host}:${stub.port}".toString(), [:])
+        server = new PooledServer(pool, stub.host, stub.port)
+        server.createDatabase('people')
+        server.databaseMetrics = metrics
+    }
+
+    void cleanup() {
+        pool.shutdown()
+        stub.stop()
+    }
+
+    @Unroll
+    void 'Send a body of #length bytes #description'() {
+        given:
+        server.setCompression(true, 1024L)
+        String body = /{"text":"${'x' * (length - 11)}"}/
+
+        when:
+        Map result = content(server.put('/people/doc-1', body))
+
+        then:
+        body.length() == length
+        result.ok
+        metrics.uncompressedBytesSent == length
+        compressed ? metrics.bytesSent < length : metrics.bytesSent == length
+        content(server.get('/people/doc-1')).text.size() == length - 11
+
+        where:
+        length | compressed
+        200    | false
+        1024   | true
+        20000  | true
+
+        description = compressed ? 'gzipped' : 'as is'
+    }
+
+    void 'Send bodies as they are while compression is disabled'() {
+        given:
+        String body = /{"text":"${'x' * 20000}"}/
+
+        when:
+        content(server.put('/people/doc-1', body))
+
+        then:
+        metrics.bytesSent == body.length()
+        metrics.uncompressedBytesSent == body.length()
+    }
+
+    void 'Count a streamed body of unknown length as it is sent'() {
+        given:
+        server.setCompression(true, 1024L)
+        byte[] bytes = new byte[50000]
+        new Random(42).nextBytes(bytes)
+
+        when:
+        Map result = content(server.put('/people/doc-1/scan.bin', new ByteArrayInputStream(bytes), 'application/octet-stream', -1L))
+
+        then:
+        result.ok
+        // streamed bodies are never compressed
+        metrics.bytesSent == bytes.length
+        metrics.uncompressedBytesSent == bytes.length
+    }
+
+    @Unroll
+    void 'Read a response #description'() {
+        given:
+        server.setCompression(compression, 1024L)
+        stub.putDocument('people', 'doc-1', /{"text":"${'x' * 20000}"}/)
+
+        when:
+        Response response = server.get('/people/doc-1')
+        Map document = content(response)
+
+        then:
+        document.text.size() == 20000
+        metrics.uncompressedBytesReceived > 20000
+        compression ? metrics.bytesReceived < metrics.uncompressedBytesReceived / 10 : metrics.bytesReceived == metrics.uncompressedBytesReceived
+
+        where:
+        compression << [true, false]
+        description = compression ? 'gzipped by the server' : 'as the server sent it'
+    }
+
+    void 'Read a small response as it is'() {
+        given:
+        server.setCompression(true, 1024L)
+
+        when:
+        Map document = content(server.get('/people'))
+
+        then:
+        document.db_name == 'people'
+        metrics.bytesReceived > 0
+        metrics.bytesReceived == metrics.uncompressedBytesReceived
+    }
+
+    private static Map content(Response response) {
+        try {
+            return response.contentAsMap
+        } finally {
+            response.destroy()
+        }
+    }
+}
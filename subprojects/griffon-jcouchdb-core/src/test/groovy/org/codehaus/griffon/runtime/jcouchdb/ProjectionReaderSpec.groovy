@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb
+
+import griffon.plugins.jcouchdb.JsonViewReader
+import griffon.plugins.jcouchdb.ProjectedDocument
+import griffon.plugins.jcouchdb.Projection
+import org.jcouchdb.document.ValueAndDocumentRow
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class ProjectionReaderSpec extends Specification {
+    private static final String PERSON = '''{
+        "_id": "duke", "_rev": "1-a",
+        "name": "Duke \\"the\\" Mascot \\u2615",
+        "age": 22,
+        "address": {"city": "Santa Clara", "zip": "95054", "geo": {"lat": 37.3, "lng": -121.9}},
+        "phones": [{"type": "home", "number": "555-1"}, {"type": "work", "number": "555-2"}, null],
+        "tags": ["java", "{not an object}"],
+        "notes": "skipped \\u005B\\"]}"
+    }'''
+
+    private final SvensonJsonEngine jsonEngine = new SvensonJsonEngine(new DefaultJsonConfigFactory().getJsonConfig([:]))
+
+    void 'Keep only the selected fields of a document'() {
+        when:
+        ProjectedDocument document = read(PERSON, Projection.of('name', 'address.zip', 'address.geo', 'phones.number', 'tags'))
+
+        then:
+        document.id == 'duke'
+        document.revision == '1-a'
+        document.get('name') == 'Duke "the" Mascot \u2615'
+        document.get('address.zip') == '95054'
+        document.get('address.geo') == [lat: 37.3, lng: -121.9]
+        document.get('address.geo.lat') == 37.3
+        document.get('phones.number') == ['555-1', '555-2', null]
+        document.get('tags') == ['java', '{not an object}']
+        document.toMap() == [
+            _id    : 'duke',
+            _rev   : '1-a',
+            name   : 'Duke "the" Mascot \u2615',
+            address: [zip: '95054', geo: [lat: 37.3, lng: -121.9]],
+            phones : [[number: '555-1'], [number: '555-2'], null],
+            tags   : ['java', '{not an object}']
+        ]
+    }
+
+    void 'Read a null document as null'() {
+        expect:
+        read(' null ', Projection.of('name')) == null
+    }
+
+    void 'Read documents of view rows, missing ones as null'() {
+        given:
+        String json = '''{"total_rows":4,"offset":1,"rows":[
+            {"id":"duke","key":"duke","value":{"rev":"1-a"},"doc":''' + PERSON + '''},
+            {"key":"gone","error":"not_found"},
+            {"id":"deleted","key":"deleted","value":{"rev":"2-b","deleted":true},"doc":null}
+        ]}'''
+        ProjectionReader reader = new ProjectionReader(new StringReader(json), jsonEngine)
+        JsonViewReader view = reader.readView(Map, Projection.of('name'))
+
+        when:
+        List<ValueAndDocumentRow<Map, ProjectedDocument>> rows = []
+        for (def row = view.nextRow(); row != null; row = view.nextRow()) {
+            rows << row
+        }
+
+        then:
+        view.totalRows == 4
+        view.offset == 1
+        rows*.id == ['duke', null, 'deleted']
+        rows*.key == ['duke', 'gone', 'deleted']
+        rows*.value == [[rev: '1-a'], null, [rev: '2-b', deleted: true]]
+        rows[0].document.get('name') == 'Duke "the" Mascot \u2615'
+        rows[0].document.toMap().keySet() == ['_id', '_rev', 'name'] as Set
+        rows[1].document == null
+        rows[2].document == null
+    }
+
+    @Unroll
+    void 'Reject malformed or truncated document #json'() {
+        when:
+        read(json, Projection.of('name', 'address.zip', 'phones.number'))
+
+        then:
+        thrown(IOException)
+
+        where:
+        json << [
+            '{"name" "Duke"}',
+            '{name: "Duke"}',
+            '{"name": "Du',
+            '{"name": ',
+            '{"age": 22',
+            '{"address": {"zip": "95054"',
+            '{"address": {"city": "Santa',
+            '{"phones": [{"number": "555-1"}',
+            '{"name": "\\u26G5"}',
+            '{"notes": "\\',
+            ''
+        ]
+    }
+
+    void 'Reject a truncated view'() {
+        given:
+        ProjectionReader reader = new ProjectionReader(new StringReader('{"total_rows":2,"rows":[{"id":"duke","doc":{"name":"Du'), jsonEngine)
+        JsonViewReader view = reader.readView(Map, Projection.of('name'))
+
+        when:
+        view.nextRow()
+
+        then:
+        thrown(IOException)
+    }
+
+    private ProjectedDocument read(String json, Projection projection) {
+        new ProjectionReader(new StringReader(json), jsonEngine).readDocument(projection)
+    }
+}
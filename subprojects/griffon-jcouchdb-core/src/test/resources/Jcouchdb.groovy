@@ -41,5 +41,66 @@ databases {
     }
     people {
         datastore = '@application.name@-people'
+        views {
+            page_size = 10
+        }
+        document_cache {
+            enabled = true
+        }
+        view_cache {
+            enabled = true
+        }
+        design_documents {
+            path = 'jcouchdb/people'
+        }
     }
+}
+
+connection_pool {
+    max_total         = 25
+    max_per_route     = 10
+    keep_alive        = 30000
+    idle_timeout      = 60000
+    eviction_interval = 30000
+    connect_timeout   = 0
+    socket_timeout    = 0
+    request_timeout   = 0
+}
+
+warmup {
+    pool_size = 4
+    timeout   = 30000
+    wait      = false
+}
+
+changes {
+    checkpoint_directory = 'build/jcouchdb/changes'
+}
+
+async {
+    pool_size       = 10
+    virtual_threads = true
+}
+
+view_warming {
+    pool_size     = 2
+    poll_interval = 1000
+}
+
+storage {
+    max_databases     = 16
+    idle_timeout      = 600000
+    eviction_interval = 30000
+}
+
+replica {
+    directory = 'build/jcouchdb/replicas'
+}
+
+nio_transport {
+    max_connections    = 20
+    connect_timeout    = 0
+    socket_timeout     = 0
+    keep_alive         = 30000
+    max_buffered_bytes = 1048576
 }
\ No newline at end of file
@@ -0,0 +1,5 @@
+function(doc) {
+    if (doc.name) {
+        emit(doc.name, null);
+    }
+}
@@ -33,12 +33,36 @@ import static org.codehaus.griffon.compile.core.MethodDescriptor.types;
 public interface JcouchdbAwareConstants extends BaseConstants {
     String DATABASE_TYPE = "java.sql.Database";
     String DATABASE_HANDLER_TYPE = "griffon.plugins.jcouchdb.DatabaseHandler";
+    String ASYNC_DATABASE_HANDLER_TYPE = "griffon.plugins.jcouchdb.AsyncDatabaseHandler";
     String DATABASE_CALLBACK_TYPE = "griffon.plugins.jcouchdb.DatabaseCallback";
+    String BULK_WRITER_TYPE = "griffon.plugins.jcouchdb.BulkWriter";
+    String DOCUMENT_LOADER_TYPE = "griffon.plugins.jcouchdb.DocumentLoader";
+    String ATTACHMENT_STORE_TYPE = "griffon.plugins.jcouchdb.AttachmentStore";
+    String VIEW_ITERATOR_TYPE = "griffon.plugins.jcouchdb.ViewIterator";
+    String VALUE_ROW_TYPE = "org.jcouchdb.document.ValueRow";
+    String VALUE_AND_DOCUMENT_ROW_TYPE = "org.jcouchdb.document.ValueAndDocumentRow";
+    String OPTIONS_TYPE = "org.jcouchdb.db.Options";
+    String PROJECTION_TYPE = "griffon.plugins.jcouchdb.Projection";
+    String PROJECTED_DOCUMENT_TYPE = "griffon.plugins.jcouchdb.ProjectedDocument";
+    String JAVA_LANG_CLASS = "java.lang.Class";
+    String COMPLETABLE_FUTURE_TYPE = "java.util.concurrent.CompletableFuture";
+    String EXECUTOR_TYPE = "java.util.concurrent.Executor";
+    String V = "V";
+    String D = "D";
     String DATABASE_HANDLER_PROPERTY = "databaseHandler";
     String DATABASE_HANDLER_FIELD_NAME = "this$" + DATABASE_HANDLER_PROPERTY;
+    String ASYNC_DATABASE_HANDLER_PROPERTY = "asyncDatabaseHandler";
+    String ASYNC_DATABASE_HANDLER_FIELD_NAME = "this$" + ASYNC_DATABASE_HANDLER_PROPERTY;
 
     String METHOD_WITH_DATABASE = "withJcouchdb";
     String METHOD_CLOSE_DATABASE = "closeJcouchdb";
+    String METHOD_CREATE_BULK_WRITER = "createBulkWriter";
+    String METHOD_GET_DOCUMENT_LOADER = "getDocumentLoader";
+    String METHOD_GET_ATTACHMENT_STORE = "getAttachmentStore";
+    String METHOD_ITERATE_VIEW = "iterateView";
+    String METHOD_ITERATE_VIEW_AND_DOCUMENTS = "iterateViewAndDocuments";
+    String METHOD_WITH_DATABASE_ASYNC = "withJcouchdbAsync";
+    String METHOD_GET_UI_EXECUTOR = "getUIExecutor";
     String DATABASE_NAME = "databaseName";
     String CALLBACK = "callback";
 
@@ -68,6 +92,136 @@ public interface JcouchdbAwareConstants extends BaseConstants {
             args(
                 annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
                 annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), DATABASE_CALLBACK_TYPE, R))
+        ),
+
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(BULK_WRITER_TYPE),
+            METHOD_CREATE_BULK_WRITER
+        ),
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(BULK_WRITER_TYPE),
+            METHOD_CREATE_BULK_WRITER,
+            args(annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING))
+        ),
+
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(DOCUMENT_LOADER_TYPE),
+            METHOD_GET_DOCUMENT_LOADER
+        ),
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(DOCUMENT_LOADER_TYPE),
+            METHOD_GET_DOCUMENT_LOADER,
+            args(annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING))
+        ),
+
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(ATTACHMENT_STORE_TYPE),
+            METHOD_GET_ATTACHMENT_STORE
+        ),
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(ATTACHMENT_STORE_TYPE),
+            METHOD_GET_ATTACHMENT_STORE,
+            args(annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING))
+        ),
+
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(VIEW_ITERATOR_TYPE, type(VALUE_ROW_TYPE, V)),
+            typeParams(V),
+            METHOD_ITERATE_VIEW,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_CLASS, V),
+                annotatedType(annotations(JAVAX_ANNOTATION_NULLABLE), OPTIONS_TYPE))
+        ),
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(VIEW_ITERATOR_TYPE, type(VALUE_ROW_TYPE, V)),
+            typeParams(V),
+            METHOD_ITERATE_VIEW,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_CLASS, V),
+                annotatedType(annotations(JAVAX_ANNOTATION_NULLABLE), OPTIONS_TYPE))
+        ),
+
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(VIEW_ITERATOR_TYPE, type(VALUE_AND_DOCUMENT_ROW_TYPE, V, D)),
+            typeParams(V, D),
+            METHOD_ITERATE_VIEW_AND_DOCUMENTS,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_CLASS, V),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_CLASS, D),
+                annotatedType(annotations(JAVAX_ANNOTATION_NULLABLE), OPTIONS_TYPE))
+        ),
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(VIEW_ITERATOR_TYPE, type(VALUE_AND_DOCUMENT_ROW_TYPE, V, D)),
+            typeParams(V, D),
+            METHOD_ITERATE_VIEW_AND_DOCUMENTS,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_CLASS, V),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_CLASS, D),
+                annotatedType(annotations(JAVAX_ANNOTATION_NULLABLE), OPTIONS_TYPE))
+        ),
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(VIEW_ITERATOR_TYPE, type(VALUE_AND_DOCUMENT_ROW_TYPE, V, PROJECTED_DOCUMENT_TYPE)),
+            typeParams(V),
+            METHOD_ITERATE_VIEW_AND_DOCUMENTS,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_CLASS, V),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), PROJECTION_TYPE),
+                annotatedType(annotations(JAVAX_ANNOTATION_NULLABLE), OPTIONS_TYPE))
+        ),
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(VIEW_ITERATOR_TYPE, type(VALUE_AND_DOCUMENT_ROW_TYPE, V, PROJECTED_DOCUMENT_TYPE)),
+            typeParams(V),
+            METHOD_ITERATE_VIEW_AND_DOCUMENTS,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_CLASS, V),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), PROJECTION_TYPE),
+                annotatedType(annotations(JAVAX_ANNOTATION_NULLABLE), OPTIONS_TYPE))
+        )
+    };
+
+    MethodDescriptor[] ASYNC_METHODS = new MethodDescriptor[]{
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(COMPLETABLE_FUTURE_TYPE, R),
+            typeParams(R),
+            METHOD_WITH_DATABASE_ASYNC,
+            args(annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), DATABASE_CALLBACK_TYPE, R))
+        ),
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(COMPLETABLE_FUTURE_TYPE, R),
+            typeParams(R),
+            METHOD_WITH_DATABASE_ASYNC,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), DATABASE_CALLBACK_TYPE, R))
+        ),
+
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(EXECUTOR_TYPE),
+            METHOD_GET_UI_EXECUTOR
         )
     };
 }
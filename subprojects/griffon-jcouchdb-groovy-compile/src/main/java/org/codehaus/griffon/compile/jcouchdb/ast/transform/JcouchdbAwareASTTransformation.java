@@ -15,6 +15,7 @@
  */
 package org.codehaus.griffon.compile.jcouchdb.ast.transform;
 
+import griffon.plugins.jcouchdb.AsyncDatabaseHandler;
 import griffon.plugins.jcouchdb.DatabaseHandler;
 import griffon.transform.JcouchdbAware;
 import org.codehaus.griffon.compile.core.AnnotationHandler;
@@ -46,6 +47,7 @@ import static org.codehaus.griffon.compile.core.ast.GriffonASTUtils.injectInterf
 public class JcouchdbAwareASTTransformation extends AbstractASTTransformation implements JcouchdbAwareConstants, AnnotationHandler {
     private static final Logger LOG = LoggerFactory.getLogger(JcouchdbAwareASTTransformation.class);
     private static final ClassNode DATA_SOURCE_HANDLER_CNODE = makeClassSafe(DatabaseHandler.class);
+    private static final ClassNode ASYNC_DATABASE_HANDLER_CNODE = makeClassSafe(AsyncDatabaseHandler.class);
     private static final ClassNode DATA_SOURCE_AWARE_CNODE = makeClassSafe(JcouchdbAware.class);
 
     /**
@@ -79,6 +81,10 @@ public class JcouchdbAwareASTTransformation extends AbstractASTTransformation im
             LOG.debug("Injecting {} into {}", DATABASE_TYPE, classNode.getName());
             apply(classNode);
         }
+        if (needsDelegate(classNode, source, ASYNC_METHODS, JcouchdbAware.class.getSimpleName(), ASYNC_DATABASE_HANDLER_TYPE)) {
+            LOG.debug("Injecting {} into {}", ASYNC_DATABASE_HANDLER_TYPE, classNode.getName());
+            applyAsync(classNode);
+        }
     }
 
     /**
@@ -91,4 +97,15 @@ public class JcouchdbAwareASTTransformation extends AbstractASTTransformation im
         Expression jcouchdbHandler = injectedField(declaringClass, DATA_SOURCE_HANDLER_CNODE, DATABASE_HANDLER_FIELD_NAME);
         addDelegateMethods(declaringClass, DATA_SOURCE_HANDLER_CNODE, jcouchdbHandler);
     }
+
+    /**
+     * Adds the necessary field and methods to support asynchronous jcouchdb handling.
+     *
+     * @param declaringClass the class to which we add the support field and methods
+     */
+    public static void applyAsync(@Nonnull ClassNode declaringClass) {
+        injectInterface(declaringClass, ASYNC_DATABASE_HANDLER_CNODE);
+        Expression asyncDatabaseHandler = injectedField(declaringClass, ASYNC_DATABASE_HANDLER_CNODE, ASYNC_DATABASE_HANDLER_FIELD_NAME);
+        addDelegateMethods(declaringClass, ASYNC_DATABASE_HANDLER_CNODE, asyncDatabaseHandler);
+    }
 }
\ No newline at end of file
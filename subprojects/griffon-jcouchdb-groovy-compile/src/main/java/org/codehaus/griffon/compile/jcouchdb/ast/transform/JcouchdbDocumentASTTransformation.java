@@ -0,0 +1,283 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.compile.jcouchdb.ast.transform;
+
+import griffon.plugins.jcouchdb.JsonDocument;
+import griffon.plugins.jcouchdb.JsonDocumentReader;
+import griffon.plugins.jcouchdb.JsonDocumentWriter;
+import griffon.transform.JcouchdbDocument;
+import org.codehaus.griffon.compile.core.AnnotationHandler;
+import org.codehaus.griffon.compile.core.AnnotationHandlerFor;
+import org.codehaus.griffon.compile.core.ast.transform.AbstractASTTransformation;
+import org.codehaus.groovy.ast.ASTNode;
+import org.codehaus.groovy.ast.AnnotatedNode;
+import org.codehaus.groovy.ast.AnnotationNode;
+import org.codehaus.groovy.ast.ClassHelper;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.FieldNode;
+import org.codehaus.groovy.ast.GenericsType;
+import org.codehaus.groovy.ast.MethodNode;
+import org.codehaus.groovy.ast.Parameter;
+import org.codehaus.groovy.ast.VariableScope;
+import org.codehaus.groovy.ast.expr.ConstantExpression;
+import org.codehaus.groovy.ast.expr.Expression;
+import org.codehaus.groovy.ast.expr.VariableExpression;
+import org.codehaus.groovy.ast.stmt.BlockStatement;
+import org.codehaus.groovy.ast.stmt.Statement;
+import org.codehaus.groovy.control.CompilePhase;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.transform.GroovyASTTransformation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.svenson.JSONProperty;
+
+import javax.annotation.Nonnull;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static griffon.util.GriffonNameUtils.capitalize;
+import static org.codehaus.griffon.compile.core.ast.GriffonASTUtils.injectInterface;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.args;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.assignS;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.callSuperX;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.callX;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.classX;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.constX;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.declS;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.fieldX;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.ifS;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.notNullX;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.param;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.params;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.stmt;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.varX;
+
+/**
+ * Handles generation of code for the {@code @JcouchdbDocument} annotation.
+ * <p>
+ * Every instance field that is neither static nor transient is mapped to a JSON property of the same name, except
+ * {@code id} and {@code revision} which are mapped to {@code _id} and {@code _rev} and left out when {@code null}.
+ * A {@code @JSONProperty} on an explicit getter of the field overrides its name and whether it is ignored. Fields inherited from a
+ * superclass are handled by the superclass if it is a {@code JsonDocument} too.
+ *
+ * @author Andres Almiray
+ */
+@AnnotationHandlerFor(JcouchdbDocument.class)
+@GroovyASTTransformation(phase = CompilePhase.CANONICALIZATION)
+public class JcouchdbDocumentASTTransformation extends AbstractASTTransformation implements AnnotationHandler {
+    private static final Logger LOG = LoggerFactory.getLogger(JcouchdbDocumentASTTransformation.class);
+    private static final ClassNode JSON_DOCUMENT_CNODE = makeClassSafe(JsonDocument.class);
+    private static final ClassNode JSON_DOCUMENT_READER_CNODE = makeClassSafe(JsonDocumentReader.class);
+    private static final ClassNode JSON_DOCUMENT_WRITER_CNODE = makeClassSafe(JsonDocumentWriter.class);
+    private static final ClassNode JCOUCHDB_DOCUMENT_CNODE = makeClassSafe(JcouchdbDocument.class);
+    private static final ClassNode JSON_PROPERTY_CNODE = makeClassSafe(JSONProperty.class);
+    private static final ClassNode COLLECTION_CNODE = makeClassSafe(Collection.class);
+
+    private static final String METHOD_WRITE_JSON = "writeJson";
+    private static final String METHOD_READ_JSON = "readJson";
+    private static final String METHOD_WRITE = "write";
+    private static final String METHOD_HAS = "has";
+    private static final String METHOD_READ = "read";
+    private static final String METHOD_READ_COLLECTION = "readCollection";
+    private static final String PARAM_WRITER = "writer";
+    private static final String PARAM_READER = "reader";
+    private static final String FIELD_ID = "id";
+    private static final String FIELD_REVISION = "revision";
+    private static final String PROPERTY_ID = "_id";
+    private static final String PROPERTY_REVISION = "_rev";
+
+    /**
+     * Convenience method to see if an annotated node is {@code @JcouchdbDocument}.
+     *
+     * @param node the node to check
+     * @return true if the node is a jcouchdb document
+     */
+    public static boolean hasJcouchdbDocumentAnnotation(AnnotatedNode node) {
+        for (AnnotationNode annotation : node.getAnnotations()) {
+            if (JCOUCHDB_DOCUMENT_CNODE.equals(annotation.getClassNode())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Handles the bulk of the processing, mostly delegating to other methods.
+     *
+     * @param nodes  the ast nodes
+     * @param source the source unit for the nodes
+     */
+    public void visit(ASTNode[] nodes, SourceUnit source) {
+        checkNodesForAnnotationAndType(nodes[0], nodes[1]);
+        ClassNode classNode = (ClassNode) nodes[1];
+        LOG.debug("Generating JSON codec for {}", classNode.getName());
+        apply(classNode);
+    }
+
+    /**
+     * Adds {@code JsonDocument} and its methods, unless the class declares them already.
+     *
+     * @param declaringClass the class to which we add the codec methods
+     */
+    public static void apply(@Nonnull ClassNode declaringClass) {
+        injectInterface(declaringClass, JSON_DOCUMENT_CNODE);
+        List<JsonField> fields = collectFields(declaringClass);
+        boolean inherited = isJsonDocument(declaringClass.getSuperClass());
+
+        Parameter[] writeParams = params(param(JSON_DOCUMENT_WRITER_CNODE, PARAM_WRITER));
+        if (declaringClass.getDeclaredMethod(METHOD_WRITE_JSON, writeParams) == null) {
+            addWriteJson(declaringClass, writeParams[0], fields, inherited);
+        }
+        Parameter[] readParams = params(param(JSON_DOCUMENT_READER_CNODE, PARAM_READER));
+        if (declaringClass.getDeclaredMethod(METHOD_READ_JSON, readParams) == null) {
+            addReadJson(declaringClass, readParams[0], fields, inherited);
+        }
+    }
+
+    private static void addWriteJson(@Nonnull ClassNode declaringClass, @Nonnull Parameter writer, @Nonnull List<JsonField> fields, boolean inherited) {
+        BlockStatement body = new BlockStatement(new ArrayList<Statement>(), new VariableScope());
+        if (inherited) {
+            body.addStatement(stmt(callSuperX(METHOD_WRITE_JSON, args(varX(writer)))));
+        }
+        for (JsonField field : fields) {
+            // writer.write('name', this.field, ignoreIfNull)
+            body.addStatement(stmt(callX(varX(writer), METHOD_WRITE,
+                args(constX(field.name), fieldX(field.node), constX(field.ignoreIfNull, true)))));
+        }
+        declaringClass.addMethod(new MethodNode(METHOD_WRITE_JSON, Modifier.PUBLIC, ClassHelper.VOID_TYPE,
+            params(writer), ClassNode.EMPTY_ARRAY, body));
+    }
+
+    private static void addReadJson(@Nonnull ClassNode declaringClass, @Nonnull Parameter reader, @Nonnull List<JsonField> fields, boolean inherited) {
+        BlockStatement body = new BlockStatement(new ArrayList<Statement>(), new VariableScope());
+        if (inherited) {
+            body.addStatement(stmt(callSuperX(METHOD_READ_JSON, args(varX(reader)))));
+        }
+        for (JsonField field : fields) {
+            if (Modifier.isFinal(field.node.getModifiers())) {
+                continue;
+            }
+            ClassNode type = field.node.getType();
+            Expression read = readExpression(reader, field.name, type);
+            Statement assignment;
+            if (ClassHelper.isPrimitiveType(type)) {
+                // primitives keep their value when the property is null
+                VariableExpression value = varX("$" + field.node.getName(), ClassHelper.getWrapper(type));
+                BlockStatement block = new BlockStatement();
+                block.addStatement(declS(value, read));
+                block.addStatement(ifS(notNullX(varX(value)), assignS(fieldX(field.node), varX(value))));
+                assignment = block;
+            } else {
+                assignment = assignS(fieldX(field.node), read);
+            }
+            // if (reader.has('name')) { this.field = reader.read('name', Type) }
+            body.addStatement(ifS(callX(varX(reader), METHOD_HAS, args(constX(field.name))), assignment));
+        }
+        declaringClass.addMethod(new MethodNode(METHOD_READ_JSON, Modifier.PUBLIC, ClassHelper.VOID_TYPE,
+            params(reader), ClassNode.EMPTY_ARRAY, body));
+    }
+
+    @Nonnull
+    private static Expression readExpression(@Nonnull Parameter reader, @Nonnull String name, @Nonnull ClassNode type) {
+        if (ClassHelper.isPrimitiveType(type)) {
+            type = ClassHelper.getWrapper(type);
+        }
+        GenericsType[] generics = type.getGenericsTypes();
+        if (type.equals(COLLECTION_CNODE) || type.implementsInterface(COLLECTION_CNODE)) {
+            if (generics != null && generics.length == 1 && !generics[0].isPlaceholder() && !generics[0].isWildcard()) {
+                return callX(varX(reader), METHOD_READ_COLLECTION,
+                    args(constX(name), classX(type.getPlainNodeReference()), classX(generics[0].getType().getPlainNodeReference())));
+            }
+        }
+        return callX(varX(reader), METHOD_READ, args(constX(name), classX(type.getPlainNodeReference())));
+    }
+
+    @Nonnull
+    private static List<JsonField> collectFields(@Nonnull ClassNode declaringClass) {
+        List<JsonField> fields = new ArrayList<>();
+        for (FieldNode field : declaringClass.getFields()) {
+            int modifiers = field.getModifiers();
+            // fields backing properties are flagged synthetic, compiler generated ones start with '$'
+            if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) ||
+                field.getName().startsWith("$") || "metaClass".equals(field.getName())) {
+                continue;
+            }
+
+            String name = field.getName();
+            boolean ignoreIfNull = false;
+            if (FIELD_ID.equals(name)) {
+                name = PROPERTY_ID;
+                ignoreIfNull = true;
+            } else if (FIELD_REVISION.equals(name)) {
+                name = PROPERTY_REVISION;
+                ignoreIfNull = true;
+            }
+
+            AnnotationNode jsonProperty = findJsonProperty(declaringClass, field);
+            if (jsonProperty != null) {
+                if (isTrue(jsonProperty.getMember("ignore"))) {
+                    continue;
+                }
+                Expression value = jsonProperty.getMember("value");
+                if (value instanceof ConstantExpression && !String.valueOf(((ConstantExpression) value).getValue()).isEmpty()) {
+                    name = String.valueOf(((ConstantExpression) value).getValue());
+                }
+                if (jsonProperty.getMember("ignoreIfNull") != null) {
+                    ignoreIfNull = isTrue(jsonProperty.getMember("ignoreIfNull"));
+                }
+            }
+            fields.add(new JsonField(field, name, ignoreIfNull));
+        }
+        return fields;
+    }
+
+    private static AnnotationNode findJsonProperty(@Nonnull ClassNode declaringClass, @Nonnull FieldNode field) {
+        String suffix = capitalize(field.getName());
+        for (String prefix : new String[]{"get", "is"}) {
+            MethodNode getter = declaringClass.getDeclaredMethod(prefix + suffix, Parameter.EMPTY_ARRAY);
+            if (getter != null) {
+                List<AnnotationNode> annotations = getter.getAnnotations(JSON_PROPERTY_CNODE);
+                if (!annotations.isEmpty()) {
+                    return annotations.get(0);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isJsonDocument(ClassNode classNode) {
+        return classNode != null && !ClassHelper.OBJECT_TYPE.equals(classNode) &&
+            (hasJcouchdbDocumentAnnotation(classNode) || classNode.implementsInterface(JSON_DOCUMENT_CNODE));
+    }
+
+    private static boolean isTrue(Expression expression) {
+        return expression instanceof ConstantExpression && Boolean.TRUE.equals(((ConstantExpression) expression).getValue());
+    }
+
+    private static final class JsonField {
+        private final FieldNode node;
+        private final String name;
+        private final boolean ignoreIfNull;
+
+        private JsonField(@Nonnull FieldNode node, @Nonnull String name, boolean ignoreIfNull) {
+            this.node = node;
+            this.name = name;
+            this.ignoreIfNull = ignoreIfNull;
+        }
+    }
+}
@@ -15,6 +15,7 @@
  */
 package org.codehaus.griffon.compile.jcouchdb.ast.transform
 
+import griffon.plugins.jcouchdb.AsyncDatabaseHandler
 import griffon.plugins.jcouchdb.DatabaseHandler
 import spock.lang.Specification
 
@@ -45,6 +46,15 @@ class JcouchdbAwareASTTransformationSpec extends Specification {
                     candidate.exceptionTypes == target.exceptionTypes
             }
         }
+        bean instanceof AsyncDatabaseHandler
+        AsyncDatabaseHandler.methods.every { Method target ->
+            bean.class.declaredMethods.find { Method candidate ->
+                candidate.name == target.name &&
+                    candidate.returnType == target.returnType &&
+                    candidate.parameterTypes == target.parameterTypes &&
+                    candidate.exceptionTypes == target.exceptionTypes
+            }
+        }
     }
 
     def 'DatabaseAwareASTTransformation is not applied to a DatabaseHandler subclass via @DatabaseAware'() {
@@ -53,12 +63,22 @@ class JcouchdbAwareASTTransformationSpec extends Specification {
 
         when:
         def bean = shell.evaluate('''
+        import griffon.plugins.jcouchdb.AttachmentStore
+        import griffon.plugins.jcouchdb.BulkWriter
         import griffon.plugins.jcouchdb.DatabaseCallback
         import griffon.plugins.jcouchdb.DatabaseCallback
         import griffon.plugins.jcouchdb.DatabaseHandler
+        import griffon.plugins.jcouchdb.DocumentLoader
+        import griffon.plugins.jcouchdb.ProjectedDocument
+        import griffon.plugins.jcouchdb.Projection
+        import griffon.plugins.jcouchdb.ViewIterator
         import griffon.transform.JcouchdbAware
+        import org.jcouchdb.db.Options
+        import org.jcouchdb.document.ValueAndDocumentRow
+        import org.jcouchdb.document.ValueRow
 
         import javax.annotation.Nonnull
+        import javax.annotation.Nullable
         @JcouchdbAware
         class DatabaseHandlerBean implements DatabaseHandler {
             @Override
@@ -73,6 +93,30 @@ class JcouchdbAwareASTTransformationSpec extends Specification {
             void closeJcouchdb(){}
             @Override
             void closeJcouchdb(@Nonnull String databaseName){}
+            @Override
+            BulkWriter createBulkWriter() { null }
+            @Override
+            BulkWriter createBulkWriter(@Nonnull String databaseName) { null }
+            @Override
+            DocumentLoader getDocumentLoader() { null }
+            @Override
+            DocumentLoader getDocumentLoader(@Nonnull String databaseName) { null }
+            @Override
+            AttachmentStore getAttachmentStore() { null }
+            @Override
+            AttachmentStore getAttachmentStore(@Nonnull String databaseName) { null }
+            @Override
+            public <V> ViewIterator<ValueRow<V>> iterateView(@Nonnull String viewName, @Nonnull Class<V> valueClass, @Nullable Options options) { null }
+            @Override
+            public <V> ViewIterator<ValueRow<V>> iterateView(@Nonnull String databaseName, @Nonnull String viewName, @Nonnull Class<V> valueClass, @Nullable Options options) { null }
+            @Override
+            public <V, D> ViewIterator<ValueAndDocumentRow<V, D>> iterateViewAndDocuments(@Nonnull String viewName, @Nonnull Class<V> valueClass, @Nonnull Class<D> documentClass, @Nullable Options options) { null }
+            @Override
+            public <V, D> ViewIterator<ValueAndDocumentRow<V, D>> iterateViewAndDocuments(@Nonnull String databaseName, @Nonnull String viewName, @Nonnull Class<V> valueClass, @Nonnull Class<D> documentClass, @Nullable Options options) { null }
+            @Override
+            public <V> ViewIterator<ValueAndDocumentRow<V, ProjectedDocument>> iterateViewAndDocuments(@Nonnull String viewName, @Nonnull Class<V> valueClass, @Nonnull Projection projection, @Nullable Options options) { null }
+            @Override
+            public <V> ViewIterator<ValueAndDocumentRow<V, ProjectedDocument>> iterateViewAndDocuments(@Nonnull String databaseName, @Nonnull String viewName, @Nonnull Class<V> valueClass, @Nonnull Projection projection, @Nullable Options options) { null }
         }
         new DatabaseHandlerBean()
         ''')
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.compile.jcouchdb.ast.transform
+
+import griffon.plugins.jcouchdb.JsonDocument
+import griffon.plugins.jcouchdb.JsonDocumentReader
+import griffon.plugins.jcouchdb.JsonDocumentWriter
+import org.codehaus.griffon.runtime.jcouchdb.DefaultBulkWriter
+import org.codehaus.griffon.runtime.jcouchdb.DefaultConnectionPool
+import org.codehaus.griffon.runtime.jcouchdb.DefaultJsonConfigFactory
+import org.codehaus.griffon.runtime.jcouchdb.JsonDocumentCodec
+import org.codehaus.griffon.runtime.jcouchdb.ManagedDatabase
+import org.codehaus.griffon.runtime.jcouchdb.PooledServer
+import org.codehaus.griffon.runtime.jcouchdb.testing.StubCouchDBServer
+import org.jcouchdb.document.DocumentInfo
+import org.svenson.JSONConfig
+import spock.lang.Specification
+
+/**
+ * @author Andres Almiray
+ */
+class JcouchdbDocumentASTTransformationSpec extends Specification {
+    def 'JcouchdbDocumentASTTransformation is applied to a bean via @JcouchdbDocument'() {
+        given:
+        GroovyShell shell = new GroovyShell()
+
+        when:
+        def bean = shell.evaluate('''import griffon.transform.JcouchdbDocument
+        @JcouchdbDocument
+        class Bean { String name }
+        new Bean()
+        ''')
+
+        then:
+        bean instanceof JsonDocument
+        bean.class.getDeclaredMethod('writeJson', JsonDocumentWriter)
+        bean.class.getDeclaredMethod('readJson', JsonDocumentReader)
+    }
+
+    def 'Generated codec writes and reads the properties of a document'() {
+        given:
+        GroovyShell shell = new GroovyShell()
+        JSONConfig jsonConfig = new DefaultJsonConfigFactory().getJsonConfig([:])
+
+        when:
+        Class documentClass = shell.evaluate('''import griffon.transform.JcouchdbDocument
+        @JcouchdbDocument
+        class Address { String city }
+
+        @JcouchdbDocument
+        class Person {
+            String id
+            String revision
+            String name
+            int age = 42
+            Date born
+            List<Address> addresses
+            transient String scratch = 'scratch'
+        }
+        Person
+        ''')
+        def person = documentClass.newInstance(id: 'duke', name: 'Duke', age: 22, born: new Date(0L),
+            addresses: [documentClass.classLoader.loadClass('Address').newInstance(city: 'Santa Clara')])
+        String json = jsonConfig.jsonGenerator.forValue(person)
+        def decoded = JsonDocumentCodec.parse(jsonConfig.jsonParser, documentClass, json)
+        def partial = JsonDocumentCodec.parse(jsonConfig.jsonParser, documentClass, '{"name":"Duchess","age":null}')
+
+        then:
+        json == '{"_id":"duke","name":"Duke","age":22,"born":"1970\\/01\\/01 00:00:00 +0000","addresses":[{"city":"Santa Clara"}]}'
+        decoded.id == 'duke'
+        decoded.revision == null
+        decoded.age == 22
+        decoded.born == new Date(0L)
+        decoded.addresses*.city == ['Santa Clara']
+        decoded.addresses[0] instanceof JsonDocument
+        partial.name == 'Duchess'
+        partial.age == 42
+    }
+
+    def 'BulkWriter sets the id and revision of generated documents'() {
+        given:
+        StubCouchDBServer stub = new StubCouchDBServer()
+        stub.start()
+        DefaultConnectionPool pool = new DefaultConnectionPool("${stub.host}:${stub.port}".toString(), [:])
+        PooledServer server = new PooledServer(pool, stub.host, stub.port)
+        server.createDatabase('people')
+        ManagedDatabase database = new ManagedDatabase(server, 'people', null)
+        database.jsonConfig = new DefaultJsonConfigFactory().getJsonConfig([:])
+        DefaultBulkWriter writer = new DefaultBulkWriter('people', database, [:])
+
+        when:
+        Class documentClass = new GroovyShell().evaluate('''import griffon.transform.JcouchdbDocument
+        @JcouchdbDocument
+        class Person {
+            String id
+            String revision
+            String name
+        }
+        Person
+        ''')
+        def person = documentClass.newInstance(id: 'duke', name: 'Duke')
+        DocumentInfo created = writer.write(person).get()
+        person.name = 'Duchess'
+        DocumentInfo updated = writer.write(person).get()
+        def stored = database.getDocument(documentClass, 'duke')
+
+        then:
+        created.id == 'duke'
+        updated.error == null
+        person.revision == updated.revision
+        stored.revision == updated.revision
+        stored.name == 'Duchess'
+
+        cleanup:
+        writer?.close()
+        pool?.shutdown()
+        stub?.stop()
+    }
+}
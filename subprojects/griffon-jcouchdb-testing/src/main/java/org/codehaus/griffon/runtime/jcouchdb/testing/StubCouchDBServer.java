@@ -0,0 +1,722 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jcouchdb.testing;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.svenson.JSON;
+import org.svenson.JSONParser;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Minimal in-process CouchDB look-alike. Databases and documents are kept in memory; only the calls issued by
+ * the plugin specs and the benchmarks are supported.
+ *
+ * @author Andres Almiray
+ */
+public class StubCouchDBServer {
+    private static final String CONTENT_TYPE = "application/json";
+    private static final String BULK_DOCS = "_bulk_docs";
+    private static final String ALL_DOCS = "_all_docs";
+    private static final String CHANGES = "_changes";
+    private static final String ACTIVE_TASKS = "_active_tasks";
+    private static final String VIEW_INFIX = "/_view/";
+    private static final String DESIGN_PREFIX = "_design/";
+    private static final String GZIP = "gzip";
+    private static final int MIN_GZIP_SIZE = 256;
+    private static final byte[] WELCOME = utf8("{\"couchdb\":\"Welcome\",\"version\":\"1.6.1\"}");
+    private static final byte[] NOT_FOUND = utf8("{\"error\":\"not_found\",\"reason\":\"missing\"}");
+    private static final byte[] FILE_EXISTS = utf8("{\"error\":\"file_exists\",\"reason\":\"The database could not be created, the file already exists.\"}");
+    private static final byte[] OK = utf8("{\"ok\":true}");
+    private static final byte[] UNAVAILABLE = utf8("{\"error\":\"unavailable\",\"reason\":\"Server is offline\"}");
+    private static final String NODELAY = "sun.net.httpserver.nodelay";
+
+    static {
+        // headers and body are written separately; with Nagle's algorithm on, each response waits for a delayed ACK
+        if (System.getProperty(NODELAY) == null) {
+            System.setProperty(NODELAY, "true");
+        }
+    }
+
+    private final Map<String, Map<String, StoredDocument>> databases = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final List<Change> changes = new ArrayList<>();
+    private final Map<String, Map<String, Object>> activeTasks = new ConcurrentHashMap<>();
+    private final Map<String, StoredAttachment> attachments = new ConcurrentHashMap<>();
+    private final JSON generator = JSON.defaultJSON();
+    private final JSONParser parser = JSONParser.defaultJSONParser();
+    private HttpServer server;
+    private ExecutorService executor;
+    private volatile long indexDelay;
+    private volatile boolean offline;
+    private volatile long latency;
+    private volatile boolean rangesIgnored;
+
+    public synchronized void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "stub-couchdb-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    dispatch(exchange);
+                } catch (RuntimeException e) {
+                    respond(exchange, 500, utf8("{\"error\":\"unknown_error\",\"reason\":" + generator.quote(String.valueOf(e)) + "}"));
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    @Nonnull
+    public String getHost() {
+        return server.getAddress().getHostString();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Time (in milliseconds) every view query takes, simulating an index build reported by {@code _active_tasks}.
+     * Views always return no rows, tagged with the current update sequence so unchanged results are revalidated with
+     * {@code 304 Not Modified}.
+     */
+    public void setIndexDelay(long indexDelay) {
+        this.indexDelay = indexDelay;
+    }
+
+    /**
+     * Answers every request with {@code 503 Service Unavailable} while offline, simulating a lost connection.
+     */
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+
+    /**
+     * Time (in milliseconds) every request waits before being handled, simulating a slow or distant node.
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Answers attachment requests with the whole attachment regardless of their {@code Range} header, like servers
+     * that do not support ranges.
+     */
+    public void setRangesIgnored(boolean rangesIgnored) {
+        this.rangesIgnored = rangesIgnored;
+    }
+
+    /**
+     * Stores a document, bypassing HTTP. Any revision in the document is replaced.
+     */
+    public void putDocument(@Nonnull String database, @Nonnull String id, @Nonnull String json) {
+        Map<String, Object> document = parser.parse(Map.class, json);
+        document.remove("_rev");
+        Map<String, StoredDocument> documents = database(database);
+        synchronized (documents) {
+            documents.remove(id);
+            store(database, documents, id, document);
+        }
+    }
+
+    private void dispatch(@Nonnull HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String[] path = exchange.getRequestURI().getRawPath().replaceAll("^/+|/+$", "").split("/", 2);
+
+        long delay = latency;
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        if (offline) {
+            respond(exchange, 503, UNAVAILABLE);
+        } else if (path[0].isEmpty()) {
+            respond(exchange, 200, WELCOME);
+        } else if (ACTIVE_TASKS.equals(path[0])) {
+            respond(exchange, 200, utf8(generator.forValue(new ArrayList<>(activeTasks.values()))));
+        } else if (path.length == 1) {
+            handleDatabase(exchange, method, path[0]);
+        } else if (BULK_DOCS.equals(path[1]) && "POST".equals(method)) {
+            handleBulkDocs(exchange, path[0]);
+        } else if (ALL_DOCS.equals(path[1]) && "GET".equals(method)) {
+            handleAllDocs(exchange, path[0]);
+        } else if (ALL_DOCS.equals(path[1]) && "POST".equals(method)) {
+            handleAllDocsByKeys(exchange, path[0]);
+        } else if (CHANGES.equals(path[1]) && "GET".equals(method)) {
+            handleChanges(exchange, path[0]);
+        } else if (path[1].contains(VIEW_INFIX) && "GET".equals(method)) {
+            handleView(exchange, path[0], path[1].substring(0, path[1].indexOf(VIEW_INFIX)));
+        } else if (isAttachment(path[1])) {
+            int slash = path[1].indexOf('/', path[1].startsWith(DESIGN_PREFIX) ? DESIGN_PREFIX.length() : 0);
+            handleAttachment(exchange, method, path[0], path[1].substring(0, slash), path[1].substring(slash + 1));
+        } else {
+            handleDocument(exchange, method, path[0], path[1]);
+        }
+    }
+
+    private static boolean isAttachment(@Nonnull String path) {
+        return path.indexOf('/', path.startsWith(DESIGN_PREFIX) ? DESIGN_PREFIX.length() : 0) > 0;
+    }
+
+    private void handleDatabase(@Nonnull HttpExchange exchange, @Nonnull String method, @Nonnull String name) throws IOException {
+        Map<String, StoredDocument> documents = databases.get(name);
+        if ("PUT".equals(method)) {
+            boolean created = databases.putIfAbsent(name, new ConcurrentHashMap<String, StoredDocument>()) == null;
+            respond(exchange, created ? 201 : 412, created ? OK : FILE_EXISTS);
+        } else if (documents == null) {
+            respond(exchange, 404, NOT_FOUND);
+        } else if ("POST".equals(method)) {
+            Map<String, Object> document = parser.parse(Map.class, read(exchange));
+            String id = document.get("_id") != null ? String.valueOf(document.get("_id")) : nextId();
+            respondToWrite(exchange, write(name, documents, id, document));
+        } else if ("DELETE".equals(method)) {
+            databases.remove(name);
+            respond(exchange, 200, OK);
+        } else {
+            respond(exchange, 200, utf8("{\"db_name\":\"" + name + "\",\"doc_count\":" + documents.size() +
+                ",\"update_seq\":" + sequence.get() + "}"));
+        }
+    }
+
+    private void handleDocument(@Nonnull HttpExchange exchange, @Nonnull String method, @Nonnull String name, @Nonnull String id) throws IOException {
+        Map<String, StoredDocument> documents = databases.get(name);
+        if (documents == null) {
+            respond(exchange, 404, NOT_FOUND);
+        } else if ("PUT".equals(method)) {
+            respondToWrite(exchange, write(name, documents, id, parser.parse(Map.class, read(exchange))));
+        } else {
+            StoredDocument document = documents.get(id);
+            if (document == null) {
+                respond(exchange, 404, NOT_FOUND);
+                return;
+            }
+
+            String etag = "\"" + document.revision + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+            } else {
+                respond(exchange, 200, document.json);
+            }
+        }
+    }
+
+    private void handleAttachment(@Nonnull HttpExchange exchange, @Nonnull String method, @Nonnull String name, @Nonnull String id, @Nonnull String attachmentId) throws IOException {
+        Map<String, StoredDocument> documents = databases.get(name);
+        String key = name + "/" + id + "/" + attachmentId;
+        if (documents == null) {
+            respond(exchange, 404, NOT_FOUND);
+        } else if ("PUT".equals(method)) {
+            byte[] content = readBytes(exchange);
+            String revision = query(exchange.getRequestURI().getRawQuery()).get("rev");
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("id", id);
+            synchronized (documents) {
+                StoredDocument existing = documents.get(id);
+                if (existing == null ? revision != null : !existing.revision.equals(revision)) {
+                    result.put("error", "conflict");
+                    result.put("reason", "Document update conflict.");
+                } else {
+                    String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                    attachments.put(key, new StoredAttachment(contentType != null ? contentType : "application/octet-stream", content));
+                    Map<String, Object> document = existing != null ? parser.parse(Map.class, new String(existing.json, StandardCharsets.UTF_8)) : new LinkedHashMap<String, Object>();
+                    result.put("ok", true);
+                    result.put("rev", store(name, documents, id, document).revision);
+                }
+            }
+            respondToWrite(exchange, result);
+        } else {
+            StoredAttachment attachment = attachments.get(key);
+            StoredDocument document = documents.get(id);
+            String revision = query(exchange.getRequestURI().getRawQuery()).get("rev");
+            // older revisions are not kept, as if the database had been compacted
+            if (attachment == null || document == null || (revision != null && !revision.equals(document.revision))) {
+                respond(exchange, 404, NOT_FOUND);
+                return;
+            }
+
+            // serves single byte ranges like CouchDB does for attachments stored uncompressed
+            int length = attachment.content.length;
+            int start = 0;
+            int end = length - 1;
+            int code = 200;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null && range.startsWith("bytes=") && !range.contains(",") && !rangesIgnored) {
+                String[] bounds = range.substring(6).split("-", 2);
+                start = Integer.parseInt(bounds[0].trim());
+                end = bounds[1].trim().isEmpty() ? length - 1 : Math.min(length - 1, Integer.parseInt(bounds[1].trim()));
+                if (start >= length) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + length);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + length);
+                code = 206;
+            }
+            exchange.getResponseHeaders().set("Content-Type", attachment.contentType);
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            exchange.sendResponseHeaders(code, end - start + 1);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(attachment.content, start, end - start + 1);
+            }
+        }
+    }
+
+    private void handleView(@Nonnull HttpExchange exchange, @Nonnull String name, @Nonnull String designDocumentId) throws IOException {
+        Map<String, StoredDocument> documents = databases.get(name);
+        if (documents == null || !documents.containsKey(designDocumentId)) {
+            respond(exchange, 404, NOT_FOUND);
+            return;
+        }
+
+        long delay = indexDelay;
+        if (delay > 0) {
+            String key = name + "/" + designDocumentId;
+            Map<String, Object> task = new LinkedHashMap<>();
+            task.put("type", "indexer");
+            task.put("database", name);
+            task.put("design_document", designDocumentId);
+            task.put("changes_done", 1);
+            task.put("total_changes", 2);
+            activeTasks.put(key, task);
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                activeTasks.remove(key);
+            }
+        }
+        String etag = "\"" + sequence.get() + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+        } else {
+            respond(exchange, 200, utf8("{\"total_rows\":0,\"offset\":0,\"rows\":[]}"));
+        }
+    }
+
+    private void handleBulkDocs(@Nonnull HttpExchange exchange, @Nonnull String name) throws IOException {
+        Map<String, StoredDocument> documents = databases.get(name);
+        if (documents == null) {
+            respond(exchange, 404, NOT_FOUND);
+            return;
+        }
+
+        Map<String, Object> request = parser.parse(Map.class, read(exchange));
+        List<Object> results = new ArrayList<>();
+        for (Object o : (List<?>) request.get("docs")) {
+            Map<String, Object> document = (Map<String, Object>) o;
+            String id = document.get("_id") != null ? String.valueOf(document.get("_id")) : nextId();
+            results.add(write(name, documents, id, document));
+        }
+        respond(exchange, 201, utf8(generator.forValue(results)));
+    }
+
+    private void handleAllDocs(@Nonnull HttpExchange exchange, @Nonnull String name) throws IOException {
+        Map<String, StoredDocument> documents = databases.get(name);
+        if (documents == null) {
+            respond(exchange, 404, NOT_FOUND);
+            return;
+        }
+
+        Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+        boolean descending = Boolean.parseBoolean(query.get("descending"));
+        boolean includeDocs = Boolean.parseBoolean(query.get("include_docs"));
+        // keys are JSON encoded; svenson only parses objects and arrays at the top level
+        String startKey = query.containsKey("startkey") ? String.valueOf(parser.parse(List.class, "[" + query.get("startkey") + "]").get(0)) : null;
+        String endKey = query.containsKey("endkey") ? String.valueOf(parser.parse(List.class, "[" + query.get("endkey") + "]").get(0)) : null;
+        int skip = query.containsKey("skip") ? Integer.parseInt(query.get("skip")) : 0;
+        int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : Integer.MAX_VALUE;
+
+        NavigableMap<String, StoredDocument> sorted = new TreeMap<>(documents);
+        if (descending) {
+            sorted = sorted.descendingMap();
+        }
+        if (startKey != null) {
+            sorted = sorted.tailMap(startKey, true);
+        }
+        if (endKey != null) {
+            sorted = sorted.headMap(endKey, true);
+        }
+
+        StringBuilder body = new StringBuilder("{\"total_rows\":").append(documents.size())
+            .append(",\"offset\":0,\"rows\":[");
+        int count = 0;
+        for (Map.Entry<String, StoredDocument> e : sorted.entrySet()) {
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            if (count == limit) {
+                break;
+            }
+            if (count++ > 0) {
+                body.append(',');
+            }
+            String id = generator.quote(e.getKey());
+            body.append("{\"id\":").append(id).append(",\"key\":").append(id)
+                .append(",\"value\":{\"rev\":\"").append(e.getValue().revision).append("\"}");
+            if (includeDocs) {
+                body.append(",\"doc\":").append(new String(e.getValue().json, StandardCharsets.UTF_8));
+            }
+            body.append('}');
+        }
+        respond(exchange, 200, utf8(body.append("]}").toString()));
+    }
+
+    private void handleAllDocsByKeys(@Nonnull HttpExchange exchange, @Nonnull String name) throws IOException {
+        Map<String, StoredDocument> documents = databases.get(name);
+        if (documents == null) {
+            respond(exchange, 404, NOT_FOUND);
+            return;
+        }
+
+        boolean includeDocs = Boolean.parseBoolean(query(exchange.getRequestURI().getRawQuery()).get("include_docs"));
+        Map<String, Object> request = parser.parse(Map.class, read(exchange));
+        StringBuilder body = new StringBuilder("{\"total_rows\":").append(documents.size())
+            .append(",\"offset\":0,\"rows\":[");
+        int count = 0;
+        for (Object key : (List<?>) request.get("keys")) {
+            if (count++ > 0) {
+                body.append(',');
+            }
+            String id = generator.quote(String.valueOf(key));
+            StoredDocument document = documents.get(String.valueOf(key));
+            if (document == null) {
+                body.append("{\"key\":").append(id).append(",\"error\":\"not_found\"}");
+                continue;
+            }
+            body.append("{\"id\":").append(id).append(",\"key\":").append(id)
+                .append(",\"value\":{\"rev\":\"").append(document.revision).append("\"}");
+            if (includeDocs) {
+                body.append(",\"doc\":").append(new String(document.json, StandardCharsets.UTF_8));
+            }
+            body.append('}');
+        }
+        respond(exchange, 200, utf8(body.append("]}").toString()));
+    }
+
+    private void handleChanges(@Nonnull HttpExchange exchange, @Nonnull String name) throws IOException {
+        if (!databases.containsKey(name)) {
+            respond(exchange, 404, NOT_FOUND);
+            return;
+        }
+
+        Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+        String feed = query.containsKey("feed") ? query.get("feed") : "normal";
+        long since = "now".equals(query.get("since")) ? sequence.get() : query.containsKey("since") ? Long.parseLong(query.get("since")) : 0L;
+        long timeout = query.containsKey("timeout") ? Long.parseLong(query.get("timeout")) : 60000L;
+        long heartbeat = query.containsKey("heartbeat") ? Long.parseLong(query.get("heartbeat")) : 0L;
+        int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : Integer.MAX_VALUE;
+        Map<String, StoredDocument> documents = Boolean.parseBoolean(query.get("include_docs")) ? databases.get(name) : null;
+
+        if ("continuous".equals(feed)) {
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                while (true) {
+                    List<Change> pending = awaitChanges(name, since, heartbeat > 0 ? heartbeat : timeout, limit);
+                    if (pending.isEmpty()) {
+                        if (heartbeat <= 0) {
+                            out.write(utf8("{\"last_seq\":" + since + "}\n"));
+                            return;
+                        }
+                        out.write('\n');
+                    }
+                    for (Change change : pending) {
+                        out.write(utf8(change.toJson(generator, documents) + "\n"));
+                        since = change.sequence;
+                    }
+                    out.flush();
+                }
+            }
+        }
+
+        List<Change> pending = "longpoll".equals(feed) ? awaitChanges(name, since, timeout, limit) : changesSince(name, since, limit);
+        StringBuilder body = new StringBuilder("{\"results\":[");
+        for (int i = 0; i < pending.size(); i++) {
+            body.append(i > 0 ? "," : "").append(pending.get(i).toJson(generator, documents));
+        }
+        long lastSequence = pending.isEmpty() ? since : pending.get(pending.size() - 1).sequence;
+        respond(exchange, 200, utf8(body.append("],\"last_seq\":").append(lastSequence).append('}').toString()));
+    }
+
+    @Nonnull
+    private List<Change> awaitChanges(@Nonnull String name, long since, long timeout, int limit) throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (changes) {
+            List<Change> pending = changesSince(name, since, limit);
+            for (long wait = timeout; pending.isEmpty() && wait > 0; wait = deadline - System.currentTimeMillis()) {
+                try {
+                    changes.wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+                pending = changesSince(name, since, limit);
+            }
+            return pending;
+        }
+    }
+
+    @Nonnull
+    private List<Change> changesSince(@Nonnull String name, long since, int limit) {
+        List<Change> pending = new ArrayList<>();
+        synchronized (changes) {
+            for (Change change : changes) {
+                if (pending.size() == limit) {
+                    break;
+                }
+                if (change.sequence > since && change.database.equals(name)) {
+                    pending.add(change);
+                }
+            }
+        }
+        return pending;
+    }
+
+    @Nonnull
+    private Map<String, Object> write(@Nonnull String name, @Nonnull Map<String, StoredDocument> documents, @Nonnull String id, @Nonnull Map<String, Object> document) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("id", id);
+        synchronized (documents) {
+            StoredDocument existing = documents.get(id);
+            Object revision = document.get("_rev");
+            if (existing == null ? revision != null : !existing.revision.equals(revision)) {
+                result.put("error", "conflict");
+                result.put("reason", "Document update conflict.");
+            } else {
+                result.put("ok", true);
+                result.put("rev", store(name, documents, id, document).revision);
+            }
+        }
+        return result;
+    }
+
+    @Nonnull
+    private StoredDocument store(@Nonnull String name, @Nonnull Map<String, StoredDocument> documents, @Nonnull String id, @Nonnull Map<String, Object> document) {
+        StoredDocument existing = documents.get(id);
+        int generation = existing != null ? Integer.parseInt(existing.revision.substring(0, existing.revision.indexOf('-'))) : 0;
+        long seq = sequence.incrementAndGet();
+        String revision = (generation + 1) + "-" + Long.toHexString(seq);
+
+        Map<String, Object> stored = new LinkedHashMap<>();
+        stored.put("_id", id);
+        stored.put("_rev", revision);
+        for (Map.Entry<String, Object> e : document.entrySet()) {
+            if (!"_id".equals(e.getKey()) && !"_rev".equals(e.getKey())) {
+                stored.put(e.getKey(), e.getValue());
+            }
+        }
+
+        StoredDocument storedDocument = new StoredDocument(revision, utf8(generator.forValue(stored)));
+        boolean deleted = Boolean.TRUE.equals(document.get("_deleted"));
+        if (deleted) {
+            documents.remove(id);
+        } else {
+            documents.put(id, storedDocument);
+        }
+        synchronized (changes) {
+            changes.add(new Change(name, seq, id, revision, deleted));
+            changes.notifyAll();
+        }
+        return storedDocument;
+    }
+
+    private void respondToWrite(@Nonnull HttpExchange exchange, @Nonnull Map<String, Object> result) throws IOException {
+        respond(exchange, result.containsKey("error") ? 409 : 201, utf8(generator.forValue(result)));
+    }
+
+    @Nonnull
+    private String nextId() {
+        return "stub-" + Long.toHexString(sequence.incrementAndGet());
+    }
+
+    private static void respond(@Nonnull HttpExchange exchange, int code, @Nonnull byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        // compresses like a reverse proxy in front of CouchDB would
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains(GZIP) && body.length >= MIN_GZIP_SIZE) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(body);
+            }
+            body = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", GZIP);
+        }
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Nonnull
+    private static String read(@Nonnull HttpExchange exchange) throws IOException {
+        return new String(readBytes(exchange), StandardCharsets.UTF_8);
+    }
+
+    @Nonnull
+    private static byte[] readBytes(@Nonnull HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        if (GZIP.equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    @Nonnull
+    private static Map<String, String> query(String rawQuery) throws IOException {
+        Map<String, String> query = new LinkedHashMap<>();
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                int eq = parameter.indexOf('=');
+                if (eq > 0) {
+                    query.put(parameter.substring(0, eq), URLDecoder.decode(parameter.substring(eq + 1), "UTF-8"));
+                }
+            }
+        }
+        return query;
+    }
+
+    @Nonnull
+    private Map<String, StoredDocument> database(@Nonnull String name) {
+        Map<String, StoredDocument> documents = databases.get(name);
+        if (documents == null) {
+            databases.putIfAbsent(name, new ConcurrentHashMap<String, StoredDocument>());
+            documents = databases.get(name);
+        }
+        return documents;
+    }
+
+    @Nonnull
+    private static byte[] utf8(@Nonnull String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class StoredDocument {
+        private final String revision;
+        private final byte[] json;
+
+        private StoredDocument(@Nonnull String revision, @Nonnull byte[] json) {
+            this.revision = revision;
+            this.json = json;
+        }
+    }
+
+    private static final class StoredAttachment {
+        private final String contentType;
+        private final byte[] content;
+
+        private StoredAttachment(@Nonnull String contentType, @Nonnull byte[] content) {
+            this.contentType = contentType;
+            this.content = content;
+        }
+    }
+
+    private static final class Change {
+        private final String database;
+        private final long sequence;
+        private final String id;
+        private final String revision;
+        private final boolean deleted;
+
+        private Change(@Nonnull String database, long sequence, @Nonnull String id, @Nonnull String revision, boolean deleted) {
+            this.database = database;
+            this.sequence = sequence;
+            this.id = id;
+            this.revision = revision;
+            this.deleted = deleted;
+        }
+
+        /**
+         * @param documents documents of the database if the change includes the current document, {@code null} otherwise
+         */
+        @Nonnull
+        private String toJson(@Nonnull JSON generator, @Nullable Map<String, StoredDocument> documents) {
+            StringBuilder json = new StringBuilder("{\"seq\":").append(sequence).append(",\"id\":").append(generator.quote(id))
+                .append(",\"changes\":[{\"rev\":\"").append(revision).append("\"}]");
+            if (deleted) {
+                json.append(",\"deleted\":true");
+            }
+            if (documents != null) {
+                StoredDocument document = documents.get(id);
+                json.append(",\"doc\":").append(document != null ? new String(document.json, StandardCharsets.UTF_8) :
+                    "{\"_id\":" + generator.quote(id) + ",\"_rev\":\"" + revision + "\",\"_deleted\":true}");
+            }
+            return json.append('}').toString();
+        }
+    }
+}